@@ -35,6 +35,11 @@ public class Config {
     // true = disabled, false = enabled
     public static boolean configModifyDisabled = false;
 
+    // the zone where this vproxy instance is deployed, set by the `zone` launch argument
+    // server groups with zone awareness prefer the servers in this zone
+    // null means not set
+    public static volatile String zone = null;
+
     // -Deploy=xxx
     public static final String appClass;
 
@@ -3,6 +3,7 @@ package vproxy.app;
 import vproxy.component.elgroup.EventLoopGroup;
 import vproxy.component.exception.AlreadyExistException;
 import vproxy.component.exception.NotFoundException;
+import vproxy.selector.SelectorType;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -17,9 +18,13 @@ public class EventLoopGroupHolder {
     }
 
     public void add(String alias) throws AlreadyExistException {
+        add(alias, SelectorType.jdk);
+    }
+
+    public void add(String alias, SelectorType selectorType) throws AlreadyExistException {
         if (map.containsKey(alias))
             throw new AlreadyExistException();
-        EventLoopGroup group = new EventLoopGroup(alias);
+        EventLoopGroup group = new EventLoopGroup(alias, selectorType);
         map.put(alias, group);
     }
 
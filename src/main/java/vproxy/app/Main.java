@@ -40,6 +40,9 @@ public class Main {
         "\n\t\tpidFile                                      Set the pid file path" +
         "\n" +
         "\n\t\tnoLoadLast                                   Do not load last config on start up" +
+        "\n" +
+        "\n\t\tzone ${zone}                                 Set the zone of this instance, server groups" +
+        "\n\t\t                                             with zone-aware prefer servers in the zone" +
         "";
 
     private static void beforeStart() {
@@ -218,6 +221,16 @@ public class Main {
                     ++i;
                     pidFilePath = next;
                     break;
+                case "zone":
+                    if (next == null) {
+                        System.err.println("zone name should be specified");
+                        System.exit(1);
+                        return;
+                    }
+                    // handle zone, so increase the cursor
+                    ++i;
+                    Config.zone = next;
+                    break;
                 case "noLoadLast":
                     loaded = true; // set this flag to true, then last config won't be loaded
                     break;
@@ -615,13 +615,17 @@ public class Command {
                                 Socks5ServerHandle.checkCreateSocks5Server(cmd);
                             } else if (cmd.resource.type == ResourceType.secg) {
                                 SecurityGroupHandle.checkCreateSecurityGroup(cmd);
-                            } // the other two does not need check
+                            } else if (cmd.resource.type == ResourceType.elg) {
+                                EventLoopGroupHandle.checkCreateEventLoopGroup(cmd);
+                            } // the other one does not need check
                         }
                         if (cmd.action == Action.u) {
                             if (cmd.resource.type == ResourceType.tl) {
                                 TcpLBHandle.checkUpdateTcpLB(cmd);
                             } else if (cmd.resource.type == ResourceType.socks5) {
                                 Socks5ServerHandle.checkUpdateSocks5Server(cmd);
+                            } else if (cmd.resource.type == ResourceType.elg) {
+                                EventLoopGroupHandle.checkUpdateEventLoopGroup(cmd);
                             } else if (cmd.resource.type != ResourceType.secg)
                                 throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                         }
@@ -785,24 +789,34 @@ public class Command {
             case elg: // top level
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elgNames = EventLoopGroupHandle.names();
                         return new CmdResult(elgNames, elgNames, utilJoinList(elgNames));
+                    case L:
+                        List<EventLoopGroupHandle.EventLoopGroupRef> elgRefs = EventLoopGroupHandle.details();
+                        List<String> elgRefStrList = elgRefs.stream().map(EventLoopGroupHandle.EventLoopGroupRef::toString).collect(Collectors.toList());
+                        return new CmdResult(elgRefs, elgRefStrList, utilJoinList(elgRefStrList));
                     case a:
                         EventLoopGroupHandle.add(this);
                         return new CmdResult();
+                    case u:
+                        EventLoopGroupHandle.update(this);
+                        return new CmdResult();
                     case r:
                         EventLoopGroupHandle.preCheck(this);
                     case R:
                         EventLoopGroupHandle.forceRemvoe(this);
                         return new CmdResult();
                 }
+                throw new Exception("cannot run " + action.fullname + " on " + resource.type.fullname);
             case el: // can only be retrieved from event loop group
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elNames = EventLoopHandle.names(targetResource);
                         return new CmdResult(elNames, elNames, utilJoinList(elNames));
+                    case L:
+                        List<EventLoopHandle.EventLoopRef> elRefs = EventLoopHandle.details(targetResource);
+                        List<String> elRefStrList = elRefs.stream().map(EventLoopHandle.EventLoopRef::toString).collect(Collectors.toList());
+                        return new CmdResult(elRefs, elRefStrList, utilJoinList(elRefStrList));
                     case a:
                         EventLoopHandle.add(this);
                         return new CmdResult();
@@ -6,6 +6,12 @@ public enum Flag {
 
     allownonbackend("allow-non-backend"),
     denynonbackend("deny-non-backend"),
+
+    repeatread("repeat-read"),
+    norepeatread("no-repeat-read"),
+
+    zoneaware("zone-aware"),
+    nozoneaware("no-zone-aware"),
     ;
     public final String fullname;
 
@@ -382,6 +382,9 @@ public class HelpCommand {
     public enum ParamMan {
         acceptorelg("acceptor-elg", "aelg", "acceptor event loop group"),
         eventloopgroup("event-loop-group", "elg", "event loop group"),
+        busypoll("busy-poll", null, "max busy poll time in microseconds before the event loop blocks, 0 means disabled"),
+        selector("selector", null, "type of the selector used by event loops: jdk or array"),
+        maxpooledmemory("max-pooled-memory", null, "max bytes of direct memory kept in the buffer pool of each event loop"),
         address("address", "addr", "ip address -> ip:port"),
         servergroups("server-groups", "sgs", "server groups"),
         inbuffersize("in-buffer-size", null, "in buffer size"),
@@ -392,6 +395,7 @@ public class HelpCommand {
         up("up", null, "health check up times"),
         down("down", null, "health check down times"),
         method("method", "meth", "method to retrieve a server"),
+        slowstart("slow-start", null, "slow start window of servers turning UP"),
         weight("weight", "w", "weight"),
         dft("default", null, "enum: allow or deny"),
         network("network", "net", "network: $network/$mask"),
@@ -420,6 +424,10 @@ public class HelpCommand {
         noipv6("noipv6", null, "do not use ipv6 address. Use the flag with param: address"),
         allownonbackend("allow-non-backend", null, "allow to access non backend endpoints"),
         denynonbackend("deny-non-backend", null, "only able to access backend endpoints"),
+        repeatread("repeat-read", null, "forward data between the two connections of a session in the same readable event when possible"),
+        norepeatread("no-repeat-read", null, "forward data driven by the selector events"),
+        zoneaware("zone-aware", null, "prefer the servers in the zone of this vproxy instance"),
+        nozoneaware("no-zone-aware", null, "choose from servers in all zones"),
         ;
         public final String flag;
         public final String shortVer;
@@ -442,9 +450,13 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.servergroups, "used as the backend servers")
                     , new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "16384 (bytes)")
-                    , new ResActParamMan(ParamMan.protocol, "the protocol used by tcp-lb. available options: tcp, h2, or your customized protocol. See doc for more info", "tcp")
+                    , new ResActParamMan(ParamMan.protocol, "the protocol used by tcp-lb. available options: tcp, h2, http/1.x, or your customized protocol. See doc for more info", "tcp")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
                 ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.repeatread, "keep reading and forwarding in the same readable event while the peer can write everything out, only works with protocol tcp", false),
+                    new ResActFlagMan(FlagMan.norepeatread, "forward data driven by the selector events", true)
+                ),
                 Collections.singletonList(
                     new Tuple<>(
                         "add tcp-lb lb0 acceptor-elg elg0 event-loop-group elg0 address 127.0.0.1:18080 server-groups sgs0 in-buffer-size 16384 out-buffer-size 16384",
@@ -473,6 +485,10 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "not changed")
                     , new ResActParamMan(ParamMan.securitygroup, "the security group", "not changed")
                 ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.repeatread, "keep reading and forwarding in the same readable event while the peer can write everything out, only works with protocol tcp", false),
+                    new ResActFlagMan(FlagMan.norepeatread, "forward data driven by the selector events", false)
+                ),
                 Collections.singletonList(
                     new Tuple<>(
                         "update tcp-lb lb0 in-buffer-size 32768 out-buffer-size 32768",
@@ -553,23 +569,54 @@ public class HelpCommand {
         eventloopgroup("event-loop-group", "elg", "a group of event loops",
             Arrays.asList(
                 new ResActMan(ActMan.add, "specify a name and create a event loop group",
-                    Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
+                        new ResActParamMan(ParamMan.busypoll, "the event loops spin on the selector for at most this time (adjusted by the event inter-arrival time) before blocking, which saves thread wake-ups for latency sensitive traffic", "0"),
+                        new ResActParamMan(ParamMan.selector, "jdk: the jdk selector; array: the jdk selector with an array-backed selected-key set, falls back to jdk if not supported by the runtime. cannot be modified after creation", "jdk"),
+                        new ResActParamMan(ParamMan.maxpooledmemory, "connection buffers are allocated from a size-classed pool of each event loop, released buffers exceeding this size are freed", "33554432")
+                    ),
+                    Arrays.asList(
                         new Tuple<>(
                             "add event-loop-group elg0",
                             "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "add event-loop-group elg1 busy-poll 50",
+                            "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "add event-loop-group elg2 selector array",
+                            "\"OK\""
                         )
                     )),
                 new ResActMan(ActMan.list, "retrieve names of all event loop groups",
                     Collections.emptyList(),
-                    Arrays.asList(
+                    Collections.singletonList(
                         new Tuple<>(
                             "list event-loop-group",
                             "1) \"elg0\""
-                        ),
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "retrieve detailed info of all event loop groups",
+                    Collections.emptyList(),
+                    Collections.singletonList(
                         new Tuple<>(
                             "list-detail event-loop-group",
-                            "1) \"elg0\""
+                            "1) \"elg0 -> selector jdk busy-poll 0 max-pooled-memory 33554432\""
+                        )
+                    )),
+                new ResActMan(ActMan.update, "update busy poll and buffer pool config of an event loop group",
+                    Arrays.asList(
+                        new ResActParamMan(ParamMan.busypoll, "max busy poll time in microseconds", "not changed"),
+                        new ResActParamMan(ParamMan.maxpooledmemory, "max bytes pooled by each event loop", "not changed")
+                    ),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "update event-loop-group elg0 busy-poll 100",
+                            "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "update event-loop-group elg0 max-pooled-memory 67108864",
+                            "\"OK\""
                         )
                     )),
                 new ResActMan(ActMan.remove, "Remove a event loop group",
@@ -620,9 +667,14 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.period, "do check every `${period}` milliseconds"),
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "wrr"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `hash`, `los`, `p2c-ewma`", "wrr"),
+                        new ResActParamMan(ParamMan.slowstart, "the weight of a server turning UP ramps from 1/10 to its weight in `${slow-start}` milliseconds, 0 means disabled", "0"),
                         new ResActParamMan(ParamMan.eventloopgroup, "choose a event-loop-group for the server group. health check operations will be performed on the event loop group", Application.DEFAULT_CONTROL_EVENT_LOOP_GROUP_NAME)
                     ),
+                    Arrays.asList(
+                        new ResActFlagMan(FlagMan.zoneaware, "choose from the servers in the zone set by the `zone` launch argument, use servers in other zones only when the local servers are not enough", false),
+                        new ResActFlagMan(FlagMan.nozoneaware, "choose from servers in all zones", true)
+                    ),
                     Collections.singletonList(
                         new Tuple<>(
                             "add server-group sg0 timeout 500 period 800 up 4 down 5 method wrr elg elg0",
@@ -673,9 +725,14 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.period, "do check every `${period}` milliseconds", "not changed"),
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times", "not changed"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times", "not changed"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "not changed"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `hash`, `los`, `p2c-ewma`", "not changed"),
+                        new ResActParamMan(ParamMan.slowstart, "the weight of a server turning UP ramps from 1/10 to its weight in `${slow-start}` milliseconds, 0 means disabled", "not changed"),
                         new ResActParamMan(ParamMan.weight, "the weight of group in this server-groups resource", "not changed")
                     ),
+                    Arrays.asList(
+                        new ResActFlagMan(FlagMan.zoneaware, "choose from the servers in the zone set by the `zone` launch argument, use servers in other zones only when the local servers are not enough", false),
+                        new ResActFlagMan(FlagMan.nozoneaware, "choose from servers in all zones", false)
+                    ),
                     Arrays.asList(
                         new Tuple<>(
                             "update server-group sg0 timeout 500 period 600 up 3 down 2",
@@ -685,6 +742,14 @@ public class HelpCommand {
                             "update server-group sg0 method wlc",
                             "\"OK\""
                         ),
+                        new Tuple<>(
+                            "update server-group sg0 slow-start 30000",
+                            "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "update server-group sg0 zone-aware",
+                            "\"OK\""
+                        ),
                         new Tuple<>(
                             "update server-group sg0 in server-groups sgs0 weight 5",
                             "\"OK\""
@@ -719,14 +784,18 @@ public class HelpCommand {
                     )),
                 new ResActMan(ActMan.list, "retrieve names of all event loops in a event loop group",
                     Collections.emptyList(),
-                    Arrays.asList(
+                    Collections.singletonList(
                         new Tuple<>(
                             "list event-loop in event-loop-group elg0",
                             "1) \"el0\""
-                        ),
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "retrieve statistics of all event loops in a event loop group",
+                    Collections.emptyList(),
+                    Collections.singletonList(
                         new Tuple<>(
                             "list-detail event-loop in event-loop-group elg0",
-                            "1) \"el0\""
+                            "1) \"el0 -> tasks 1024 wakeups 12 suppressed-wakeups 230 busy-poll-hits 0 busy-poll-misses 0 pooled 32768 in-use 65536 allocated 98304 leaks 0\""
                         )
                     )),
                 new ResActMan(ActMan.removefrom, "remove a event loop from event loop group",
@@ -743,7 +812,8 @@ public class HelpCommand {
                 new ResActMan(ActMan.addto, "specify name, remote ip:port, weight, and attach the server into the server group",
                     Arrays.asList(
                         new ResActParamMan(ParamMan.address, "remote address, ip:port"),
-                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc and source algorithm")
+                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc, source, hash, los and p2c-ewma algorithm"),
+                        new ResActParamMan(ParamMan.zone, "the zone where the server is deployed, used by server groups with zone-aware", "not set")
                     ),
                     Collections.singletonList(
                         new Tuple<>(
@@ -767,12 +837,19 @@ public class HelpCommand {
                             "1) \"svr0 -> connect-to 127.0.0.1:6379 weight 10 currently DOWN\""
                         )
                     )),
-                new ResActMan(ActMan.update, "change weight of the server",
-                    Collections.emptyList(),
-                    Collections.singletonList(
+                new ResActMan(ActMan.update, "change weight or zone of the server",
+                    Arrays.asList(
+                        new ResActParamMan(ParamMan.weight, "weight of the server", "not changed"),
+                        new ResActParamMan(ParamMan.zone, "the zone where the server is deployed", "not changed")
+                    ),
+                    Arrays.asList(
                         new Tuple<>(
                             "update server svr0 in server-group sg0 weight 11",
                             "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "update server svr0 in server-group sg0 zone z1",
+                            "\"OK\""
                         )
                     )),
                 new ResActMan(ActMan.removefrom, "Remove a server from a server group",
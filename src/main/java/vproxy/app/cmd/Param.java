@@ -7,11 +7,15 @@ public enum Param {
     down("down"),
     elg("event-loop-group"),
     aelg("acceptor-elg"),
+    busypoll("busy-poll"),
+    selector("selector"),
+    maxpooledmemory("max-pooled-memory"),
     addr("address"),
     sgs("server-groups"),
     inbuffersize("in-buffer-size"),
     outbuffersize("out-buffer-size"),
     meth("method"),
+    slowstart("slow-start"),
     w("weight"),
     secg("security-group"),
     secgrdefault("default"),
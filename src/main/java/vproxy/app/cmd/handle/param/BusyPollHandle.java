@@ -0,0 +1,24 @@
+package vproxy.app.cmd.handle.param;
+
+import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Param;
+
+public class BusyPollHandle {
+    private BusyPollHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        try {
+            get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.busypoll.fullname);
+        }
+    }
+
+    public static int get(Command cmd) throws Exception {
+        int busyPoll = Integer.parseInt(cmd.args.get(Param.busypoll));
+        if (busyPoll < 0)
+            throw new Exception("invalid busy poll budget");
+        return busyPoll;
+    }
+}
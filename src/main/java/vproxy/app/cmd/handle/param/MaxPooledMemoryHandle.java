@@ -0,0 +1,24 @@
+package vproxy.app.cmd.handle.param;
+
+import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Param;
+
+public class MaxPooledMemoryHandle {
+    private MaxPooledMemoryHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        try {
+            get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.maxpooledmemory.fullname);
+        }
+    }
+
+    public static long get(Command cmd) throws Exception {
+        long maxPooledMemory = Long.parseLong(cmd.args.get(Param.maxpooledmemory));
+        if (maxPooledMemory < 0)
+            throw new Exception("invalid max pooled memory");
+        return maxPooledMemory;
+    }
+}
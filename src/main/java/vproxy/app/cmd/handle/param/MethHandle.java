@@ -11,7 +11,7 @@ public class MethHandle {
     public static Method get(Command cmd) throws Exception {
         String meth = cmd.args.get(Param.meth);
         try {
-            return Method.valueOf(meth);
+            return Method.of(meth);
         } catch (IllegalArgumentException e) {
             throw new Exception("invalid " + Param.meth.fullname);
         }
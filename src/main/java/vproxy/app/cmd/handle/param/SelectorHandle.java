@@ -0,0 +1,19 @@
+package vproxy.app.cmd.handle.param;
+
+import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Param;
+import vproxy.selector.SelectorType;
+
+public class SelectorHandle {
+    private SelectorHandle() {
+    }
+
+    public static SelectorType get(Command cmd) throws Exception {
+        String selector = cmd.args.get(Param.selector);
+        try {
+            return SelectorType.valueOf(selector);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.selector.fullname);
+        }
+    }
+}
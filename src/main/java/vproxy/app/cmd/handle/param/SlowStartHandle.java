@@ -0,0 +1,24 @@
+package vproxy.app.cmd.handle.param;
+
+import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Param;
+
+public class SlowStartHandle {
+    private SlowStartHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int slowStart;
+        try {
+            slowStart = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.slowstart.fullname);
+        }
+        if (slowStart < 0)
+            throw new Exception("invalid " + Param.slowstart.fullname);
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.slowstart));
+    }
+}
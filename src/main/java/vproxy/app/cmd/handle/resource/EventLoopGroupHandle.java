@@ -2,13 +2,19 @@ package vproxy.app.cmd.handle.resource;
 
 import vproxy.app.Application;
 import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Param;
 import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
+import vproxy.app.cmd.handle.param.BusyPollHandle;
+import vproxy.app.cmd.handle.param.MaxPooledMemoryHandle;
+import vproxy.app.cmd.handle.param.SelectorHandle;
 import vproxy.component.app.Socks5Server;
 import vproxy.component.app.TcpLB;
 import vproxy.component.elgroup.EventLoopGroup;
 import vproxy.component.svrgroup.ServerGroup;
+import vproxy.selector.SelectorType;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class EventLoopGroupHandle {
@@ -20,6 +26,24 @@ public class EventLoopGroupHandle {
             throw new Exception(eventLoopGroup.type.fullname + " is on top level");
     }
 
+    public static void checkCreateEventLoopGroup(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.busypoll))
+            BusyPollHandle.check(cmd);
+        if (cmd.args.containsKey(Param.selector))
+            SelectorHandle.get(cmd);
+        if (cmd.args.containsKey(Param.maxpooledmemory))
+            MaxPooledMemoryHandle.check(cmd);
+    }
+
+    public static void checkUpdateEventLoopGroup(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.busypoll))
+            BusyPollHandle.check(cmd);
+        if (cmd.args.containsKey(Param.selector))
+            throw new Exception("cannot modify " + Param.selector.fullname + " of an existing " + ResourceType.elg.fullname);
+        if (cmd.args.containsKey(Param.maxpooledmemory))
+            MaxPooledMemoryHandle.check(cmd);
+    }
+
     public static EventLoopGroup get(Resource resource) throws Exception {
         return get(resource.alias);
     }
@@ -32,8 +56,36 @@ public class EventLoopGroupHandle {
         return Application.get().eventLoopGroupHolder.names();
     }
 
+    public static List<EventLoopGroupRef> details() throws Exception {
+        List<EventLoopGroupRef> result = new LinkedList<>();
+        for (String name : names()) {
+            result.add(new EventLoopGroupRef(get(name)));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
-        Application.get().eventLoopGroupHolder.add(cmd.resource.alias);
+        SelectorType selectorType = SelectorType.jdk;
+        if (cmd.args.containsKey(Param.selector)) {
+            selectorType = SelectorHandle.get(cmd);
+        }
+        Application.get().eventLoopGroupHolder.add(cmd.resource.alias, selectorType);
+        if (cmd.args.containsKey(Param.busypoll)) {
+            get(cmd.resource).setBusyPoll(BusyPollHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.maxpooledmemory)) {
+            get(cmd.resource).setMaxPooledMemory(MaxPooledMemoryHandle.get(cmd));
+        }
+    }
+
+    public static void update(Command cmd) throws Exception {
+        EventLoopGroup g = get(cmd.resource);
+        if (cmd.args.containsKey(Param.busypoll)) {
+            g.setBusyPoll(BusyPollHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.maxpooledmemory)) {
+            g.setMaxPooledMemory(MaxPooledMemoryHandle.get(cmd));
+        }
     }
 
     public static void preCheck(Command cmd) throws Exception {
@@ -68,4 +120,18 @@ public class EventLoopGroupHandle {
         String toRemoveName = cmd.resource.alias;
         Application.get().eventLoopGroupHolder.removeAndClose(toRemoveName);
     }
+
+    public static class EventLoopGroupRef {
+        public final EventLoopGroup elg;
+
+        public EventLoopGroupRef(EventLoopGroup elg) {
+            this.elg = elg;
+        }
+
+        @Override
+        public String toString() {
+            return elg.alias + " -> selector " + elg.selectorType + " busy-poll " + elg.getBusyPoll()
+                + " max-pooled-memory " + elg.getMaxPooledMemory();
+        }
+    }
 }
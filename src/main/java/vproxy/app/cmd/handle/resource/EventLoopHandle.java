@@ -6,7 +6,10 @@ import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
 import vproxy.component.elgroup.EventLoopGroup;
 import vproxy.component.elgroup.EventLoopWrapper;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.ringbuffer.DirectBufferPool;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class EventLoopHandle {
@@ -31,6 +34,15 @@ public class EventLoopHandle {
         return g.names();
     }
 
+    public static List<EventLoopRef> details(Resource targetResource) throws Exception {
+        EventLoopGroup g = EventLoopGroupHandle.get(targetResource);
+        List<EventLoopRef> result = new LinkedList<>();
+        for (EventLoopWrapper w : g.list()) {
+            result.add(new EventLoopRef(w));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         if (Application.isDefaultEventLoopGroupName(g.alias))
@@ -44,4 +56,27 @@ public class EventLoopHandle {
             throw new Exception("cannot modify the default event loop group " + g.alias);
         g.remove(cmd.resource.alias);
     }
+
+    public static class EventLoopRef {
+        public final EventLoopWrapper el;
+
+        public EventLoopRef(EventLoopWrapper el) {
+            this.el = el;
+        }
+
+        @Override
+        public String toString() {
+            SelectorEventLoop loop = el.getSelectorEventLoop();
+            DirectBufferPool pool = loop.getBufferPool();
+            return el.alias + " -> tasks " + loop.getTasksRun()
+                + " wakeups " + loop.getWakeupsIssued()
+                + " suppressed-wakeups " + loop.getWakeupsSuppressed()
+                + " busy-poll-hits " + loop.getBusyPollHits()
+                + " busy-poll-misses " + loop.getBusyPollMisses()
+                + " pooled " + pool.getPooledBytes()
+                + " in-use " + pool.getInUseBytes()
+                + " allocated " + pool.getAllocatedBytes()
+                + " leaks " + pool.getLeaks();
+        }
+    }
 }
@@ -3,11 +3,13 @@ package vproxy.app.cmd.handle.resource;
 import vproxy.app.Application;
 import vproxy.app.ServerGroupHolder;
 import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Flag;
 import vproxy.app.cmd.Param;
 import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
 import vproxy.app.cmd.handle.param.HealthCheckHandle;
 import vproxy.app.cmd.handle.param.MethHandle;
+import vproxy.app.cmd.handle.param.SlowStartHandle;
 import vproxy.app.cmd.handle.param.WeightHandle;
 import vproxy.component.auto.SmartLBGroup;
 import vproxy.component.check.HealthCheckConfig;
@@ -74,6 +76,9 @@ public class ServerGroupHandle {
         } else {
             cmd.args.put(Param.meth, "wrr");
         }
+        if (cmd.args.containsKey(Param.slowstart)) {
+            SlowStartHandle.check(cmd);
+        }
     }
 
     public static void checkUpdateServerGroup(Command cmd) throws Exception {
@@ -99,6 +104,9 @@ public class ServerGroupHandle {
                     throw new Exception("invalid method");
                 }
             }
+            if (cmd.args.containsKey(Param.slowstart)) {
+                SlowStartHandle.check(cmd);
+            }
         } else {
             // can modify the weight in a ServerGroups
             if (cmd.resource.parentResource.type != ResourceType.sgs)
@@ -149,7 +157,13 @@ public class ServerGroupHandle {
             String eventLoopGroupName = cmd.args.get(Param.elg);
             EventLoopGroup elg = EventLoopGroupHandle.get(eventLoopGroupName);
             HealthCheckConfig c = HealthCheckHandle.getHealthCheckConfig(cmd);
-            Application.get().serverGroupHolder.add(alias, elg, c, MethHandle.get(cmd));
+            ServerGroup g = Application.get().serverGroupHolder.add(alias, elg, c, MethHandle.get(cmd));
+            if (cmd.args.containsKey(Param.slowstart)) {
+                g.setSlowStart(SlowStartHandle.get(cmd));
+            }
+            if (cmd.flags.contains(Flag.zoneaware)) {
+                g.setZoneAware(true);
+            }
         } else {
             // add into serverGroups
             int weight = WeightHandle.get(cmd);
@@ -200,6 +214,14 @@ public class ServerGroupHandle {
             if (cmd.args.containsKey(Param.meth)) {
                 g.setMethod(MethHandle.get(cmd));
             }
+            if (cmd.args.containsKey(Param.slowstart)) {
+                g.setSlowStart(SlowStartHandle.get(cmd));
+            }
+            if (cmd.flags.contains(Flag.zoneaware)) {
+                g.setZoneAware(true);
+            } else if (cmd.flags.contains(Flag.nozoneaware)) {
+                g.setZoneAware(false);
+            }
         } else {
             ServerGroups.ServerGroupHandle h = getHandle(cmd.resource);
             if (cmd.args.containsKey(Param.w)) {
@@ -230,6 +252,8 @@ public class ServerGroupHandle {
             HealthCheckConfig c = g.getHealthCheckConfig();
             return alias + " -> timeout " + c.timeout + " period " + c.period +
                 " up " + c.up + " down " + c.down + " method " + g.getMethod() +
+                (g.getSlowStart() == 0 ? "" : " slow-start " + g.getSlowStart()) +
+                (g.isZoneAware() ? " zone-aware" : "") +
                 " event-loop-group " + g.eventLoopGroup.alias +
                 (h == null ? "" : " weight " + h.getWeight());
         }
@@ -6,6 +6,7 @@ import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
 import vproxy.app.cmd.handle.param.AddrHandle;
 import vproxy.app.cmd.handle.param.WeightHandle;
+import vproxy.app.cmd.handle.param.ZoneHandle;
 import vproxy.component.exception.NotFoundException;
 import vproxy.component.svrgroup.ServerGroup;
 import vproxy.util.Utils;
@@ -32,6 +33,8 @@ public class ServerHandle {
     }
 
     public static void checkUpdateServer(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.zone) && !cmd.args.containsKey(Param.w))
+            return; // only update the zone
         WeightHandle.check(cmd);
     }
 
@@ -64,8 +67,11 @@ public class ServerHandle {
         // no need to check whether host is an ip
         // will be check in `group.add()`
 
-        ServerGroupHandle.get(cmd.prepositionResource)
+        ServerGroup.ServerHandle h = ServerGroupHandle.get(cmd.prepositionResource)
             .add(name, host, AddrHandle.get(cmd), WeightHandle.get(cmd));
+        if (cmd.args.containsKey(Param.zone)) {
+            h.setZone(ZoneHandle.get(cmd));
+        }
     }
 
     public static void forceRemove(Command cmd) throws Exception {
@@ -76,7 +82,12 @@ public class ServerHandle {
     public static void update(Command cmd) throws Exception {
         for (ServerGroup.ServerHandle h : ServerGroupHandle.get(cmd.resource.parentResource).getServerHandles()) {
             if (h.alias.equals(cmd.resource.alias)) {
-                h.setWeight(WeightHandle.get(cmd));
+                if (cmd.args.containsKey(Param.w)) {
+                    h.setWeight(WeightHandle.get(cmd));
+                }
+                if (cmd.args.containsKey(Param.zone)) {
+                    h.setZone(ZoneHandle.get(cmd));
+                }
                 return;
             }
         }
@@ -104,7 +115,8 @@ public class ServerHandle {
                 + (h.hostName == null ? "" : " host " + h.hostName /* now connected to */)
                 + " connect-to " + Utils.ipStr(h.server.getAddress().getAddress()) + ":" + h.server.getPort()
                 + " weight " + h.getWeight()
-                + " currently " + (h.healthy ? "UP" : "DOWN");
+                + (h.getZone() == null ? "" : " zone " + h.getZone())
+                + " currently " + (h.isHealthy() ? "UP" : "DOWN");
         }
     }
 }
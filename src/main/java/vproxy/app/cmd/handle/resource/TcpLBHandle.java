@@ -3,6 +3,7 @@ package vproxy.app.cmd.handle.resource;
 import vproxy.app.Application;
 import vproxy.app.Config;
 import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Flag;
 import vproxy.app.cmd.Param;
 import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
@@ -113,6 +114,9 @@ public class TcpLBHandle {
         Application.get().tcpLBHolder.add(
             alias, acceptor, worker, addr, backend, timeout, inBufferSize, outBufferSize, protocol, secg
         );
+        if (cmd.flags.contains(Flag.repeatread)) {
+            Application.get().tcpLBHolder.get(alias).setRepeatRead(true);
+        }
     }
 
     public static void preCheckRemove(Command cmd) throws Exception {
@@ -142,6 +146,11 @@ public class TcpLBHandle {
         if (cmd.args.containsKey(Param.timeout)) {
             tcpLB.setTimeout(TimeoutHandle.get(cmd));
         }
+        if (cmd.flags.contains(Flag.repeatread)) {
+            tcpLB.setRepeatRead(true);
+        } else if (cmd.flags.contains(Flag.norepeatread)) {
+            tcpLB.setRepeatRead(false);
+        }
         if (cmd.args.containsKey(Param.secg)) {
             tcpLB.securityGroup = Application.get().securityGroupHolder.get(cmd.args.get(Param.secg));
         }
@@ -162,6 +171,7 @@ public class TcpLBHandle {
                 + " timeout " + tcpLB.getTimeout()
                 + " in-buffer-size " + tcpLB.getInBufferSize() + " out-buffer-size " + tcpLB.getOutBufferSize()
                 + " protocol " + tcpLB.protocol
+                + (tcpLB.isRepeatRead() ? " repeat-read" : " no-repeat-read")
                 + " security-group " + tcpLB.securityGroup.alias;
         }
     }
@@ -16,7 +16,9 @@ import vproxy.component.secure.SecurityGroup;
 import vproxy.component.secure.SecurityGroupRule;
 import vproxy.component.svrgroup.ServerGroup;
 import vproxy.component.svrgroup.ServerGroups;
+import vproxy.selector.SelectorType;
 import vproxy.util.*;
+import vproxy.util.ringbuffer.DirectBufferPool;
 
 import java.io.*;
 import java.util.*;
@@ -191,10 +193,26 @@ public class Shutdown {
                 eventLoopGroupNames.add(name);
 
                 if (Application.isDefaultEventLoopGroupName(name)) {
+                    // the default groups are always created, so only update them
+                    if (elg.getBusyPoll() != 0) {
+                        commands.add("update event-loop-group " + elg.alias + " busy-poll " + elg.getBusyPoll());
+                    }
+                    if (elg.getMaxPooledMemory() != DirectBufferPool.DEFAULT_MAX_POOLED_MEMORY) {
+                        commands.add("update event-loop-group " + elg.alias + " max-pooled-memory " + elg.getMaxPooledMemory());
+                    }
                     continue;
                 }
 
                 String cmd = "add event-loop-group " + elg.alias;
+                if (elg.selectorType != SelectorType.jdk) {
+                    cmd += " selector " + elg.selectorType;
+                }
+                if (elg.getBusyPoll() != 0) {
+                    cmd += " busy-poll " + elg.getBusyPoll();
+                }
+                if (elg.getMaxPooledMemory() != DirectBufferPool.DEFAULT_MAX_POOLED_MEMORY) {
+                    cmd += " max-pooled-memory " + elg.getMaxPooledMemory();
+                }
                 commands.add(cmd);
             }
         }
@@ -242,7 +260,10 @@ public class Shutdown {
 
                 String cmd = "add server-group " + sg.alias +
                     " timeout " + c.timeout + " period " + c.period + " up " + c.up + " down " + c.down +
-                    " method " + sg.getMethod() + " event-loop-group " + sg.eventLoopGroup.alias;
+                    " method " + sg.getMethod() +
+                    (sg.getSlowStart() == 0 ? "" : " slow-start " + sg.getSlowStart()) +
+                    (sg.isZoneAware() ? " zone-aware" : "") +
+                    " event-loop-group " + sg.eventLoopGroup.alias;
                 commands.add(cmd);
                 serverGroups.add(sg);
                 serverGroupsNames.add(name);
@@ -346,6 +367,9 @@ public class Shutdown {
                     " timeout " + tl.getTimeout() +
                     " in-buffer-size " + tl.getInBufferSize() + " out-buffer-size " + tl.getOutBufferSize() +
                     " protocol " + tl.protocol;
+                if (tl.isRepeatRead()) {
+                    cmd += " repeat-read";
+                }
                 if (!tl.securityGroup.alias.equals(SecurityGroup.defaultName)) {
                     cmd += " security-group " + tl.securityGroup.alias;
                 }
@@ -438,7 +462,8 @@ public class Shutdown {
                         ? Utils.ipStr(sh.server.getAddress().getAddress())
                         : sh.hostName)
                         + ":" + sh.server.getPort()
-                        + " weight " + sh.getWeight();
+                        + " weight " + sh.getWeight()
+                        + (sh.getZone() == null ? "" : " zone " + sh.getZone());
                     commands.add(cmd);
                 }
             }
@@ -8,6 +8,7 @@ import vproxy.component.exception.ClosedException;
 import vproxy.component.exception.NotFoundException;
 import vproxy.component.proxy.*;
 import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.ServerGroup;
 import vproxy.component.svrgroup.ServerGroups;
 import vproxy.connection.*;
 import vproxy.processor.Processor;
@@ -69,6 +70,7 @@ public class TcpLB {
     private int timeout; // modifiable
     private int inBufferSize; // modifiable
     private int outBufferSize; // modifiable
+    private boolean repeatRead = false; // modifiable
     public final String protocol;
     public final Processor processor;
     public SecurityGroup securityGroup;
@@ -116,7 +118,8 @@ public class TcpLB {
         this.inBufferSize = inBufferSize;
         this.outBufferSize = outBufferSize;
         this.protocol = protocol;
-        this.processor = (protocol.equals("tcp") ? null : ProcessorProvider.getInstance().get(protocol));
+        // resp is not a processor, the commands are routed by the proxy, see ConnectorGen.Type.respCluster
+        this.processor = (protocol.equals("tcp") || protocol.equals("resp") ? null : ProcessorProvider.getInstance().get(protocol));
         this.securityGroup = securityGroup;
 
         // we do not bind or create proxy object here
@@ -132,6 +135,29 @@ public class TcpLB {
     protected ConnectorGen provideConnectorGen() {
         if (protocol.equals("tcp")) {
             return this::connectorProvider;
+        } else if (protocol.equals("resp")) {
+            RESPClusterConfig respClusterConfig = new RESPClusterConfig();
+            return new ConnectorGen() {
+                @Override
+                public Type type() {
+                    return Type.respCluster;
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted) {
+                    return connectorProvider(accepted, (byte[]) null);
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted, InetSocketAddress remote) {
+                    return connectorProvider(accepted, remote);
+                }
+
+                @Override
+                public RESPClusterConfig respClusterConfig() {
+                    return respClusterConfig;
+                }
+            };
         } else {
             return new ConnectorGen() {
                 @Override
@@ -141,7 +167,17 @@ public class TcpLB {
 
                 @Override
                 public Connector genConnector(Connection accepted) {
-                    return connectorProvider(accepted);
+                    return connectorProvider(accepted, (byte[]) null);
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted, byte[] hashKey) {
+                    return connectorProvider(accepted, hashKey);
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted, InetSocketAddress remote) {
+                    return connectorProvider(accepted, remote);
                 }
 
                 @Override
@@ -154,6 +190,11 @@ public class TcpLB {
 
     // provide a connector
     private Connector connectorProvider(Connection clientConn) {
+        return connectorProvider(clientConn, (byte[]) null);
+    }
+
+    // provide a connector, the hashKey is used by server groups with the `hash` method
+    private Connector connectorProvider(Connection clientConn, byte[] hashKey) {
         // check whitelist
         InetAddress remoteAddress = clientConn.remote.getAddress();
         if (!securityGroup.allow(Protocol.TCP, remoteAddress, bindAddress.getPort()))
@@ -162,13 +203,32 @@ public class TcpLB {
         // we get a new connector
 
         // get a server from backends
-        Connector connector = backends.next(clientConn.remote);
+        Connector connector = backends.next(clientConn.remote, hashKey);
         if (connector == null)
             return null; // return null if cannot get any
         assert Logger.lowLevelDebug("got a backend: " + connector);
         return connector;
     }
 
+    // provide a connector to the specified remote
+    private Connector connectorProvider(Connection clientConn, InetSocketAddress remote) {
+        // check whitelist
+        InetAddress remoteAddress = clientConn.remote.getAddress();
+        if (!securityGroup.allow(Protocol.TCP, remoteAddress, bindAddress.getPort()))
+            return null; // terminated by securityGroup
+
+        // use the server in backends if exists, so that the connections are recorded
+        for (ServerGroups.ServerGroupHandle h : backends.getServerGroups()) {
+            for (ServerGroup.ServerHandle svr : h.group.getServerHandles()) {
+                if (svr.server.equals(remote)) {
+                    return svr.makeConnector();
+                }
+            }
+        }
+        // the remote may not be in backends, e.g. a new node of the redis cluster
+        return new Connector(remote);
+    }
+
     private ProxyNetConfig getProxyNetConfig(BindServer server, NetEventLoop eventLoop) {
         return new ProxyNetConfig()
             .setConnGen(provideConnectorGen())
@@ -183,6 +243,7 @@ public class TcpLB {
             .setTimeout(timeout)
             .setInBufferSize(inBufferSize)
             .setOutBufferSize(outBufferSize)
+            .setRepeatRead(repeatRead)
             .setServer(server)
             .setAcceptLoop(eventLoop);
     }
@@ -310,4 +371,15 @@ public class TcpLB {
     public int getTimeout() {
         return timeout;
     }
+
+    public void setRepeatRead(boolean repeatRead) {
+        this.repeatRead = repeatRead;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setRepeatRead(repeatRead);
+        }
+    }
+
+    public boolean isRepeatRead() {
+        return repeatRead;
+    }
 }
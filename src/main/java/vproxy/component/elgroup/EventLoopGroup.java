@@ -4,7 +4,9 @@ import vproxy.component.exception.AlreadyExistException;
 import vproxy.component.exception.ClosedException;
 import vproxy.component.exception.NotFoundException;
 import vproxy.selector.SelectorEventLoop;
+import vproxy.selector.SelectorType;
 import vproxy.util.*;
+import vproxy.util.ringbuffer.DirectBufferPool;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -20,9 +22,17 @@ public class EventLoopGroup {
     private boolean closed = false; // if true, then all operations are disabled or return default value
     private final AtomicInteger cursor = new AtomicInteger(0); // current cursor of the eventLoops
     private final ConcurrentHashSet<EventLoopGroupAttach> attaches = new ConcurrentHashSet<>();
+    private volatile int busyPoll = 0; // max busy poll time in microseconds, 0 means disabled
+    public final SelectorType selectorType; // type of selectors of event loops in this group
+    private volatile long maxPooledMemory = DirectBufferPool.DEFAULT_MAX_POOLED_MEMORY; // max bytes pooled by each event loop
 
     public EventLoopGroup(String alias) {
+        this(alias, SelectorType.jdk);
+    }
+
+    public EventLoopGroup(String alias, SelectorType selectorType) {
         this.alias = alias;
+        this.selectorType = selectorType;
     }
 
     /*
@@ -70,7 +80,9 @@ public class EventLoopGroup {
             if (w.alias.equals(alias))
                 throw new AlreadyExistException();
         }
-        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open(selectorType);
+        selectorEventLoop.setBusyPoll(busyPoll);
+        selectorEventLoop.getBufferPool().setMaxPooledBytes(maxPooledMemory);
         EventLoopWrapper el = new EventLoopWrapper(alias, selectorEventLoop);
         ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() + 1);
         newLs.addAll(ls);
@@ -116,6 +128,34 @@ public class EventLoopGroup {
         eventLoops = newLs;
     }
 
+    @ThreadSafe
+    public synchronized void setBusyPoll(int busyPoll) {
+        if (busyPoll < 0)
+            throw new IllegalArgumentException("invalid busy poll budget " + busyPoll);
+        this.busyPoll = busyPoll;
+        for (EventLoopWrapper w : eventLoops) {
+            w.getSelectorEventLoop().setBusyPoll(busyPoll);
+        }
+    }
+
+    public int getBusyPoll() {
+        return busyPoll;
+    }
+
+    @ThreadSafe
+    public synchronized void setMaxPooledMemory(long maxPooledMemory) {
+        if (maxPooledMemory < 0)
+            throw new IllegalArgumentException("invalid max pooled memory " + maxPooledMemory);
+        this.maxPooledMemory = maxPooledMemory;
+        for (EventLoopWrapper w : eventLoops) {
+            w.getSelectorEventLoop().getBufferPool().setMaxPooledBytes(maxPooledMemory);
+        }
+    }
+
+    public long getMaxPooledMemory() {
+        return maxPooledMemory;
+    }
+
     /*
      * ========================
      * END event loops
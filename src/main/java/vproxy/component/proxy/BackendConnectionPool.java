@@ -0,0 +1,185 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.ClientConnection;
+import vproxy.connection.ClientConnectionHandler;
+import vproxy.connection.ClientConnectionHandlerContext;
+import vproxy.connection.ConnectionHandlerContext;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Idle backend connections of one event loop, grouped by remote address.
+ * <p>
+ * Backend connections created by the processor handlers are registered with a {@link Holder},
+ * which passes the events to the current owner of the connection.
+ * When the owner releases an idle connection, the holder handles the events itself until the connection is acquired again,
+ * so the connection can be handed over without being removed from the event loop.
+ * <p>
+ * All methods should be called on the event loop thread.
+ */
+class BackendConnectionPool {
+    static final int MAX_IDLE_PER_REMOTE = 64;
+
+    private final Map<InetSocketAddress, ArrayDeque<Holder>> idle = new HashMap<>();
+    private boolean closed = false;
+
+    class Holder implements ClientConnectionHandler {
+        final ClientConnection conn;
+        private ClientConnectionHandler owner; // null when idle
+        private boolean released = false; // the connection is closed and buffers are released
+
+        Holder(ClientConnection conn, ClientConnectionHandler owner) {
+            this.conn = conn;
+            this.owner = owner;
+        }
+
+        void setOwner(ClientConnectionHandler owner) {
+            this.owner = owner;
+        }
+
+        private void closeIdle() {
+            if (released) {
+                return;
+            }
+            released = true;
+            remove(this);
+            conn.close();
+            conn.getInBuffer().clean();
+            conn.getOutBuffer().clean();
+        }
+
+        @Override
+        public void connected(ClientConnectionHandlerContext ctx) {
+            if (owner != null) {
+                owner.connected(ctx);
+            }
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            if (owner != null) {
+                owner.readable(ctx);
+                return;
+            }
+            // nothing should be received on an idle connection
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "got data from idle backend connection " + conn + ", close it");
+            closeIdle();
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            if (owner != null) {
+                owner.writable(ctx);
+            }
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            if (owner != null) {
+                owner.exception(ctx, err);
+                return;
+            }
+            assert Logger.lowLevelDebug("idle backend connection " + conn + " got exception: " + err);
+            closeIdle();
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            if (owner != null) {
+                owner.closed(ctx);
+                return;
+            }
+            assert Logger.lowLevelDebug("idle backend connection " + conn + " closed");
+            closeIdle();
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            if (owner != null) {
+                owner.removed(ctx);
+                return;
+            }
+            closeIdle();
+        }
+    }
+
+    /**
+     * @return the handler to register the connection with
+     */
+    Holder hold(ClientConnection conn, ClientConnectionHandler owner) {
+        return new Holder(conn, owner);
+    }
+
+    /**
+     * @return an idle connection to the remote, or null if not found.
+     * the caller should set the owner of the returned holder
+     */
+    Holder acquire(InetSocketAddress remote) {
+        ArrayDeque<Holder> holders = idle.get(remote);
+        if (holders == null) {
+            return null;
+        }
+        Holder h;
+        while ((h = holders.pollLast()) != null) { // lifo, the recently used connection is less likely to be timed out
+            if (!h.conn.isClosed()) {
+                break;
+            }
+        }
+        if (holders.isEmpty()) {
+            idle.remove(remote);
+        }
+        return h;
+    }
+
+    /**
+     * keep the idle connection in the pool
+     *
+     * @return false if the connection cannot be pooled, the caller should close it
+     */
+    boolean release(Holder h) {
+        if (closed || h.conn.isClosed()) {
+            return false;
+        }
+        ArrayDeque<Holder> holders = idle.computeIfAbsent(h.conn.remote, k -> new ArrayDeque<>());
+        if (holders.size() >= MAX_IDLE_PER_REMOTE) {
+            return false;
+        }
+        h.owner = null;
+        holders.add(h);
+        assert Logger.lowLevelDebug("backend connection " + h.conn + " is kept in the pool");
+        return true;
+    }
+
+    private void remove(Holder h) {
+        ArrayDeque<Holder> holders = idle.get(h.conn.remote);
+        if (holders == null) {
+            return;
+        }
+        holders.remove(h);
+        if (holders.isEmpty()) {
+            idle.remove(h.conn.remote);
+        }
+    }
+
+    /**
+     * close all idle connections, and stop pooling
+     */
+    void close() {
+        closed = true;
+        List<Holder> holders = new ArrayList<>();
+        for (ArrayDeque<Holder> q : idle.values()) {
+            holders.addAll(q);
+        }
+        for (Holder h : holders) {
+            h.closeIdle();
+        }
+    }
+}
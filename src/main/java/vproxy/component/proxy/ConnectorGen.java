@@ -8,12 +8,14 @@ import vproxy.util.Callback;
 import vproxy.util.Tuple;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 
 public interface ConnectorGen<T> {
     enum Type {
         direct, // directly proxy
         handler, // do some handshake then proxy
         processor, // keep processing the connection
+        respCluster, // route each redis command to the node owning the slot of its keys
     }
 
     default Type type() {
@@ -22,6 +24,18 @@ public interface ConnectorGen<T> {
 
     Connector genConnector(Connection accepted);
 
+    // used when the processor provides a key for choosing the backend, e.g. a header of the request
+    // the key may be null
+    default Connector genConnector(Connection accepted, byte[] hashKey) {
+        return genConnector(accepted);
+    }
+
+    // used when the processor decides which remote to connect to, e.g. the node owning a redis cluster slot
+    // return null to refuse the connection
+    default Connector genConnector(Connection accepted, InetSocketAddress remote) {
+        return new Connector(remote);
+    }
+
     // the handler should set Tuple<T, null> to the context when init()
     // and the Callback object will be set by the Proxy lib
     default ProtocolHandler<Tuple<T, Callback<Connector, IOException>>> handler() {
@@ -31,4 +45,9 @@ public interface ConnectorGen<T> {
     default Processor processor() {
         return null;
     }
+
+    // used when the type is respCluster
+    default RESPClusterConfig respClusterConfig() {
+        return null;
+    }
 }
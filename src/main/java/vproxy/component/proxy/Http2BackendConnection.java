@@ -0,0 +1,462 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.ClientConnection;
+import vproxy.connection.ClientConnectionHandler;
+import vproxy.connection.ClientConnectionHandlerContext;
+import vproxy.connection.ConnectionHandlerContext;
+import vproxy.connection.Connector;
+import vproxy.processor.http2.HPackCodec;
+import vproxy.processor.http2.HPackCodec.HeaderList;
+import vproxy.util.ByteArray;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static vproxy.component.proxy.Http2Multiplexer.*;
+
+/**
+ * A backend http/2 connection shared by streams of different frontend connections.
+ * The stream ids are allocated by this connection, and mapped to the stream ids of the frontend connections.
+ * The input is always read, a slow frontend connection only pauses its own streams with the stream level flow control.
+ */
+class Http2BackendConnection implements ClientConnectionHandler {
+    private final Http2Multiplexer mux;
+    final ClientConnection conn;
+    private final FrameQueue queue;
+    private final FrameReader reader = new FrameReader();
+    private final HPackCodec hPackCodec;
+    // the streams and latency are reported for the `los` and `p2c-ewma` methods, may be null
+    private final Connector connector;
+
+    private final Map<Integer, Stream> streams = new HashMap<>(); // backend stream id => stream
+    private int nextStreamId = 1;
+    private int activeStreams = 0; // streams started by vproxy, the pushed streams are not counted
+    private int maxConcurrentStreams;
+
+    private boolean isConnected = false;
+    private boolean goaway = false;
+    private boolean closed = false;
+    private int windowSize = SIZE_DEFAULT_WINDOW;
+
+    // frontend connections waiting for the queue of this connection to drain
+    private final Set<Http2MultiplexConnectionHandler> waiting = new LinkedHashSet<>();
+
+    Http2BackendConnection(Http2Multiplexer mux, ClientConnection conn) {
+        this.mux = mux;
+        this.conn = conn;
+        this.queue = new FrameQueue(conn, mux.queueLimit());
+        this.maxConcurrentStreams = mux.initialMaxConcurrentStreams(conn.remote);
+        this.connector = conn.getConnector();
+
+        this.hPackCodec = new HPackCodec(mux.headerTableSize, mux.headerTableSize, null);
+
+        // when the header table size is 0, the header blocks from backend do not use the dynamic table,
+        // so that they can be sent to any frontend connection without re-encoding
+        queue.add(PREFACE
+            .concat(settings(
+                SETTINGS_HEADER_TABLE_SIZE, mux.headerTableSize,
+                SETTINGS_INITIAL_WINDOW_SIZE, SIZE_STREAM_WINDOW))
+            .concat(windowUpdate(SIZE_WINDOW - windowSize)));
+        windowSize = SIZE_WINDOW;
+    }
+
+    boolean canOpenStream() {
+        return !closed && !goaway
+            && activeStreams < maxConcurrentStreams
+            && nextStreamId > 0; // not overflowed
+    }
+
+    boolean isIdle() {
+        return !closed && !goaway && streams.isEmpty();
+    }
+
+    Stream openStream(Http2MultiplexConnectionHandler frontend, int frontendStreamId) {
+        assert canOpenStream();
+        int streamId = nextStreamId;
+        nextStreamId += 2;
+        ++activeStreams;
+        Stream s = new Stream(frontend, frontendStreamId, this, streamId, false);
+        streams.put(streamId, s);
+        streamStarted();
+        assert Logger.lowLevelDebug("open " + s + " on " + conn + ", active streams: " + activeStreams);
+        return s;
+    }
+
+    void removeStream(Stream s) {
+        if (streams.get(s.backendStreamId) != s) {
+            return;
+        }
+        streams.remove(s.backendStreamId);
+        streamEnded();
+        if (!s.pushed) {
+            --activeStreams;
+        }
+        if (streams.isEmpty()) {
+            if (goaway) {
+                close();
+            } else {
+                mux.idle(this);
+            }
+        }
+    }
+
+    private void streamStarted() {
+        if (connector != null) {
+            connector.streamStarted();
+        }
+    }
+
+    private void streamEnded() {
+        if (connector != null) {
+            connector.streamEnded();
+        }
+    }
+
+    /**
+     * encode the headers with the dynamic table of this connection and write the HEADERS frame
+     */
+    void writeHeaders(int flags, int streamId, HeaderList headers) throws IOException {
+        if (closed) {
+            return;
+        }
+        write(headers(TYPE_HEADERS, flags, streamId, null, hPackCodec.encode(headers)));
+    }
+
+    void write(ByteArray frames) {
+        if (closed) {
+            return;
+        }
+        queue.add(frames);
+        flush();
+    }
+
+    boolean isFull() {
+        return queue.isFull();
+    }
+
+    void waitForDrain(Http2MultiplexConnectionHandler frontend) {
+        waiting.add(frontend);
+    }
+
+    void cancelWaiting(Http2MultiplexConnectionHandler frontend) {
+        waiting.remove(frontend);
+    }
+
+    /**
+     * the frontend connection of the stream is drained or closed
+     */
+    void resume(Stream s) {
+        s.waitingForFrontend = false;
+        if (closed || streams.get(s.backendStreamId) != s) {
+            return;
+        }
+        updateStreamWindow(s);
+    }
+
+    private void flush() {
+        if (!isConnected) {
+            return; // the frames will be written when connected
+        }
+        queue.flush();
+        wakeup();
+    }
+
+    private void wakeup() {
+        if (waiting.isEmpty() || (!closed && queue.isFull())) {
+            return;
+        }
+        List<Http2MultiplexConnectionHandler> list = new ArrayList<>(waiting);
+        waiting.clear();
+        for (Http2MultiplexConnectionHandler f : list) {
+            f.unblock();
+        }
+    }
+
+    /**
+     * send WINDOW_UPDATE for the stream when half of the window is used,
+     * unless the frontend connection is full, then the backend cannot send more data on the stream until it drains
+     */
+    private void updateStreamWindow(Stream s) {
+        if (s.backendWindow >= SIZE_STREAM_WINDOW / 2 || s.waitingForFrontend) {
+            return;
+        }
+        if (s.frontend.isFull()) {
+            assert Logger.lowLevelDebug("the frontend " + s.frontend + " is full, pause " + s + " on " + conn);
+            s.waitingForFrontend = true;
+            s.frontend.waitForDrain(s);
+            return;
+        }
+        write(windowUpdate(s.backendStreamId, SIZE_STREAM_WINDOW - s.backendWindow));
+        s.backendWindow = SIZE_STREAM_WINDOW;
+    }
+
+    private void readBackend() {
+        while (!closed) {
+            try {
+                if (!reader.read(conn.getInBuffer())) {
+                    return;
+                }
+                handleFrame();
+            } catch (Exception e) {
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, "cannot handle data from shared backend connection " + conn + ". err=" + e);
+                queue.add(goaway(0, e));
+                queue.flushBeforeClose();
+                close();
+                return;
+            }
+        }
+    }
+
+    private void handleFrame() throws Exception {
+        assert Logger.lowLevelDebug("got frame type=" + reader.type + " flags=" + reader.flags + " stream=" + reader.streamId + " length=" + reader.length + " from " + conn);
+        switch (reader.type) {
+            case TYPE_SETTINGS:
+                handleSettings();
+                break;
+            case TYPE_PING:
+                if ((reader.flags & FLAG_ACK) == 0) {
+                    write(pingAck(reader.payload));
+                }
+                break;
+            case TYPE_GOAWAY:
+                handleGoaway();
+                break;
+            case TYPE_HEADERS:
+            case TYPE_PUSH_PROMISE:
+            case TYPE_CONTINUATION:
+                if (reader.collectHeaderBlock()) {
+                    if (reader.blockType == TYPE_HEADERS) {
+                        handleHeaders();
+                    } else {
+                        handlePushPromise();
+                    }
+                }
+                break;
+            case TYPE_DATA:
+                handleData();
+                break;
+            case TYPE_RST_STREAM:
+                handleRstStream();
+                break;
+            default:
+                // PRIORITY, WINDOW_UPDATE and the unknown frames
+                break;
+        }
+    }
+
+    private void handleSettings() throws Exception {
+        if (reader.streamId != 0 || reader.length % 6 != 0) {
+            throw new Exception("invalid SETTINGS frame");
+        }
+        if ((reader.flags & FLAG_ACK) != 0) {
+            return;
+        }
+        ByteArray payload = reader.payload;
+        for (int i = 0; i < payload.length(); i += 6) {
+            if (payload.uint16(i) == SETTINGS_HEADER_TABLE_SIZE) {
+                hPackCodec.setPeerTableSize(payload.int32(i + 2));
+            } else if (payload.uint16(i) == SETTINGS_MAX_CONCURRENT_STREAMS) {
+                int value = payload.int32(i + 2);
+                // the value is uint32
+                maxConcurrentStreams = value < 0 ? mux.maxConcurrentStreams : Math.min(value, mux.maxConcurrentStreams);
+                mux.recordMaxConcurrentStreams(conn.remote, maxConcurrentStreams);
+                assert Logger.lowLevelDebug("max concurrent streams of " + conn + " is " + maxConcurrentStreams);
+            }
+        }
+        write(settingsAck());
+    }
+
+    private void handleGoaway() throws Exception {
+        if (reader.length < 8) {
+            throw new Exception("invalid GOAWAY frame");
+        }
+        int lastStreamId = reader.payload.int32(0) & 0x7fffffff;
+        Logger.warn(LogType.CONN_ERROR, "got GOAWAY from shared backend connection " + conn + ", last stream id = " + lastStreamId);
+        goaway = true;
+        mux.remove(this);
+
+        // the streams not processed by the backend can be retried by the client
+        List<Stream> refused = new ArrayList<>();
+        for (Stream s : streams.values()) {
+            if (!s.pushed && s.backendStreamId > lastStreamId) {
+                refused.add(s);
+            }
+        }
+        for (Stream s : refused) {
+            s.frontend.resetStream(s, ERR_REFUSED_STREAM);
+            removeStream(s);
+        }
+        if (streams.isEmpty()) {
+            close();
+        }
+    }
+
+    // the block is decoded with the dynamic table of this connection, or null if the dynamic table is not used
+    private HeaderList decodeBlock() throws IOException {
+        if (mux.headerTableSize == 0) {
+            return null;
+        }
+        return hPackCodec.decode(reader.block, false);
+    }
+
+    private void handleHeaders() throws IOException {
+        // decode the block even if the stream is closed to keep the dynamic table synchronized
+        HeaderList headers = decodeBlock();
+        Stream s = streams.get(reader.blockStreamId);
+        if (s == null) {
+            return; // the stream is already closed
+        }
+        if (s.latencyBegin != 0 && connector != null) {
+            // the time until the response headers is a latency sample of the backend
+            connector.latency(System.nanoTime() - s.latencyBegin);
+        }
+        s.latencyBegin = 0;
+        boolean endStream = reader.blockEndStream;
+        s.frontend.writeHeaders(TYPE_HEADERS, endStream ? FLAG_END_STREAM : 0, s.frontendStreamId, null, headers, reader.block);
+        if (endStream) {
+            s.backendEnded = true;
+            tryRelease(s);
+        }
+    }
+
+    private void handlePushPromise() throws Exception {
+        HeaderList headers = decodeBlock();
+        int promisedStreamId = reader.promisedStreamId;
+        if (promisedStreamId == 0 || promisedStreamId % 2 != 0 || streams.containsKey(promisedStreamId)) {
+            throw new Exception("invalid promised stream id " + promisedStreamId);
+        }
+        Stream s = streams.get(reader.blockStreamId);
+        if (s == null || s.pushed) {
+            write(rstStream(promisedStreamId, ERR_CANCEL));
+            return;
+        }
+        if (!s.frontend.acceptPush()) {
+            write(rstStream(promisedStreamId, ERR_REFUSED_STREAM));
+            return;
+        }
+        Stream pushed = new Stream(s.frontend, s.frontend.nextServerStreamId(), this, promisedStreamId, true);
+        streams.put(promisedStreamId, pushed);
+        streamStarted();
+        s.frontend.recordStream(pushed);
+        assert Logger.lowLevelDebug("backend " + conn + " pushes " + pushed + " for " + s);
+
+        ByteArray prefix = ByteArray.from(new byte[4]);
+        prefix.int32(0, pushed.frontendStreamId);
+        s.frontend.writeHeaders(TYPE_PUSH_PROMISE, 0, s.frontendStreamId, prefix, headers, reader.block);
+    }
+
+    private void handleData() throws Exception {
+        if (reader.streamId == 0) {
+            throw new Exception("DATA frame on stream 0");
+        }
+        windowSize -= reader.length;
+        if (windowSize < INCR_WINDOW_THRESHOLD) {
+            write(windowUpdate(SIZE_WINDOW - windowSize));
+            windowSize = SIZE_WINDOW;
+        }
+        Stream s = streams.get(reader.streamId);
+        if (s == null) {
+            return; // the stream is already closed
+        }
+        s.backendWindow -= reader.length;
+        if (s.backendWindow < 0) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "shared backend connection " + conn + " exceeds the window of " + s);
+            write(rstStream(s.backendStreamId, ERR_FLOW_CONTROL_ERROR));
+            s.frontend.resetStream(s, ERR_INTERNAL_ERROR);
+            removeStream(s);
+            return;
+        }
+        reader.head.int32(5, s.frontendStreamId);
+        s.frontend.write(reader.head.concat(reader.payload));
+        if ((reader.flags & FLAG_END_STREAM) != 0) {
+            s.backendEnded = true;
+            tryRelease(s);
+        } else {
+            updateStreamWindow(s);
+        }
+    }
+
+    private void handleRstStream() throws Exception {
+        if (reader.length != 4) {
+            throw new Exception("invalid RST_STREAM frame");
+        }
+        Stream s = streams.get(reader.streamId);
+        if (s == null) {
+            return;
+        }
+        s.frontend.resetStream(s, reader.payload.int32(0));
+        removeStream(s);
+    }
+
+    @Override
+    public void connected(ClientConnectionHandlerContext ctx) {
+        isConnected = true;
+        flush();
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        readBackend();
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flush();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        Logger.error(LogType.CONN_ERROR, "got exception when handling shared backend connection " + conn + ", resetting " + streams.size() + " streams", err);
+        close();
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        assert Logger.lowLevelDebug("shared backend connection " + conn + " closed, resetting " + streams.size() + " streams");
+        close();
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        if (!closed) {
+            Logger.error(LogType.IMPROPER_USE, "shared backend connection " + conn + " removed from event loop");
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        mux.remove(this);
+
+        // the streams cannot continue, reset them on the frontend connections
+        // if the connection is never established, the client can safely retry the streams
+        int errorCode = isConnected ? ERR_INTERNAL_ERROR : ERR_REFUSED_STREAM;
+        List<Stream> list = new ArrayList<>(streams.values());
+        streams.clear();
+        activeStreams = 0;
+        for (Stream s : list) {
+            streamEnded();
+            s.frontend.resetStream(s, errorCode);
+        }
+        conn.close();
+        conn.getInBuffer().clean();
+        conn.getOutBuffer().clean();
+        // the frontend connections can go on, frames to this connection are dropped
+        wakeup();
+    }
+
+    @Override
+    public String toString() {
+        return "Http2BackendConnection(" + conn + ", streams=" + streams.size() + ")";
+    }
+}
@@ -0,0 +1,393 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.Connection;
+import vproxy.connection.ConnectionHandler;
+import vproxy.connection.ConnectionHandlerContext;
+import vproxy.connection.Connector;
+import vproxy.processor.http2.HPackCodec;
+import vproxy.processor.http2.HPackCodec.HeaderList;
+import vproxy.processor.http2.Header;
+import vproxy.util.ByteArray;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static vproxy.component.proxy.Http2Multiplexer.*;
+
+/**
+ * Handles a frontend http/2 connection, and dispatches its streams to the shared backend connections of the event loop.
+ * <p>
+ * The header blocks from the client are decoded with the dynamic table of this connection,
+ * and encoded again with the dynamic table of the backend connection, the x-forwarded-for header is added in the request headers.
+ * The header blocks from backend are encoded with the dynamic table of this connection.
+ */
+class Http2MultiplexConnectionHandler implements ConnectionHandler {
+    private final ProxyNetConfig config;
+    private final Http2Multiplexer mux;
+    private final Connection frontendConnection;
+    private final int headerTableSize;
+    private final HPackCodec hPackCodec;
+    private final FrameQueue queue;
+    private final FrameReader reader = new FrameReader();
+
+    private final Map<Integer, Stream> streams = new HashMap<>(); // frontend stream id => stream
+
+    private ByteArrayChannel prefaceChnl = ByteArrayChannel.fromEmpty(new byte[PREFACE.length()]); // set to null when the preface is read
+    private boolean handshaking = true; // the first SETTINGS frame is not received yet
+    private boolean pushEnabled = true;
+    private int lastClientStreamId = 0;
+    private int serverStreamId = 0;
+    private int windowSize = SIZE_DEFAULT_WINDOW;
+    private boolean closed = false;
+
+    // streams paused by the backend connections until the queue of this connection drains
+    private final Set<Stream> waiting = new LinkedHashSet<>();
+    // the backend connection which this connection is waiting for, the frontend input is not read until it drains
+    private Http2BackendConnection blockedBy = null;
+
+    Http2MultiplexConnectionHandler(ProxyNetConfig config, Http2Multiplexer mux, Connection frontendConnection, int headerTableSize) {
+        this.config = config;
+        this.mux = mux;
+        this.frontendConnection = frontendConnection;
+        this.headerTableSize = headerTableSize;
+        this.hPackCodec = new HPackCodec(headerTableSize, mux.headerTableSize,
+            new Header[]{
+                new Header("x-forwarded-for", Utils.ipStr(frontendConnection.remote.getAddress().getAddress()))
+            });
+        this.queue = new FrameQueue(frontendConnection, mux.queueLimit());
+    }
+
+    /**
+     * write a HEADERS or PUSH_PROMISE frame
+     *
+     * @param headers the headers to be encoded with the dynamic table of this connection,
+     *                or null if the raw block should be sent as is
+     */
+    void writeHeaders(int type, int flags, int streamId, ByteArray prefix, HeaderList headers, ByteArray rawBlock) throws IOException {
+        if (closed) {
+            return;
+        }
+        ByteArray block = headers == null ? rawBlock : hPackCodec.encode(headers);
+        write(headers(type, flags, streamId, prefix, block));
+    }
+
+    void write(ByteArray frames) {
+        if (closed) {
+            return;
+        }
+        queue.add(frames);
+        flush();
+    }
+
+    boolean isFull() {
+        return queue.isFull();
+    }
+
+    void waitForDrain(Stream s) {
+        waiting.add(s);
+    }
+
+    /**
+     * the backend connection which this connection was waiting for is drained or closed
+     */
+    void unblock() {
+        blockedBy = null;
+        readFrontend();
+    }
+
+    boolean acceptPush() {
+        return !closed && pushEnabled;
+    }
+
+    int nextServerStreamId() {
+        serverStreamId += 2;
+        return serverStreamId;
+    }
+
+    void recordStream(Stream s) {
+        streams.put(s.frontendStreamId, s);
+    }
+
+    void removeStream(Stream s) {
+        if (streams.get(s.frontendStreamId) == s) {
+            streams.remove(s.frontendStreamId);
+        }
+        waiting.remove(s);
+    }
+
+    /**
+     * the stream is closed by the backend side
+     */
+    void resetStream(Stream s, int errorCode) {
+        removeStream(s);
+        write(rstStream(s.frontendStreamId, errorCode));
+    }
+
+    private void flush() {
+        queue.flush();
+        wakeup();
+    }
+
+    private void wakeup() {
+        if (waiting.isEmpty() || (!closed && queue.isFull())) {
+            return;
+        }
+        List<Stream> list = new ArrayList<>(waiting);
+        waiting.clear();
+        for (Stream s : list) {
+            s.backend.resume(s);
+        }
+    }
+
+    private void waitIfFull(Http2BackendConnection backend) {
+        if (backend.isFull()) {
+            assert Logger.lowLevelDebug("the backend " + backend + " is full, stop reading " + frontendConnection);
+            blockedBy = backend;
+            backend.waitForDrain(this);
+        }
+    }
+
+    private void readFrontend() {
+        while (!closed && blockedBy == null) {
+            try {
+                if (prefaceChnl != null) {
+                    frontendConnection.getInBuffer().writeTo(prefaceChnl);
+                    if (prefaceChnl.free() != 0) {
+                        return;
+                    }
+                    if (!ByteArray.from(prefaceChnl.get()).equals(PREFACE)) {
+                        throw new Exception("the preface magic is wrong!");
+                    }
+                    prefaceChnl = null;
+                }
+                if (!reader.read(frontendConnection.getInBuffer())) {
+                    return;
+                }
+                handleFrame();
+            } catch (Exception e) {
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + frontendConnection + ". err=" + e);
+                queue.add(goaway(lastClientStreamId, e));
+                queue.flushBeforeClose();
+                closeAll();
+                return;
+            }
+        }
+    }
+
+    private void handleFrame() throws Exception {
+        assert Logger.lowLevelDebug("got frame type=" + reader.type + " flags=" + reader.flags + " stream=" + reader.streamId + " length=" + reader.length + " from " + frontendConnection);
+        if (handshaking && reader.type != TYPE_SETTINGS) {
+            throw new Exception("invalid http2 protocol, no settings after preface. current frame type is " + reader.type);
+        }
+        switch (reader.type) {
+            case TYPE_SETTINGS:
+                handleSettings();
+                break;
+            case TYPE_PING:
+                if ((reader.flags & FLAG_ACK) == 0) {
+                    write(pingAck(reader.payload));
+                }
+                break;
+            case TYPE_HEADERS:
+            case TYPE_CONTINUATION:
+                if (reader.collectHeaderBlock()) {
+                    handleHeaders();
+                }
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw new Exception("the client cannot send PUSH_PROMISE frames");
+            case TYPE_DATA:
+                handleData();
+                break;
+            case TYPE_RST_STREAM:
+                handleRstStream();
+                break;
+            default:
+                // PRIORITY, WINDOW_UPDATE, GOAWAY and the unknown frames
+                break;
+        }
+    }
+
+    private void handleSettings() throws Exception {
+        if (reader.streamId != 0 || reader.length % 6 != 0) {
+            throw new Exception("invalid SETTINGS frame");
+        }
+        if ((reader.flags & FLAG_ACK) != 0) {
+            return;
+        }
+        ByteArray payload = reader.payload;
+        for (int i = 0; i < payload.length(); i += 6) {
+            if (payload.uint16(i) == SETTINGS_HEADER_TABLE_SIZE) {
+                hPackCodec.setPeerTableSize(payload.int32(i + 2));
+            } else if (payload.uint16(i) == SETTINGS_ENABLE_PUSH) {
+                pushEnabled = payload.int32(i + 2) != 0;
+            }
+        }
+        if (handshaking) {
+            handshaking = false;
+            write(settings(
+                SETTINGS_HEADER_TABLE_SIZE, headerTableSize,
+                SETTINGS_INITIAL_WINDOW_SIZE, SIZE_WINDOW)
+                .concat(settingsAck())
+                .concat(windowUpdate(SIZE_WINDOW - windowSize)));
+            windowSize = SIZE_WINDOW;
+        } else {
+            write(settingsAck());
+        }
+    }
+
+    private void handleHeaders() throws Exception {
+        int streamId = reader.blockStreamId;
+        boolean endStream = reader.blockEndStream;
+        Stream s = streams.get(streamId);
+        boolean isNew = false;
+        if (s == null) {
+            if (streamId % 2 == 0 || streamId <= lastClientStreamId) {
+                assert Logger.lowLevelDebug("got headers for the closed stream " + streamId);
+                // decode the block to keep the dynamic table synchronized
+                hPackCodec.decode(reader.block, false);
+                return;
+            }
+            lastClientStreamId = streamId;
+            isNew = true;
+        }
+        // add headers only for the request headers, not for the trailers
+        HeaderList headers = hPackCodec.decode(reader.block, isNew);
+
+        if (isNew) {
+            s = openStream(streamId);
+            if (s == null) {
+                write(rstStream(streamId, ERR_REFUSED_STREAM));
+                return;
+            }
+        } else if (s.frontendEnded) {
+            return; // the client already ended the stream
+        }
+        s.backend.writeHeaders(endStream ? FLAG_END_STREAM : 0, s.backendStreamId, headers);
+        if (endStream) {
+            s.frontendEnded = true;
+            tryRelease(s);
+        }
+        waitIfFull(s.backend);
+    }
+
+    private Stream openStream(int streamId) {
+        Connector connector = config.connGen.genConnector(frontendConnection);
+        if (connector == null) {
+            Logger.info(LogType.NO_CLIENT_CONN, "the user code refuse to provide a remote endpoint");
+            return null;
+        }
+        if (connector.loop() != null) {
+            Logger.error(LogType.IMPROPER_USE, "it's not supported to specify event loop when running processors");
+            return null;
+        }
+        Http2BackendConnection backend = mux.acquire(connector);
+        if (backend == null) {
+            Logger.error(LogType.CONN_ERROR, "failed to retrieve the backend connection for " + frontendConnection + "/" + streamId);
+            return null;
+        }
+        Stream s = backend.openStream(this, streamId);
+        streams.put(streamId, s);
+        return s;
+    }
+
+    private void handleData() throws Exception {
+        if (reader.streamId == 0) {
+            throw new Exception("DATA frame on stream 0");
+        }
+        windowSize -= reader.length;
+        if (windowSize < INCR_WINDOW_THRESHOLD) {
+            write(windowUpdate(SIZE_WINDOW - windowSize));
+            windowSize = SIZE_WINDOW;
+        }
+        Stream s = streams.get(reader.streamId);
+        if (s == null || s.frontendEnded) {
+            return; // the stream is already closed
+        }
+        reader.head.int32(5, s.backendStreamId);
+        s.backend.write(reader.head.concat(reader.payload));
+        if ((reader.flags & FLAG_END_STREAM) != 0) {
+            s.frontendEnded = true;
+            tryRelease(s);
+        }
+        waitIfFull(s.backend);
+    }
+
+    private void handleRstStream() throws Exception {
+        if (reader.length != 4) {
+            throw new Exception("invalid RST_STREAM frame");
+        }
+        Stream s = streams.get(reader.streamId);
+        if (s == null) {
+            return;
+        }
+        s.backend.write(rstStream(s.backendStreamId, reader.payload.int32(0)));
+        release(s);
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        readFrontend();
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flush();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        Logger.error(LogType.CONN_ERROR, "connection got exception", err);
+        closeAll();
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        assert Logger.lowLevelDebug("frontend connection is closed: " + frontendConnection);
+        closeAll();
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        if (!frontendConnection.isClosed())
+            Logger.error(LogType.IMPROPER_USE, "frontend connection " + frontendConnection + " removed from event loop");
+        closeAll();
+    }
+
+    private void closeAll() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        assert Logger.lowLevelDebug("close " + frontendConnection + " and reset its " + streams.size() + " streams");
+        List<Stream> list = new ArrayList<>(streams.values());
+        streams.clear();
+        for (Stream s : list) {
+            s.backend.write(rstStream(s.backendStreamId, ERR_CANCEL));
+            s.backend.removeStream(s);
+        }
+        if (blockedBy != null) {
+            blockedBy.cancelWaiting(this);
+            blockedBy = null;
+        }
+        frontendConnection.close();
+        frontendConnection.getInBuffer().clean();
+        frontendConnection.getOutBuffer().clean();
+        waiting.clear(); // the streams are already removed
+    }
+
+    @Override
+    public String toString() {
+        return "Http2MultiplexConnectionHandler(" + frontendConnection + ", streams=" + streams.size() + ")";
+    }
+}
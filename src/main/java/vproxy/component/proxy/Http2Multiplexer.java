@@ -0,0 +1,539 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.ClientConnection;
+import vproxy.connection.Connection;
+import vproxy.connection.ConnectionOpts;
+import vproxy.connection.Connector;
+import vproxy.connection.NetEventLoop;
+import vproxy.processor.http2.HPackCodec;
+import vproxy.util.ByteArray;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.RingBuffer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared backend http/2 connections of one event loop, grouped by remote address.
+ * <p>
+ * Streams of different frontend connections are sent on the same backend connection,
+ * the stream ids are translated in both directions, see {@link Stream}.
+ * A backend connection accepts new streams until the max concurrent streams is reached,
+ * then a new connection to the remote is created.
+ * <p>
+ * Unlike the processor handlers, vproxy is the endpoint of the connection level frames:
+ * SETTINGS, PING and WINDOW_UPDATE frames are handled on each connection and never forwarded.
+ * The header blocks are decoded with the hpack state of the connection they come from,
+ * and encoded with the dynamic table of the connection they are sent to, see {@link HPackCodec}.
+ * When the header table size is 0, the backend connections do not use the dynamic table,
+ * and the header blocks from backend are sent to the frontend connections without re-encoding.
+ * <p>
+ * A backend connection is never blocked by a slow frontend connection, because it carries streams of other frontends.
+ * Instead, each stream on the backend connection has a small flow control window,
+ * and the WINDOW_UPDATE frame of the stream is held back until the frontend connection drains,
+ * so only the streams of the slow frontend are paused.
+ * <p>
+ * All methods should be called on the event loop thread.
+ */
+class Http2Multiplexer {
+    static final ByteArray PREFACE = ByteArray.from("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes());
+
+    static final int LEN_FRAME_HEAD = 9;
+    static final int MAX_FRAME_SIZE = 16384; // the default SETTINGS_MAX_FRAME_SIZE, vproxy never changes it
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+
+    static final int ERR_PROTOCOL_ERROR = 0x1;
+    static final int ERR_INTERNAL_ERROR = 0x2;
+    static final int ERR_FLOW_CONTROL_ERROR = 0x3;
+    static final int ERR_REFUSED_STREAM = 0x7;
+    static final int ERR_CANCEL = 0x8;
+    static final int ERR_ENHANCE_YOUR_CALM = 0xb;
+
+    // same as the processor: use big windows and send WINDOW_UPDATE frames every 64MBytes
+    static final int SIZE_DEFAULT_WINDOW = 65535;
+    static final int SIZE_WINDOW = (int) (Math.pow(2, 30) - 1);
+    static final int INCR_WINDOW_THRESHOLD = SIZE_WINDOW - (int) Math.pow(2, 26);
+    // the window of each stream on the backend connections, which limits the bytes buffered for a slow frontend stream
+    static final int SIZE_STREAM_WINDOW = 1024 * 1024;
+    // same as the buffer size of the hpack codec, bigger blocks cannot be decoded or encoded anyway
+    static final int MAX_HEADER_BLOCK_SIZE = 65536;
+
+    private static final ByteArray SEQ_SETTINGS_ACK = ByteArray.from(0, 0, 0, TYPE_SETTINGS, FLAG_ACK, 0, 0, 0, 0);
+
+    private final ProxyNetConfig config;
+    private final NetEventLoop loop;
+    final int maxConcurrentStreams;
+    final int headerTableSize;
+
+    private final Map<InetSocketAddress, List<Http2BackendConnection>> conns = new HashMap<>();
+    // the max concurrent streams advertised by each remote, used by new connections before their SETTINGS arrive
+    private final Map<InetSocketAddress, Integer> remoteMaxConcurrentStreams = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * A stream from the frontend connection to the backend connection, or a stream pushed by the backend.
+     * The client and the backend see different stream ids.
+     */
+    static class Stream {
+        final Http2MultiplexConnectionHandler frontend;
+        final int frontendStreamId;
+        final Http2BackendConnection backend;
+        final int backendStreamId;
+        final boolean pushed;
+
+        boolean frontendEnded; // END_STREAM received from the client
+        boolean backendEnded; // END_STREAM received from the backend
+        // System.nanoTime() when the stream is opened, 0 after the response HEADERS arrives or for pushed streams
+        long latencyBegin;
+        // the flow control window of the stream on the backend connection
+        int backendWindow = SIZE_STREAM_WINDOW;
+        // the WINDOW_UPDATE of the stream is held back until the frontend connection drains
+        boolean waitingForFrontend = false;
+
+        Stream(Http2MultiplexConnectionHandler frontend, int frontendStreamId,
+               Http2BackendConnection backend, int backendStreamId, boolean pushed) {
+            this.frontend = frontend;
+            this.frontendStreamId = frontendStreamId;
+            this.backend = backend;
+            this.backendStreamId = backendStreamId;
+            this.pushed = pushed;
+            this.frontendEnded = pushed; // the client cannot send anything on a pushed stream
+            this.latencyBegin = pushed ? 0 : System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return "Stream(" + frontendStreamId + " => " + backendStreamId + (pushed ? ", pushed" : "") + ")";
+        }
+    }
+
+    /**
+     * An error of the whole connection, GOAWAY with the error code should be sent before closing the connection.
+     */
+    static class ConnectionError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int errorCode;
+
+        ConnectionError(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+
+    /**
+     * Read frames from the input buffer, and collect header blocks.
+     */
+    static class FrameReader {
+        private ByteArrayChannel chnl = null;
+
+        ByteArray head; // the frame head, which can be modified and sent
+        ByteArray payload;
+        int length;
+        int type;
+        int flags;
+        int streamId;
+
+        // the header block which may consist of several frames
+        private boolean collectingBlock = false;
+        int blockType; // HEADERS or PUSH_PROMISE
+        int blockStreamId;
+        boolean blockEndStream;
+        int promisedStreamId;
+        ByteArray block;
+
+        /**
+         * @return true if a whole frame is read
+         */
+        boolean read(RingBuffer in) throws Exception {
+            if (chnl == null) {
+                chnl = ByteArrayChannel.fromEmpty(new byte[LEN_FRAME_HEAD]);
+                head = null;
+            }
+            if (head == null) {
+                in.writeTo(chnl);
+                if (chnl.free() != 0) {
+                    return false;
+                }
+                head = ByteArray.from(chnl.get());
+                length = head.uint24(0);
+                type = head.uint8(3);
+                flags = head.uint8(4);
+                streamId = head.int32(5) & 0x7fffffff;
+                if (length > MAX_FRAME_SIZE) {
+                    throw new Exception("frame size " + length + " exceeds " + MAX_FRAME_SIZE);
+                }
+                if (collectingBlock && type != TYPE_CONTINUATION) {
+                    throw new Exception("expecting CONTINUATION frame but got type " + type);
+                }
+                if (length == 0) { // the channel cannot be empty
+                    payload = ByteArray.from(new byte[0]);
+                    chnl = null;
+                    return true;
+                }
+                chnl = ByteArrayChannel.fromEmpty(new byte[length]);
+            }
+            in.writeTo(chnl);
+            if (chnl.free() != 0) {
+                return false;
+            }
+            payload = ByteArray.from(chnl.get());
+            chnl = null;
+            return true;
+        }
+
+        /**
+         * collect the header block fragment in HEADERS, PUSH_PROMISE or CONTINUATION frames,
+         * the padding and the priority are removed
+         *
+         * @return true if the header block is complete
+         */
+        boolean collectHeaderBlock() throws Exception {
+            if (type == TYPE_CONTINUATION) {
+                if (!collectingBlock || streamId != blockStreamId) {
+                    throw new Exception("unexpected CONTINUATION frame on stream " + streamId);
+                }
+                if (block.length() + payload.length() > MAX_HEADER_BLOCK_SIZE) {
+                    throw new ConnectionError(ERR_ENHANCE_YOUR_CALM, "header block on stream " + streamId + " exceeds " + MAX_HEADER_BLOCK_SIZE);
+                }
+                block = block.concat(payload);
+            } else {
+                if (streamId == 0) {
+                    throw new Exception("header block on stream 0");
+                }
+                int off = 0;
+                int len = payload.length();
+                if ((flags & FLAG_PADDED) != 0) {
+                    if (len == 0) {
+                        throw new Exception("missing padding length");
+                    }
+                    off = 1;
+                    len -= 1 + payload.uint8(0);
+                }
+                if (type == TYPE_HEADERS && (flags & FLAG_PRIORITY) != 0) {
+                    off += 5; // stream dependency and weight
+                    len -= 5;
+                }
+                if (type == TYPE_PUSH_PROMISE) {
+                    if (len < 4) {
+                        throw new Exception("missing promised stream id");
+                    }
+                    promisedStreamId = payload.int32(off) & 0x7fffffff;
+                    off += 4;
+                    len -= 4;
+                }
+                if (len < 0) {
+                    throw new Exception("invalid padding length of frame on stream " + streamId);
+                }
+                collectingBlock = true;
+                blockType = type;
+                blockStreamId = streamId;
+                blockEndStream = type == TYPE_HEADERS && (flags & FLAG_END_STREAM) != 0;
+                block = payload.sub(off, len);
+            }
+            if ((flags & FLAG_END_HEADERS) == 0) {
+                return false;
+            }
+            collectingBlock = false;
+            return true;
+        }
+    }
+
+    /**
+     * Frames to be written into the output buffer of a connection.
+     * Each frame is written as a whole, so frames from different streams do not interleave.
+     */
+    static class FrameQueue {
+        private final Connection conn;
+        private final int limit;
+        private final LinkedList<ByteArrayChannel> queue = new LinkedList<>();
+        private int queued = 0; // bytes in the queue
+
+        FrameQueue(Connection conn, int limit) {
+            this.conn = conn;
+            this.limit = limit;
+        }
+
+        void add(ByteArray frames) {
+            queue.add(frames.toChannel());
+            queued += frames.length();
+        }
+
+        /**
+         * move the frames into the output buffer of the connection
+         */
+        void flush() {
+            if (queue.isEmpty()) {
+                return;
+            }
+            NetEventLoop eventLoop = conn.getEventLoop();
+            if (eventLoop == null || eventLoop.getSelectorEventLoop().isClosed()) {
+                // the connections are being released with the event loop, e.g. the streams are reset when
+                // a frontend connection is removed, and the other connections cannot be written anymore
+                return;
+            }
+            conn.runNoQuickWrite(() -> {
+                ByteArrayChannel chnl;
+                while ((chnl = queue.peek()) != null) {
+                    queued -= conn.getOutBuffer().storeBytesFrom(chnl);
+                    if (chnl.used() != 0) {
+                        break; // the output buffer is full
+                    }
+                    queue.poll();
+                }
+            });
+        }
+
+        /**
+         * move the frames into the output buffer and write them to the channel immediately,
+         * it's used before the connection is closed, the frames which cannot be written are dropped
+         */
+        void flushBeforeClose() {
+            flush();
+            try {
+                conn.getOutBuffer().writeTo(conn.channel);
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug("failed to write the last frames to " + conn + ", err=" + e);
+            }
+        }
+
+        /**
+         * @return true if too many bytes are waiting, the peer should stop sending more
+         */
+        boolean isFull() {
+            return queued >= limit;
+        }
+    }
+
+    Http2Multiplexer(ProxyNetConfig config, NetEventLoop loop, int maxConcurrentStreams, int headerTableSize) {
+        this.config = config;
+        this.loop = loop;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.headerTableSize = headerTableSize;
+    }
+
+    int queueLimit() {
+        return config.outBufferSize;
+    }
+
+    /**
+     * @return a backend connection which can open a new stream, or null if failed to create the connection
+     */
+    Http2BackendConnection acquire(Connector connector) {
+        if (closed) {
+            return null;
+        }
+        List<Http2BackendConnection> list = conns.computeIfAbsent(connector.remote, k -> new ArrayList<>());
+        for (Http2BackendConnection c : list) {
+            if (c.canOpenStream()) {
+                return c;
+            }
+        }
+
+        ClientConnection clientConnection;
+        try {
+            clientConnection = connector.connect(
+                new ConnectionOpts().setTimeout(config.timeout),
+                RingBuffer.allocateDirectLazy(config.inBufferSize), RingBuffer.allocateDirectLazy(config.outBufferSize));
+        } catch (IOException e) {
+            Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
+            if (list.isEmpty()) {
+                conns.remove(connector.remote);
+            }
+            return null;
+        }
+        Http2BackendConnection c = new Http2BackendConnection(this, clientConnection);
+        try {
+            loop.addClientConnection(clientConnection, null, c);
+        } catch (IOException e) {
+            Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "add client connection " + clientConnection + " to loop failed");
+            clientConnection.close();
+            if (list.isEmpty()) {
+                conns.remove(connector.remote);
+            }
+            return null;
+        }
+        assert Logger.lowLevelDebug("new shared backend connection " + clientConnection + ", " + (list.size() + 1) + " connections to " + connector.remote);
+        list.add(c);
+        return c;
+    }
+
+    /**
+     * the max concurrent streams to use before the SETTINGS frame from the remote arrives
+     */
+    int initialMaxConcurrentStreams(InetSocketAddress remote) {
+        return remoteMaxConcurrentStreams.getOrDefault(remote, maxConcurrentStreams);
+    }
+
+    void recordMaxConcurrentStreams(InetSocketAddress remote, int value) {
+        remoteMaxConcurrentStreams.put(remote, value);
+    }
+
+    /**
+     * the connection should not be used for new streams
+     */
+    void remove(Http2BackendConnection c) {
+        List<Http2BackendConnection> list = conns.get(c.conn.remote);
+        if (list == null) {
+            return;
+        }
+        list.remove(c);
+        if (list.isEmpty()) {
+            conns.remove(c.conn.remote);
+        }
+    }
+
+    /**
+     * all streams on the connection are closed, keep at most one idle connection for each remote
+     */
+    void idle(Http2BackendConnection c) {
+        List<Http2BackendConnection> list = conns.get(c.conn.remote);
+        if (list == null) {
+            return;
+        }
+        for (Http2BackendConnection other : list) {
+            if (other != c && other.isIdle()) {
+                assert Logger.lowLevelDebug("close the idle shared backend connection " + c.conn);
+                c.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * close all connections, and stop creating new connections
+     */
+    void close() {
+        closed = true;
+        List<Http2BackendConnection> all = new ArrayList<>();
+        for (List<Http2BackendConnection> list : conns.values()) {
+            all.addAll(list);
+        }
+        for (Http2BackendConnection c : all) {
+            c.close();
+        }
+    }
+
+    static void tryRelease(Stream s) {
+        if (s.frontendEnded && s.backendEnded) {
+            release(s);
+        }
+    }
+
+    static void release(Stream s) {
+        assert Logger.lowLevelDebug("release " + s);
+        s.frontend.removeStream(s);
+        s.backend.removeStream(s);
+    }
+
+    static ByteArray frameHead(int length, int type, int flags, int streamId) {
+        ByteArray head = ByteArray.from(new byte[LEN_FRAME_HEAD]);
+        head.int24(0, length);
+        head.set(3, (byte) type);
+        head.set(4, (byte) flags);
+        head.int32(5, streamId);
+        return head;
+    }
+
+    /**
+     * @param settings identifier and value pairs
+     */
+    static ByteArray settings(int... settings) {
+        ByteArray payload = ByteArray.from(new byte[settings.length / 2 * 6]);
+        for (int i = 0; i < settings.length; i += 2) {
+            payload.int16(i * 3, settings[i]);
+            payload.int32(i * 3 + 2, settings[i + 1]);
+        }
+        return frameHead(payload.length(), TYPE_SETTINGS, 0, 0).concat(payload);
+    }
+
+    static ByteArray settingsAck() {
+        return SEQ_SETTINGS_ACK.copy();
+    }
+
+    static ByteArray pingAck(ByteArray payload) {
+        return frameHead(payload.length(), TYPE_PING, FLAG_ACK, 0).concat(payload);
+    }
+
+    static ByteArray windowUpdate(int increment) {
+        return windowUpdate(0, increment);
+    }
+
+    static ByteArray windowUpdate(int streamId, int increment) {
+        ByteArray payload = ByteArray.from(new byte[4]);
+        payload.int32(0, increment);
+        return frameHead(4, TYPE_WINDOW_UPDATE, 0, streamId).concat(payload);
+    }
+
+    static ByteArray rstStream(int streamId, int errorCode) {
+        ByteArray payload = ByteArray.from(new byte[4]);
+        payload.int32(0, errorCode);
+        return frameHead(4, TYPE_RST_STREAM, 0, streamId).concat(payload);
+    }
+
+    /**
+     * @param err the error handling the connection, the error code is taken from {@link ConnectionError},
+     *            or PROTOCOL_ERROR for other errors
+     */
+    static ByteArray goaway(int lastStreamId, Exception err) {
+        int errorCode = err instanceof ConnectionError ? ((ConnectionError) err).errorCode : ERR_PROTOCOL_ERROR;
+        ByteArray payload = ByteArray.from(new byte[8]);
+        payload.int32(0, lastStreamId);
+        payload.int32(4, errorCode);
+        return frameHead(8, TYPE_GOAWAY, 0, 0).concat(payload);
+    }
+
+    /**
+     * build a HEADERS or PUSH_PROMISE frame with the header block,
+     * CONTINUATION frames are appended if the block is too large for one frame
+     *
+     * @param prefix the promised stream id of PUSH_PROMISE frame, or null for HEADERS frame
+     */
+    static ByteArray headers(int type, int flags, int streamId, ByteArray prefix, ByteArray block) {
+        int prefixLen = prefix == null ? 0 : prefix.length();
+        int len = Math.min(block.length(), MAX_FRAME_SIZE - prefixLen);
+        int off = len;
+        ByteArray result = frameHead(prefixLen + len, type, flags | (off == block.length() ? FLAG_END_HEADERS : 0), streamId);
+        if (prefix != null) {
+            result = result.concat(prefix);
+        }
+        if (len > 0) {
+            result = result.concat(block.sub(0, len));
+        }
+        while (off < block.length()) {
+            len = Math.min(block.length() - off, MAX_FRAME_SIZE);
+            boolean end = off + len == block.length();
+            result = result.concat(frameHead(len, TYPE_CONTINUATION, end ? FLAG_END_HEADERS : 0, streamId))
+                .concat(block.sub(off, len));
+            off += len;
+        }
+        return result;
+    }
+}
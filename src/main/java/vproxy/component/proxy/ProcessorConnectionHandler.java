@@ -10,6 +10,7 @@ import vproxy.util.ByteArray;
 import vproxy.util.ringbuffer.ProxyOutputRingBuffer;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.*;
 
 @SuppressWarnings("unchecked")
@@ -20,6 +21,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     private final Connection frontendConnection;
     private final Processor.SubContext frontendSubCtx;
     private final NetEventLoop loop;
+    private final BackendConnectionPool pool;
 
     private final Map<BackendConnectionHandler, Integer> conn2intMap = new HashMap<>();
 
@@ -28,8 +30,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     // [0] will not be used
     // I believe that 1024 connections should be enough
 
-    public ProcessorConnectionHandler(ProxyNetConfig config, NetEventLoop loop, Connection frontendConnection, Processor processor, Processor.Context topCtx, Processor.SubContext frontendSubCtx) {
+    public ProcessorConnectionHandler(ProxyNetConfig config, NetEventLoop loop, BackendConnectionPool pool, Connection frontendConnection, Processor processor, Processor.Context topCtx, Processor.SubContext frontendSubCtx) {
         this.config = config;
+        this.pool = pool;
         this.processor = processor;
         this.topCtx = topCtx;
         this.frontendConnection = frontendConnection;
@@ -45,6 +48,40 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     void removeBackend(BackendConnectionHandler backend) {
         int connId = conn2intMap.remove(backend);
         conns[connId] = null;
+        if (backend.streams != null) {
+            backend.streams.endAll(); // the processor will not report them anymore
+        }
+    }
+
+    // forwards the streams reported by the processor to the connector of the backend connection
+    private static class StreamCounter implements Processor.StreamListener {
+        private final Connector connector;
+        private int streams = 0;
+
+        StreamCounter(Connector connector) {
+            this.connector = connector;
+        }
+
+        @Override
+        public void streamStarted() {
+            ++streams;
+            connector.streamStarted();
+        }
+
+        @Override
+        public void streamEnded() {
+            if (streams == 0) {
+                return; // already ended by endAll()
+            }
+            --streams;
+            connector.streamEnded();
+        }
+
+        void endAll() {
+            while (streams > 0) {
+                streamEnded();
+            }
+        }
     }
 
     /**
@@ -185,7 +222,12 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         private final Processor.SubContext subCtx;
         private final ClientConnection conn;
+        private BackendConnectionPool.Holder holder;
+        private final StreamCounter streams; // null if the connection has no connector
         private boolean isConnected = false;
+        // System.nanoTime() when data is sent and nothing is received after that, 0 for none
+        // the first sample of a new connection includes the time cost of connecting
+        private long latencyBegin = 0;
 
         private ByteArrayChannel chnl = null;
         private final BackendConnectionHandler.ByteFlow backendByteFlow = new BackendConnectionHandler.ByteFlow();
@@ -194,9 +236,19 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         BackendConnectionHandler(Processor.SubContext subCtx, ClientConnection conn) {
             this.subCtx = subCtx;
             this.conn = conn;
+            Connector connector = conn.getConnector();
+            if (connector == null) {
+                this.streams = null;
+            } else {
+                this.streams = new StreamCounter(connector);
+                processor.streamListener(topCtx, subCtx, streams);
+            }
         }
 
         void writeToBackend(ByteArray data) {
+            if (latencyBegin == 0) {
+                latencyBegin = System.nanoTime();
+            }
             backendByteFlow.write(data);
             doBackendWrite();
         }
@@ -287,8 +339,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     proxyToFrontend(len);
                 }
             } else {
+                ByteArray view = null;
                 if (chnl == null) {
-                    int len = processor.len(topCtx, subCtx);
+                    int len = processor.len(topCtx, subCtx, conn.getInBuffer());
                     assert Logger.lowLevelDebug("the expected message length is " + len);
                     if (len == 0) { // if nothing to read, then directly feed empty data to the processor
                         try {
@@ -309,24 +362,42 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                         readBackend(); // recursively handle more data
                         return;
                     }
-                    chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                    if (processor.acceptsView(topCtx, subCtx)) {
+                        view = conn.getInBuffer().view(len);
+                    }
+                    if (view == null) {
+                        chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                    }
                 }
-                conn.getInBuffer().writeTo(chnl);
-                if (chnl.free() != 0) {
-                    assert Logger.lowLevelDebug("not fulfilled yet, expecting " + chnl.free() + " length of data");
-                    // expecting more data
-                    return;
+                ByteArray data;
+                if (view == null) {
+                    conn.getInBuffer().writeTo(chnl);
+                    if (chnl.free() != 0) {
+                        assert Logger.lowLevelDebug("not fulfilled yet, expecting " + chnl.free() + " length of data");
+                        // expecting more data
+                        return;
+                    }
+                    assert Logger.lowLevelDebug("the message is totally read, feeding to processor");
+                    data = ByteArray.from(chnl.get());
+                    chnl = null;
+                } else {
+                    assert Logger.lowLevelDebug("the message is in the input buffer, feeding the view to processor");
+                    data = view;
                 }
-                assert Logger.lowLevelDebug("the message is totally read, feeding to processor");
-                ByteArray data = ByteArray.from(chnl.get());
-                chnl = null;
                 ByteArray dataToSend;
                 try {
                     dataToSend = processor.feed(topCtx, subCtx, data);
+                    if (view != null && dataToSend == view) {
+                        dataToSend = view.copy();
+                    }
                 } catch (Exception e) {
                     Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + conn + ", which corresponds to " + frontendConnection + ". err=" + e);
                     frontendConnection.close();
                     return;
+                } finally {
+                    if (view != null) {
+                        conn.getInBuffer().skip(view.length());
+                    }
                 }
                 assert Logger.lowLevelDebug("the processor return a message of length " + (dataToSend == null ? "null" : dataToSend.length()));
 
@@ -349,6 +420,14 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void readable(ConnectionHandlerContext ctx) {
+            if (latencyBegin != 0) {
+                // the first byte of the reply, which is a latency sample of the backend
+                Connector connector = conn.getConnector();
+                if (connector != null) {
+                    connector.latency(System.nanoTime() - latencyBegin);
+                }
+                latencyBegin = 0;
+            }
             readBackend();
         }
 
@@ -360,6 +439,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         @Override
         public void exception(ConnectionHandlerContext ctx, IOException err) {
             Logger.error(LogType.CONN_ERROR, "got exception when handling backend connection " + conn + ", closing frontend " + frontendConnection);
+            conn.close(); // the connection must not be kept in the pool
             frontendConnection.close();
             closeAll();
         }
@@ -368,10 +448,23 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         public void closed(ConnectionHandlerContext ctx) {
             if (frontendConnection.isClosed()) {
                 assert Logger.lowLevelDebug("backend connection " + ctx.connection + " closed, corresponding frontend is " + frontendConnection);
-            } else {
-                Logger.warn(LogType.CONN_ERROR, "backend connection " + ctx.connection + " closed before frontend connection " + frontendConnection);
+                closeAll();
+                return;
             }
-            closeAll();
+            if (processor.idle(topCtx, subCtx)) {
+                // nothing is being transmitted, simply remove the connection
+                assert Logger.lowLevelDebug("idle backend connection " + ctx.connection + " closed, remove it from " + frontendConnection);
+                removeBackend(this);
+                if (handlingConnection == this) {
+                    handlingConnection = null;
+                }
+                conn.getInBuffer().clean();
+                conn.getOutBuffer().clean();
+                return;
+            }
+            Logger.warn(LogType.CONN_ERROR, "backend connection " + ctx.connection + " closed before frontend connection " + frontendConnection);
+            // the data received from the backend should be sent before closing the frontend connection
+            closeAfterFlush();
         }
 
         @Override
@@ -537,6 +630,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         if (frontendConnection.getInBuffer().used() == 0) {
             return; // do nothing if the in buffer is empty
         }
+        if (closingAfterFlush) {
+            return; // the connection is about to close, do not handle more data
+        }
 
         assert Logger.lowLevelDebug("calling readFrontend()");
 
@@ -564,8 +660,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         } else {
             assert mode == Processor.Mode.handle;
 
+            ByteArray view = null;
             if (chnl == null) {
-                int len = processor.len(topCtx, frontendSubCtx);
+                int len = processor.len(topCtx, frontendSubCtx, frontendConnection.getInBuffer());
                 assert Logger.lowLevelDebug("expecting message with the length of " + len);
                 if (len == 0) { // if the length is 0, directly feed data to the processor
                     try {
@@ -584,25 +681,44 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     readFrontend(); // recursively try to handle more data
                     return;
                 }
-                chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                if (processor.acceptsView(topCtx, frontendSubCtx)) {
+                    view = frontendConnection.getInBuffer().view(len);
+                }
+                if (view == null) {
+                    chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                }
             }
-            frontendConnection.getInBuffer().writeTo(chnl);
-            if (chnl.free() != 0) {
-                // want to read more data
-                assert Logger.lowLevelDebug("not fulfilled yet, waiting for data of length " + chnl.free());
-                return;
+            ByteArray data;
+            if (view == null) {
+                frontendConnection.getInBuffer().writeTo(chnl);
+                if (chnl.free() != 0) {
+                    // want to read more data
+                    assert Logger.lowLevelDebug("not fulfilled yet, waiting for data of length " + chnl.free());
+                    return;
+                }
+                assert Logger.lowLevelDebug("data reading is done now");
+                data = ByteArray.from(chnl.get());
+                chnl = null;
+            } else {
+                // the data is handled without copying, and is consumed from the buffer after feeding
+                assert Logger.lowLevelDebug("data is in the input buffer, feeding the view");
+                data = view;
             }
-            assert Logger.lowLevelDebug("data reading is done now");
-            ByteArray data = ByteArray.from(chnl.get());
-            chnl = null;
             // handle the data
             ByteArray bytesToSend;
             try {
                 bytesToSend = processor.feed(topCtx, frontendSubCtx, data);
+                if (view != null && bytesToSend == view) {
+                    bytesToSend = view.copy();
+                }
             } catch (Exception e) {
                 Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + frontendConnection + ". err=" + e);
                 frontendConnection.close();
                 return;
+            } finally {
+                if (view != null) {
+                    frontendConnection.getInBuffer().skip(view.length());
+                }
             }
             {
                 ByteArray produced = processor.produce(topCtx, frontendSubCtx);
@@ -640,7 +756,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         assert connId == -1;
 
         // get connector
-        Connector connector = config.connGen.genConnector(frontendConnection);
+        Connector connector = config.connGen.genConnector(frontendConnection, processor.hashKey(topCtx, frontendSubCtx));
         if (connector == null) {
             Logger.info(LogType.NO_CLIENT_CONN, "the user code refuse to provide a remote endpoint");
             return null;
@@ -659,25 +775,40 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             }
         }
 
+        int newConnId = nextConnId();
+        if (newConnId == -1) {
+            Logger.error(LogType.IMPROPER_USE, "too many backend connections for " + frontendConnection);
+            return null;
+        }
+
+        // reuse an idle connection kept in the pool of the event loop
+        {
+            BackendConnectionHandler bh = reuseIdleConnection(connector.remote, newConnId);
+            if (bh != null) {
+                processor.chosen(topCtx, frontendSubCtx, bh.subCtx);
+                return bh;
+            }
+        }
+
         // get a new connection
         ClientConnection clientConnection;
         try {
             clientConnection = connector.connect(
                 new ConnectionOpts().setTimeout(config.timeout),
-                RingBuffer.allocateDirect(config.inBufferSize), ProxyOutputRingBuffer.allocateDirect(config.outBufferSize));
+                RingBuffer.allocateDirectLazy(config.inBufferSize), ProxyOutputRingBuffer.allocateDirectLazy(config.outBufferSize));
         } catch (IOException e) {
             Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
             return null;
         }
 
         // record in collections
-        int newConnId = ++cursor;
         BackendConnectionHandler bh =
             new BackendConnectionHandler(processor.initSub(topCtx, newConnId, connector.remote), clientConnection);
+        bh.holder = pool.hold(clientConnection, bh);
         recordBackend(bh, newConnId);
         // register
         try {
-            loop.addClientConnection(clientConnection, null, bh);
+            loop.addClientConnection(clientConnection, null, bh.holder);
         } catch (IOException e) {
             Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "add client connection " + clientConnection + " to loop failed");
 
@@ -698,9 +829,38 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         return bh;
     }
 
+    private int nextConnId() {
+        // ids of removed connections can be used again
+        for (int i = 0; i < conns.length - 1; ++i) {
+            cursor = cursor % (conns.length - 1) + 1; // [1, 1024]
+            if (conns[cursor] == null) {
+                return cursor;
+            }
+        }
+        return -1;
+    }
+
+    private BackendConnectionHandler reuseIdleConnection(InetSocketAddress remote, int newConnId) {
+        BackendConnectionPool.Holder holder = pool.acquire(remote);
+        if (holder == null) {
+            return null;
+        }
+        assert Logger.lowLevelDebug("reuse idle backend connection " + holder.conn + " for " + frontendConnection);
+        BackendConnectionHandler bh =
+            new BackendConnectionHandler(processor.initSub(topCtx, newConnId, remote), holder.conn);
+        bh.holder = holder;
+        bh.isConnected = true; // the pooled connection is already connected
+        holder.setOwner(bh);
+        recordBackend(bh, newConnId);
+        return bh;
+    }
+
     @Override
     public void writable(ConnectionHandlerContext ctx) {
         doFrontendWrite();
+        if (closingAfterFlush) {
+            tryCloseAfterFlush();
+        }
     }
 
     @Override
@@ -735,6 +895,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         for (int i : ints) {
             BackendConnectionHandler be = conns[i];
             removeBackend(be);
+            if (isReusable(be) && pool.release(be.holder)) {
+                continue; // the connection is kept for other frontend connections
+            }
             be.conn.close();
             be.conn.getInBuffer().clean();
             be.conn.getOutBuffer().clean();
@@ -743,4 +906,38 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         frontendConnection.getInBuffer().clean();
         frontendConnection.getOutBuffer().clean();
     }
+
+    private boolean isReusable(BackendConnectionHandler be) {
+        return !be.conn.isClosed()
+            && be.isConnected
+            && be.conn.getInBuffer().used() == 0
+            && be.conn.getOutBuffer().used() == 0
+            && be.backendByteFlow.currentSegment == null && be.backendByteFlow.sendingQueue.isEmpty()
+            && be.frontendByteFlow.currentSegment == null && be.frontendByteFlow.sendingQueue.isEmpty()
+            && processor.idle(topCtx, be.subCtx);
+    }
+
+    private boolean closingAfterFlush = false;
+
+    /**
+     * stop handling the frontend input,
+     * and close all connections when the pending data is written to the frontend connection
+     */
+    private void closeAfterFlush() {
+        closingAfterFlush = true;
+        tryCloseAfterFlush();
+    }
+
+    private void tryCloseAfterFlush() {
+        if (frontendConnection.getOutBuffer().used() != 0
+            || frontendByteFlow.currentSegment != null || !frontendByteFlow.sendingQueue.isEmpty()) {
+            return;
+        }
+        for (BackendConnectionHandler b : conn2intMap.keySet()) {
+            if (b.frontendByteFlow.currentSegment != null || !b.frontendByteFlow.sendingQueue.isEmpty()) {
+                return;
+            }
+        }
+        closeAll();
+    }
 }
@@ -2,6 +2,7 @@ package vproxy.component.proxy;
 
 import vproxy.connection.*;
 import vproxy.processor.Processor;
+import vproxy.processor.http2.Http2Processor;
 import vproxy.protocol.ProtocolConnectionHandler;
 import vproxy.protocol.ProtocolHandler;
 import vproxy.protocol.ProtocolHandlerContext;
@@ -12,6 +13,7 @@ import vproxy.util.ringbuffer.ProxyOutputRingBuffer;
 import java.io.IOException;
 import java.nio.channels.NetworkChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * when a connection is accepted, another connection will be generated by calling the callback handler<br>
@@ -50,6 +52,9 @@ public class Proxy {
                 case handler:
                     handleHandler(connection);
                     break;
+                case respCluster:
+                    handleRESPCluster(connection);
+                    break;
                 case direct:
                 default:
                     handleDirect(connection);
@@ -77,7 +82,7 @@ public class Proxy {
             ClientConnection clientConnection;
             try {
                 clientConnection = connector.connect(
-                    new ConnectionOpts().setTimeout(config.timeout),
+                    new ConnectionOpts().setTimeout(config.timeout).setRepeatRead(config.repeatRead),
                     /*switch the two buffers to make a PROXY*/connection.getOutBuffer(), connection.getInBuffer());
             } catch (IOException e) {
                 Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
@@ -216,6 +221,10 @@ public class Proxy {
         @SuppressWarnings("unchecked")
         private void handleProcessor(Connection frontendConnection) {
             Processor processor = config.connGen.processor();
+            if (processor instanceof Http2Processor && ((Http2Processor) processor).backendMultiplexing()) {
+                handleHttp2Multiplexing(frontendConnection, (Http2Processor) processor);
+                return;
+            }
             Processor.Context topCtx = processor.init(frontendConnection.remote);
             Processor.SubContext frontendSubCtx = processor.initSub(topCtx, 0, frontendConnection.remote);
             {
@@ -231,6 +240,7 @@ public class Proxy {
                 new ProcessorConnectionHandler(
                     config,
                     loop,
+                    backendConnectionPools.computeIfAbsent(loop, l -> new BackendConnectionPool()),
                     frontendConnection,
                     processor,
                     topCtx,
@@ -246,12 +256,63 @@ public class Proxy {
             }
         }
 
+        private void handleHttp2Multiplexing(Connection frontendConnection, Http2Processor processor) {
+            // retrieve an event loop
+            NetEventLoop loop = config.handleLoopProvider.get();
+
+            // the streams are dispatched to backend connections shared in the event loop
+            ConnectionHandler handler =
+                new Http2MultiplexConnectionHandler(
+                    config,
+                    http2Multiplexers.computeIfAbsent(loop, l -> new Http2Multiplexer(config, l,
+                        processor.backendMaxConcurrentStreams(), processor.backendHeaderTableSize())),
+                    frontendConnection,
+                    processor.headerTableSize()
+                );
+            try {
+                loop.addConnection(frontendConnection, null, handler);
+            } catch (IOException e) {
+                // and do some log
+                Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add new connection into loop failed", e);
+                // the connection should be closed by the lib
+                frontendConnection.close();
+            }
+        }
+
+        private void handleRESPCluster(Connection frontendConnection) {
+            RESPClusterConfig respConfig = config.connGen.respClusterConfig();
+            if (respCluster == null) {
+                // only accessed in the acceptor loop
+                respCluster = new RESPCluster(respConfig);
+            }
+            // retrieve an event loop
+            NetEventLoop loop = config.handleLoopProvider.get();
+
+            // each command is routed to the node owning the slot of its keys
+            RESPCluster cluster = respCluster;
+            RESPMultiplexer mux = respConfig.backendMultiplexing()
+                ? respMultiplexers.computeIfAbsent(loop, l -> new RESPMultiplexer(config, cluster, l, true, respConfig.backendConnections()))
+                : new RESPMultiplexer(config, cluster, loop, false, 1);
+            ConnectionHandler handler = new RESPClusterConnectionHandler(config, cluster, mux, frontendConnection);
+            try {
+                loop.addConnection(frontendConnection, null, handler);
+            } catch (IOException e) {
+                // and do some log
+                Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add new connection into loop failed", e);
+                // the connection should be closed by the lib
+                frontendConnection.close();
+            }
+        }
+
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
-            RingBuffer inBuffer = RingBuffer.allocateDirect(config.inBufferSize);
+            // the buffers hold no memory until data arrives,
+            // then memory is borrowed from the pool of the worker loop and returned when drained
+            // so idle connections do not pin any direct memory
+            RingBuffer inBuffer = RingBuffer.allocateDirectLazy(config.inBufferSize);
             RingBuffer outBuffer = config.connGen.type() == ConnectorGen.Type.processor
-                ? ProxyOutputRingBuffer.allocateDirect(config.outBufferSize)
-                : RingBuffer.allocateDirect(config.outBufferSize);
+                ? ProxyOutputRingBuffer.allocateDirectLazy(config.outBufferSize)
+                : RingBuffer.allocateDirectLazy(config.outBufferSize);
             return new Tuple<>(inBuffer, outBuffer);
         }
 
@@ -262,7 +323,9 @@ public class Proxy {
 
         @Override
         public ConnectionOpts connectionOpts() {
-            return new ConnectionOpts().setTimeout(config.timeout);
+            return new ConnectionOpts().setTimeout(config.timeout)
+                // repeated reading only works when the two connections share buffers
+                .setRepeatRead(config.repeatRead && config.connGen.type() == ConnectorGen.Type.direct);
         }
     }
 
@@ -329,6 +392,7 @@ public class Proxy {
 
     class SessionClientConnectionHandler implements ClientConnectionHandler {
         private final Session session;
+        private final long connectBegin = System.nanoTime(); // created right after connect() is called
         private boolean isConnected = false;
 
         SessionClientConnectionHandler(Session session) {
@@ -340,6 +404,12 @@ public class Proxy {
             assert Logger.lowLevelDebug("passive connection established: " + ctx.connection);
             isConnected = true; // it's connected
 
+            // the time cost of connecting is a latency sample of the backend
+            Connector connector = ctx.connection.getConnector();
+            if (connector != null) {
+                connector.latency(System.nanoTime() - connectBegin);
+            }
+
             // now we can add active connection into event loop
             // use event loop from context
             // the active and passive connection are handled in the same loop
@@ -413,6 +483,14 @@ public class Proxy {
     public final ProxyNetConfig config;
     private final ProxyEventHandler handler;
     private final ConcurrentHashSet<Session> sessions = new ConcurrentHashSet<>();
+    // idle backend connections of processors, each event loop has its own pool
+    private final Map<NetEventLoop, BackendConnectionPool> backendConnectionPools = new ConcurrentHashMap<>();
+    // shared backend connections of http/2, each event loop has its own multiplexer
+    private final Map<NetEventLoop, Http2Multiplexer> http2Multiplexers = new ConcurrentHashMap<>();
+    // the slot table of redis cluster, shared by all event loops
+    private RESPCluster respCluster;
+    // shared backend connections of redis, each event loop has its own multiplexer
+    private final Map<NetEventLoop, RESPMultiplexer> respMultiplexers = new ConcurrentHashMap<>();
 
     public Proxy(ProxyNetConfig config, ProxyEventHandler handler) {
         this.handler = handler;
@@ -425,6 +503,21 @@ public class Proxy {
 
     public void stop() {
         config.acceptLoop.removeServer(config.server);
+        for (Map.Entry<NetEventLoop, BackendConnectionPool> entry : backendConnectionPools.entrySet()) {
+            BackendConnectionPool pool = entry.getValue();
+            entry.getKey().getSelectorEventLoop().runOnLoop(pool::close);
+        }
+        backendConnectionPools.clear();
+        for (Map.Entry<NetEventLoop, Http2Multiplexer> entry : http2Multiplexers.entrySet()) {
+            Http2Multiplexer mux = entry.getValue();
+            entry.getKey().getSelectorEventLoop().runOnLoop(mux::close);
+        }
+        http2Multiplexers.clear();
+        for (Map.Entry<NetEventLoop, RESPMultiplexer> entry : respMultiplexers.entrySet()) {
+            RESPMultiplexer mux = entry.getValue();
+            entry.getKey().getSelectorEventLoop().runOnLoop(mux::close);
+        }
+        respMultiplexers.clear();
     }
 
     public int sessionCount() {
@@ -13,6 +13,7 @@ public class ProxyNetConfig {
 
     int inBufferSize = 128;
     int outBufferSize = 128;
+    boolean repeatRead = false; // only used for direct connections
 
     public ProxyNetConfig setAcceptLoop(NetEventLoop acceptLoop) {
         this.acceptLoop = acceptLoop;
@@ -76,4 +77,13 @@ public class ProxyNetConfig {
         this.timeout = timeout;
         return this;
     }
+
+    public boolean isRepeatRead() {
+        return repeatRead;
+    }
+
+    public ProxyNetConfig setRepeatRead(boolean repeatRead) {
+        this.repeatRead = repeatRead;
+        return this;
+    }
 }
@@ -0,0 +1,236 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.ClientConnection;
+import vproxy.connection.ClientConnectionHandler;
+import vproxy.connection.ClientConnectionHandlerContext;
+import vproxy.connection.ConnectionHandlerContext;
+import vproxy.redis.RESPScanner;
+import vproxy.redis.Serializer;
+import vproxy.util.ByteArray;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static vproxy.component.proxy.RESPCluster.*;
+
+/**
+ * A backend connection to a redis node, which may be shared by frontend connections.
+ * The commands are pipelined, and the replies are matched with the commands in order.
+ * <p>
+ * The commands are not written when they are sent, a flush is scheduled in the next tick of the event loop instead,
+ * so the commands sent during one iteration, usually from many frontend connections, are merged
+ * and written to the node with one syscall.
+ */
+class RESPBackendConnection implements ClientConnectionHandler {
+    private static final ByteArray ERR_NOT_CONNECTED = ByteArray.from(Serializer.fromErrorString("ERR cannot connect to the redis node"));
+    private static final ByteArray ERR_CLOSED = ByteArray.from(Serializer.fromErrorString("ERR the connection to the redis node is closed"));
+
+    private final RESPCluster cluster;
+    private final RESPMultiplexer mux;
+    final ClientConnection conn;
+    private final OutputQueue queue;
+    private final RESPScanner scanner;
+
+    private final LinkedList<Request> requests = new LinkedList<>(); // sent and waiting for replies
+    // the frontend connections which stopped reading because this connection is full
+    private final List<RESPClusterConnectionHandler> blocked = new ArrayList<>();
+    private byte[] batch; // the queued commands are merged here before writing, allocated when first used
+    private boolean flushScheduled = false;
+    private boolean flushing = false;
+    private boolean isConnected = false;
+    private boolean closed = false;
+
+    RESPBackendConnection(RESPCluster cluster, RESPMultiplexer mux, ClientConnection conn, int queueLimit) {
+        this.cluster = cluster;
+        this.mux = mux;
+        this.conn = conn;
+        this.queue = new OutputQueue(conn, queueLimit);
+        this.scanner = new RESPScanner(false, cluster.maxMessageLength);
+    }
+
+    /**
+     * @param prefix the command sent before the request and its reply is dropped, or null
+     */
+    void send(Request r, ByteArray prefix) {
+        if (closed) {
+            failed(r);
+            return;
+        }
+        requests.add(r);
+        queue.add(prefix == null ? r.raw : prefix.concat(r.raw));
+        if (!flushScheduled && isConnected) {
+            flushScheduled = true;
+            mux.loop.getSelectorEventLoop().nextTick(this::flushBatch);
+        }
+    }
+
+    boolean isFull() {
+        return queue.isFull();
+    }
+
+    /**
+     * the frontend connection stopped reading, and should be unblocked when this connection drains
+     */
+    void block(RESPClusterConnectionHandler frontend) {
+        if (!blocked.contains(frontend)) {
+            blocked.add(frontend);
+        }
+    }
+
+    /**
+     * move the queued commands into the output buffer.
+     * The commands are merged into one array, so that the output buffer turns readable only once,
+     * and the lib writes all of them at once
+     */
+    private void flushBatch() {
+        if (flushing) {
+            return; // writable is called by the lib when storing into the output buffer
+        }
+        flushScheduled = false;
+        if (closed || !isConnected) {
+            return;
+        }
+        boolean wasFull = queue.isFull();
+        flushing = true;
+        try {
+            int free;
+            while (!closed && !queue.isEmpty() && (free = conn.getOutBuffer().free()) != 0) {
+                if (queue.size() == 1) {
+                    queue.flushOne();
+                    continue;
+                }
+                if (batch == null) {
+                    batch = new byte[conn.getOutBuffer().capacity()];
+                }
+                ByteBuffer buf = ByteBuffer.wrap(batch, 0, Math.min(free, batch.length));
+                queue.drainTo(buf);
+                conn.getOutBuffer().storeBytesFrom(ByteArrayChannel.from(batch, 0, buf.position(), 0));
+            }
+        } finally {
+            flushing = false;
+        }
+        if (wasFull && !queue.isFull()) {
+            unblock();
+        }
+    }
+
+    private void unblock() {
+        if (blocked.isEmpty()) {
+            return;
+        }
+        List<RESPClusterConnectionHandler> list = new ArrayList<>(blocked);
+        blocked.clear();
+        for (RESPClusterConnectionHandler frontend : list) {
+            frontend.unblock(this);
+        }
+    }
+
+    private void readBackend() {
+        while (!closed) {
+            try {
+                if (!scanner.next()) {
+                    if (scanner.read(conn.getInBuffer()) == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                Request r = requests.peek();
+                if (r == null) {
+                    throw new Exception("unexpected reply");
+                }
+                if (r.skipReplies > 0) {
+                    --r.skipReplies;
+                    continue;
+                }
+                requests.poll();
+                ByteArray reply = scanner.message();
+                if (r.frontend == null) {
+                    cluster.refreshed(reply, conn.remote);
+                } else {
+                    r.frontend.replied(r, reply);
+                }
+            } catch (Exception e) {
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, "cannot handle data from redis node " + conn + ". err=" + e);
+                close();
+                return;
+            }
+        }
+    }
+
+    private void failed(Request r) {
+        if (r.frontend == null) {
+            cluster.refreshFailed();
+        } else {
+            r.frontend.replied(r, isConnected ? ERR_CLOSED : ERR_NOT_CONNECTED);
+        }
+    }
+
+    @Override
+    public void connected(ClientConnectionHandlerContext ctx) {
+        isConnected = true;
+        flushBatch();
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        readBackend();
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flushBatch();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        Logger.error(LogType.CONN_ERROR, "got exception when handling redis node connection " + conn + ", failing " + requests.size() + " requests", err);
+        close();
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        assert Logger.lowLevelDebug("redis node connection " + conn + " closed, failing " + requests.size() + " requests");
+        close();
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        if (!closed) {
+            Logger.error(LogType.IMPROPER_USE, "redis node connection " + conn + " removed from event loop");
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!isConnected) {
+            cluster.nodeFailed();
+        }
+        conn.close();
+        conn.getInBuffer().clean();
+        conn.getOutBuffer().clean();
+        mux.remove(this);
+        unblock();
+
+        // the requests may or may not be executed by the node, so they are not retried
+        List<Request> list = new ArrayList<>(requests);
+        requests.clear();
+        for (Request r : list) {
+            failed(r);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RESPBackendConnection(" + conn + ", requests=" + requests.size() + ")";
+    }
+}
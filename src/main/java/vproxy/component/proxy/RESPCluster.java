@@ -0,0 +1,270 @@
+package vproxy.component.proxy;
+
+import vproxy.app.Config;
+import vproxy.connection.Connection;
+import vproxy.processor.resp.RESPHashSlot;
+import vproxy.redis.RESPParser;
+import vproxy.util.ByteArray;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.RingBuffer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The slot table of a redis cluster, shared by all event loops of a Proxy.
+ * <p>
+ * The table is loaded with CLUSTER SLOTS, which is sent when the table is not loaded yet, or a MOVED redirection is received.
+ * Before the table is loaded, the commands are sent to the backend chosen by the server groups,
+ * and the MOVED redirections route them to the right nodes.
+ * If the backend is not a cluster (CLUSTER SLOTS fails), the commands are always sent to the chosen backend.
+ * <p>
+ * The table can be read from any thread, the entries may be stale, which is corrected by the redirections.
+ */
+class RESPCluster {
+    static final ByteArray CLUSTER_SLOTS = ByteArray.from("*2\r\n$7\r\nCLUSTER\r\n$5\r\nSLOTS\r\n".getBytes());
+    static final ByteArray ASKING = ByteArray.from("*1\r\n$6\r\nASKING\r\n".getBytes());
+
+    static final int MAX_PENDING_REQUESTS = 1024; // of one frontend connection, stop reading requests when reached
+    static final int MAX_REDIRECTIONS = 5; // of one request, the last redirection error is sent to the client
+    private static final int REFRESH_INTERVAL = 1000; // ms
+
+    final int maxMessageLength;
+    private final boolean staticSlots;
+    private volatile InetSocketAddress[] slots; // slot => node, null means unknown
+
+    private volatile boolean needRefresh;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile long lastRefresh = 0;
+
+    /**
+     * A command from the frontend connection, or the CLUSTER SLOTS command sent by the proxy.
+     */
+    static class Request {
+        final RESPClusterConnectionHandler frontend; // null for the CLUSTER SLOTS command sent by the proxy
+        final ByteArray raw;
+        final int slot; // or RESPCommands.NO_KEY
+
+        ByteArray reply; // the reply to be sent to the client, set when the reply arrives
+        int redirections = 0;
+        int skipReplies = 0; // replies to drop before the reply of this request, i.e. the reply of ASKING
+
+        Request(RESPClusterConnectionHandler frontend, ByteArray raw, int slot) {
+            this.frontend = frontend;
+            this.raw = raw;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Bytes to be written into the output buffer of a connection.
+     */
+    static class OutputQueue {
+        private final Connection conn;
+        private final int limit;
+        private final LinkedList<ByteArrayChannel> queue = new LinkedList<>();
+        private int queued = 0; // bytes in the queue
+
+        OutputQueue(Connection conn, int limit) {
+            this.conn = conn;
+            this.limit = limit;
+        }
+
+        void add(ByteArray bytes) {
+            queue.add(bytes.toChannel());
+            queued += bytes.length();
+        }
+
+        /**
+         * move the bytes into the output buffer of the connection
+         */
+        void flush() {
+            if (queue.isEmpty()) {
+                return;
+            }
+            conn.runNoQuickWrite(() -> {
+                ByteArrayChannel chnl;
+                while ((chnl = queue.peek()) != null) {
+                    queued -= conn.getOutBuffer().storeBytesFrom(chnl);
+                    if (chnl.used() != 0) {
+                        break; // the output buffer is full
+                    }
+                    queue.poll();
+                }
+            });
+        }
+
+        /**
+         * move the first element into the output buffer of the connection, the lib may write it immediately
+         */
+        void flushOne() {
+            ByteArrayChannel chnl = queue.peek();
+            if (chnl == null) {
+                return;
+            }
+            int n = conn.getOutBuffer().storeBytesFrom(chnl);
+            if (n > 0) {
+                queued -= n;
+            }
+            if (chnl.used() == 0) {
+                queue.poll();
+            }
+        }
+
+        /**
+         * move the bytes into the buffer until it's full
+         */
+        void drainTo(ByteBuffer buf) {
+            ByteArrayChannel chnl;
+            while (buf.hasRemaining() && (chnl = queue.peek()) != null) {
+                queued -= chnl.read(buf);
+                if (chnl.used() == 0) {
+                    queue.poll();
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        int size() {
+            return queue.size();
+        }
+
+        /**
+         * @return true if too many bytes are waiting, the peer should stop sending more
+         */
+        boolean isFull() {
+            return queued >= limit;
+        }
+    }
+
+    RESPCluster(RESPClusterConfig config) {
+        this.maxMessageLength = config.maxMessageLength();
+        InetSocketAddress[] staticSlots = config.staticSlots();
+        this.staticSlots = staticSlots != null;
+        this.slots = staticSlots != null ? staticSlots.clone() : new InetSocketAddress[RESPHashSlot.SLOTS];
+        this.needRefresh = staticSlots == null;
+    }
+
+    /**
+     * @return the node owning the slot, or null if unknown
+     */
+    InetSocketAddress owner(int slot) {
+        return slots[slot];
+    }
+
+    void moved(int slot, InetSocketAddress node) {
+        slots[slot] = node;
+        // other slots may be moved as well
+        needRefresh = !staticSlots;
+    }
+
+    /**
+     * a node cannot be connected, the slots may be served by other nodes now
+     */
+    void nodeFailed() {
+        needRefresh = !staticSlots;
+    }
+
+    /**
+     * @return true if the caller should send CLUSTER SLOTS, and call {@link #refreshed(ByteArray, InetSocketAddress)}
+     * or {@link #refreshFailed()} when done
+     */
+    boolean startRefresh() {
+        if (!needRefresh || Config.currentTimestamp - lastRefresh < REFRESH_INTERVAL) {
+            return false;
+        }
+        if (!refreshing.compareAndSet(false, true)) {
+            return false;
+        }
+        lastRefresh = Config.currentTimestamp;
+        return true;
+    }
+
+    /**
+     * @param reply the reply of CLUSTER SLOTS
+     * @param node  the node which CLUSTER SLOTS is sent to
+     */
+    void refreshed(ByteArray reply, InetSocketAddress node) {
+        try {
+            if (reply.get(0) == '-') {
+                // the backend is not a cluster, no need to refresh until redirected
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, "CLUSTER SLOTS failed on " + node + ": " + new String(reply.toJavaArray()).trim());
+                needRefresh = false;
+                return;
+            }
+            InetSocketAddress[] newSlots;
+            try {
+                newSlots = parseClusterSlots(reply, node);
+            } catch (Exception e) {
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, "invalid CLUSTER SLOTS reply from " + node + ": " + e);
+                return;
+            }
+            slots = newSlots;
+            needRefresh = false;
+            assert Logger.lowLevelDebug("the slot table is refreshed from " + node);
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    void refreshFailed() {
+        refreshing.set(false);
+    }
+
+    /*
+     * each element of the reply is:
+     * start slot, end slot, master [ip, port, id], replicas...
+     */
+    private InetSocketAddress[] parseClusterSlots(ByteArray reply, InetSocketAddress node) throws Exception {
+        RESPParser parser = new RESPParser(reply.length());
+        RingBuffer rb = RingBuffer.allocate(reply.length());
+        rb.storeBytesFrom(reply.toChannel());
+        if (parser.feed(rb) != 0) {
+            throw new Exception(parser.getErrorMessage());
+        }
+        Object o = parser.getResult().getJavaObject();
+        if (!(o instanceof List)) {
+            throw new Exception("not an array");
+        }
+        InetSocketAddress[] newSlots = new InetSocketAddress[RESPHashSlot.SLOTS];
+        for (Object e : (List<?>) o) {
+            if (!(e instanceof List) || ((List<?>) e).size() < 3) {
+                throw new Exception("invalid slot range " + e);
+            }
+            List<?> range = (List<?>) e;
+            Object start = range.get(0);
+            Object end = range.get(1);
+            Object master = range.get(2);
+            if (!(start instanceof Integer) || !(end instanceof Integer)
+                || !(master instanceof List) || ((List<?>) master).size() < 2) {
+                throw new Exception("invalid slot range " + e);
+            }
+            int startSlot = (Integer) start;
+            int endSlot = (Integer) end;
+            Object ip = ((List<?>) master).get(0);
+            Object port = ((List<?>) master).get(1);
+            if (startSlot < 0 || endSlot >= RESPHashSlot.SLOTS || startSlot > endSlot || !(ip instanceof String) || !(port instanceof Integer)) {
+                throw new Exception("invalid slot range " + e);
+            }
+            // an empty ip means the node which the command is sent to
+            InetSocketAddress address = ((String) ip).isEmpty()
+                ? new InetSocketAddress(node.getAddress(), (Integer) port)
+                : RESPClusterConfig.address((String) ip, (Integer) port);
+            if (address == null) {
+                throw new Exception("invalid address in " + e);
+            }
+            for (int i = startSlot; i <= endSlot; ++i) {
+                newSlots[i] = address;
+            }
+        }
+        return newSlots;
+    }
+}
@@ -0,0 +1,172 @@
+package vproxy.component.proxy;
+
+import vproxy.processor.resp.RESPHashSlot;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Config of the redis cluster aware proxy, see {@link ConnectorGen.Type#respCluster}.
+ * <p>
+ * Each command is routed to the node which owns the hash slot of its keys,
+ * and the MOVED and ASK redirections are followed, so the clients do not need to know about the cluster.
+ * The slot table is loaded with CLUSTER SLOTS from the backends, or configured with -DRESP_CLUSTER_SLOTS.
+ * <p>
+ * A command must wait for the replies of previous commands on other nodes, and may be sent again when redirected,
+ * which cannot be expressed with the frame based methods of a processor,
+ * so the connections are handled by {@link RESPClusterConnectionHandler}.
+ */
+public class RESPClusterConfig {
+    // the static slot table, e.g. 0-8191=127.0.0.1:7000,8192-16383=127.0.0.1:7001
+    // CLUSTER SLOTS is not used when it's set, but the MOVED redirections still update the table
+    private static final InetSocketAddress[] RESP_CLUSTER_SLOTS;
+    // max length of a request or a reply
+    private static final int RESP_MAX_MESSAGE_LENGTH;
+    // share the backend connections among frontend connections of an event loop
+    private static final boolean RESP_BACKEND_MULTIPLEXING;
+    // max connections to one redis node from one event loop when multiplexing
+    private static final int RESP_BACKEND_CONNECTIONS;
+
+    static {
+        {
+            String slotsStr = System.getProperty("RESP_CLUSTER_SLOTS");
+            if (slotsStr == null) {
+                RESP_CLUSTER_SLOTS = null;
+            } else {
+                RESP_CLUSTER_SLOTS = parseSlots(slotsStr);
+                Logger.alert("RESP_CLUSTER_SLOTS is set to " + slotsStr);
+            }
+        }
+        {
+            int maxMessageLength = 512 * 1024 * 1024; // the max bulk length of redis
+            String maxMessageLengthStr = System.getProperty("RESP_MAX_MESSAGE_LENGTH");
+            if (maxMessageLengthStr != null) {
+                maxMessageLength = Integer.parseInt(maxMessageLengthStr);
+                Logger.alert("RESP_MAX_MESSAGE_LENGTH is set to " + maxMessageLength);
+            }
+            if (maxMessageLength <= 0)
+                throw new RuntimeException("-DRESP_MAX_MESSAGE_LENGTH value <= 0");
+            RESP_MAX_MESSAGE_LENGTH = maxMessageLength;
+        }
+        {
+            String multiplexingStr = System.getProperty("RESP_BACKEND_MULTIPLEXING");
+            if (multiplexingStr == null) {
+                RESP_BACKEND_MULTIPLEXING = true;
+            } else {
+                RESP_BACKEND_MULTIPLEXING = !multiplexingStr.equals("false");
+                Logger.alert("RESP_BACKEND_MULTIPLEXING is set to " + RESP_BACKEND_MULTIPLEXING);
+            }
+        }
+        {
+            int backendConnections = 1;
+            String backendConnectionsStr = System.getProperty("RESP_BACKEND_CONNECTIONS");
+            if (backendConnectionsStr != null) {
+                backendConnections = Integer.parseInt(backendConnectionsStr);
+                Logger.alert("RESP_BACKEND_CONNECTIONS is set to " + backendConnections);
+            }
+            if (backendConnections <= 0)
+                throw new RuntimeException("-DRESP_BACKEND_CONNECTIONS value <= 0");
+            RESP_BACKEND_CONNECTIONS = backendConnections;
+        }
+    }
+
+    private static InetSocketAddress[] parseSlots(String slotsStr) {
+        InetSocketAddress[] slots = new InetSocketAddress[RESPHashSlot.SLOTS];
+        for (String range : slotsStr.split(",")) {
+            range = range.trim();
+            int eq = range.indexOf('=');
+            int dash = range.indexOf('-');
+            if (eq == -1) {
+                throw new RuntimeException("-DRESP_CLUSTER_SLOTS invalid range " + range + ", expecting ${start}-${end}=${ip}:${port}");
+            }
+            InetSocketAddress address = parseAddress(range.substring(eq + 1));
+            if (address == null) {
+                throw new RuntimeException("-DRESP_CLUSTER_SLOTS invalid address in " + range);
+            }
+            int start;
+            int end;
+            try {
+                if (dash == -1 || dash > eq) {
+                    start = Integer.parseInt(range.substring(0, eq));
+                    end = start;
+                } else {
+                    start = Integer.parseInt(range.substring(0, dash));
+                    end = Integer.parseInt(range.substring(dash + 1, eq));
+                }
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("-DRESP_CLUSTER_SLOTS invalid slots in " + range);
+            }
+            if (start < 0 || end >= RESPHashSlot.SLOTS || start > end) {
+                throw new RuntimeException("-DRESP_CLUSTER_SLOTS invalid slots in " + range);
+            }
+            for (int i = start; i <= end; ++i) {
+                slots[i] = address;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * @param address ${ip}:${port}, the format used in the MOVED and ASK errors
+     * @return the address, or null if it's invalid. The host names are not resolved.
+     */
+    public static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon == -1) {
+            return null;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return address(address.substring(0, colon), port);
+    }
+
+    /**
+     * @return the address, or null if it's invalid. The host names are not resolved.
+     */
+    public static InetSocketAddress address(String ip, int port) {
+        if (ip.startsWith("[") && ip.endsWith("]")) {
+            ip = ip.substring(1, ip.length() - 1);
+        }
+        byte[] bytes = Utils.parseIpString(ip);
+        if (bytes == null || port <= 0 || port > 65535) {
+            return null;
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(bytes), port);
+        } catch (UnknownHostException e) {
+            return null; // will not happen, the length of the address is checked
+        }
+    }
+
+    /**
+     * @return the statically configured slot table, or null if not configured
+     */
+    public InetSocketAddress[] staticSlots() {
+        return RESP_CLUSTER_SLOTS;
+    }
+
+    public int maxMessageLength() {
+        return RESP_MAX_MESSAGE_LENGTH;
+    }
+
+    /**
+     * @return true if the commands of frontend connections handled by one event loop are pipelined on shared backend connections
+     */
+    public boolean backendMultiplexing() {
+        return RESP_BACKEND_MULTIPLEXING;
+    }
+
+    /**
+     * @return max connections to one redis node from one event loop when multiplexing
+     */
+    public int backendConnections() {
+        return RESP_BACKEND_CONNECTIONS;
+    }
+}
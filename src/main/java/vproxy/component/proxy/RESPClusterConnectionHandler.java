@@ -0,0 +1,302 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.Connection;
+import vproxy.connection.ConnectionHandler;
+import vproxy.connection.ConnectionHandlerContext;
+import vproxy.connection.Connector;
+import vproxy.processor.resp.RESPCommands;
+import vproxy.processor.resp.RESPHashSlot;
+import vproxy.redis.RESPScanner;
+import vproxy.redis.Serializer;
+import vproxy.util.ByteArray;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.RingBuffer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+
+import static vproxy.component.proxy.RESPCluster.*;
+
+/**
+ * Handles a frontend redis connection, and routes each command to the redis node owning the slot of its keys.
+ * <p>
+ * The replies are sent to the client in the order of the commands, no matter which nodes the commands are sent to.
+ * MOVED and ASK redirections are followed without letting the client know.
+ * The commands without keys are sent to the backend chosen by the server groups.
+ * The backend connections are retrieved from the {@link RESPMultiplexer}, which may be shared with other frontend connections.
+ */
+class RESPClusterConnectionHandler implements ConnectionHandler {
+    private static final ByteArray OK = ByteArray.from("+OK\r\n".getBytes());
+    private static final ByteArray ERR_CROSS_SLOT = ByteArray.from(Serializer.fromErrorString("CROSSSLOT Keys in request don't hash to the same slot"));
+    private static final ByteArray ERR_NO_BACKEND = ByteArray.from(Serializer.fromErrorString("ERR no redis node available"));
+
+    private final ProxyNetConfig config;
+    private final RESPCluster cluster;
+    private final RESPMultiplexer mux;
+    private final Connection frontendConnection;
+    private final OutputQueue queue;
+    private final RESPScanner scanner;
+
+    private final LinkedList<Request> requests = new LinkedList<>(); // waiting for replies, in the order they are received
+    // the backend connection which this connection is waiting for, the frontend input is not read until it drains
+    private RESPBackendConnection blockedBy = null;
+    private boolean quit = false; // QUIT is received, the connection is closed after the replies are sent
+    private boolean closed = false;
+
+    RESPClusterConnectionHandler(ProxyNetConfig config, RESPCluster cluster, RESPMultiplexer mux, Connection frontendConnection) {
+        this.config = config;
+        this.cluster = cluster;
+        this.mux = mux;
+        this.frontendConnection = frontendConnection;
+        this.queue = new OutputQueue(frontendConnection, config.outBufferSize);
+        this.scanner = new RESPScanner(true, cluster.maxMessageLength);
+    }
+
+    /**
+     * the reply of the request arrives, or the request failed
+     */
+    void replied(Request r, ByteArray reply) {
+        if (closed) {
+            return;
+        }
+        if (reply.get(0) == '-' && r.redirections < MAX_REDIRECTIONS && redirect(r, reply)) {
+            return;
+        }
+        r.reply = reply;
+        flushReplies();
+        readFrontend();
+    }
+
+    /**
+     * the backend connection which this connection was waiting for is drained
+     */
+    void unblock(RESPBackendConnection backend) {
+        if (blockedBy != backend) {
+            return;
+        }
+        blockedBy = null;
+        readFrontend();
+    }
+
+    /**
+     * -MOVED {slot} {ip}:{port}
+     * -ASK {slot} {ip}:{port}
+     *
+     * @return true if the request is sent again
+     */
+    private boolean redirect(Request r, ByteArray reply) {
+        String err = new String(reply.toJavaArray()).trim();
+        boolean moved = err.startsWith("-MOVED ");
+        if (!moved && !err.startsWith("-ASK ")) {
+            return false;
+        }
+        String[] arr = err.split(" ");
+        if (arr.length != 3) {
+            return false;
+        }
+        int slot;
+        try {
+            slot = Integer.parseInt(arr[1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        InetSocketAddress node = RESPClusterConfig.parseAddress(arr[2]);
+        if (node == null || slot < 0 || slot >= RESPHashSlot.SLOTS) {
+            return false;
+        }
+        assert Logger.lowLevelDebug("request of slot " + slot + " from " + frontendConnection + " is redirected: " + err);
+        ++r.redirections;
+        if (moved) {
+            cluster.moved(slot, node);
+        }
+        RESPBackendConnection backend = backend(node);
+        if (backend == null) {
+            return false;
+        }
+        if (moved) {
+            backend.send(r, null);
+        } else {
+            r.skipReplies = 1;
+            backend.send(r, ASKING);
+        }
+        refreshIfNeeded(backend);
+        return true;
+    }
+
+    private void flushReplies() {
+        Request r;
+        while ((r = requests.peek()) != null && r.reply != null) {
+            requests.poll();
+            queue.add(r.reply);
+        }
+        flush();
+    }
+
+    private void flush() {
+        queue.flush();
+        if (quit && requests.isEmpty() && queue.isEmpty() && frontendConnection.getOutBuffer().used() == 0) {
+            assert Logger.lowLevelDebug("all replies are sent to " + frontendConnection + " after QUIT");
+            // may be called in the writable callback, the lib still operates on the connection after the callback
+            mux.loop.getSelectorEventLoop().nextTick(this::closeAll);
+        }
+    }
+
+    private void readFrontend() {
+        RingBuffer in = frontendConnection.getInBuffer();
+        while (!closed && !quit && blockedBy == null && requests.size() < MAX_PENDING_REQUESTS && !queue.isFull()) {
+            try {
+                if (!scanner.next()) {
+                    if (scanner.read(in) == 0) {
+                        return;
+                    }
+                    continue;
+                }
+            } catch (Exception e) {
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + frontendConnection + ". err=" + e);
+                closeAll();
+                return;
+            }
+            handleRequest();
+        }
+    }
+
+    private void handleRequest() {
+        if (scanner.argc() == 0) {
+            return; // empty request, ignored as redis does
+        }
+        String name = scanner.argLowerCase(0);
+        if (name.equals("quit")) {
+            quit = true;
+            replyLocally(OK);
+            return;
+        }
+        String err = RESPCommands.unsupported(name);
+        if (err == null && mux.shared && RESPCommands.blocking(scanner, name)) {
+            // other frontend connections would wait for it on the shared backend connection
+            err = "ERR blocking command '" + name + "' is not supported on shared redis node connections";
+        }
+        if (err != null) {
+            replyLocally(ByteArray.from(Serializer.fromErrorString(err)));
+            return;
+        }
+        int slot = RESPCommands.slot(scanner, name);
+        if (slot == RESPCommands.CROSS_SLOT) {
+            replyLocally(ERR_CROSS_SLOT);
+            return;
+        }
+        Request r = new Request(this, scanner.message(), slot);
+        requests.add(r);
+
+        InetSocketAddress node = slot == RESPCommands.NO_KEY ? null : cluster.owner(slot);
+        RESPBackendConnection backend = node == null ? anyBackend() : backend(node);
+        if (backend == null) {
+            r.reply = ERR_NO_BACKEND;
+            flushReplies();
+            return;
+        }
+        backend.send(r, null);
+        refreshIfNeeded(backend);
+        if (backend.isFull()) {
+            assert Logger.lowLevelDebug("the backend " + backend + " is full, stop reading " + frontendConnection);
+            blockedBy = backend;
+            backend.block(this);
+        }
+    }
+
+    private void replyLocally(ByteArray reply) {
+        Request r = new Request(this, null, RESPCommands.NO_KEY);
+        r.reply = reply;
+        requests.add(r);
+        flushReplies();
+    }
+
+    private void refreshIfNeeded(RESPBackendConnection backend) {
+        if (cluster.startRefresh()) {
+            assert Logger.lowLevelDebug("refresh the slot table with " + backend);
+            backend.send(new Request(null, CLUSTER_SLOTS, RESPCommands.NO_KEY), null);
+        }
+    }
+
+    /**
+     * @return the connection to the backend chosen by the server groups, or null if failed
+     */
+    private RESPBackendConnection anyBackend() {
+        Connector connector = config.connGen.genConnector(frontendConnection);
+        if (connector == null) {
+            Logger.info(LogType.NO_CLIENT_CONN, "the user code refuse to provide a remote endpoint");
+            return null;
+        }
+        return mux.acquire(connector);
+    }
+
+    /**
+     * @return the connection to the node, or null if failed
+     */
+    private RESPBackendConnection backend(InetSocketAddress node) {
+        RESPBackendConnection backend = mux.existing(node);
+        if (backend != null) {
+            return backend;
+        }
+        Connector connector = config.connGen.genConnector(frontendConnection, node);
+        if (connector == null) {
+            Logger.info(LogType.NO_CLIENT_CONN, "the user code refuse to provide the remote endpoint " + node);
+            return null;
+        }
+        return mux.acquire(connector);
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        readFrontend();
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flush();
+        readFrontend();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        Logger.error(LogType.CONN_ERROR, "connection got exception", err);
+        closeAll();
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        assert Logger.lowLevelDebug("frontend connection is closed: " + frontendConnection);
+        closeAll();
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        if (!frontendConnection.isClosed())
+            Logger.error(LogType.IMPROPER_USE, "frontend connection " + frontendConnection + " removed from event loop");
+        closeAll();
+    }
+
+    private void closeAll() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        assert Logger.lowLevelDebug("close " + frontendConnection + " with " + requests.size() + " requests waiting");
+        requests.clear();
+        blockedBy = null;
+        if (!mux.shared) {
+            mux.close();
+        }
+        // the replies of the requests on shared connections are dropped when they arrive
+        frontendConnection.close();
+        frontendConnection.getInBuffer().clean();
+        frontendConnection.getOutBuffer().clean();
+    }
+
+    @Override
+    public String toString() {
+        return "RESPClusterConnectionHandler(" + frontendConnection + ", requests=" + requests.size() + ")";
+    }
+}
@@ -0,0 +1,128 @@
+package vproxy.component.proxy;
+
+import vproxy.connection.ClientConnection;
+import vproxy.connection.ConnectionOpts;
+import vproxy.connection.Connector;
+import vproxy.connection.NetEventLoop;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.RingBuffer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pipelined backend connections to the redis nodes, grouped by remote address.
+ * <p>
+ * When shared, commands of all frontend connections handled by one event loop are sent on
+ * at most {@code connectionsPerNode} connections to each node, and the replies are matched with the commands in FIFO order.
+ * The commands sent to a connection during one event loop iteration are written together in the next tick,
+ * see {@link RESPBackendConnection}.
+ * <p>
+ * When not shared, each frontend connection has its own multiplexer with one connection to each node,
+ * and the connections are closed with the frontend connection.
+ * <p>
+ * All methods should be called on the event loop thread.
+ */
+class RESPMultiplexer {
+    private final ProxyNetConfig config;
+    private final RESPCluster cluster;
+    final NetEventLoop loop;
+    final boolean shared;
+    private final int connectionsPerNode;
+
+    private final Map<InetSocketAddress, List<RESPBackendConnection>> conns = new HashMap<>();
+    private int cursor = 0; // round robin among the connections to a node
+    private boolean closed = false;
+
+    RESPMultiplexer(ProxyNetConfig config, RESPCluster cluster, NetEventLoop loop, boolean shared, int connectionsPerNode) {
+        this.config = config;
+        this.cluster = cluster;
+        this.loop = loop;
+        this.shared = shared;
+        this.connectionsPerNode = shared ? connectionsPerNode : 1;
+    }
+
+    /**
+     * @return a connection to the remote of the connector, or null if failed to create the connection
+     */
+    RESPBackendConnection acquire(Connector connector) {
+        if (closed) {
+            return null;
+        }
+        RESPBackendConnection existing = existing(connector.remote);
+        if (existing != null) {
+            return existing;
+        }
+        if (connector.loop() != null) {
+            Logger.error(LogType.IMPROPER_USE, "it's not supported to specify event loop when running processors");
+            return null;
+        }
+        ClientConnection clientConnection;
+        try {
+            clientConnection = connector.connect(
+                new ConnectionOpts().setTimeout(config.timeout),
+                RingBuffer.allocateDirectLazy(config.inBufferSize), RingBuffer.allocateDirectLazy(config.outBufferSize));
+        } catch (IOException e) {
+            Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
+            cluster.nodeFailed();
+            return null;
+        }
+        RESPBackendConnection c = new RESPBackendConnection(cluster, this, clientConnection, config.outBufferSize);
+        try {
+            loop.addClientConnection(clientConnection, null, c);
+        } catch (IOException e) {
+            Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "add client connection " + clientConnection + " to loop failed");
+            clientConnection.close();
+            return null;
+        }
+        List<RESPBackendConnection> list = conns.computeIfAbsent(connector.remote, k -> new ArrayList<>(connectionsPerNode));
+        list.add(c);
+        assert Logger.lowLevelDebug("new redis node connection " + clientConnection + ", " + list.size() + " connections to " + connector.remote);
+        return c;
+    }
+
+    /**
+     * @return one of the connections to the node, or null if more connections should be created
+     */
+    RESPBackendConnection existing(InetSocketAddress node) {
+        List<RESPBackendConnection> list = conns.get(node);
+        if (list == null || list.size() < connectionsPerNode) {
+            return null;
+        }
+        cursor = (cursor + 1) % list.size();
+        return list.get(cursor);
+    }
+
+    /**
+     * the connection is closed and should not be used
+     */
+    void remove(RESPBackendConnection c) {
+        List<RESPBackendConnection> list = conns.get(c.conn.remote);
+        if (list == null) {
+            return;
+        }
+        list.remove(c);
+        if (list.isEmpty()) {
+            conns.remove(c.conn.remote);
+        }
+    }
+
+    /**
+     * close all connections, and stop creating new connections
+     */
+    void close() {
+        closed = true;
+        List<RESPBackendConnection> all = new ArrayList<>();
+        for (List<RESPBackendConnection> list : conns.values()) {
+            all.addAll(list);
+        }
+        for (RESPBackendConnection c : all) {
+            c.close();
+        }
+    }
+}
@@ -4,4 +4,18 @@ public enum Method {
     wrr,
     wlc,
     source, // consistent hashing with source ip address
+    hash, // consistent hashing with the key provided by the processor (e.g. an http/1.x header), or the source ip address if no key
+    los, // weighted least outstanding streams, for http/2 the active streams are counted instead of connections
+    p2c_ewma, // power of two choices with the ewma latency and outstanding streams, named `p2c-ewma`
+    ;
+
+    // the names in commands and config files use `-` instead of `_`
+    public static Method of(String name) {
+        return valueOf(name.replace('-', '_'));
+    }
+
+    @Override
+    public String toString() {
+        return name().replace('_', '-');
+    }
 }
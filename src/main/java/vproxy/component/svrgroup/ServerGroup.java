@@ -1,5 +1,6 @@
 package vproxy.component.svrgroup;
 
+import vproxy.app.Config;
 import vproxy.component.check.HealthCheckConfig;
 import vproxy.component.check.HealthCheckHandler;
 import vproxy.component.check.TCPHealthCheckClient;
@@ -21,11 +22,13 @@ import vproxy.util.Utils;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -34,7 +37,8 @@ public class ServerGroup {
         class ServerHealthCheckHandler implements HealthCheckHandler {
             @Override
             public void up(SocketAddress remote) {
-                healthy = true;
+                startSlowStart();
+                setHealthy(true);
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to UP");
 
@@ -51,7 +55,7 @@ public class ServerGroup {
 
             @Override
             public void down(SocketAddress remote) {
-                healthy = false;
+                setHealthy(false);
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to DOWN");
 
@@ -108,15 +112,22 @@ public class ServerGroup {
         private ServerHandle toLogicDelete; // the server will be deleted when this server is UP, may be null
         EventLoopWrapper el;
         boolean valid = true;
-        // NOTE: healthy state is public
-        public boolean healthy = false; // considered to be unhealthy when firstly created
+        // modified with setHealthy(), because the wrr candidates only contain the healthy servers
+        private volatile boolean healthy = false; // considered to be unhealthy when firstly created
         private boolean logicDelete = false; // if true, it will not be checked for dup alias nor saved to cfg file
         TCPHealthCheckClient healthCheckClient;
 
-        private final LongAdder fromRemoteBytes = new LongAdder();
-        private final LongAdder toRemoteBytes = new LongAdder();
-
-        private ConcurrentHashSet<Connection> connMap = new ConcurrentHashSet<>();
+        // the connections, streams and net flow are recorded in the shard of the current thread,
+        // and summed up when read, see Shard
+        private volatile Shard[] shards = new Shard[0]; // replaced when a thread creates its shard
+        private final ThreadLocal<Shard> shard = ThreadLocal.withInitial(this::newShard);
+        private final Shard retired = new Shard(); // the values of the shards of dead threads
+        // the peak ewma of the latency samples in nanoseconds, 0 means not sampled, see P2C-EWMA
+        private volatile double latencyEwma = 0;
+        private volatile long latencyStamp = 0; // System.nanoTime() of the last sample
+        // System.nanoTime() when the slow start ends, 0 means not in slow start, see effectiveWeight()
+        private volatile long slowStartEnd = 0;
+        private String zone; // the zone where the server is deployed, may be null, see ZONE AWARENESS
 
         public Object data; // the data field, not used by this lib
 
@@ -134,40 +145,125 @@ public class ServerGroup {
         }
 
         // --- START statistics ---
+        private Shard newShard() {
+            Shard s = new Shard();
+            synchronized (retired) {
+                ArrayList<Shard> ls = new ArrayList<>(shards.length + 1);
+                for (Shard old : shards) {
+                    // the shards of dead threads are never written again, they are folded to keep the sums fast,
+                    // unless the connections attached by them are still open
+                    if (!old.owner.isAlive() && old.conns.isEmpty()) {
+                        old.foldInto(retired);
+                    } else {
+                        ls.add(old);
+                    }
+                }
+                ls.add(s);
+                shards = ls.toArray(new Shard[0]);
+            }
+            return s;
+        }
+
         @Override
         public void incToRemoteBytes(long bytes) {
-            toRemoteBytes.add(bytes);
+            Shard.add(shard.get().toRemoteBytes, bytes);
         }
 
         @Override
         public void incFromRemoteBytes(long bytes) {
-            fromRemoteBytes.add(bytes);
+            Shard.add(shard.get().fromRemoteBytes, bytes);
         }
 
         public long getToRemoteBytes() {
-            return toRemoteBytes.longValue();
+            long n = retired.toRemoteBytes.get();
+            for (Shard s : shards) {
+                n += s.toRemoteBytes.get();
+            }
+            return n;
         }
 
         public long getFromRemoteBytes() {
-            return fromRemoteBytes.longValue();
+            long n = retired.fromRemoteBytes.get();
+            for (Shard s : shards) {
+                n += s.fromRemoteBytes.get();
+            }
+            return n;
         }
         // --- END statistics ---
 
         @Override
         public void onConnClose(Connection conn) {
-            connMap.remove(conn);
+            for (Shard s : shards) {
+                if (detachConnection(s, conn))
+                    return;
+            }
         }
 
         void attachConnection(Connection conn) {
-            connMap.add(conn);
+            Shard s = shard.get();
+            s.conns.add(conn);
+            Shard.add(s.connections, 1);
+            // the shard which the connection is attached to is known, so it's not searched when closing
+            conn.addConnCloseHandler(c -> detachConnection(s, c));
+        }
+
+        // the connection may be closed on another thread, e.g. the direct tcp proxy attaches on the acceptor loop
+        private boolean detachConnection(Shard attached, Connection conn) {
+            if (!attached.conns.remove(conn))
+                return false;
+            Shard.add(shard.get().connections, -1);
+            return true;
         }
 
         public int connectionCount() {
-            return connMap.size();
+            long n = retired.connections.get();
+            for (Shard s : shards) {
+                n += s.connections.get();
+            }
+            return (int) n;
+        }
+
+        void incStreams() {
+            Shard.add(shard.get().streams, 1);
+        }
+
+        void decStreams() {
+            Shard.add(shard.get().streams, -1);
+        }
+
+        // the active http/2 streams on the connections to this server
+        public int streamCount() {
+            long n = retired.streams.get();
+            for (Shard s : shards) {
+                n += s.streams.get();
+            }
+            return (int) n;
+        }
+
+        // samples may come from different event loops, they are stored without locking:
+        // a sample may be lost when two threads store at the same time, or the value and the stamp
+        // may be seen from different samples, which is fine for a heuristic
+        void latencySample(long nanos) {
+            long now = System.nanoTime();
+            double w = Math.exp(-Math.max(0, now - latencyStamp) / (double) SERVER_GROUP_EWMA_DECAY_NANOS);
+            double decayed = latencyEwma * w;
+            // a sample higher than the current value is taken directly, so a slow server is avoided at once
+            latencyEwma = nanos > decayed ? nanos : decayed + nanos * (1 - w);
+            latencyStamp = now;
+        }
+
+        // the latency decays towards 0 when no sample arrives, so a server will be tried again after being slow
+        public double latency(long now) {
+            double ewma = latencyEwma;
+            if (ewma == 0)
+                return 0;
+            return ewma * Math.exp(-Math.max(0, now - latencyStamp) / (double) SERVER_GROUP_EWMA_DECAY_NANOS);
         }
 
         public void copyConnections(Collection<? super Connection> c) {
-            c.addAll(connMap);
+            for (Shard s : shards) {
+                c.addAll(s.conns);
+            }
         }
 
         public boolean isLogicDelete() {
@@ -175,9 +271,15 @@ public class ServerGroup {
         }
 
         public void setWeight(int weight) {
-            boolean needReload = this.weight != weight;
+            int old = this.weight;
             this.weight = weight;
-            if (needReload) {
+            if (old == weight) {
+                return;
+            }
+            if (old > 0 && weight > 0) {
+                weightChanged(this);
+            } else {
+                // the server is added into or removed from the lists
                 resetMethodRelatedFields();
             }
         }
@@ -186,6 +288,66 @@ public class ServerGroup {
             return weight;
         }
 
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * it's set by the health check, and can be set manually when the health check is not running
+         */
+        public void setHealthy(boolean healthy) {
+            if (this.healthy == healthy) {
+                return;
+            }
+            this.healthy = healthy;
+            healthChanged();
+        }
+
+        public String getZone() {
+            return zone;
+        }
+
+        public void setZone(/*nullable*/ String zone) {
+            synchronized (ServerGroup.this) {
+                if (Objects.equals(this.zone, zone)) {
+                    return;
+                }
+                this.zone = zone;
+                resetMethodRelatedFields();
+            }
+        }
+
+        private void startSlowStart() {
+            int window = slowStart;
+            if (window > 0) {
+                slowStartEnd = System.nanoTime() + window * 1_000_000L;
+            }
+        }
+
+        /**
+         * The weight used when choosing servers.
+         * It ramps linearly from 1/10 of the weight (at least 1) to the weight in the slow start window
+         * after the server turns UP, so a restarted server (cold caches, jit not warmed up) is not
+         * flooded by its full share of new connections. It's the weight when not in slow start.
+         * <p>
+         * It's calculated when choosing, so nothing has to be rebuilt while the weight ramps.
+         */
+        public int effectiveWeight() {
+            int weight = this.weight;
+            long end = slowStartEnd;
+            if (end == 0 || weight <= 0) {
+                return weight;
+            }
+            long window = slowStart * 1_000_000L;
+            long left = end - System.nanoTime();
+            if (left <= 0 || left > window) { // ended, or the slow start is disabled or shortened
+                slowStartEnd = 0;
+                return weight;
+            }
+            long ramped = (long) ((double) weight * (window - left) / window);
+            return (int) Math.max(ramped, Math.max(1, weight / 10));
+        }
+
         void start() {
             if (el != null)
                 return;
@@ -276,6 +438,37 @@ public class ServerGroup {
         }
     }
 
+    /**
+     * The bookkeeping of a server done by one thread, usually a worker event loop.
+     * With many event loops handling sessions of the same server, updating shared counters
+     * makes the cache lines bounce between the cores, so each thread updates its own shard,
+     * and the shards are summed up when the values are read (WLC, statistics and commands).
+     */
+    private static final class Shard {
+        final Thread owner = Thread.currentThread();
+        // connections attached by the owner thread, they are usually closed on the same thread,
+        // except for the direct tcp proxy, in which the connections are made on the acceptor loop
+        final ConcurrentHashSet<Connection> conns = new ConcurrentHashSet<>();
+        // the following counters are only written by the owner thread
+        final AtomicLong connections = new AtomicLong(); // attached - closed on the owner thread, may be negative
+        final AtomicLong fromRemoteBytes = new AtomicLong();
+        final AtomicLong toRemoteBytes = new AtomicLong();
+        final AtomicLong streams = new AtomicLong(); // started - ended on the owner thread, may be negative
+
+        // single writer, so an ordered store is enough, which is much cheaper than an atomic operation
+        static void add(AtomicLong n, long delta) {
+            n.lazySet(n.get() + delta);
+        }
+
+        // called with the lock of the retired shard, which is written by many threads
+        void foldInto(Shard retired) {
+            retired.connections.addAndGet(connections.get());
+            retired.fromRemoteBytes.addAndGet(fromRemoteBytes.get());
+            retired.toRemoteBytes.addAndGet(toRemoteBytes.get());
+            retired.streams.addAndGet(streams.get());
+        }
+    }
+
     class Attach implements EventLoopGroupAttach {
         @Override
         public String id() {
@@ -304,22 +497,30 @@ public class ServerGroup {
     public final EventLoopGroup eventLoopGroup;
     private HealthCheckConfig healthCheckConfig;
     private Method method;
+    private volatile int slowStart = 0; // milliseconds, 0 means disabled
+    private boolean zoneAware = false; // prefer servers in the local zone, see ZONE AWARENESS
     private final Attach attach;
     private ArrayList<ServerHandle> servers = new ArrayList<>(0);
     private final CopyOnWriteArraySet<ServerListener> serverListeners = new CopyOnWriteArraySet<>();
 
     // START fields for WRR
     static class WRR {
-        int[] seq;
-        final AtomicInteger wrrCursor = new AtomicInteger(0);
-        final ArrayList<ServerHandle> servers; // = servers;
+        final ArrayList<ServerHandle> servers; // only the healthy servers
+        final int[] weights; // used when a cursor is reset, modified in place when the weight of a server changes
 
         WRR(List<ServerHandle> servers) {
             this.servers = new ArrayList<>(servers);
+            this.weights = new int[servers.size()];
+            for (int i = 0; i < weights.length; ++i) {
+                weights[i] = servers.get(i).weight;
+            }
         }
     }
 
-    private WRR _wrr;
+    // each thread chooses servers with its own cursor, so the threads do not contend on it,
+    // the cursors for all servers and for the servers in the local zone are separated
+    private final ThreadLocal<WRRCursor> wrrCursor = ThreadLocal.withInitial(WRRCursor::new);
+    private final ThreadLocal<WRRCursor> localWrrCursor = ThreadLocal.withInitial(WRRCursor::new);
     // END fields for WRR
 
     // START fields for WLC
@@ -330,36 +531,167 @@ public class ServerGroup {
             this.servers = new ArrayList<>(servers);
         }
     }
-
-    private WLC _wlc;
     // END fields for WLC
 
-    // START fields for SOURCE
+    // START fields for SOURCE and HASH
     static class SOURCE {
-        final int[] seq;
-        final ArrayList<ServerHandle> servers;
+        final long[] points; // sorted positions on the ring, in [0, 2^32)
+        final ServerHandle[] owners; // the server of each point
+        final ArrayList<ServerHandle> servers; // servers on the ring
 
-        SOURCE(int[] seq, ArrayList<ServerHandle> servers) {
-            this.seq = seq;
+        SOURCE(long[] points, ServerHandle[] owners, ArrayList<ServerHandle> servers) {
+            this.points = points;
+            this.owners = owners;
             this.servers = servers;
         }
 
-        // sdbm
-        int hash(byte[] bytes) {
-            int hash = 0;
-            for (byte aByte : bytes) {
-                hash = (aByte) + (hash << 6) + (hash << 16) - hash;
+        // fnv-1a with the murmur3 finalizer, the keys are usually short and similar, e.g. ip addresses
+        static long hash(byte[] bytes) {
+            int h = 0x811c9dc5;
+            for (byte b : bytes) {
+                h ^= (b & 0xff);
+                h *= 0x01000193;
             }
-            hash = Math.abs(hash);
-            if (hash < 0) { // Math.abs(-Integer.MAX_VALUE-1) == -Integer.MAX_VALUE-1
-                hash = 0;
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h & 0xffffffffL;
+        }
+
+        // the index of the first point clockwise from the hash
+        int index(long hash) {
+            int idx = Arrays.binarySearch(points, hash);
+            if (idx < 0) {
+                idx = -idx - 1; // the insertion point
             }
-            return hash;
+            return idx == points.length ? 0 : idx;
         }
     }
+    // END fields for SOURCE and HASH
+
+    // START fields for ZONE AWARENESS
+    // the servers to choose from, and the data of the methods built from them
+    class Candidates {
+        final boolean local; // true if it only contains servers in the local zone
+        WRR wrr; // rebuilt when the health state of a server changes
+        final WLC wlc;
+        SOURCE source; // rebuilt when the weight of a server changes
+        // the weight of the healthy servers is enough to take the load, see ZONE AWARENESS,
+        // updated when the health state or the weight of a server changes
+        boolean enoughHealthy;
+        // the servers are busier than all servers, with SERVER_GROUP_ZONE_LOAD_FACTOR, see ZONE AWARENESS,
+        // checked again after the deadline (System.nanoTime()), the deadline is reset when the health state changes
+        volatile boolean busy;
+        volatile long busyCheckDeadline;
+
+        Candidates(boolean local, List<ServerHandle> servers) {
+            this.local = local;
+            this.wlc = new WLC(servers);
+            this.source = buildSource(this.wlc.servers);
+            rebuildWRR();
+        }
 
-    private SOURCE _source;
-    // END fields for SOURCE
+        // the cursors of the threads are reset when they see the new WRR object
+        void rebuildWRR() {
+            wrr = new WRR(wlc.servers.stream().filter(s -> s.healthy).collect(Collectors.toList()));
+            checkHealthyWeight();
+            busyCheckDeadline = System.nanoTime();
+        }
+
+        void checkHealthyWeight() {
+            long totalWeight = 0;
+            for (ServerHandle h : wlc.servers) {
+                totalWeight += h.weight;
+            }
+            long healthyWeight = 0;
+            for (ServerHandle h : wrr.servers) {
+                healthyWeight += h.weight;
+            }
+            enoughHealthy = healthyWeight > 0 && healthyWeight >= SERVER_GROUP_ZONE_MIN_HEALTHY * totalWeight;
+        }
+    }
+
+    private Candidates _all;
+    private Candidates _local; // null if zone awareness is disabled, or no server in the local zone
+    private String _localZone; // Config.zone when _local is built
+    // END fields for ZONE AWARENESS
+
+    // the points of a server with weight 10 on the consistent hashing ring of `source` and `hash`
+    private static final int SERVER_GROUP_HASH_VIRTUAL_NODES;
+    // with the `source` and `hash` methods, a server is skipped when its load (connections and streams)
+    // exceeds factor * the average load (weighted), 0 means the load is not bounded
+    private static final double SERVER_GROUP_HASH_LOAD_FACTOR;
+    // the time constant (milliseconds) of the latency ewma used by `p2c-ewma`,
+    // the weight of the old value is exp(-elapsed / decay)
+    private static final long SERVER_GROUP_EWMA_DECAY_NANOS;
+    // with zone awareness, the servers in other zones are used as well when the weight of the healthy local servers
+    // is less than this fraction of the weight of all local servers
+    private static final double SERVER_GROUP_ZONE_MIN_HEALTHY;
+    // with zone awareness, the servers in other zones are used as well when the load (connections and streams)
+    // per weight of the local servers exceeds factor * the load per weight of all servers, 0 means load is not checked
+    private static final double SERVER_GROUP_ZONE_LOAD_FACTOR;
+    // the load of the zones is checked at most once in this interval
+    private static final long ZONE_LOAD_CHECK_INTERVAL_NANOS = 100_000_000L;
+
+    static {
+        {
+            int virtualNodes = 160; // the same as ketama
+            String virtualNodesStr = System.getProperty("SERVER_GROUP_HASH_VIRTUAL_NODES");
+            if (virtualNodesStr != null) {
+                virtualNodes = Integer.parseInt(virtualNodesStr);
+                Logger.alert("SERVER_GROUP_HASH_VIRTUAL_NODES is set to " + virtualNodes);
+            }
+            if (virtualNodes <= 0)
+                throw new RuntimeException("-DSERVER_GROUP_HASH_VIRTUAL_NODES value <= 0");
+            SERVER_GROUP_HASH_VIRTUAL_NODES = virtualNodes;
+        }
+        {
+            double loadFactor = 0;
+            String loadFactorStr = System.getProperty("SERVER_GROUP_HASH_LOAD_FACTOR");
+            if (loadFactorStr != null) {
+                loadFactor = Double.parseDouble(loadFactorStr);
+                Logger.alert("SERVER_GROUP_HASH_LOAD_FACTOR is set to " + loadFactor);
+            }
+            if (loadFactor != 0 && loadFactor < 1)
+                throw new RuntimeException("-DSERVER_GROUP_HASH_LOAD_FACTOR value should be 0 or >= 1");
+            SERVER_GROUP_HASH_LOAD_FACTOR = loadFactor;
+        }
+        {
+            int decay = 10_000; // the same as finagle
+            String decayStr = System.getProperty("SERVER_GROUP_EWMA_DECAY");
+            if (decayStr != null) {
+                decay = Integer.parseInt(decayStr);
+                Logger.alert("SERVER_GROUP_EWMA_DECAY is set to " + decay);
+            }
+            if (decay <= 0)
+                throw new RuntimeException("-DSERVER_GROUP_EWMA_DECAY value <= 0");
+            SERVER_GROUP_EWMA_DECAY_NANOS = decay * 1_000_000L;
+        }
+        {
+            double minHealthy = 0.7;
+            String minHealthyStr = System.getProperty("SERVER_GROUP_ZONE_MIN_HEALTHY");
+            if (minHealthyStr != null) {
+                minHealthy = Double.parseDouble(minHealthyStr);
+                Logger.alert("SERVER_GROUP_ZONE_MIN_HEALTHY is set to " + minHealthy);
+            }
+            if (minHealthy < 0 || minHealthy > 1)
+                throw new RuntimeException("-DSERVER_GROUP_ZONE_MIN_HEALTHY value should be in [0, 1]");
+            SERVER_GROUP_ZONE_MIN_HEALTHY = minHealthy;
+        }
+        {
+            double loadFactor = 0;
+            String loadFactorStr = System.getProperty("SERVER_GROUP_ZONE_LOAD_FACTOR");
+            if (loadFactorStr != null) {
+                loadFactor = Double.parseDouble(loadFactorStr);
+                Logger.alert("SERVER_GROUP_ZONE_LOAD_FACTOR is set to " + loadFactor);
+            }
+            if (loadFactor != 0 && loadFactor < 1)
+                throw new RuntimeException("-DSERVER_GROUP_ZONE_LOAD_FACTOR value should be 0 or >= 1");
+            SERVER_GROUP_ZONE_LOAD_FACTOR = loadFactor;
+        }
+    }
 
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
@@ -379,35 +711,151 @@ public class ServerGroup {
      * @return null if not found any healthy
      */
     public SvrHandleConnector next(InetSocketAddress source) {
+        return next(source, null);
+    }
+
+    /**
+     * @param hashKey the key used by the `hash` method, may be null
+     * @return null if not found any healthy
+     */
+    public SvrHandleConnector next(InetSocketAddress source, byte[] hashKey) {
+        Candidates c = candidates();
         if (method == Method.wrr) {
-            return wrrNext();
+            return wrrNext(c);
         } else if (method == Method.wlc) {
-            return wlcNext();
+            return wlcNext(c.wlc);
         } else if (method == Method.source) {
-            return sourceHashGet(source.getAddress());
+            return hashGet(c.source, source.getAddress().getAddress());
+        } else if (method == Method.hash) {
+            return hashGet(c.source, hashKey != null ? hashKey : source.getAddress().getAddress());
+        } else if (method == Method.p2c_ewma) {
+            return p2cEwmaNext(c.wlc);
+        } else if (method == Method.los) {
+            return losNext(c.wlc);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
-            return wrrNext();
+            return wrrNext(c);
+        }
+    }
+
+    /*
+     * ZONE AWARENESS:
+     * the servers can be labeled with the zone where they are deployed,
+     * and the zone of this vproxy instance is set with the `zone` launch argument (Config.zone).
+     *
+     * When zone awareness is enabled, the method chooses from the servers in the local zone only,
+     * the data of the methods (wrr cursors, hash ring, ...) are built separately for them.
+     * All servers (in all zones) are used when the local zone cannot take the load:
+     * 1. the weight of the healthy local servers < SERVER_GROUP_ZONE_MIN_HEALTHY * the weight of the local servers
+     * 2. (if SERVER_GROUP_ZONE_LOAD_FACTOR = c is set) the load per weight of the healthy local servers
+     *    exceeds c * the load per weight of all healthy servers
+     * and the local servers are preferred again as soon as they recover.
+     *
+     * Check 1 uses the configured weights, and is done when the servers, the weights or the health states change.
+     * Check 2 reads the load of all healthy servers, so it's done at most once in 100ms.
+     */
+
+    private Candidates candidates() {
+        Candidates local = _local;
+        if (zoneAware && !Objects.equals(Config.zone, _localZone)) {
+            // the zone is set after the group is created, e.g. the config file is loaded first
+            synchronized (this) {
+                if (!Objects.equals(Config.zone, _localZone)) {
+                    resetMethodRelatedFields();
+                }
+            }
+            local = _local;
+        }
+        if (local == null || !local.enoughHealthy)
+            return _all; // not enough healthy servers in the local zone
+        if (SERVER_GROUP_ZONE_LOAD_FACTOR == 0) {
+            return local;
+        }
+
+        long now = System.nanoTime();
+        if (now - local.busyCheckDeadline >= 0) {
+            // other threads may check at the same time, the results are almost the same
+            local.busyCheckDeadline = now + ZONE_LOAD_CHECK_INTERVAL_NANOS;
+            local.busy = busy(local);
         }
+        return local.busy ? _all : local;
     }
 
-    private SvrHandleConnector sourceHashGet(InetAddress source) {
-        byte[] bytes = source.getAddress();
-        return sourceHashGet(_source, _source.hash(bytes), 0);
+    // the load is summed from all shards of all servers, so it's not checked on every pick
+    private boolean busy(Candidates local) {
+        // the wrr lists only contain the healthy servers
+        long healthyWeight = 0;
+        long localLoad = 0;
+        for (ServerHandle h : local.wrr.servers) {
+            healthyWeight += h.effectiveWeight();
+            localLoad += hashLoad(h);
+        }
+        long allWeight = 0;
+        long allLoad = 0;
+        for (ServerHandle h : _all.wrr.servers) {
+            allWeight += h.effectiveWeight();
+            allLoad += hashLoad(h);
+        }
+        // localLoad / healthyWeight > c * (allLoad + 1) / allWeight
+        return localLoad * allWeight > SERVER_GROUP_ZONE_LOAD_FACTOR * (allLoad + 1) * healthyWeight;
     }
 
-    private SvrHandleConnector sourceHashGet(SOURCE source, int hash, int recurse) {
-        if (recurse >= source.servers.size()) // this condition also checks empty state
+    /*
+     * SOURCE and HASH algorithm:
+     * ketama style consistent hashing.
+     *
+     * Each server is put on a ring of 2^32 positions for (virtual nodes * weight / 10) times,
+     * the positions of a server are taken from md5("${ip}:${port}-${n}"), 4 positions for each digest.
+     * A key goes to the server of the first position clockwise from the hash of the key.
+     * When a server is added or removed, only the keys around its positions are moved.
+     *
+     * Unhealthy servers are skipped along the ring, so only their keys are spread to the other servers,
+     * and the keys come back when they are UP again, the ring is not changed.
+     *
+     * With bounded load (SERVER_GROUP_HASH_LOAD_FACTOR = c), the servers whose load reaches
+     * ceil(c * (total load + 1) * W(Si) / total weight) are skipped as well,
+     * see "Consistent Hashing with Bounded Loads".
+     *
+     * The ring is built when the servers or the weights change, only a binary search is done when selecting.
+     */
+
+    private SvrHandleConnector hashGet(SOURCE ring, byte[] key) {
+        int n = ring.points.length;
+        if (n == 0)
+            return null;
+        int start = ring.index(SOURCE.hash(key));
+        if (SERVER_GROUP_HASH_LOAD_FACTOR == 0) {
+            for (int i = 0; i < n; ++i) {
+                ServerHandle h = ring.owners[(start + i) % n];
+                if (h.healthy)
+                    return h.makeConnector();
+            }
             return null;
+        }
 
-        int idx = hash % source.servers.size();
-        ServerHandle h = source.servers.get(idx);
-        if (h.healthy)
-            return h.makeConnector();
+        long totalLoad = 0;
+        long totalWeight = 0;
+        for (ServerHandle h : ring.servers) {
+            if (!h.healthy)
+                continue;
+            totalLoad += hashLoad(h);
+            totalWeight += h.effectiveWeight(); // a server in slow start accepts less load
+        }
+        if (totalWeight == 0)
+            return null; // no healthy server
+        double capacityPerWeight = SERVER_GROUP_HASH_LOAD_FACTOR * (totalLoad + 1) / totalWeight;
+        for (int i = 0; i < n; ++i) {
+            ServerHandle h = ring.owners[(start + i) % n];
+            if (h.healthy && hashLoad(h) < Math.ceil(capacityPerWeight * h.effectiveWeight()))
+                return h.makeConnector();
+        }
+        // will not happen: at least one server is not above the average load
+        return null;
+    }
 
-        // increase the "hash" by 1, which means using the next server in the list
-        return sourceHashGet(source, idx + 1, recurse + 1);
+    private static long hashLoad(ServerHandle h) {
+        return h.connectionCount() + h.streamCount();
     }
 
     /*
@@ -444,8 +892,8 @@ public class ServerGroup {
      * return NULL;
      */
 
-    private SvrHandleConnector wlcNext() {
-        return wlcNext(_wlc, 0);
+    private SvrHandleConnector wlcNext(WLC wlc) {
+        return wlcNext(wlc, 0);
     }
 
     private SvrHandleConnector wlcNext(WLC wlc, int mStart) {
@@ -461,7 +909,7 @@ public class ServerGroup {
         // for (m = 0; m < n; ++m) {
         { // --------- START ---------
             Sm = wlc.servers.get(m);
-            WSm = Sm.weight;
+            WSm = Sm.effectiveWeight();
             CSm = Sm.connectionCount();
         } // --------- END ---------
         if (!Sm.healthy) {
@@ -470,14 +918,14 @@ public class ServerGroup {
         // if (WSm > 0) {
         for (int i = m + 1; i < n; ++i) {
             ServerHandle Si = wlc.servers.get(i);
-            WSi = Si.weight;
+            WSi = Si.effectiveWeight();
             CSi = Si.connectionCount();
             if (CSm * WSi > CSi * WSm && Si.healthy) {
                 m = i;
                 { // --------- START ---------
-                    Sm = wlc.servers.get(m);
-                    WSm = Sm.weight;
-                    CSm = Sm.connectionCount();
+                    Sm = Si;
+                    WSm = WSi;
+                    CSm = CSi; // the count is summed from the shards, so it's not retrieved again
                 } // --------- END ---------
             }
         }
@@ -487,166 +935,205 @@ public class ServerGroup {
         // return null;
     }
 
-    private SvrHandleConnector wrrNext() {
-        return wrrNext(this._wrr, 0);
-    }
-
-    private SvrHandleConnector wrrNext(WRR wrr, int recursion) {
-        if (recursion > wrr.seq.length)
-            return null;
-        if (wrr.seq.length == 0)
-            return null; // return null if no elements
+    /*
+     * LOS algorithm:
+     * the same as WLC, but C(Si) is the number of outstanding streams and connections of server Si.
+     *
+     * The http/2 streams are recorded by the processors which know where a stream starts and ends,
+     * so one shared connection carrying many long lived streams is no longer considered as one unit of load.
+     * The connections are still counted, so the method works the same as WLC for protocols without streams.
+     */
 
-        int idx = wrr.wrrCursor.getAndIncrement();
-        if (idx >= wrr.seq.length) {
-            idx = idx % wrr.seq.length;
-            wrr.wrrCursor.set(idx + 1);
+    private SvrHandleConnector losNext(WLC wlc) {
+        // use the server list of WLC, which only contains servers with weight > 0
+        ArrayList<ServerHandle> servers = wlc.servers;
+        ServerHandle Sm = null;
+        long WSm = 0;
+        long CSm = 0;
+        for (ServerHandle Si : servers) {
+            if (!Si.healthy)
+                continue;
+            long WSi = Si.effectiveWeight();
+            long CSi = Si.streamCount() + Si.connectionCount();
+            if (Sm == null || CSm * WSi > CSi * WSm) {
+                Sm = Si;
+                WSm = WSi;
+                CSm = CSi;
+            }
         }
-        int realIdx = wrr.seq[idx];
-        ServerHandle h = wrr.servers.get(realIdx);
-        if (h.healthy)
-            return h.makeConnector();
-        else
-            return wrrNext(wrr, recursion + 1);
+        return Sm == null ? null : Sm.makeConnector();
     }
 
-    private void resetMethodRelatedFields() {
-        wrrReset();
-        wlcReset();
-        sourceReset();
-    }
-
-    private int gcd(int a, int b) {
-        if (a == b) return a;
-        if (a > b) return gcd(a - b, b);
-        return gcd(b - a, a);
-    }
-
-    private void sourceReset() {
-        ArrayList<ServerHandle> svrs = new ArrayList<>(servers);
-        svrs.sort((a, b) -> {
-            byte[] ba = a.server.getAddress().getAddress();
-            byte[] bb = b.server.getAddress().getAddress();
-            if (ba.length > bb.length)
-                return 1;
-            if (bb.length > ba.length)
-                return -1;
-            for (int i = 0; i < ba.length; ++i) {
-                int diff = ba[i] - bb[i];
-                if (diff != 0)
-                    return diff;
-            }
-            return a.server.getPort() - b.server.getPort();
-        });
-        if (svrs.size() == 0) {
-            _source = new SOURCE(new int[0], svrs);
-            return;
+    /*
+     * P2C-EWMA algorithm:
+     * power of two choices with the peak ewma latency, the same as the `p2c` balancer of finagle.
+     *
+     * Two healthy servers are picked randomly, and the one with the lower cost is used:
+     *   cost(Si) = L(Si) * (C(Si) + 1) / W(Si)
+     * where L(Si) is the peak ewma of the latency samples of server Si,
+     * and C(Si) is the number of outstanding streams and connections of server Si (the same as LOS).
+     *
+     * The latency samples are reported by the proxy: the time of connecting,
+     * and the time between sending data and receiving the first byte of the reply, see Connector#latency(long).
+     * A server which is UP but slow (gc pauses, noisy neighbours) gets a high cost at once,
+     * and receives few requests until its latency drops.
+     * Without samples, the latency decays towards 0, so a server is not avoided forever.
+     *
+     * A server without any sample is preferred if it's idle, and avoided if it's busy,
+     * so that a new server does not receive a burst before its first sample arrives.
+     *
+     * Randomly picking two servers avoids the herd behavior of always choosing the best one,
+     * and it's O(1).
+     */
+
+    // the cost of busy servers without any latency sample
+    private static final double P2C_PENALTY = Long.MAX_VALUE >> 16;
+    // times of picking a random server to find two different healthy servers
+    private static final int P2C_PICKS = 4;
+
+    private SvrHandleConnector p2cEwmaNext(WLC wlc) {
+        // use the server list of WLC, which only contains servers with weight > 0
+        ArrayList<ServerHandle> servers = wlc.servers;
+        int n = servers.size();
+        if (n == 0)
+            return null;
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        ServerHandle a = null;
+        ServerHandle b = null;
+        for (int i = 0; i < P2C_PICKS && b == null; ++i) {
+            ServerHandle h = servers.get(rand.nextInt(n));
+            if (!h.healthy || h == a)
+                continue;
+            if (a == null) {
+                a = h;
+            } else {
+                b = h;
+            }
         }
-        int g = svrs.size() > 1
-            ? gcd(svrs.get(0).weight, svrs.get(1).weight)
-            : svrs.get(0).weight;
-        LinkedList<Integer> seqList = new LinkedList<>();
-        for (int sIdx = 0; sIdx < svrs.size(); sIdx++) {
-            ServerHandle s = svrs.get(sIdx);
-            int w = s.weight;
-            int times = w / g;
-            for (int i = 0; i < times; ++i) {
-                seqList.add(sIdx);
+        long now = System.nanoTime();
+        if (b == null) {
+            // most servers are down, or only one server, compare all healthy servers
+            for (ServerHandle h : servers) {
+                if (h.healthy && (a == null || p2cCost(h, now) < p2cCost(a, now))) {
+                    a = h;
+                }
             }
+            return a == null ? null : a.makeConnector();
         }
-        int[] seq = new int[seqList.size()];
-        int idx = 0;
-        for (Integer integer : seqList) {
-            seq[idx++] = integer;
+        return (p2cCost(b, now) < p2cCost(a, now) ? b : a).makeConnector();
+    }
+
+    private static double p2cCost(ServerHandle h, long now) {
+        long outstanding = h.streamCount() + h.connectionCount();
+        double latency = h.latency(now);
+        if (latency == 0) {
+            return outstanding == 0 ? 0 : P2C_PENALTY + outstanding;
         }
-        _source = new SOURCE(seq, svrs);
+        return latency * (outstanding + 1) / h.effectiveWeight();
     }
 
-    private void wlcReset() {
-        this._wlc = new WLC(this.servers.stream().filter(s -> s.weight > 0).collect(Collectors.toList()));
+    private SvrHandleConnector wrrNext(Candidates c) {
+        WRR wrr = c.wrr;
+        WRRCursor cursor = (c.local ? localWrrCursor : wrrCursor).get();
+        if (cursor.wrr != wrr) {
+            cursor.reset(wrr, wrr.weights);
+        }
+        if (cursor.size() == 0)
+            return null; // no server or no healthy server
+        // the cursor only contains the healthy servers, so the chosen server is returned directly
+        ServerHandle h = wrr.servers.get(cursor.top());
+        cursor.advance(h.effectiveWeight());
+        return h.makeConnector();
     }
 
-    private void wrrReset() {
-        WRR wrr = new WRR(this.servers.stream()
+    private void resetMethodRelatedFields() {
+        List<ServerHandle> servers = this.servers.stream()
             .filter(s -> s.weight > 0) // only consider those weight > 0
-            .collect(Collectors.toList()));
-        if (wrr.servers.isEmpty()) {
-            wrr.seq = new int[0];
-        } else {
-            // calculate the seq
-            List<Integer> listSeq = new LinkedList<>();
-            int[] weights = new int[wrr.servers.size()];
-            int[] original = new int[wrr.servers.size()];
-            // run calculation
-            int sum = 0;
-            for (int i = 0; i < wrr.servers.size(); i++) {
-                ServerHandle h = wrr.servers.get(i);
-                weights[i] = h.weight;
-                original[i] = h.weight;
-                sum += h.weight;
-            }
-            //noinspection Duplicates
-            while (true) {
-                int idx = maxIndex(weights);
-                listSeq.add(idx);
-                weights[idx] -= sum;
-                if (calculationEnd(weights)) {
-                    break;
-                }
-                for (int i = 0; i < weights.length; ++i) {
-                    weights[i] += original[i];
-                }
-                sum = sum(weights); // recalculate sum
-            }
-            int[] seq = new int[listSeq.size()];
+            .collect(Collectors.toList());
+        _all = new Candidates(false, servers);
 
-            // random is for this concern:
-            // if you deploy multiple instances of vproxy
-            // with exactly the same configuration
-            // behind a (w)rr LVS or other proxy servers
-            // without the `randStart`, first few connections
-            // will always be made to the same server
-            // which may cause some failure
-            int randStart = new Random().nextInt(seq.length);
-            // the random wll only run when updating config
-            Iterator<Integer> ite = listSeq.iterator();
-            int idx = 0;
-            while (ite.hasNext()) {
-                seq[(idx + randStart) % seq.length] = ite.next();
-                ++idx;
-            }
-            wrr.seq = seq;
+        String zone = Config.zone;
+        _localZone = zone;
+        if (!zoneAware || zone == null) {
+            _local = null;
+            return;
         }
+        List<ServerHandle> local = servers.stream().filter(s -> zone.equals(s.zone)).collect(Collectors.toList());
+        _local = local.isEmpty() ? null : new Candidates(true, local);
+    }
 
-        this._wrr = wrr;
+    private SOURCE buildSource(ArrayList<ServerHandle> svrs) {
+        if (method != Method.source && method != Method.hash) {
+            // the ring is built when the method is set
+            return new SOURCE(new long[0], new ServerHandle[0], new ArrayList<>(0));
+        }
+        return buildRing(svrs, SERVER_GROUP_HASH_VIRTUAL_NODES);
     }
 
-    private int sum(int[] weights) {
-        int s = 0;
-        for (int w : weights) {
-            s += w;
+    static SOURCE buildRing(ArrayList<ServerHandle> svrs, int virtualNodes) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every jvm supports md5
         }
-        return s;
+        int total = 0;
+        int[] counts = new int[svrs.size()];
+        for (int i = 0; i < svrs.size(); ++i) {
+            counts[i] = Math.max(1, (int) ((long) virtualNodes * svrs.get(i).weight / 10));
+            total += counts[i];
+        }
+        // the position in the high 32 bits (below the sign bit), and the server index in the low 31 bits,
+        // so that the order is determined when two servers are on the same position
+        long[] entries = new long[total];
+        int e = 0;
+        for (int i = 0; i < svrs.size(); ++i) {
+            InetSocketAddress server = svrs.get(i).server;
+            String prefix = Utils.ipStr(server.getAddress().getAddress()) + ":" + server.getPort() + "-";
+            for (int n = 0; n * 4 < counts[i]; ++n) {
+                byte[] digest = md5.digest((prefix + n).getBytes(StandardCharsets.UTF_8));
+                for (int k = 0; k < 4 && n * 4 + k < counts[i]; ++k) {
+                    long point = ((long) (digest[3 + k * 4] & 0xff) << 24)
+                        | ((digest[2 + k * 4] & 0xff) << 16)
+                        | ((digest[1 + k * 4] & 0xff) << 8)
+                        | (digest[k * 4] & 0xff);
+                    entries[e++] = (point << 31) | i;
+                }
+            }
+        }
+        Arrays.sort(entries); // the entries are not negative, so the order is the order of positions
+        long[] points = new long[total];
+        ServerHandle[] owners = new ServerHandle[total];
+        for (int i = 0; i < total; ++i) {
+            points[i] = entries[i] >>> 31;
+            owners[i] = svrs.get((int) (entries[i] & 0x7fffffff));
+        }
+        return new SOURCE(points, owners, svrs);
     }
 
-    private boolean calculationEnd(int[] weights) {
-        for (int w : weights) {
-            if (w != 0)
-                return false;
+    private synchronized void healthChanged() {
+        for (Candidates c : new Candidates[]{_all, _local}) {
+            if (c != null) {
+                c.rebuildWRR();
+            }
         }
-        return true;
     }
 
-    private int maxIndex(int[] weights) {
-        int maxIdx = 0;
-        int maxVal = weights[0];
-        for (int i = 1; i < weights.length; ++i) {
-            if (weights[i] > maxVal) {
-                maxVal = weights[i];
-                maxIdx = i;
+    // the weight of the server is changed from a positive value to another positive value
+    private synchronized void weightChanged(ServerHandle h) {
+        for (Candidates c : new Candidates[]{_all, _local}) {
+            if (c == null)
+                continue;
+            // the cursors of the threads are kept, the new weight takes effect when the server is chosen next time,
+            // see effectiveWeight()
+            int idx = c.wrr.servers.indexOf(h);
+            if (idx != -1) {
+                c.wrr.weights[idx] = h.weight;
             }
+            // the wlc servers list is not changed, the weights are read when choosing
+            c.source = buildSource(c.wlc.servers); // the number of points on the ring depends on the weight
+            c.checkHealthyWeight();
         }
-        return maxIdx;
     }
 
     public void setMethod(Method method) {
@@ -661,6 +1148,34 @@ public class ServerGroup {
         return method;
     }
 
+    /**
+     * @param slowStart the slow start window in milliseconds, 0 means disabled.
+     *                  it's applied to the servers turning UP after it's set
+     */
+    public void setSlowStart(int slowStart) {
+        if (slowStart < 0)
+            throw new IllegalArgumentException("slowStart < 0");
+        this.slowStart = slowStart;
+    }
+
+    public int getSlowStart() {
+        return slowStart;
+    }
+
+    /**
+     * @param zoneAware prefer the servers in the zone of this vproxy instance (Config.zone)
+     */
+    public synchronized void setZoneAware(boolean zoneAware) {
+        if (this.zoneAware == zoneAware)
+            return;
+        this.zoneAware = zoneAware;
+        resetMethodRelatedFields();
+    }
+
+    public boolean isZoneAware() {
+        return zoneAware;
+    }
+
     public void setHealthCheckConfig(HealthCheckConfig healthCheckConfig) {
         assert Logger.lowLevelDebug("set new health check config " + healthCheckConfig);
         this.healthCheckConfig = healthCheckConfig;
@@ -752,6 +1267,9 @@ public class ServerGroup {
         // attach new server
         ServerHandle handle = new ServerHandle(
             alias, idForServer.getAndIncrement(), hostName, server, weight, toLogicDelete);
+        if (toLogicDelete != null) {
+            handle.zone = toLogicDelete.zone;
+        }
         handle.start();
         ArrayList<ServerHandle> newLs = new ArrayList<>(ls.size() + 1);
         newLs.addAll(ls);
@@ -6,10 +6,7 @@ import vproxy.connection.Connector;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class ServerGroups {
@@ -29,24 +26,37 @@ public class ServerGroups {
         }
 
         public void setWeight(int weight) {
+            int old = this.weight;
             this.weight = weight;
-            recalculateWRR();
+            if (old == weight) {
+                return;
+            }
+            if (old > 0 && weight > 0) {
+                weightChanged(this);
+            } else {
+                recalculateWRR();
+            }
         }
     }
 
     class WRR {
-        final AtomicInteger cursor = new AtomicInteger(0);
         final ArrayList<ServerGroupHandle> groups;
-        int[] seq;
+        final int[] weights; // modified in place when the weight of a group changes
 
         WRR(ArrayList<ServerGroupHandle> serverGroups) {
             this.groups = serverGroups;
+            this.weights = new int[serverGroups.size()];
+            for (int i = 0; i < weights.length; ++i) {
+                weights[i] = serverGroups.get(i).weight;
+            }
         }
     }
 
     public final String alias;
     private ArrayList<ServerGroupHandle> serverGroups = new ArrayList<>(0);
     private WRR _wrr;
+    // each thread chooses groups with its own cursor, so the threads do not contend on it
+    private final ThreadLocal<WRRCursor> wrrCursor = ThreadLocal.withInitial(WRRCursor::new);
 
     public ServerGroups(String alias) {
         this.alias = alias;
@@ -59,76 +69,19 @@ public class ServerGroups {
                 .stream()
                 .filter(g -> g.weight > 0)
                 .collect(Collectors.toCollection(ArrayList::new));
-        WRR wrr = new WRR(groups);
-
-        if (wrr.groups.isEmpty()) {
-            wrr.seq = new int[0];
-        } else {
-            // calculate the seq
-            List<Integer> listSeq = new LinkedList<>();
-            int[] weights = new int[wrr.groups.size()];
-            int[] original = new int[wrr.groups.size()];
-            // run calculation
-            int sum = 0;
-            for (int i = 0; i < wrr.groups.size(); i++) {
-                ServerGroupHandle h = wrr.groups.get(i);
-                weights[i] = h.weight;
-                original[i] = h.weight;
-                sum += h.weight;
-            }
-            //noinspection Duplicates
-            while (true) {
-                int idx = maxIndex(weights);
-                listSeq.add(idx);
-                weights[idx] -= sum;
-                if (calculationEnd(weights)) {
-                    break;
-                }
-                for (int i = 0; i < weights.length; ++i) {
-                    weights[i] += original[i];
-                }
-                sum = sum(weights); // recalculate sum
-            }
-            int[] seq = new int[listSeq.size()];
-            Iterator<Integer> ite = listSeq.iterator();
-            int seqIdx = 0;
-            while (ite.hasNext()) {
-                int idx = ite.next();
-                seq[seqIdx++] = idx;
-            }
-
-            wrr.seq = seq;
-        }
-
-        _wrr = wrr;
+        _wrr = new WRR(groups);
     }
 
-    private static int sum(int[] weights) {
-        int s = 0;
-        for (int w : weights) {
-            s += w;
-        }
-        return s;
-    }
-
-    private static boolean calculationEnd(int[] weights) {
-        for (int w : weights) {
-            if (w != 0)
-                return false;
-        }
-        return true;
-    }
-
-    private static int maxIndex(int[] weights) {
-        int maxIdx = 0;
-        int maxVal = weights[0];
-        for (int i = 1; i < weights.length; ++i) {
-            if (weights[i] > maxVal) {
-                maxVal = weights[i];
-                maxIdx = i;
-            }
+    // the weight of the group is changed from a positive value to another positive value
+    private synchronized void weightChanged(ServerGroupHandle g) {
+        // the cursors of the threads are kept, the new weight takes effect when the group is chosen next time
+        WRR wrr = _wrr;
+        int idx = wrr.groups.indexOf(g);
+        if (idx == -1) {
+            recalculateWRR();
+        } else {
+            wrr.weights[idx] = g.weight;
         }
-        return maxIdx;
     }
 
     public void add(ServerGroup group, int weight) throws AlreadyExistException {
@@ -167,25 +120,24 @@ public class ServerGroups {
     }
 
     public Connector next(InetSocketAddress source) {
-        WRR wrr = _wrr;
-        return next(source, wrr, 0);
+        return next(source, null);
     }
 
-    private /*use static to prevent access local variable*/ static Connector next(InetSocketAddress source, WRR wrr, int recursion) {
-        if (recursion > wrr.seq.length)
-            return null;
-        if (wrr.seq.length == 0)
-            return null;
-        ++recursion;
-
-        int idx = wrr.cursor.getAndIncrement();
-        if (wrr.seq.length <= idx) {
-            idx = idx % wrr.seq.length;
-            wrr.cursor.set(idx + 1);
+    // the hashKey is used by server groups with the `hash` method, may be null
+    public Connector next(InetSocketAddress source, byte[] hashKey) {
+        WRR wrr = _wrr;
+        WRRCursor cursor = wrrCursor.get();
+        if (cursor.wrr != wrr) {
+            cursor.reset(wrr, wrr.weights);
+        }
+        // try other groups if the chosen group has no healthy server
+        for (int i = 0; i < cursor.size(); ++i) {
+            int idx = cursor.top();
+            cursor.advance(wrr.weights[idx]);
+            Connector connector = wrr.groups.get(idx).group.next(source, hashKey);
+            if (connector != null)
+                return connector;
         }
-        Connector connector = wrr.groups.get(wrr.seq[idx]).group.next(source);
-        if (connector != null)
-            return connector;
-        return next(source, wrr, recursion);
+        return null;
     }
 }
@@ -19,8 +19,7 @@ public class SvrHandleConnector extends Connector {
     public ClientConnection connect(ConnectionOpts opts, RingBuffer in, RingBuffer out) throws IOException {
         ClientConnection conn = super.connect(opts, in, out);
         conn.addNetFlowRecorder(serverHandle);
-        serverHandle.attachConnection(conn);
-        conn.addConnCloseHandler(serverHandle);
+        serverHandle.attachConnection(conn); // the close handler is added as well
         return conn;
     }
 
@@ -35,6 +34,21 @@ public class SvrHandleConnector extends Connector {
         serverHandle.healthCheckClient.manuallyDownOnce();
     }
 
+    @Override
+    public void streamStarted() {
+        serverHandle.incStreams();
+    }
+
+    @Override
+    public void streamEnded() {
+        serverHandle.decStreams();
+    }
+
+    @Override
+    public void latency(long nanos) {
+        serverHandle.latencySample(nanos);
+    }
+
     public String getHostName() {
         String hostname = serverHandle.hostName;
         if (hostname == null) {
@@ -0,0 +1,103 @@
+package vproxy.component.svrgroup;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The smooth weighted round robin state of one thread, used by {@link ServerGroup} and {@link ServerGroups}.
+ * <p>
+ * It's stride scheduling: each element has a pass value, and the element with the smallest pass is chosen,
+ * then its pass is increased by STRIDE / weight. So an element with weight 2 is chosen twice
+ * as often as an element with weight 1, and the choices of different elements are interleaved
+ * instead of being chosen in bursts, like the smooth wrr sequence.
+ * <p>
+ * The memory is O(elements) instead of O(sum of weights), and a choice takes O(log(elements)) with a 4-ary heap
+ * (fewer levels than a binary heap, and the children are in one cache line).
+ * The weight is provided by the caller each time an element is chosen, so the weights can change
+ * (e.g. modified by the user, or ramping in slow start) without resetting the cursor.
+ */
+class WRRCursor {
+    private static final long STRIDE = 1L << 32;
+
+    Object wrr; // the cursor is reset when the WRR object is replaced
+    // a 4-ary heap ordered by pass, the pass is stored along with the index
+    // of the element in the same position, to avoid one more memory access when comparing
+    private long[] pass;
+    private int[] heap;
+
+    /**
+     * @param wrr     the WRR object
+     * @param weights weights of the elements, to determine the random start positions
+     */
+    void reset(Object wrr, int[] weights) {
+        this.wrr = wrr;
+        int n = weights.length;
+        if (pass == null || pass.length != n) {
+            pass = new long[n];
+            heap = new int[n];
+        }
+        // start at random positions, otherwise all threads (and all vproxy instances
+        // with the same configuration) choose the same elements after resetting
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < n; ++i) {
+            pass[i] = rand.nextLong(stride(weights[i]));
+            heap[i] = i;
+        }
+        for (int i = Math.min(n / 4, n - 1); i >= 0; --i) {
+            siftDown(i, heap[i], pass[i]);
+        }
+    }
+
+    /**
+     * @return index of the element to choose, must not be called if there's no element
+     */
+    int top() {
+        return heap[0];
+    }
+
+    /**
+     * increase the pass of the element returned by top()
+     *
+     * @param weight the current weight of the element
+     */
+    void advance(int weight) {
+        siftDown(0, heap[0], pass[0] + stride(weight));
+    }
+
+    // the weight may be modified concurrently, consider it as 1 if it's not positive
+    private static long stride(int weight) {
+        return STRIDE / (weight <= 0 ? 1 : weight);
+    }
+
+    int size() {
+        return heap.length;
+    }
+
+    // put the element with the pass into position i, and move it down to keep the heap ordered
+    private void siftDown(int i, int idx, long p) {
+        long[] pass = this.pass;
+        int[] heap = this.heap;
+        int n = heap.length;
+        while (true) {
+            int c = 4 * i + 1;
+            if (c >= n)
+                break;
+            // find the smallest of the (at most) 4 children
+            // compare with subtraction, so the pass values are allowed to overflow
+            long cp = pass[c];
+            int end = Math.min(c + 4, n);
+            for (int j = c + 1; j < end; ++j) {
+                if (pass[j] - cp < 0) {
+                    cp = pass[j];
+                    c = j;
+                }
+            }
+            if (cp - p >= 0)
+                break;
+            heap[i] = heap[c];
+            pass[i] = cp;
+            i = c;
+        }
+        heap[i] = idx;
+        pass[i] = p;
+    }
+}
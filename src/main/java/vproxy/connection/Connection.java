@@ -142,6 +142,7 @@ public class Connection implements NetFlowRecorder {
     TimerEvent closeTimeout; // the connection should be released after a few minutes if no data at all
     long lastTimestamp;
     public final int timeout;
+    final boolean repeatRead;
 
     // statistics fields
     // the connection is handled in a single thread, so no need to synchronize
@@ -171,6 +172,7 @@ public class Connection implements NetFlowRecorder {
 
         this.channel = channel;
         this.timeout = opts.timeout;
+        this.repeatRead = opts.repeatRead;
         this.inBuffer = inBuffer;
         this.outBuffer = outBuffer;
         this.remote = remote;
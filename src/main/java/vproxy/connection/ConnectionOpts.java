@@ -4,6 +4,7 @@ import vproxy.app.Config;
 
 public class ConnectionOpts {
     int timeout = Config.tcpTimeout;
+    boolean repeatRead = false;
 
     public static ConnectionOpts getDefault() {
         return DefaultConnectionOpts.defaultConnectionOpts;
@@ -16,6 +17,16 @@ public class ConnectionOpts {
         this.timeout = timeout;
         return this;
     }
+
+    /**
+     * when enabled, the connection keeps reading while the data is forwarded to the peer
+     * immediately (by the peer's quick write) in the same readable event.
+     * should only be enabled when the in buffer is the out buffer of another connection
+     */
+    public ConnectionOpts setRepeatRead(boolean repeatRead) {
+        this.repeatRead = repeatRead;
+        return this;
+    }
 }
 
 final class DefaultConnectionOpts extends ConnectionOpts {
@@ -28,4 +39,9 @@ final class DefaultConnectionOpts extends ConnectionOpts {
     public ConnectionOpts setTimeout(int timeout) {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    public ConnectionOpts setRepeatRead(boolean repeatRead) {
+        throw new UnsupportedOperationException();
+    }
 }
@@ -27,6 +27,22 @@ public class Connector {
         // do nothing in default implementation
     }
 
+    // let user code report the latency of the remote, e.g. the time cost of connecting,
+    // or the time between sending data and receiving the first byte of the reply
+    public void latency(long nanos) {
+        // do nothing in default implementation
+    }
+
+    // let user code report the streams started on the connection, e.g. http/2 streams
+    public void streamStarted() {
+        // do nothing in default implementation
+    }
+
+    // let user code report the streams ended on the connection (END_STREAM on both sides, or reset)
+    public void streamEnded() {
+        // do nothing in default implementation
+    }
+
     // provide a event loop
     public NetEventLoop loop() {
         return null; // default: do not provide
@@ -4,6 +4,7 @@ import vproxy.app.Config;
 import vproxy.selector.Handler;
 import vproxy.selector.HandlerContext;
 import vproxy.selector.SelectorEventLoop;
+import vproxy.selector.TimerEvent;
 import vproxy.util.*;
 
 import java.io.IOException;
@@ -230,10 +231,7 @@ class NetEventLoopUtils {
         }
     }
 
-    private static void resetDelay(NetEventLoop loop, ConnectionHandlerContext ctx) {
-        Connection conn = ctx.connection;
-        assert Logger.lowLevelDebug("do reset timeout for " + conn);
-
+    private static int calculateDelay(Connection conn) {
         final int timeout = conn.timeout;
         int delay;
         if (conn.lastTimestamp == 0) {
@@ -246,21 +244,36 @@ class NetEventLoopUtils {
             delay = 0;
         }
         assert Logger.lowLevelDebug("the delay for " + conn + " is " + delay);
-        conn.closeTimeout = loop.getSelectorEventLoop().delay(delay, () -> {
-            // check current timestamp
-            int delta = (int) (Config.currentTimestamp - conn.lastTimestamp);
-            if (delta > timeout) {
-                assert Logger.lowLevelDebug("timeout triggered: " + conn);
-                ctx.handler.exception(ctx, new SocketTimeoutException("timeout by timer: " + ctx.connection));
-                // if the user code didn't close the connection, we do it for user
-                if (!conn.isClosed()) {
-                    ctx.handler.closed(ctx);
-                    conn.close();
-                }
-            } else {
-                resetDelay(loop, ctx);
+        return delay;
+    }
+
+    private static void resetDelay(NetEventLoop loop, ConnectionHandlerContext ctx) {
+        Connection conn = ctx.connection;
+        assert Logger.lowLevelDebug("do reset timeout for " + conn);
+
+        conn.closeTimeout = loop.getSelectorEventLoop().delay(calculateDelay(conn), () -> closeTimeoutTriggered(ctx));
+    }
+
+    private static void closeTimeoutTriggered(ConnectionHandlerContext ctx) {
+        Connection conn = ctx.connection;
+        // check current timestamp
+        int delta = (int) (Config.currentTimestamp - conn.lastTimestamp);
+        if (delta > conn.timeout) {
+            assert Logger.lowLevelDebug("timeout triggered: " + conn);
+            ctx.handler.exception(ctx, new SocketTimeoutException("timeout by timer: " + ctx.connection));
+            // if the user code didn't close the connection, we do it for user
+            if (!conn.isClosed()) {
+                ctx.handler.closed(ctx);
+                conn.close();
             }
-        });
+        } else {
+            TimerEvent closeTimeout = conn.closeTimeout;
+            if (closeTimeout == null) {
+                return; // the connection is already removed from the loop
+            }
+            // the connection is still active, re-use the timer
+            closeTimeout.resetDelay(calculateDelay(conn));
+        }
     }
 }
 
@@ -277,6 +290,9 @@ class HandlerForConnection implements Handler<SelectableChannel> {
         Logger.shouldNotHappen("connection should not fire connected");
     }
 
+    // max reads in one readable event for repeat-read connections
+    private static final int REPEAT_READ_MAX_ROUNDS = 16;
+
     @Override
     public void readable(HandlerContext<SelectableChannel> ctx) {
         ConnectionHandlerContext cctx = (ConnectionHandlerContext) ctx.getAttachment();
@@ -285,16 +301,42 @@ class HandlerForConnection implements Handler<SelectableChannel> {
         // reset close timer because now it's active (will read some data)
         NetEventLoopUtils.resetCloseTimeout(cctx);
 
+        if (!cctx.connection.repeatRead) {
+            readOnce(ctx, cctx, false);
+            return;
+        }
+        // repeat read:
+        // the in buffer is the out buffer of the peer connection,
+        // and the peer writes the data out as soon as it's stored (quick write).
+        // if the buffer is drained and the last read filled the buffer,
+        // there might be more data in the socket, so read again instead of waiting for the next select.
+        // when the peer cannot write everything, the loop stops
+        // and falls back to the OP_WRITE/OP_READ driven path
+        RingBuffer inBuffer = cctx.connection.getInBuffer();
+        for (int round = 0; round < REPEAT_READ_MAX_ROUNDS; ++round) {
+            int free = inBuffer.free();
+            // the socket might be drained by the previous read, so reading nothing is expected after the first round
+            int read = readOnce(ctx, cctx, round != 0);
+            if (read < free || inBuffer.used() != 0 || !ctx.getChannel().isOpen()) {
+                break;
+            }
+        }
+    }
+
+    // read from the channel into the in buffer
+    // returns bytes read, or -1 if the reading ends (EOF, exception, or nothing read)
+    // `repeated` means the read is not triggered by the selector, so reading nothing is not an error
+    private int readOnce(HandlerContext<SelectableChannel> ctx, ConnectionHandlerContext cctx, boolean repeated) {
         if (cctx.connection.getInBuffer().free() == 0) {
             Logger.shouldNotHappen("the connection has no space to store data");
-            return;
+            return -1;
         }
         int read;
         try {
             read = cctx.connection.getInBuffer().storeBytesFrom((ReadableByteChannel) /* it's definitely readable */ ctx.getChannel());
         } catch (IOException e) {
             cctx.handler.exception(cctx, e);
-            return;
+            return -1;
         }
         assert Logger.lowLevelNetDebug("read " + read + " bytes from " + cctx.connection);
         if (read < 0) {
@@ -310,11 +352,13 @@ class HandlerForConnection implements Handler<SelectableChannel> {
                 ctx.modify(SelectionKey.OP_WRITE);
                 // the connection will be closed after write
             }
-            return;
+            return -1;
         }
         if (read == 0) {
-            Logger.shouldNotHappen("read nothing, the event should not be fired");
-            return;
+            if (!repeated) {
+                Logger.shouldNotHappen("read nothing, the event should not be fired");
+            }
+            return -1;
         }
 
         cctx.connection.incFromRemoteBytes(read); // record net flow, it's reading, so is "from remote"
@@ -326,6 +370,7 @@ class HandlerForConnection implements Handler<SelectableChannel> {
                 ctx.rmOps(SelectionKey.OP_READ);
             }
         }
+        return read;
     }
 
     @Override
@@ -337,7 +382,10 @@ class HandlerForConnection implements Handler<SelectableChannel> {
                 cctx.connection.close();
                 cctx.handler.closed(cctx);
             } else {
-                Logger.shouldNotHappen("the connection has nothing to write " + cctx.connection);
+                // the buffer might be drained by a quick write after the WRITE event is added,
+                // e.g. the proxied buffer gets more data and triggers the quick write
+                assert Logger.lowLevelDebug("the connection has nothing to write, remove WRITE event " + cctx.connection);
+                ctx.rmOps(SelectionKey.OP_WRITE);
             }
             return;
         }
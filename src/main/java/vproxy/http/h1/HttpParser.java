@@ -0,0 +1,898 @@
+package vproxy.http.h1;
+
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+import vproxy.util.Utils;
+import vproxy.util.ringbuffer.ByteBufferRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A streaming HTTP/1.x parser for requests or responses.
+ * <p>
+ * The head (start line, headers and the empty line) is copied in bulk into an internal byte array
+ * exactly as received, and the start line elements and header names/values are recorded as
+ * (offset, length) slices of that array. Nothing is materialized until the getters are called.
+ * <p>
+ * The body is never copied: {@link #parse(ByteBuffer)} reports body data as ranges of the input buffer.
+ * Content-Length bodies, chunked bodies and (for responses) bodies delimited by the connection close are supported.
+ * By default only the chunk data is reported, call {@link #setRawBody(boolean)} to report all bytes after the head
+ * (including the chunk framing), which is useful when the message is forwarded as is.
+ * <p>
+ * The input can be split at any byte, the parser resumes from where it stopped.
+ * Bytes after the end of the message are not consumed, so pipelined messages can be parsed
+ * by calling {@link #reset()} and parsing again.
+ */
+public class HttpParser {
+    // events returned by parse and feed
+    public static final int ERROR = -1;
+    public static final int WANT_MORE = 0;
+    public static final int HEAD = 1; // the head is parsed
+    public static final int BODY = 2; // body data is found, see bodyOffset() and bodyLength()
+    public static final int DONE = 3; // the message is complete
+    public static final int DATA = 4; // body data starts, see dataRemaining(), only returned when skipping data
+
+    public static final int DEFAULT_MAX_HEAD_LEN = 16384;
+
+    public interface BodyConsumer {
+        /**
+         * the consumer should not modify position or limit of the buffer
+         */
+        void accept(ByteBuffer buf, int off, int len);
+    }
+
+    private static final int S_START_LINE = 0;
+    private static final int S_HEADER = 1;
+    private static final int S_BODY_FIXED = 2;
+    private static final int S_BODY_UNTIL_CLOSE = 3;
+    private static final int S_CHUNK_SIZE = 4;
+    private static final int S_CHUNK_EXT = 5;
+    private static final int S_CHUNK_SIZE_LF = 6;
+    private static final int S_CHUNK_DATA = 7;
+    private static final int S_CHUNK_DATA_CR = 8;
+    private static final int S_CHUNK_DATA_LF = 9;
+    private static final int S_TRAILER_LINE_START = 10;
+    private static final int S_TRAILER_LINE = 11;
+    private static final int S_TRAILER_END_LF = 12;
+    private static final int S_DONE = 13;
+    private static final int S_ERROR = 14;
+
+    private static final long MAX_CHUNK_SIZE = Long.MAX_VALUE >> 4;
+
+    private final boolean isRequest;
+    private final int maxHeadLen;
+    private boolean rawBody = false;
+    private boolean noBody = false;
+    private boolean skipData = false;
+    private BodyConsumer bodyConsumer;
+
+    private int state = S_START_LINE;
+    private String errorMessage;
+
+    // the head as received
+    private byte[] head = new byte[256];
+    private int headLen = 0;
+    private int lineStart = 0;
+
+    // start line
+    private int methodOff, methodLen;
+    private int uriOff, uriLen;
+    private int versionOff, versionLen;
+    private int minorVersion;
+    private int statusCode;
+    private int reasonOff, reasonLen;
+
+    // headers, each header takes 4 ints: nameOff, nameLen, valueOff, valueLen
+    private int[] headers = new int[4 * 16];
+    private int headerCount = 0;
+
+    // fields retrieved from the headers
+    private long contentLength = -1;
+    private boolean transferEncoding = false;
+    private boolean chunked = false;
+    private boolean connectionClose = false;
+    private boolean connectionKeepAlive = false;
+
+    // body
+    private long remaining; // remaining bytes of the fixed length body or the current chunk
+    private long chunkSize;
+    private int chunkSizeDigits;
+    private int bodyOffset;
+    private int bodyLength;
+
+    // for feeding from ring buffers
+    private int feedResult;
+    private ByteBufferRingBuffer.WriteOutOp scanOp; // created on first feed
+    private byte[] oneByte;
+    private ByteArrayChannel oneByteChnl;
+
+    public HttpParser(boolean isRequest) {
+        this(isRequest, DEFAULT_MAX_HEAD_LEN);
+    }
+
+    public HttpParser(boolean isRequest, int maxHeadLen) {
+        this.isRequest = isRequest;
+        this.maxHeadLen = maxHeadLen;
+    }
+
+    /**
+     * report all bytes after the head as body, including the chunk framing and trailers
+     */
+    public HttpParser setRawBody(boolean rawBody) {
+        this.rawBody = rawBody;
+        return this;
+    }
+
+    /**
+     * leave the body data to the caller, which is useful when the data is forwarded without being copied.
+     * when the parser reaches body data (the Content-Length body, the chunk data, or the body delimited by close),
+     * DATA is returned without consuming anything, and the caller should call {@link #skipData(long)}
+     * after handling the bytes. the chunk framing is still parsed by the parser
+     */
+    public HttpParser setSkipData(boolean skipData) {
+        this.skipData = skipData;
+        return this;
+    }
+
+    /**
+     * the body consumer used by {@link #feed(RingBuffer)}
+     */
+    public HttpParser setBodyConsumer(BodyConsumer bodyConsumer) {
+        this.bodyConsumer = bodyConsumer;
+        return this;
+    }
+
+    /**
+     * the response to parse has no body regardless of its headers, e.g. the response of a HEAD request.
+     * should be called before the head of the response is parsed
+     */
+    public void expectNoBody() {
+        this.noBody = true;
+    }
+
+    /**
+     * reset the parser to parse the next message, the settings are kept
+     */
+    public void reset() {
+        state = S_START_LINE;
+        errorMessage = null;
+        noBody = false;
+        headLen = 0;
+        lineStart = 0;
+        methodOff = methodLen = uriOff = uriLen = versionOff = versionLen = 0;
+        minorVersion = 0;
+        statusCode = 0;
+        reasonOff = reasonLen = 0;
+        headerCount = 0;
+        contentLength = -1;
+        transferEncoding = false;
+        chunked = false;
+        connectionClose = false;
+        connectionKeepAlive = false;
+        remaining = 0;
+        chunkSize = 0;
+        chunkSizeDigits = 0;
+        bodyOffset = 0;
+        bodyLength = 0;
+    }
+
+    /**
+     * parse the ring buffer. HEAD, DONE, ERROR, DATA (when skipping data) or WANT_MORE is returned,
+     * and the body is delivered to the body consumer (or dropped if not set).
+     * the bytes after the head are not consumed when HEAD is returned,
+     * and the bytes after the message are not consumed when DONE is returned
+     */
+    public int feed(RingBuffer buffer) {
+        feedResult = WANT_MORE;
+        if (buffer instanceof ByteBufferRingBuffer) {
+            if (scanOp == null) {
+                scanOp = this::scan;
+            }
+            try {
+                ((ByteBufferRingBuffer) buffer).operateOnByteBufferWriteOut(Integer.MAX_VALUE, scanOp);
+            } catch (IOException e) {
+                // will not happen, the op does not throw
+                throw new RuntimeException(e);
+            }
+            return feedResult;
+        }
+        // the buffer cannot be operated directly, so take one byte at a time
+        if (oneByte == null) {
+            oneByte = new byte[1];
+            oneByteChnl = ByteArrayChannel.fromEmpty(oneByte);
+        }
+        ByteBuffer b = ByteBuffer.wrap(oneByte);
+        while (feedResult == WANT_MORE) {
+            if (state == S_DONE || state == S_ERROR) {
+                feedResult = state == S_DONE ? DONE : ERROR;
+                break;
+            }
+            oneByteChnl.reset();
+            if (buffer.writeTo(oneByteChnl) == 0)
+                break;
+            b.clear();
+            scan(b);
+        }
+        return feedResult;
+    }
+
+    // called with each readable region of the buffer (at most twice when the data wraps)
+    private void scan(ByteBuffer buf) {
+        while (feedResult == WANT_MORE) {
+            int event = parse(buf);
+            if (event == BODY) {
+                if (bodyConsumer != null) {
+                    bodyConsumer.accept(buf, bodyOffset, bodyLength);
+                }
+                continue;
+            }
+            if (event != WANT_MORE) {
+                feedResult = event;
+            }
+            return;
+        }
+    }
+
+    /**
+     * parse the bytes in [position, limit) of the buffer,
+     * the position is moved forward over the consumed bytes.
+     *
+     * @return ERROR, WANT_MORE (all bytes consumed), HEAD, BODY, DATA or DONE.
+     * when BODY is returned, the range is [bodyOffset(), bodyOffset() + bodyLength()) of the buffer
+     */
+    public int parse(ByteBuffer buf) {
+        switch (state) {
+            case S_DONE:
+                return DONE;
+            case S_ERROR:
+                return ERROR;
+            case S_START_LINE:
+            case S_HEADER:
+                return parseHead(buf);
+            default:
+                return parseBody(buf);
+        }
+    }
+
+    /**
+     * called when the connection is closed (EOF), the response without length is done
+     */
+    public int end() {
+        if (state == S_BODY_UNTIL_CLOSE || state == S_DONE) {
+            state = S_DONE;
+            return DONE;
+        }
+        if (state == S_START_LINE && headLen == 0)
+            return WANT_MORE; // nothing received
+        return error("unexpected end of message");
+    }
+
+    private int error(String msg) {
+        errorMessage = msg;
+        state = S_ERROR;
+        return ERROR;
+    }
+
+    private int parseHead(ByteBuffer buf) {
+        int pos = buf.position();
+        int lim = buf.limit();
+        while (pos < lim) {
+            int lf = Utils.indexOf(buf, pos, lim, (byte) '\n');
+            int end = lf == lim ? lim : lf + 1;
+            if (headLen + (end - pos) > maxHeadLen) {
+                buf.position(end);
+                return error("the head is too large");
+            }
+            append(buf, pos, end);
+            pos = end;
+            if (lf == lim)
+                break; // the line is not complete
+
+            int lineEnd = headLen - 1; // strip \n
+            if (lineEnd > lineStart && head[lineEnd - 1] == '\r') {
+                --lineEnd;
+            }
+            if (state == S_START_LINE) {
+                if (lineEnd == lineStart) {
+                    // ignore empty lines before the start line
+                    headLen = 0;
+                    lineStart = 0;
+                    continue;
+                }
+                boolean ok = isRequest ? parseRequestLine(lineStart, lineEnd) : parseStatusLine(lineStart, lineEnd);
+                if (!ok) {
+                    buf.position(pos);
+                    return ERROR;
+                }
+                state = S_HEADER;
+            } else if (lineEnd == lineStart) {
+                // empty line, the head ends
+                lineStart = headLen;
+                buf.position(pos);
+                return headDone();
+            } else if (!parseHeaderLine(lineStart, lineEnd)) {
+                buf.position(pos);
+                return ERROR;
+            }
+            lineStart = headLen;
+        }
+        buf.position(pos);
+        return WANT_MORE;
+    }
+
+    private void append(ByteBuffer buf, int from, int to) {
+        int len = to - from;
+        if (headLen + len > head.length) {
+            int newLen = head.length;
+            while (newLen < headLen + len) {
+                newLen <<= 1;
+            }
+            byte[] newHead = new byte[Math.min(newLen, maxHeadLen)];
+            System.arraycopy(head, 0, newHead, 0, headLen);
+            head = newHead;
+        }
+        buf.position(from);
+        buf.get(head, headLen, len);
+        headLen += len;
+    }
+
+    private int headDone() {
+        if (transferEncoding && !chunked) {
+            if (isRequest) {
+                return error("the last transfer coding of a request must be chunked");
+            }
+            // the response body is delimited by the connection close
+            contentLength = -1;
+        }
+        if (isRequest && chunked && contentLength >= 0) {
+            return error("both Transfer-Encoding and Content-Length are present");
+        }
+        if (!isRequest && (noBody || statusCode / 100 == 1 || statusCode == 204 || statusCode == 304)) {
+            state = S_DONE;
+        } else if (chunked) {
+            state = S_CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            state = S_BODY_FIXED;
+            remaining = contentLength;
+        } else if (contentLength == 0 || isRequest) {
+            state = S_DONE;
+        } else {
+            state = S_BODY_UNTIL_CLOSE;
+        }
+        return HEAD;
+    }
+
+    private int body(int off, int len) {
+        bodyOffset = off;
+        bodyLength = len;
+        return BODY;
+    }
+
+    private boolean isDataState() {
+        return state == S_BODY_FIXED || state == S_CHUNK_DATA || state == S_BODY_UNTIL_CLOSE;
+    }
+
+    private int parseBody(ByteBuffer buf) {
+        if (skipData && isDataState()) {
+            return DATA;
+        }
+        int pos = buf.position();
+        int lim = buf.limit();
+        int rawStart = pos;
+        while (pos < lim) {
+            if (isDataState()) {
+                if (skipData) {
+                    // the framing before the data is parsed
+                    buf.position(pos);
+                    return DATA;
+                }
+                int n = lim - pos;
+                if (state != S_BODY_UNTIL_CLOSE) {
+                    if (n > remaining) {
+                        n = (int) remaining;
+                    }
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = state == S_BODY_FIXED ? S_DONE : S_CHUNK_DATA_CR;
+                    }
+                }
+                int off = pos;
+                pos += n;
+                if (!rawBody) {
+                    buf.position(pos);
+                    return body(off, n);
+                }
+                if (state == S_DONE)
+                    break;
+                continue;
+            }
+            byte b = buf.get(pos++);
+            switch (state) {
+                case S_CHUNK_SIZE:
+                    if (b == '\r' || b == '\n' || b == ';' || b == ' ' || b == '\t') {
+                        if (chunkSizeDigits == 0) {
+                            buf.position(pos);
+                            return error("invalid chunk size");
+                        }
+                        if (b == '\n') {
+                            chunkSizeDone();
+                        } else {
+                            state = b == '\r' ? S_CHUNK_SIZE_LF : S_CHUNK_EXT;
+                        }
+                    } else {
+                        int d = hex(b);
+                        if (d < 0 || chunkSize > MAX_CHUNK_SIZE) {
+                            buf.position(pos);
+                            return error("invalid chunk size");
+                        }
+                        chunkSize = chunkSize * 16 + d;
+                        ++chunkSizeDigits;
+                    }
+                    break;
+                case S_CHUNK_EXT:
+                    // chunk extensions are ignored
+                    if (b == '\r') {
+                        state = S_CHUNK_SIZE_LF;
+                    } else if (b == '\n') {
+                        chunkSizeDone();
+                    }
+                    break;
+                case S_CHUNK_SIZE_LF:
+                    if (b != '\n') {
+                        buf.position(pos);
+                        return error("expecting \\n after chunk size");
+                    }
+                    chunkSizeDone();
+                    break;
+                case S_CHUNK_DATA_CR:
+                    if (b == '\r') {
+                        state = S_CHUNK_DATA_LF;
+                    } else if (b == '\n') {
+                        state = S_CHUNK_SIZE;
+                    } else {
+                        buf.position(pos);
+                        return error("expecting \\r\\n after chunk data");
+                    }
+                    break;
+                case S_CHUNK_DATA_LF:
+                    if (b != '\n') {
+                        buf.position(pos);
+                        return error("expecting \\n after chunk data");
+                    }
+                    state = S_CHUNK_SIZE;
+                    break;
+                case S_TRAILER_LINE_START:
+                    if (b == '\r') {
+                        state = S_TRAILER_END_LF;
+                    } else if (b == '\n') {
+                        state = S_DONE;
+                    } else {
+                        state = S_TRAILER_LINE; // trailers are ignored
+                    }
+                    break;
+                case S_TRAILER_LINE:
+                    if (b == '\n') {
+                        state = S_TRAILER_LINE_START;
+                    }
+                    break;
+                case S_TRAILER_END_LF:
+                    if (b != '\n') {
+                        buf.position(pos);
+                        return error("expecting \\n after trailers");
+                    }
+                    state = S_DONE;
+                    break;
+            }
+            if (state == S_DONE)
+                break;
+        }
+        buf.position(pos);
+        if (rawBody && pos > rawStart) {
+            return body(rawStart, pos - rawStart);
+        }
+        if (skipData && isDataState()) {
+            // the framing ends exactly at the end of the input
+            return DATA;
+        }
+        return state == S_DONE ? DONE : WANT_MORE;
+    }
+
+    private void chunkSizeDone() {
+        if (chunkSize == 0) {
+            state = S_TRAILER_LINE_START;
+        } else {
+            remaining = chunkSize;
+            state = S_CHUNK_DATA;
+        }
+        chunkSize = 0;
+        chunkSizeDigits = 0;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9')
+            return b - '0';
+        if (b >= 'a' && b <= 'f')
+            return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F')
+            return b - 'A' + 10;
+        return -1;
+    }
+
+    private int indexOf(int from, int to, byte b) {
+        for (int i = from; i < to; ++i) {
+            if (head[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(int from, int to, byte b) {
+        for (int i = to - 1; i >= from; --i) {
+            if (head[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean parseVersion(int off, int len) {
+        // HTTP/1.x
+        if (len != 8 || !regionEquals(off, "HTTP/1.", false) || head[off + 7] < '0' || head[off + 7] > '9') {
+            error("invalid http version: " + str(off, len));
+            return false;
+        }
+        versionOff = off;
+        versionLen = len;
+        minorVersion = head[off + 7] - '0';
+        return true;
+    }
+
+    private boolean parseRequestLine(int start, int end) {
+        int sp1 = indexOf(start, end, (byte) ' ');
+        int sp2 = lastIndexOf(start, end, (byte) ' ');
+        if (sp1 <= start || sp2 <= sp1 + 1) {
+            error("invalid request line: " + str(start, end - start));
+            return false;
+        }
+        methodOff = start;
+        methodLen = sp1 - start;
+        uriOff = sp1 + 1;
+        uriLen = sp2 - uriOff;
+        return parseVersion(sp2 + 1, end - sp2 - 1);
+    }
+
+    private boolean parseStatusLine(int start, int end) {
+        int sp1 = indexOf(start, end, (byte) ' ');
+        if (sp1 <= start || sp1 + 4 > end) {
+            error("invalid status line: " + str(start, end - start));
+            return false;
+        }
+        if (!parseVersion(start, sp1 - start))
+            return false;
+        int code = 0;
+        for (int i = sp1 + 1; i < sp1 + 4; ++i) {
+            byte b = head[i];
+            if (b < '0' || b > '9') {
+                error("invalid status code: " + str(sp1 + 1, 3));
+                return false;
+            }
+            code = code * 10 + (b - '0');
+        }
+        statusCode = code;
+        if (sp1 + 4 == end) {
+            reasonOff = end;
+            reasonLen = 0;
+        } else if (head[sp1 + 4] == ' ') {
+            reasonOff = sp1 + 5;
+            reasonLen = end - reasonOff;
+        } else {
+            error("invalid status line: " + str(start, end - start));
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isOWS(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private boolean parseHeaderLine(int start, int end) {
+        if (isOWS(head[start])) {
+            error("obsolete line folding is not supported");
+            return false;
+        }
+        int colon = indexOf(start, end, (byte) ':');
+        if (colon <= start || isOWS(head[colon - 1])) {
+            error("invalid header: " + str(start, end - start));
+            return false;
+        }
+        int vs = colon + 1;
+        int ve = end;
+        while (vs < ve && isOWS(head[vs])) {
+            ++vs;
+        }
+        while (ve > vs && isOWS(head[ve - 1])) {
+            --ve;
+        }
+        if (headerCount * 4 == headers.length) {
+            int[] newHeaders = new int[headers.length * 2];
+            System.arraycopy(headers, 0, newHeaders, 0, headers.length);
+            headers = newHeaders;
+        }
+        int idx = headerCount * 4;
+        headers[idx] = start;
+        headers[idx + 1] = colon - start;
+        headers[idx + 2] = vs;
+        headers[idx + 3] = ve - vs;
+        ++headerCount;
+
+        int nameLen = colon - start;
+        if (regionEqualsIgnoreCase(start, nameLen, "content-length")) {
+            long len = parseContentLength(vs, ve);
+            if (len < 0) {
+                error("invalid Content-Length: " + str(vs, ve - vs));
+                return false;
+            }
+            if (contentLength >= 0 && contentLength != len) {
+                error("conflicting Content-Length values");
+                return false;
+            }
+            contentLength = len;
+        } else if (regionEqualsIgnoreCase(start, nameLen, "transfer-encoding")) {
+            transferEncoding = true;
+            // chunked must be the last transfer coding
+            int comma = lastIndexOf(vs, ve, (byte) ',');
+            int ts = comma == -1 ? vs : comma + 1;
+            while (ts < ve && isOWS(head[ts])) {
+                ++ts;
+            }
+            chunked = regionEqualsIgnoreCase(ts, ve - ts, "chunked");
+        } else if (regionEqualsIgnoreCase(start, nameLen, "connection")) {
+            int ts = vs;
+            while (ts < ve) {
+                int comma = indexOf(ts, ve, (byte) ',');
+                int te = comma == -1 ? ve : comma;
+                int s = ts;
+                int e = te;
+                while (s < e && isOWS(head[s])) {
+                    ++s;
+                }
+                while (e > s && isOWS(head[e - 1])) {
+                    --e;
+                }
+                if (regionEqualsIgnoreCase(s, e - s, "close")) {
+                    connectionClose = true;
+                } else if (regionEqualsIgnoreCase(s, e - s, "keep-alive")) {
+                    connectionKeepAlive = true;
+                }
+                ts = te + 1;
+            }
+        }
+        return true;
+    }
+
+    private long parseContentLength(int from, int to) {
+        if (from == to || to - from > 18)
+            return -1;
+        long n = 0;
+        for (int i = from; i < to; ++i) {
+            byte b = head[i];
+            if (b < '0' || b > '9')
+                return -1;
+            n = n * 10 + (b - '0');
+        }
+        return n;
+    }
+
+    private boolean regionEquals(int off, String s, boolean ignoreCase) {
+        if (off + s.length() > headLen)
+            return false;
+        for (int i = 0; i < s.length(); ++i) {
+            int a = head[off + i];
+            int b = s.charAt(i);
+            if (ignoreCase) {
+                if (a >= 'A' && a <= 'Z')
+                    a += 'a' - 'A';
+                if (b >= 'A' && b <= 'Z')
+                    b += 'a' - 'A';
+            }
+            if (a != b)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int off, int len, String s) {
+        return len == s.length() && regionEquals(off, s, true);
+    }
+
+    private String str(int off, int len) {
+        return new String(head, off, len, StandardCharsets.ISO_8859_1);
+    }
+
+    // ---- results ----
+
+    public boolean isRequest() {
+        return isRequest;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean isHeadDone() {
+        return state != S_START_LINE && state != S_HEADER && state != S_ERROR;
+    }
+
+    public boolean isDone() {
+        return state == S_DONE;
+    }
+
+    /**
+     * @return the head bytes as received, valid in [0, headLength())
+     */
+    public byte[] headBytes() {
+        return head;
+    }
+
+    public int headLength() {
+        return headLen;
+    }
+
+    public String method() {
+        return str(methodOff, methodLen);
+    }
+
+    public boolean methodIs(String method) {
+        return methodLen == method.length() && regionEquals(methodOff, method, false);
+    }
+
+    public int uriOffset() {
+        return uriOff;
+    }
+
+    public int uriLength() {
+        return uriLen;
+    }
+
+    public String uri() {
+        return str(uriOff, uriLen);
+    }
+
+    public String version() {
+        return str(versionOff, versionLen);
+    }
+
+    public int minorVersion() {
+        return minorVersion;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public String reason() {
+        return str(reasonOff, reasonLen);
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    public int headerNameOffset(int i) {
+        return headers[i * 4];
+    }
+
+    public int headerNameLength(int i) {
+        return headers[i * 4 + 1];
+    }
+
+    public int headerValueOffset(int i) {
+        return headers[i * 4 + 2];
+    }
+
+    public int headerValueLength(int i) {
+        return headers[i * 4 + 3];
+    }
+
+    /**
+     * @return offset of the first byte of the header line
+     */
+    public int headerLineOffset(int i) {
+        return headers[i * 4];
+    }
+
+    /**
+     * @return offset after the line break of the header line
+     */
+    public int headerLineEnd(int i) {
+        return indexOf(headers[i * 4 + 2] + headers[i * 4 + 3], headLen, (byte) '\n') + 1;
+    }
+
+    public String headerName(int i) {
+        return str(headerNameOffset(i), headerNameLength(i));
+    }
+
+    public String headerValue(int i) {
+        return str(headerValueOffset(i), headerValueLength(i));
+    }
+
+    public boolean headerNameIs(int i, String name) {
+        return regionEqualsIgnoreCase(headerNameOffset(i), headerNameLength(i), name);
+    }
+
+    /**
+     * @return index of the first header with the name (case insensitive), or -1 if not found
+     */
+    public int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; ++i) {
+            if (headerNameIs(i, name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return value of the first header with the name (case insensitive), or null if not found
+     */
+    public String header(String name) {
+        int i = indexOfHeader(name);
+        return i == -1 ? null : headerValue(i);
+    }
+
+    /**
+     * @return the Content-Length, or -1 if not present
+     */
+    public long contentLength() {
+        return contentLength;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    public boolean isKeepAlive() {
+        if (connectionClose)
+            return false;
+        return minorVersion >= 1 || connectionKeepAlive;
+    }
+
+    public int bodyOffset() {
+        return bodyOffset;
+    }
+
+    public int bodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return bytes of body data expected before the next framing byte (or the end of the message):
+     * the remaining bytes of the Content-Length body or the current chunk,
+     * -1 if the body is delimited by the connection close, or 0 if the parser is not expecting body data
+     */
+    public long dataRemaining() {
+        if (state == S_BODY_UNTIL_CLOSE)
+            return -1;
+        if (state == S_BODY_FIXED || state == S_CHUNK_DATA)
+            return remaining;
+        return 0;
+    }
+
+    /**
+     * the caller handled n bytes of the body data, which is used when skipping data.
+     * n should not exceed {@link #dataRemaining()} unless the body is delimited by the connection close
+     */
+    public void skipData(long n) {
+        if (state == S_BODY_UNTIL_CLOSE)
+            return;
+        if (state != S_BODY_FIXED && state != S_CHUNK_DATA)
+            throw new IllegalStateException("not expecting body data");
+        if (n > remaining)
+            throw new IllegalArgumentException("skipping " + n + " bytes but only " + remaining + " remaining");
+        remaining -= n;
+        if (remaining == 0) {
+            state = state == S_BODY_FIXED ? S_DONE : S_CHUNK_DATA_CR;
+        }
+    }
+}
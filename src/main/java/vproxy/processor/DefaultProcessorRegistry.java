@@ -1,6 +1,7 @@
 package vproxy.processor;
 
 import vproxy.processor.dubbo.DubboProcessor;
+import vproxy.processor.http1.Http1Processor;
 import vproxy.processor.http2.Http2Processor;
 import vproxy.processor.common.CommonInt32FramedProcessor;
 
@@ -13,6 +14,7 @@ public class DefaultProcessorRegistry implements ProcessorRegistry {
     private Map<String, Processor> registry = new HashMap<>();
 
     private DefaultProcessorRegistry() {
+        register(new Http1Processor());
         register(new Http2Processor());
         register(new CommonInt32FramedProcessor());
         register(new DubboProcessor());
@@ -56,6 +56,11 @@ class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
         return expectingHead ? handleLen : proxyBaseLen + parsedLength;
     }
 
+    @Override
+    public boolean acceptsView() {
+        return true; // only the head is parsed, and the data itself is returned
+    }
+
     @Override
     public ByteArray feed(ByteArray data) throws Exception {
         if (len < 5) { // 1,2,3,4
@@ -7,4 +7,8 @@ public abstract class OOContext<SUB extends OOSubContext> extends Processor.Cont
     public abstract int connection(SUB front);
 
     public abstract void chosen(SUB front, SUB subCtx);
+
+    public byte[] hashKey(SUB front) {
+        return null;
+    }
 }
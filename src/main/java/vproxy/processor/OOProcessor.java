@@ -1,6 +1,7 @@
 package vproxy.processor;
 
 import vproxy.util.ByteArray;
+import vproxy.util.RingBuffer;
 
 public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubContext> implements Processor<CTX, SUB> {
     @Override
@@ -18,6 +19,16 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
         return sub.len();
     }
 
+    @Override
+    public int len(CTX ctx, SUB sub, RingBuffer input) {
+        return sub.len(input);
+    }
+
+    @Override
+    public boolean acceptsView(CTX ctx, SUB sub) {
+        return sub.acceptsView();
+    }
+
     @Override
     public ByteArray feed(CTX ctx, SUB sub, ByteArray data) throws Exception {
         return sub.feed(data);
@@ -43,8 +54,23 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
         ctx.chosen(front, sub);
     }
 
+    @Override
+    public byte[] hashKey(CTX ctx, SUB front) {
+        return ctx.hashKey(front);
+    }
+
     @Override
     public ByteArray connected(CTX ctx, SUB sub) {
         return sub.connected();
     }
+
+    @Override
+    public boolean idle(CTX ctx, SUB sub) {
+        return sub.idle();
+    }
+
+    @Override
+    public void streamListener(CTX ctx, SUB sub, StreamListener listener) {
+        sub.streamListener(listener);
+    }
 }
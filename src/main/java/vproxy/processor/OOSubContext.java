@@ -1,6 +1,7 @@
 package vproxy.processor;
 
 import vproxy.util.ByteArray;
+import vproxy.util.RingBuffer;
 
 public abstract class OOSubContext<CTX extends OOContext> extends Processor.SubContext {
     public final CTX ctx;
@@ -17,6 +18,14 @@ public abstract class OOSubContext<CTX extends OOContext> extends Processor.SubC
 
     public abstract int len();
 
+    public int len(RingBuffer input) {
+        return len();
+    }
+
+    public boolean acceptsView() {
+        return false;
+    }
+
     public abstract ByteArray feed(ByteArray data) throws Exception;
 
     public abstract ByteArray produce();
@@ -24,4 +33,11 @@ public abstract class OOSubContext<CTX extends OOContext> extends Processor.SubC
     public abstract void proxyDone();
 
     public abstract ByteArray connected();
+
+    public boolean idle() {
+        return false;
+    }
+
+    public void streamListener(Processor.StreamListener listener) {
+    }
 }
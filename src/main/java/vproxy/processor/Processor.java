@@ -2,6 +2,7 @@ package vproxy.processor;
 
 import vproxy.app.Config;
 import vproxy.util.ByteArray;
+import vproxy.util.RingBuffer;
 
 import java.net.InetSocketAddress;
 
@@ -71,12 +72,46 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     int len(CTX ctx, SUB sub);
 
+    /**
+     * get current wanted length with the buffered input data visible.<br>
+     * the message length of text based protocols is unknown until the data is inspected,
+     * so the processor may look into the input buffer to decide the length.
+     * the processor must not consume or modify anything in the input buffer.<br>
+     * this method is called instead of {@link #len(Context, SubContext)} in `handle` mode
+     * when the input buffer is not empty. by default, the input is ignored
+     *
+     * @param ctx   context
+     * @param sub   sub context
+     * @param input input buffer of the connection
+     * @return the current wanted length
+     */
+    default int len(CTX ctx, SUB sub, RingBuffer input) {
+        return len(ctx, sub);
+    }
+
+    /**
+     * check whether the data of the next {@link #feed(Context, SubContext, ByteArray)} call
+     * can be a view of the input buffer instead of a copy.<br>
+     * the view is only valid during the `feed` call, so the processor must not keep it or any part of it,
+     * and must not return a part of it. returning the view itself is allowed, the lib will copy it.
+     * the view can be modified in place, the bytes are consumed from the input buffer after the call.<br>
+     * the lib still copies the data when the bytes are not stored contiguously in the input buffer.<br>
+     * by default, the data is always copied
+     *
+     * @param ctx context
+     * @param sub sub context
+     * @return true if the data can be a view
+     */
+    default boolean acceptsView(CTX ctx, SUB sub) {
+        return false;
+    }
+
     /**
      * feed data to the processor and get data to send
      *
      * @param ctx  context
      * @param sub  sub context
-     * @param data feed data
+     * @param data feed data, see {@link #acceptsView(Context, SubContext)}
      * @return data to send, or null if nothing to send
      * @throws Exception raise exception if handling failed
      */
@@ -117,6 +152,20 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     void chosen(CTX ctx, SUB front, SUB sub);
 
+    /**
+     * after the `connection` method return -1, and before the lib creates a new connection,
+     * the lib asks for a key to choose the backend with the `hash` method of server groups.<br>
+     * e.g. a header of the request being processed.<br>
+     * by default, no key is provided, and the source ip address is used
+     *
+     * @param ctx   context
+     * @param front the frontend sub context
+     * @return the key, or null if not provided
+     */
+    default byte[] hashKey(CTX ctx, SUB front) {
+        return null;
+    }
+
     /**
      * new connection connected
      *
@@ -127,6 +176,48 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     ByteArray connected(CTX ctx, SUB sub);
 
+    /**
+     * check whether the backend connection is idle: nothing is being transmitted on it,
+     * and it can be reused by other frontend connections.<br>
+     * when the frontend connection closes, the idle backend connections are kept in a pool of the event loop,
+     * and will be retrieved when the lib needs a connection to the same remote address.
+     * the sub context of a reused connection is created by {@link #initSub(Context, int, InetSocketAddress)},
+     * and {@link #connected(Context, SubContext)} is not called.<br>
+     * besides, when an idle backend connection is closed by remote, only the backend connection is removed,
+     * otherwise the frontend connection will be closed as well.<br>
+     * by default, backend connections are never idle
+     *
+     * @param ctx context
+     * @param sub sub context of the backend connection
+     * @return true if the connection is idle
+     */
+    default boolean idle(CTX ctx, SUB sub) {
+        return false;
+    }
+
+    /**
+     * receives the streams started and ended on a backend connection
+     */
+    interface StreamListener {
+        void streamStarted();
+
+        void streamEnded();
+    }
+
+    /**
+     * the lib provides a listener for each backend sub context after it's created.<br>
+     * processors of protocols with streams (e.g. http/2) report the streams started and ended
+     * on the backend connection to the listener, which are used by the `los` method of server groups.
+     * the streams not ended when the backend connection is removed are ended by the lib.<br>
+     * by default, the listener is ignored
+     *
+     * @param ctx      context
+     * @param sub      sub context of the backend connection
+     * @param listener the listener
+     */
+    default void streamListener(CTX ctx, SUB sub, StreamListener listener) {
+    }
+
     /**
      * zero copy is not free.
      * e.g. when processing http2 frames, the frame header is 9 bytes, and with uint24 payload length,
@@ -0,0 +1,70 @@
+package vproxy.processor.http1;
+
+import vproxy.processor.OOContext;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public class Http1Context extends OOContext<Http1SubContext> {
+    final byte[] xffHeader; // X-Forwarded-For: $ip\r\n
+    final byte[] xffAppend; // , $ip
+    final byte[] xffValue; // $ip
+    final String hashHeader; // the header used as the hash key, or null
+
+    // the value of the hash header in the current request, or null if not found
+    byte[] hashKey = null;
+
+    // the backend which the current request is (or the previous requests are) sent to
+    Http1SubContext target = null;
+    // the current request is partially sent to the target, so the rest must be sent to the same backend
+    boolean requestBound = false;
+    // whether the current request of the frontend is completely received
+    boolean requestComplete = true;
+    // flags of the request whose head is received but not sent yet, -1 for none
+    int pendingRequestFlags = -1;
+    // the connection is upgraded (101) or a tunnel is established (CONNECT),
+    // all data is proxied between the frontend and the target
+    boolean tunnel = false;
+
+    public Http1Context(InetSocketAddress clientAddress, String hashHeader) {
+        this.hashHeader = hashHeader;
+        String clientIpStr = Utils.ipStr(clientAddress.getAddress().getAddress());
+        xffHeader = ("X-Forwarded-For: " + clientIpStr + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        xffAppend = (", " + clientIpStr).getBytes(StandardCharsets.ISO_8859_1);
+        xffValue = clientIpStr.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public int connection(Http1SubContext front) {
+        // requests are balanced one by one,
+        // but if the backend has not finished responding the previous requests,
+        // the pipelined request should go to the same backend to keep the responses in order
+        if (target != null && (tunnel || requestBound || target.hasPendingRequests())) {
+            bind(target);
+            return target.connId;
+        }
+        return -1;
+    }
+
+    @Override
+    public byte[] hashKey(Http1SubContext front) {
+        return hashKey;
+    }
+
+    @Override
+    public void chosen(Http1SubContext front, Http1SubContext subCtx) {
+        assert Logger.lowLevelDebug("the request is sent to backend " + subCtx.connId);
+        target = subCtx;
+        bind(subCtx);
+    }
+
+    private void bind(Http1SubContext backend) {
+        if (pendingRequestFlags != -1) {
+            backend.requestSent(pendingRequestFlags);
+            pendingRequestFlags = -1;
+        }
+        requestBound = !requestComplete;
+    }
+}
@@ -0,0 +1,37 @@
+package vproxy.processor.http1;
+
+import vproxy.processor.OOProcessor;
+import vproxy.util.Logger;
+
+import java.net.InetSocketAddress;
+
+public class Http1Processor extends OOProcessor<Http1Context, Http1SubContext> {
+    // the value of the header is used as the key for choosing the backend with the `hash` method,
+    // e.g. a session or user id header. null means the source ip address is used
+    private static final String HTTP1_HASH_HEADER;
+
+    static {
+        String hashHeaderStr = System.getProperty("HTTP1_HASH_HEADER");
+        if (hashHeaderStr == null || hashHeaderStr.isBlank()) {
+            HTTP1_HASH_HEADER = null;
+        } else {
+            HTTP1_HASH_HEADER = hashHeaderStr.trim();
+            Logger.alert("HTTP1_HASH_HEADER is set to " + HTTP1_HASH_HEADER);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "http/1.x";
+    }
+
+    @Override
+    public Http1Context init(InetSocketAddress clientAddress) {
+        return new Http1Context(clientAddress, HTTP1_HASH_HEADER);
+    }
+
+    @Override
+    public Http1SubContext initSub(Http1Context ctx, int id, InetSocketAddress associatedAddress) {
+        return new Http1SubContext(ctx, id);
+    }
+}
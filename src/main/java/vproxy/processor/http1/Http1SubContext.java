@@ -0,0 +1,327 @@
+package vproxy.processor.http1;
+
+import vproxy.http.h1.HttpParser;
+import vproxy.processor.OOSubContext;
+import vproxy.processor.Processor;
+import vproxy.util.ByteArray;
+import vproxy.util.Logger;
+import vproxy.util.RingBuffer;
+import vproxy.util.ringbuffer.ByteBufferRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * The frontend sub context parses requests, and the backend sub contexts parse responses.
+ *
+ * Each request is dispatched independently:
+ * when the head of a request is received, the lib is asked to choose a backend,
+ * unless the chosen backend of previous requests is still responding (pipelining),
+ * in which case the request is sent to the same backend, so the responses are returned in order.
+ *
+ * The head of a message is handled (the request head is rewritten to add X-Forwarded-For),
+ * the chunk framing is handled and sent as is,
+ * and the body data (the Content-Length body or the chunk data) is proxied, which is zero copy for large bodies.
+ *
+ * The message length is unknown until the head or the framing is parsed,
+ * so the input buffer is parsed in len(input) without being consumed,
+ * and the parsed length is fed in the next feed(data).
+ * When the head or the framing is not complete yet, all buffered bytes and one more byte are requested,
+ * the parser keeps the state, so only the last byte is parsed when fed.
+ *
+ * 101 Switching Protocols, or 2xx for CONNECT, turns both connections into a tunnel.
+ * Responses without length are proxied until the backend closes the connection.
+ *
+ * A backend connection is idle when all requests sent to it are responded with keep-alive,
+ * then it can be reused by later requests, or by other frontend connections when this one closes.
+ */
+public class Http1SubContext extends OOSubContext<Http1Context> {
+    // flags of requests
+    static final int REQ_HEAD = 1; // HEAD request, the response has no body
+    static final int REQ_CONNECT = 1 << 1; // CONNECT request, 2xx response means a tunnel
+    static final int REQ_CLOSE = 1 << 2; // the request is not keep-alive
+
+    private final HttpParser parser;
+
+    private int peeked = 0; // bytes at the head of the input buffer which are parsed but not fed yet
+    private int peekEvent;
+    private ByteBufferRingBuffer.GatheringWriteOutOp peekOp; // created on first peek
+
+    private boolean inMessage = false; // some bytes of the current message are handled
+    private boolean headHandled = false; // the head of the current message is handled
+    private int proxyLen = 0;
+
+    // for backend connections
+    private final ArrayDeque<Integer> pendingRequests; // flags of requests sent but not responded
+    private boolean keepAlive = true;
+
+    public Http1SubContext(Http1Context ctx, int connId) {
+        super(ctx, connId);
+        parser = new HttpParser(connId == 0).setSkipData(true);
+        pendingRequests = connId == 0 ? null : new ArrayDeque<>();
+    }
+
+    private boolean isFrontend() {
+        return connId == 0;
+    }
+
+    private boolean isTunnel() {
+        return ctx.tunnel && (isFrontend() || ctx.target == this);
+    }
+
+    boolean hasPendingRequests() {
+        return !pendingRequests.isEmpty();
+    }
+
+    void requestSent(int flags) {
+        pendingRequests.add(flags);
+    }
+
+    @Override
+    public Processor.Mode mode() {
+        if (isTunnel() || parser.dataRemaining() != 0) {
+            return Processor.Mode.proxy;
+        }
+        return Processor.Mode.handle;
+    }
+
+    @Override
+    public boolean expectNewFrame() {
+        return !inMessage && !isTunnel();
+    }
+
+    @Override
+    public int len() {
+        if (mode() == Processor.Mode.handle) {
+            // the input is not visible, so take one byte at a time
+            return 1;
+        }
+        if (isTunnel()) {
+            proxyLen = Integer.MAX_VALUE;
+        } else {
+            long remaining = parser.dataRemaining();
+            proxyLen = remaining < 0 || remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) remaining;
+        }
+        return proxyLen;
+    }
+
+    @Override
+    public int len(RingBuffer input) {
+        if (mode() == Processor.Mode.proxy || !(input instanceof ByteBufferRingBuffer)) {
+            return len();
+        }
+        int used = input.used();
+        if (peeked < used) {
+            prepareParser();
+            if (peekOp == null) {
+                peekOp = this::peek;
+            }
+            peekEvent = HttpParser.WANT_MORE;
+            try {
+                ((ByteBufferRingBuffer) input).operateOnByteBufferGatheringWriteOut(Integer.MAX_VALUE, peekOp);
+            } catch (IOException e) {
+                // will not happen, the op does not throw
+                throw new RuntimeException(e);
+            }
+            if (peekEvent != HttpParser.WANT_MORE) {
+                // feed all parsed bytes, the error (if any) will be raised when feeding
+                return Math.max(peeked, 1);
+            }
+        }
+        // the head or the framing is not complete,
+        // wait for one more byte, and the bytes already parsed will be fed along with it
+        return used + 1;
+    }
+
+    // parse the input without consuming anything
+    private void peek(ByteBuffer[] buffers, int length) {
+        int skip = peeked;
+        for (int i = 0; i < length; ++i) {
+            ByteBuffer buf = buffers[i];
+            int pos = buf.position();
+            int n = buf.limit() - pos;
+            if (skip >= n) {
+                skip -= n;
+                continue;
+            }
+            int start = pos + skip;
+            skip = 0;
+            buf.position(start);
+            int event = parser.parse(buf);
+            peeked += buf.position() - start;
+            buf.position(pos);
+            if (event != HttpParser.WANT_MORE) {
+                peekEvent = event;
+                return;
+            }
+        }
+    }
+
+    // the request of the response might be HEAD, which must be known before parsing the head
+    private void prepareParser() {
+        if (!isFrontend() && !parser.isHeadDone()) {
+            Integer flags = pendingRequests.peekFirst();
+            if (flags != null && (flags & REQ_HEAD) != 0) {
+                parser.expectNoBody();
+            }
+        }
+    }
+
+    @Override
+    public ByteArray feed(ByteArray data) throws Exception {
+        byte[] bytes = data.toJavaArray();
+        int off = peeked;
+        peeked = 0;
+        if (!inMessage) {
+            inMessage = true;
+            if (isFrontend()) {
+                ctx.requestComplete = false;
+            }
+        }
+        if (off < bytes.length) {
+            prepareParser();
+            ByteBuffer buf = ByteBuffer.wrap(bytes, off, bytes.length - off);
+            int event = parser.parse(buf);
+            if (event == HttpParser.ERROR) {
+                throw new Exception(parser.getErrorMessage());
+            }
+            if (buf.hasRemaining()) {
+                throw new Exception("unexpected data after " + (parser.isHeadDone() ? "the framing" : "the head"));
+            }
+        } else if (parser.getErrorMessage() != null) {
+            throw new Exception(parser.getErrorMessage());
+        }
+
+        // the head might be parsed when peeking, so check the flag instead of the event
+        boolean newHead = !headHandled && parser.isHeadDone();
+        if (newHead) {
+            headHandled = true;
+        }
+        ByteArray ret;
+        if (!isFrontend()) {
+            // the response is sent as is
+            ret = data;
+            if (newHead) {
+                responseHead();
+            }
+        } else if (newHead) {
+            ret = requestHead();
+        } else if (headHandled) {
+            ret = data; // chunk framing
+        } else {
+            ret = null; // wait for the whole head
+        }
+        if (parser.isDone()) {
+            messageDone();
+        }
+        return ret;
+    }
+
+    private ByteArray requestHead() {
+        int flags = 0;
+        if (parser.methodIs("HEAD")) {
+            flags |= REQ_HEAD;
+        } else if (parser.methodIs("CONNECT")) {
+            flags |= REQ_CONNECT;
+        }
+        if (!parser.isKeepAlive()) {
+            flags |= REQ_CLOSE;
+        }
+        ctx.pendingRequestFlags = flags;
+
+        byte[] head = parser.headBytes();
+        int headLen = parser.headLength();
+
+        // the parser is reset when the message is done, so the key is copied before that
+        if (ctx.hashHeader != null) {
+            int h = parser.indexOfHeader(ctx.hashHeader);
+            if (h == -1 || parser.headerValueLength(h) == 0) {
+                ctx.hashKey = null;
+            } else {
+                int off = parser.headerValueOffset(h);
+                ctx.hashKey = Arrays.copyOfRange(head, off, off + parser.headerValueLength(h));
+            }
+        }
+
+        // add X-Forwarded-For
+        int xff = parser.indexOfHeader("x-forwarded-for");
+        byte[] insert;
+        int insertOff;
+        if (xff == -1) {
+            insert = ctx.xffHeader;
+            // before the empty line
+            insertOff = headLen >= 2 && head[headLen - 2] == '\r' ? headLen - 2 : headLen - 1;
+        } else {
+            // append to the existing value
+            int valueLen = parser.headerValueLength(xff);
+            insertOff = parser.headerValueOffset(xff) + valueLen;
+            insert = valueLen == 0 ? ctx.xffValue : ctx.xffAppend;
+        }
+        byte[] result = new byte[headLen + insert.length];
+        System.arraycopy(head, 0, result, 0, insertOff);
+        System.arraycopy(insert, 0, result, insertOff, insert.length);
+        System.arraycopy(head, insertOff, result, insertOff + insert.length, headLen - insertOff);
+        return ByteArray.from(result);
+    }
+
+    private void responseHead() {
+        int status = parser.statusCode();
+        Integer flags = pendingRequests.peekFirst();
+        if (status == 101 || (flags != null && (flags & REQ_CONNECT) != 0 && status / 100 == 2)) {
+            assert Logger.lowLevelDebug("the backend " + connId + " responds " + status + ", start tunneling");
+            ctx.tunnel = true;
+            keepAlive = false;
+        }
+    }
+
+    private void messageDone() {
+        inMessage = false;
+        headHandled = false;
+        if (isFrontend()) {
+            ctx.requestComplete = true;
+        } else if (parser.statusCode() / 100 != 1) {
+            // 1xx responses are interim, the request is still waiting for the final response
+            Integer flags = pendingRequests.poll();
+            if (!parser.isKeepAlive() || (flags != null && (flags & REQ_CLOSE) != 0)) {
+                keepAlive = false;
+            }
+        }
+        parser.reset();
+    }
+
+    @Override
+    public ByteArray produce() {
+        return null; // nothing to produce
+    }
+
+    @Override
+    public void proxyDone() {
+        if (isTunnel()) {
+            return; // keep proxying
+        }
+        parser.skipData(proxyLen);
+        proxyLen = 0;
+        if (parser.isDone()) {
+            messageDone();
+            if (isFrontend()) {
+                // the request body is proxied, the next request can be sent to another backend
+                ctx.requestBound = false;
+            }
+        }
+    }
+
+    @Override
+    public ByteArray connected() {
+        return null; // send nothing when connected
+    }
+
+    @Override
+    public boolean idle() {
+        return keepAlive
+            && !inMessage
+            && pendingRequests.isEmpty()
+            && !(ctx.target == this && (ctx.requestBound || ctx.tunnel));
+    }
+}
@@ -0,0 +1,127 @@
+package vproxy.processor.http2;
+
+import com.twitter.hpack.Decoder;
+import com.twitter.hpack.Encoder;
+import com.twitter.hpack.HeaderListener;
+import vproxy.util.ArrayInputStream;
+import vproxy.util.ArrayOutputStream;
+import vproxy.util.ByteArray;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The hpack state of one http/2 connection: the decoder for header blocks received from the peer,
+ * and the encoder with a dynamic table for header blocks sent to the peer.
+ * <p>
+ * Unlike {@link HPackTransformer}, the decoded headers are not encoded immediately,
+ * so they can be encoded with the dynamic table of another connection.
+ * The blocks must be decoded and encoded in the same order as they are received and sent on the connection.
+ */
+public class HPackCodec {
+    private static final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+    private static final int DEFAULT_HEADER_TABLE_SIZE = 4096; // the initial SETTINGS_HEADER_TABLE_SIZE
+
+    private final Decoder decoder;
+    private final Encoder encoder;
+    private final int maxEncoderTableSize;
+    private int encoderTableSize;
+    private final Header[] headers;
+    private final HeaderList list = new HeaderList();
+    private final ArrayOutputStream outBuffer = ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE]));
+
+    /**
+     * @param decoderTableSize    the SETTINGS_HEADER_TABLE_SIZE sent to the peer
+     * @param maxEncoderTableSize max dynamic table size used when encoding, 0 means not using the dynamic table
+     * @param headers             headers to be added or replaced in the request headers, may be null
+     */
+    public HPackCodec(int decoderTableSize, int maxEncoderTableSize, Header[] headers) {
+        this.decoder = new Decoder(BUFFER_SIZE, decoderTableSize);
+        // the peer decoder starts with the default size
+        this.encoder = new Encoder(DEFAULT_HEADER_TABLE_SIZE);
+        this.maxEncoderTableSize = maxEncoderTableSize;
+        this.encoderTableSize = Math.min(maxEncoderTableSize, DEFAULT_HEADER_TABLE_SIZE);
+        this.headers = headers;
+    }
+
+    /**
+     * the SETTINGS_HEADER_TABLE_SIZE received from the peer,
+     * the change is signaled at the beginning of the next encoded block
+     */
+    public void setPeerTableSize(int size) {
+        // the value is uint32
+        encoderTableSize = size < 0 ? maxEncoderTableSize : Math.min(maxEncoderTableSize, size);
+    }
+
+    /**
+     * decode a complete header block
+     *
+     * @param addHeaders add the headers of this codec, should be true only for the request headers
+     * @return the decoded headers, which are valid until the next call to this method
+     */
+    public HeaderList decode(ByteArray block, boolean addHeaders) throws IOException {
+        list.clear();
+        decoder.decode(ArrayInputStream.from(block), list);
+        decoder.endHeaderBlock();
+        if (addHeaders && headers != null) {
+            list.merge(headers);
+        }
+        return list;
+    }
+
+    public ByteArray encode(HeaderList headers) throws IOException {
+        // emits the dynamic table size update if it changed
+        encoder.setMaxHeaderTableSize(outBuffer, encoderTableSize);
+        for (int i = 0; i < headers.size; ++i) {
+            encoder.encodeHeader(outBuffer, headers.names[i], headers.values[i], headers.sensitive[i]);
+        }
+        return outBuffer.get();
+    }
+
+    public static class HeaderList implements HeaderListener {
+        private byte[][] names = new byte[16][];
+        private byte[][] values = new byte[16][];
+        private boolean[] sensitive = new boolean[16];
+        private int size = 0;
+
+        @Override
+        public void addHeader(byte[] name, byte[] value, boolean sensitive) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                this.sensitive = Arrays.copyOf(this.sensitive, size * 2);
+            }
+            names[size] = name;
+            values[size] = value;
+            this.sensitive[size] = sensitive;
+            ++size;
+        }
+
+        // replace the values of the existing headers, and append the missing ones
+        private void merge(Header[] headers) {
+            int originalSize = size;
+            for (Header h : headers) {
+                boolean found = false;
+                for (int i = 0; i < originalSize; ++i) {
+                    if (Arrays.equals(names[i], h.key)) {
+                        values[i] = h.value;
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    addHeader(h.key, h.value, false);
+                }
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+}
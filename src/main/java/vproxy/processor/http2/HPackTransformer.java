@@ -9,24 +9,41 @@ import vproxy.util.ByteArray;
 import java.io.IOException;
 
 class HPackTransformer {
-    private final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+    private static final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+
+    // the transformed bytes are copied out before returning,
+    // so the buffer can be shared by all transformers running on the same event loop thread
+    private static final ThreadLocal<ArrayOutputStream> outBuffer =
+        ThreadLocal.withInitial(() -> ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE])));
 
     private final Decoder decoder;
     private final SyncOutputListener lsn;
-    private final ArrayOutputStream outBuffer = ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE]));
 
     HPackTransformer(int maxHeaderTableSize, Header[] headers) {
         this.decoder = new Decoder(BUFFER_SIZE, maxHeaderTableSize);
         Encoder encoder = new Encoder(0);
-        this.lsn = new SyncOutputListener(encoder, outBuffer, headers);
+        this.lsn = new SyncOutputListener(encoder, null, headers); // the output is set when transforming
     }
 
     ByteArray transform(ByteArray array, boolean addHeaders) throws IOException {
+        return transform(array, addHeaders, 0);
+    }
+
+    /**
+     * @param headroom bytes reserved before the transformed block, e.g. for the frame head
+     */
+    ByteArray transform(ByteArray array, boolean addHeaders, int headroom) throws IOException {
+        ArrayOutputStream out = outBuffer.get();
+        out.reset(); // the last transforming might have failed halfway
+        for (int i = 0; i < headroom; ++i) {
+            out.write(0);
+        }
+        lsn.setOutput(out);
         decoder.decode(ArrayInputStream.from(array), lsn);
         if (addHeaders) {
             lsn.addHeaders();
         }
-        return outBuffer.get();
+        return out.get();
     }
 
     public void endHeaders() {
@@ -1,13 +1,12 @@
 package vproxy.processor.http2;
 
 import vproxy.processor.OOContext;
+import vproxy.util.IntMap;
 import vproxy.util.Logger;
 import vproxy.util.ByteArray;
 import vproxy.util.Utils;
 
 import java.net.InetSocketAddress;
-import java.util.HashMap;
-import java.util.Map;
 
 public class Http2Context extends OOContext<Http2SubContext> {
     boolean frontendHandshaking = true;
@@ -15,11 +14,12 @@ public class Http2Context extends OOContext<Http2SubContext> {
     ByteArray clientHandshake = null; // PRI * ..... and SETTINGS frame as well
 
     // the streamMap keys are the ids seen by the frontend
-    final Map<Integer, Http2SubContext> streamMap = new HashMap<>(); // streamId => subCtx
+    final IntMap<Http2SubContext> streamMap = new IntMap<>(); // streamId => subCtx
 
     private int backendStreamId = 0;
     // the streamIdBack2Front is recorded in subCtx of the backend connection sub context
-    final Map<Integer, Integer> streamIdFront2Back = new HashMap<>();
+    // only the streams started by backends (push promise) are translated, so the ids are rarely boxed
+    final IntMap<Integer> streamIdFront2Back = new IntMap<>();
 
     final HPackTransformer hPackTransformer;
 
@@ -37,7 +37,7 @@ public class Http2Context extends OOContext<Http2SubContext> {
 
     @Override
     public int connection(Http2SubContext front) {
-        Integer streamId = front.currentStreamId();
+        int streamId = front.currentStreamId();
         Http2SubContext sub = streamMap.get(streamId);
         if (sub == null)
             return -1;
@@ -47,20 +47,24 @@ public class Http2Context extends OOContext<Http2SubContext> {
 
     @Override
     public void chosen(Http2SubContext front, Http2SubContext subCtx) {
-        Integer streamId = front.currentStreamId();
+        int streamId = front.currentStreamId();
         assert Logger.lowLevelDebug("recording a stream " + streamId + " => " + subCtx.connId);
         streamMap.put(streamId, subCtx);
+        if (streamId != 0) { // 0 is the connection itself
+            subCtx.streamStarted();
+        }
     }
 
     void tryRecordStream(Http2SubContext subCtx) {
-        Integer streamId = subCtx.currentStreamId();
+        int streamId = subCtx.currentStreamId();
         if (subCtx.connId != 0 /* not the frontend connection */ && !streamMap.containsKey(streamId)) {
             assert Logger.lowLevelDebug("recording a new stream from sub context (backend)" + streamId + " => " + subCtx.connId);
             streamMap.put(streamId, subCtx);
+            subCtx.streamStarted();
         }
     }
 
-    Integer nextServerStreamId() {
+    int nextServerStreamId() {
         backendStreamId += 2;
         return backendStreamId;
     }
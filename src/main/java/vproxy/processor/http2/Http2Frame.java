@@ -28,7 +28,7 @@ public class Http2Frame {
     boolean endStream; // 0x1, headers or data
     // other flags are ignored
 
-    public Integer streamIdentifier;
+    public int streamIdentifier;
 
     @Override
     public String toString() {
@@ -8,6 +8,15 @@ import java.net.InetSocketAddress;
 
 public class Http2Processor extends OOProcessor<Http2Context, Http2SubContext> {
     private static final int HTTP2_ZERO_COPY_THRESHOLD;
+    // streams of different frontend connections share the backend connections of the event loop
+    private static final boolean HTTP2_BACKEND_MULTIPLEXING;
+    // the max concurrent streams on one shared backend connection,
+    // the backend may set a smaller value in its SETTINGS frame
+    private static final int HTTP2_BACKEND_MAX_CONCURRENT_STREAMS;
+    // the hpack dynamic table size used on the shared backend connections,
+    // and for re-encoding the response headers to the frontend connections.
+    // 0 means the header blocks are encoded with literals and the static table only
+    private static final int HTTP2_BACKEND_HEADER_TABLE_SIZE;
 
     static {
         // this is only for debug purpose
@@ -20,6 +29,37 @@ public class Http2Processor extends OOProcessor<Http2Context, Http2SubContext> {
                 Logger.alert("HTTP2_ZERO_COPY_THRESHOLD is set to " + HTTP2_ZERO_COPY_THRESHOLD);
             }
         }
+        {
+            String multiplexingStr = System.getProperty("HTTP2_BACKEND_MULTIPLEXING");
+            if (multiplexingStr == null) {
+                HTTP2_BACKEND_MULTIPLEXING = true;
+            } else {
+                HTTP2_BACKEND_MULTIPLEXING = !multiplexingStr.equals("false");
+                Logger.alert("HTTP2_BACKEND_MULTIPLEXING is set to " + HTTP2_BACKEND_MULTIPLEXING);
+            }
+        }
+        {
+            int maxConcurrentStreams = 100;
+            String maxConcurrentStreamsStr = System.getProperty("HTTP2_BACKEND_MAX_CONCURRENT_STREAMS");
+            if (maxConcurrentStreamsStr != null) {
+                maxConcurrentStreams = Integer.parseInt(maxConcurrentStreamsStr);
+                Logger.alert("HTTP2_BACKEND_MAX_CONCURRENT_STREAMS is set to " + maxConcurrentStreams);
+            }
+            if (maxConcurrentStreams <= 0)
+                throw new RuntimeException("-DHTTP2_BACKEND_MAX_CONCURRENT_STREAMS value <= 0");
+            HTTP2_BACKEND_MAX_CONCURRENT_STREAMS = maxConcurrentStreams;
+        }
+        {
+            int headerTableSize = 4096;
+            String headerTableSizeStr = System.getProperty("HTTP2_BACKEND_HEADER_TABLE_SIZE");
+            if (headerTableSizeStr != null) {
+                headerTableSize = Integer.parseInt(headerTableSizeStr);
+                Logger.alert("HTTP2_BACKEND_HEADER_TABLE_SIZE is set to " + headerTableSize);
+            }
+            if (headerTableSize < 0)
+                throw new RuntimeException("-DHTTP2_BACKEND_HEADER_TABLE_SIZE value < 0");
+            HTTP2_BACKEND_HEADER_TABLE_SIZE = headerTableSize;
+        }
     }
 
     @Override
@@ -41,4 +81,32 @@ public class Http2Processor extends OOProcessor<Http2Context, Http2SubContext> {
     public int PROXY_ZERO_COPY_THRESHOLD() {
         return HTTP2_ZERO_COPY_THRESHOLD;
     }
+
+    /**
+     * @return true if the backend connections should be shared by streams of different frontend connections
+     */
+    public boolean backendMultiplexing() {
+        return HTTP2_BACKEND_MULTIPLEXING;
+    }
+
+    /**
+     * @return max concurrent streams on one shared backend connection
+     */
+    public int backendMaxConcurrentStreams() {
+        return HTTP2_BACKEND_MAX_CONCURRENT_STREAMS;
+    }
+
+    /**
+     * @return hpack dynamic table size of the shared backend connections, 0 for literal only encoding
+     */
+    public int backendHeaderTableSize() {
+        return HTTP2_BACKEND_HEADER_TABLE_SIZE;
+    }
+
+    /**
+     * @return header table size of the frontend connections
+     */
+    public int headerTableSize() {
+        return Http2SubContext.SIZE_DEFAULT_HEADER_TABLE_SIZE;
+    }
 }
@@ -2,12 +2,10 @@ package vproxy.processor.http2;
 
 import vproxy.processor.Processor;
 import vproxy.processor.OOSubContext;
+import vproxy.util.IntMap;
 import vproxy.util.Logger;
 import vproxy.util.ByteArray;
 
-import java.util.HashMap;
-import java.util.Map;
-
 // the impl corresponds to rfc7540
 /*
  * A simple explanation about how it works.
@@ -157,7 +155,7 @@ import java.util.Map;
  *
  * DATA: proxy, and record the window size
  * PRIORITY: ignore
- * RST_STREAM: proxy
+ * RST_STREAM: proxy, and remove the stream
  * PING: proxy
  * GOAWAY: proxy
  * WINDOW_UPDATE: ignore, and we send our own window_update frames
@@ -204,6 +202,9 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
 
     private Http2Frame frame;
     private Http2Frame lastFrame;
+    // the frame objects are reused, the frame field always takes the one not held by the lastFrame field
+    private final Http2Frame frame0 = new Http2Frame();
+    private final Http2Frame frame1 = new Http2Frame();
     // The frame field holds the current processing frame, when the frame head part comes, the frame object will generate
     // when the whole payload of the frame is processed, the frame field will be set to null
     // The lastFrame field holds the last frame, it's used to retrieve the streamId
@@ -227,8 +228,10 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
      * 8 -> (hpack) content of headers or continuation for hpack to process -> 1
      */
 
-    private Map<Integer, Integer> streamIdBack2Front = new HashMap<>();
-    private Integer backendIdForStreamToRemove = null;
+    private final IntMap<Integer> streamIdBack2Front = new IntMap<>();
+    private int backendIdForStreamToRemove = -1; // -1 means no stream to remove
+    private int frontendIdForStreamToRemove = -1; // -1 means no stream to remove, only used by the frontend
+    private Processor.StreamListener streamListener = null; // only set for backends
 
     // the ack of settings frame
     private ByteArray syntheticAck = null;
@@ -342,6 +345,14 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         }
     }
 
+    @Override
+    public boolean acceptsView() {
+        // the padding part is returned as a sub array of the input,
+        // the settings frame head is copied when it's recorded,
+        // the other states return the input itself or a new array
+        return state != 3;
+    }
+
     @Override
     public ByteArray feed(ByteArray data) throws Exception {
         switch (state) {
@@ -421,7 +432,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     }
 
     private void parseFrame(ByteArray data) {
-        Http2Frame frame = new Http2Frame();
+        Http2Frame frame = lastFrame == frame0 ? frame1 : frame0;
         frame.length = data.uint24(0);
         byte type = data.get(3);
         frame.typeNum = type;
@@ -450,10 +461,10 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 break;
         }
         byte flags = data.get(4);
-        if (0 != (flags & 0x4)) frame.endHeaders = true;
-        if (0 != (flags & 0x8)) frame.padded = true;
-        if (0 != (flags & 0x20)) frame.priority = true;
-        if (0 != (flags & 0x1)) frame.ack = true; // maybe it means "end stream"
+        frame.endHeaders = 0 != (flags & 0x4);
+        frame.padded = 0 != (flags & 0x8);
+        frame.priority = 0 != (flags & 0x20);
+        frame.ack = 0 != (flags & 0x1); // maybe it means "end stream"
         frame.endStream = (frame.ack && (frame.type == Http2Frame.Type.DATA || frame.type == Http2Frame.Type.HEADERS));
         frame.streamIdentifier = data.int32(5);
 
@@ -467,6 +478,13 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             // for now, we only handle the DATA frames and headers frames that are marked with endHeaders
             // those headers with continuation frames are not handled, let it leak, will be GC-ed when connection closes
             backendIdForStreamToRemove = frame.streamIdentifier;
+        } else if (type == 0x3 /* RST_STREAM */) {
+            // the stream is reset by either side
+            if (connId == 0) {
+                frontendIdForStreamToRemove = frame.streamIdentifier;
+            } else {
+                backendIdForStreamToRemove = frame.streamIdentifier;
+            }
         }
 
         this.frame = frame;
@@ -504,7 +522,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 }
 
                 assert Logger.lowLevelDebug("the translatedStreamId is " + translatedStreamId);
-                if (!translatedStreamId.equals(frame.streamIdentifier)) {
+                if (translatedStreamId != frame.streamIdentifier) {
                     utilModifyStreamId(frameBytes, 5, translatedStreamId);
                     frame.streamIdentifier = translatedStreamId;
                 }
@@ -565,6 +583,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             if (ctx.frontendHandshaking) {
                 // we should manipulate and record the settings frame, so set to a special state
                 state = 4;
+                frameBytes = frameBytes.copy(); // the input may be a view, which cannot be kept
                 ctx.settingsFrameHeader = frameBytes;
                 ctx.frontendHandshaking = false; // the frontend handshaking is considered done
                 theSettingsFrameHead = frameBytes;
@@ -583,7 +602,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 } else {
                     // we should manipulate and record the settings frame, so set to a special state
                     state = 4;
-                    theSettingsFrameHead = frameBytes;
+                    theSettingsFrameHead = frameBytes.copy(); // the input may be a view, which cannot be kept
                     return null; // do not send for now, only record
                 }
             }
@@ -602,90 +621,87 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         }
     }
 
-    // concat a setting SETTINGS_HEADER_TABLE_SIZE = 0 to the frame, or change the value if it already exists
-    // concat a setting SETTINGS_INITIAL_WINDOW_SIZE to the frame, or change the value if it already exists
+    // add a setting SETTINGS_HEADER_TABLE_SIZE = 0 to the frame, or change the value if it already exists
+    // add a setting SETTINGS_INITIAL_WINDOW_SIZE to the frame, or change the value if it already exists
+    // the result frame (and the handshake for the frontend) is built in one array
     private ByteArray handleSettings(ByteArray payload) {
-        int extraLength = 0;
+        int offsetOfTableSize = utilFindSetting(payload, VALUE_SETTINGS_HEADER_TABLE_SIZE);
+        int offsetOfWindowSize = utilFindSetting(payload, VALUE_SETTINGS_INITIAL_WINDOW_SIZE);
+        int length = payload.length();
+        if (offsetOfTableSize == -1) {
+            offsetOfTableSize = length;
+            length += LEN_SETTING;
+        }
+        if (offsetOfWindowSize == -1) {
+            offsetOfWindowSize = length;
+            length += LEN_SETTING;
+        }
+        assert Logger.lowLevelDebug("writing HEADER_TABLE_SIZE at offset " + offsetOfTableSize +
+            " and INITIAL_WINDOW_SIZE at offset " + offsetOfWindowSize + ", the frame length is " + length);
 
-        // try to find the SETTINGS_HEADER_TABLE_SIZE and change the value
-        {
-            int offsetOfSetting = payload.length(); // default: add to the end of the frames
-            for (int i = 0; i < payload.length(); i += LEN_SETTING) {
-                // the identifier takes 2 bytes
-                if (payload.uint16(i) == VALUE_SETTINGS_HEADER_TABLE_SIZE) {
-                    offsetOfSetting = i;
-                    assert Logger.lowLevelDebug("found setting for the HEADER_TABLE_SIZE");
-                    break;
-                }
-            }
-            assert Logger.lowLevelDebug("writing HEADER_TABLE_SIZE at offset " + offsetOfSetting);
-            if (offsetOfSetting == payload.length()) {
-                extraLength += LEN_SETTING;
-                assert Logger.lowLevelDebug("add LEN_SETTING to the frame coming from frontend, " +
-                    "now the frame length is " + frame.length + extraLength);
-                payload = payload.concat(ByteArray.from(new byte[LEN_SETTING]));
-            }
-            // the identifier part
-            payload.int16(offsetOfSetting, VALUE_SETTINGS_HEADER_TABLE_SIZE);
-            // the value part
-            payload.int32(offsetOfSetting + 2,
-                connId == 0 // connId == 0 means the data is transferred from frontend to backend
-                    ? 0 // the backend do not use dynamic table
-                    : SIZE_DEFAULT_HEADER_TABLE_SIZE // the frontend uses dynamic table
-            );
-        }
-        // try to find the SETTINGS_INITIAL_WINDOW_SIZE and change the value
-        {
-            int offsetOfSetting = payload.length(); // default: add to the end of the frames
-            for (int i = 0; i < payload.length(); i += LEN_SETTING) {
-                // the identifier takes 2 bytes
-                if (payload.uint16(i) == VALUE_SETTINGS_INITIAL_WINDOW_SIZE) {
-                    offsetOfSetting = i;
-                    assert Logger.lowLevelDebug("found setting for the INITIAL_WINDOW_SIZE");
-                    break;
-                }
-            }
-            assert Logger.lowLevelDebug("writing INITIAL_WINDOW_SIZE at offset " + offsetOfSetting);
-            if (offsetOfSetting == payload.length()) {
-                extraLength += LEN_SETTING;
-                assert Logger.lowLevelDebug("add LEN_SETTING to the frame coming from frontend, " +
-                    "now the frame length is " + frame.length + extraLength);
-                payload = payload.concat(ByteArray.from(new byte[LEN_SETTING]));
-            }
-            // the identifier part
-            payload.int16(offsetOfSetting, VALUE_SETTINGS_INITIAL_WINDOW_SIZE);
-            // the value part
-            payload.int32(offsetOfSetting + 2, SIZE_STREAM_WINDOW);
+        // record the handshake if it's client connection
+        int prefix = connId == 0 ? SEQ_PREFACE_MAGIC.length() : 0;
+        ByteArray result = ByteArray.from(new byte[prefix + LEN_FRAME_HEAD + length]);
+        if (connId == 0) {
+            utilCopy(SEQ_PREFACE_MAGIC, result, 0);
         }
+        utilCopy(theSettingsFrameHead, result, prefix);
+        ByteArray frameBytes = result.sub(prefix, LEN_FRAME_HEAD + length);
+        ByteArray newPayload = frameBytes.sub(LEN_FRAME_HEAD, length);
+        utilCopy(payload, newPayload, 0);
+
+        // the identifier part
+        newPayload.int16(offsetOfTableSize, VALUE_SETTINGS_HEADER_TABLE_SIZE);
+        // the value part
+        newPayload.int32(offsetOfTableSize + 2,
+            connId == 0 // connId == 0 means the data is transferred from frontend to backend
+                ? 0 // the backend do not use dynamic table
+                : SIZE_DEFAULT_HEADER_TABLE_SIZE // the frontend uses dynamic table
+        );
+        newPayload.int16(offsetOfWindowSize, VALUE_SETTINGS_INITIAL_WINDOW_SIZE);
+        newPayload.int32(offsetOfWindowSize + 2, SIZE_STREAM_WINDOW);
 
         // set the length in frame head
-        utilModifyFrameLength(theSettingsFrameHead, frame.length + extraLength);
+        utilModifyFrameLength(frameBytes, length);
 
-        // record the handshake if it's client connection
         if (connId == 0) {
-            ByteArray head = ctx.settingsFrameHeader;
-            ByteArray handshake = SEQ_PREFACE_MAGIC.concat(head).concat(payload).arrange();
             ctx.settingsFrameHeader = null;
-            ctx.clientHandshake = handshake;
+            ctx.clientHandshake = result;
+        }
+
+        return frameBytes;
+    }
+
+    // the offset of the setting in the payload, or -1 if not found
+    private static int utilFindSetting(ByteArray payload, int identifier) {
+        for (int i = 0; i < payload.length(); i += LEN_SETTING) {
+            // the identifier takes 2 bytes
+            if (payload.uint16(i) == identifier) {
+                return i;
+            }
         }
+        return -1;
+    }
 
-        return theSettingsFrameHead.concat(payload);
+    private static void utilCopy(ByteArray src, ByteArray dst, int offset) {
+        for (int i = 0; i < src.length(); ++i) {
+            dst.set(offset + i, src.get(i));
+        }
     }
 
     private void translatePromisedStreamId(ByteArray data, int offset) {
-        Integer promisedStreamId = data.int32(offset);
-        Integer translatedStreamId = ctx.nextServerStreamId();
+        int promisedStreamId = data.int32(offset);
+        int translatedStreamId = ctx.nextServerStreamId();
         assert Logger.lowLevelDebug("push-promise frame > promised stream id is " + promisedStreamId +
             " translated stream id is " + translatedStreamId);
         recordStreamMapping(translatedStreamId, promisedStreamId);
-        if (!promisedStreamId.equals(translatedStreamId)) {
+        if (promisedStreamId != translatedStreamId) {
             utilModifyStreamId(data, offset, translatedStreamId);
         }
     }
 
     private ByteArray handleHeaderHPack(ByteArray data) throws Exception {
         byte frameType;
-        ByteArray transformed;
         if (frame.type == Http2Frame.Type.HEADERS) {
             frameType = 1;
             // get the actual data part
@@ -696,20 +712,16 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             } else if (frame.priority) {
                 data = data.sub(5, data.length() - 5);
             }
-            transformed = ctx.hPackTransformer.transform(data, frame.endHeaders);
         } else {
             assert frame.type == Http2Frame.Type.CONTINUATION;
             frameType = 9; // type = continuation
-            // data is simple and can be directly transformed for continuation frames
-            transformed = ctx.hPackTransformer.transform(data, frame.endHeaders);
-        }
-        ByteArray result = ByteArray.from(new byte[]{
-            0, 0, 0, // length, will be set later
-            frameType,
-            (byte) (frame.endHeaders ? 4 : 0), // flags
-            0, 0, 0, 0 // stream id, will be set later
-        }).concat(transformed);
-        result.int24(0, transformed.length());
+            // continuation frames do not have padding or priority, the data can be directly transformed
+        }
+        // the frame head is written into the headroom of the transformed block
+        ByteArray result = ctx.hPackTransformer.transform(data, frame.endHeaders, LEN_FRAME_HEAD);
+        result.int24(0, result.length() - LEN_FRAME_HEAD); // length
+        result.set(3, frameType);
+        result.set(4, (byte) (frame.endHeaders ? 4 : 0)); // flags
         result.int32(5, frame.streamIdentifier);
 
         // set header end before return the result
@@ -730,7 +742,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         data.int24(0, length);
     }
 
-    Integer currentStreamId() {
+    int currentStreamId() {
         assert frame != null || lastFrame != null;
         if (frame != null) {
             return frame.streamIdentifier;
@@ -740,18 +752,52 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         return f.streamIdentifier;
     }
 
-    void recordStreamMapping(Integer front, Integer back) {
+    void recordStreamMapping(int front, int back) {
         this.streamIdBack2Front.put(back, front);
         ctx.streamIdFront2Back.put(front, back);
     }
 
-    void removeStreamMappingByBackendId(Integer back) {
+    void removeStreamMappingByBackendId(int back) {
         Integer front = this.streamIdBack2Front.remove(back);
-        ctx.streamIdFront2Back.remove(front); // it's ok to remove a non-exist element
+        Http2SubContext sub;
         if (front == null) {
-            front = back;
+            sub = ctx.streamMap.remove(back);
+        } else {
+            ctx.streamIdFront2Back.remove(front);
+            sub = ctx.streamMap.remove(front);
+        }
+        if (sub != null) {
+            sub.streamEnded();
+        }
+    }
+
+    void removeStreamMappingByFrontendId(int front) {
+        Http2SubContext sub = ctx.streamMap.remove(front);
+        if (sub == null) {
+            return;
+        }
+        Integer back = ctx.streamIdFront2Back.remove(front);
+        if (back != null) {
+            sub.streamIdBack2Front.remove(back);
+        }
+        sub.streamEnded();
+    }
+
+    @Override
+    public void streamListener(Processor.StreamListener listener) {
+        this.streamListener = listener;
+    }
+
+    void streamStarted() {
+        if (streamListener != null) {
+            streamListener.streamStarted();
+        }
+    }
+
+    void streamEnded() {
+        if (streamListener != null) {
+            streamListener.streamEnded();
         }
-        ctx.streamMap.remove(front);
     }
 
     @Override
@@ -759,9 +805,13 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         // check whether the stream can be removed
         // NOTE: the removal is placed before resetting state and frame
         // is because that it's easier when debugging to see the old status
-        if (backendIdForStreamToRemove != null) {
+        if (backendIdForStreamToRemove != -1) {
             removeStreamMappingByBackendId(backendIdForStreamToRemove);
-            backendIdForStreamToRemove = null;
+            backendIdForStreamToRemove = -1;
+        }
+        if (frontendIdForStreamToRemove != -1) {
+            removeStreamMappingByFrontendId(frontendIdForStreamToRemove);
+            frontendIdForStreamToRemove = -1;
         }
         // all proxy states goes to state 1
         // so simply set the frame to null and state 1 here
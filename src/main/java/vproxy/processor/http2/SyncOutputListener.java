@@ -9,7 +9,7 @@ import java.io.OutputStream;
 
 public class SyncOutputListener implements HeaderListener {
     private final Encoder encoder;
-    private final OutputStream out;
+    private OutputStream out;
     private final Header[] headers;
     private final boolean[] added; // whether it's already added into the header list
 
@@ -20,6 +20,10 @@ public class SyncOutputListener implements HeaderListener {
         this.added = new boolean[headers == null ? 0 : headers.length];
     }
 
+    void setOutput(OutputStream out) {
+        this.out = out;
+    }
+
     @Override
     public void addHeader(byte[] name, byte[] value, boolean sensitive) throws IOException {
         byte[] replaced = checkAndGet(name, value);
@@ -38,7 +42,7 @@ public class SyncOutputListener implements HeaderListener {
             if (h.key.length != key.length) {
                 continue;
             }
-            if (h.keyStr.equals(new String(key).toLowerCase())) {
+            if (equalsIgnoreCase(h.key, key)) {
                 // header keys are the same
                 assert Logger.lowLevelDebug("replacing header " +
                     "new header: " + h.keyStr + ": " + new String(h.value) + " " +
@@ -51,6 +55,20 @@ public class SyncOutputListener implements HeaderListener {
         return null;
     }
 
+    // the header key is already lower case
+    private static boolean equalsIgnoreCase(byte[] lowerCaseKey, byte[] key) {
+        for (int i = 0; i < key.length; ++i) {
+            byte b = key[i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCaseKey[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     void addHeaders() throws IOException {
         if (headers == null)
             return;
@@ -0,0 +1,293 @@
+package vproxy.processor.resp;
+
+import vproxy.redis.RESPScanner;
+import vproxy.redis.application.RESPCommand;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static vproxy.redis.application.RESPCommand.*;
+
+/**
+ * Key positions of the redis commands, used for finding the hash slot of a request.
+ * The positions are the same as the output of redis COMMAND.
+ * <p>
+ * Commands not in the table are considered to have no key, they can be sent to any node of the cluster,
+ * and if the node does not own the key, the MOVED redirection corrects it.
+ */
+public class RESPCommands {
+    public static final int NO_KEY = -1;
+    public static final int CROSS_SLOT = -2;
+
+    private static final Map<String, RESPCommand> COMMANDS = new HashMap<>();
+    // the commands rely on the state of the connection, which is not kept when each command is routed independently
+    private static final Set<String> UNSUPPORTED = new HashSet<>(Arrays.asList(
+        "multi", "exec", "discard", "watch", "unwatch",
+        "subscribe", "psubscribe", "unsubscribe", "punsubscribe", "monitor",
+        "auth", "hello", "wait", "readonly", "readwrite"
+    ));
+    // the commands may block the connection until timeout
+    private static final Set<String> BLOCKING = new HashSet<>(Arrays.asList(
+        "blpop", "brpop", "brpoplpush", "bzpopmin", "bzpopmax"
+    ));
+
+    static {
+        // strings
+        add("get", 2, F_READONLY, 1, 1, 1);
+        add("set", -3, F_WRITE, 1, 1, 1);
+        add("setnx", 3, F_WRITE, 1, 1, 1);
+        add("setex", 4, F_WRITE, 1, 1, 1);
+        add("psetex", 4, F_WRITE, 1, 1, 1);
+        add("getset", 3, F_WRITE, 1, 1, 1);
+        add("append", 3, F_WRITE, 1, 1, 1);
+        add("strlen", 2, F_READONLY, 1, 1, 1);
+        add("setrange", 4, F_WRITE, 1, 1, 1);
+        add("getrange", 4, F_READONLY, 1, 1, 1);
+        add("substr", 4, F_READONLY, 1, 1, 1);
+        add("incr", 2, F_WRITE, 1, 1, 1);
+        add("decr", 2, F_WRITE, 1, 1, 1);
+        add("incrby", 3, F_WRITE, 1, 1, 1);
+        add("decrby", 3, F_WRITE, 1, 1, 1);
+        add("incrbyfloat", 3, F_WRITE, 1, 1, 1);
+        add("mget", -2, F_READONLY, 1, -1, 1);
+        add("mset", -3, F_WRITE, 1, -1, 2);
+        add("msetnx", -3, F_WRITE, 1, -1, 2);
+        add("setbit", 4, F_WRITE, 1, 1, 1);
+        add("getbit", 3, F_READONLY, 1, 1, 1);
+        add("bitcount", -2, F_READONLY, 1, 1, 1);
+        add("bitpos", -3, F_READONLY, 1, 1, 1);
+        add("bitfield", -2, F_WRITE, 1, 1, 1);
+        add("bitop", -4, F_WRITE, 2, -1, 1);
+        // keys
+        add("del", -2, F_WRITE, 1, -1, 1);
+        add("unlink", -2, F_WRITE, 1, -1, 1);
+        add("exists", -2, F_READONLY, 1, -1, 1);
+        add("touch", -2, F_READONLY, 1, -1, 1);
+        add("type", 2, F_READONLY, 1, 1, 1);
+        add("expire", 3, F_WRITE, 1, 1, 1);
+        add("expireat", 3, F_WRITE, 1, 1, 1);
+        add("pexpire", 3, F_WRITE, 1, 1, 1);
+        add("pexpireat", 3, F_WRITE, 1, 1, 1);
+        add("persist", 2, F_WRITE, 1, 1, 1);
+        add("ttl", 2, F_READONLY, 1, 1, 1);
+        add("pttl", 2, F_READONLY, 1, 1, 1);
+        add("rename", 3, F_WRITE, 1, 2, 1);
+        add("renamenx", 3, F_WRITE, 1, 2, 1);
+        add("dump", 2, F_READONLY, 1, 1, 1);
+        add("restore", -4, F_WRITE, 1, 1, 1);
+        add("sort", -2, F_WRITE, 1, 1, 1);
+        add("object", -2, F_READONLY, 2, 2, 1);
+        // lists
+        add("lpush", -3, F_WRITE, 1, 1, 1);
+        add("rpush", -3, F_WRITE, 1, 1, 1);
+        add("lpushx", -3, F_WRITE, 1, 1, 1);
+        add("rpushx", -3, F_WRITE, 1, 1, 1);
+        add("linsert", 5, F_WRITE, 1, 1, 1);
+        add("lpop", 2, F_WRITE, 1, 1, 1);
+        add("rpop", 2, F_WRITE, 1, 1, 1);
+        add("rpoplpush", 3, F_WRITE, 1, 2, 1);
+        add("blpop", -3, F_WRITE, 1, -2, 1);
+        add("brpop", -3, F_WRITE, 1, -2, 1);
+        add("brpoplpush", 4, F_WRITE, 1, 2, 1);
+        add("llen", 2, F_READONLY, 1, 1, 1);
+        add("lindex", 3, F_READONLY, 1, 1, 1);
+        add("lset", 4, F_WRITE, 1, 1, 1);
+        add("lrange", 4, F_READONLY, 1, 1, 1);
+        add("ltrim", 4, F_WRITE, 1, 1, 1);
+        add("lrem", 4, F_WRITE, 1, 1, 1);
+        // sets
+        add("sadd", -3, F_WRITE, 1, 1, 1);
+        add("srem", -3, F_WRITE, 1, 1, 1);
+        add("smove", 4, F_WRITE, 1, 2, 1);
+        add("sismember", 3, F_READONLY, 1, 1, 1);
+        add("scard", 2, F_READONLY, 1, 1, 1);
+        add("spop", -2, F_WRITE, 1, 1, 1);
+        add("srandmember", -2, F_READONLY, 1, 1, 1);
+        add("smembers", 2, F_READONLY, 1, 1, 1);
+        add("sscan", -3, F_READONLY, 1, 1, 1);
+        add("sinter", -2, F_READONLY, 1, -1, 1);
+        add("sinterstore", -3, F_WRITE, 1, -1, 1);
+        add("sunion", -2, F_READONLY, 1, -1, 1);
+        add("sunionstore", -3, F_WRITE, 1, -1, 1);
+        add("sdiff", -2, F_READONLY, 1, -1, 1);
+        add("sdiffstore", -3, F_WRITE, 1, -1, 1);
+        // sorted sets
+        add("zadd", -4, F_WRITE, 1, 1, 1);
+        add("zincrby", 4, F_WRITE, 1, 1, 1);
+        add("zrem", -3, F_WRITE, 1, 1, 1);
+        add("zremrangebyscore", 4, F_WRITE, 1, 1, 1);
+        add("zremrangebyrank", 4, F_WRITE, 1, 1, 1);
+        add("zremrangebylex", 4, F_WRITE, 1, 1, 1);
+        add("zunionstore", -4, F_WRITE | F_MOVABLEKEYS, 0, 0, 0);
+        add("zinterstore", -4, F_WRITE | F_MOVABLEKEYS, 0, 0, 0);
+        add("zrange", -4, F_READONLY, 1, 1, 1);
+        add("zrevrange", -4, F_READONLY, 1, 1, 1);
+        add("zrangebyscore", -4, F_READONLY, 1, 1, 1);
+        add("zrevrangebyscore", -4, F_READONLY, 1, 1, 1);
+        add("zrangebylex", -4, F_READONLY, 1, 1, 1);
+        add("zrevrangebylex", -4, F_READONLY, 1, 1, 1);
+        add("zcount", 4, F_READONLY, 1, 1, 1);
+        add("zlexcount", 4, F_READONLY, 1, 1, 1);
+        add("zcard", 2, F_READONLY, 1, 1, 1);
+        add("zscore", 3, F_READONLY, 1, 1, 1);
+        add("zrank", 3, F_READONLY, 1, 1, 1);
+        add("zrevrank", 3, F_READONLY, 1, 1, 1);
+        add("zscan", -3, F_READONLY, 1, 1, 1);
+        add("zpopmin", -2, F_WRITE, 1, 1, 1);
+        add("zpopmax", -2, F_WRITE, 1, 1, 1);
+        add("bzpopmin", -3, F_WRITE, 1, -2, 1);
+        add("bzpopmax", -3, F_WRITE, 1, -2, 1);
+        // hashes
+        add("hset", -4, F_WRITE, 1, 1, 1);
+        add("hsetnx", 4, F_WRITE, 1, 1, 1);
+        add("hmset", -4, F_WRITE, 1, 1, 1);
+        add("hget", 3, F_READONLY, 1, 1, 1);
+        add("hmget", -3, F_READONLY, 1, 1, 1);
+        add("hincrby", 4, F_WRITE, 1, 1, 1);
+        add("hincrbyfloat", 4, F_WRITE, 1, 1, 1);
+        add("hdel", -3, F_WRITE, 1, 1, 1);
+        add("hlen", 2, F_READONLY, 1, 1, 1);
+        add("hstrlen", 3, F_READONLY, 1, 1, 1);
+        add("hkeys", 2, F_READONLY, 1, 1, 1);
+        add("hvals", 2, F_READONLY, 1, 1, 1);
+        add("hgetall", 2, F_READONLY, 1, 1, 1);
+        add("hexists", 3, F_READONLY, 1, 1, 1);
+        add("hscan", -3, F_READONLY, 1, 1, 1);
+        // hyperloglog
+        add("pfadd", -2, F_WRITE, 1, 1, 1);
+        add("pfcount", -2, F_READONLY, 1, -1, 1);
+        add("pfmerge", -2, F_WRITE, 1, -1, 1);
+        // geo
+        add("geoadd", -5, F_WRITE, 1, 1, 1);
+        add("geohash", -2, F_READONLY, 1, 1, 1);
+        add("geopos", -2, F_READONLY, 1, 1, 1);
+        add("geodist", -4, F_READONLY, 1, 1, 1);
+        add("georadius", -6, F_WRITE, 1, 1, 1);
+        add("georadiusbymember", -5, F_WRITE, 1, 1, 1);
+        // streams
+        add("xadd", -5, F_WRITE, 1, 1, 1);
+        add("xrange", -4, F_READONLY, 1, 1, 1);
+        add("xrevrange", -4, F_READONLY, 1, 1, 1);
+        add("xlen", 2, F_READONLY, 1, 1, 1);
+        add("xdel", -3, F_WRITE, 1, 1, 1);
+        add("xtrim", -2, F_WRITE, 1, 1, 1);
+        // scripting
+        add("eval", -3, F_NOSCRIPT | F_MOVABLEKEYS, 0, 0, 0);
+        add("evalsha", -3, F_NOSCRIPT | F_MOVABLEKEYS, 0, 0, 0);
+    }
+
+    private RESPCommands() {
+    }
+
+    // the arity counts the command name, and a negative arity means the command may have more arguments
+    private static void add(String name, int arity, int flags, int firstKeyPos, int lastKeyPos, int step) {
+        COMMANDS.put(name, new RESPCommand(name, Math.abs(arity) - 1, arity < 0, flags, firstKeyPos, lastKeyPos, step));
+    }
+
+    public static RESPCommand get(String name) {
+        return COMMANDS.get(name);
+    }
+
+    /**
+     * @param name the command name in lower case
+     * @return the error message if the command cannot be proxied, or null if it's supported
+     */
+    public static String unsupported(String name) {
+        if (UNSUPPORTED.contains(name)) {
+            return "ERR command '" + name + "' is not supported by the proxy";
+        }
+        return null;
+    }
+
+    /**
+     * @param request the scanner which just scanned a request
+     * @param name    the command name in lower case
+     * @return true if the command may block the connection, e.g. BLPOP, or XREAD with BLOCK
+     */
+    public static boolean blocking(RESPScanner request, String name) {
+        if (BLOCKING.contains(name)) {
+            return true;
+        }
+        if (!name.equals("xread") && !name.equals("xreadgroup")) {
+            return false;
+        }
+        for (int i = 1; i < request.argc(); ++i) {
+            if (request.argLength(i) == 5 && request.argLowerCase(i).equals("block")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param request the scanner which just scanned a request
+     * @param name    the command name in lower case
+     * @return the hash slot of the keys, {@link #NO_KEY} if the request has no key,
+     * or {@link #CROSS_SLOT} if the keys are in different slots
+     */
+    public static int slot(RESPScanner request, String name) {
+        RESPCommand cmd = COMMANDS.get(name);
+        if (cmd == null) {
+            return NO_KEY;
+        }
+        int argc = request.argc();
+        if ((cmd.flags & F_MOVABLEKEYS) == 0) {
+            int last = cmd.lastKeyPos < 0 ? argc + cmd.lastKeyPos : cmd.lastKeyPos;
+            return slot(request, cmd.firstKeyPos, Math.min(last, argc - 1), cmd.step, NO_KEY);
+        }
+        // EVAL script numkeys key [key ...] arg [arg ...]
+        // ZUNIONSTORE destination numkeys key [key ...] [WEIGHTS ...] [AGGREGATE ...]
+        if (argc < 3) {
+            return NO_KEY;
+        }
+        int numKeys = number(request, 2);
+        if (numKeys <= 0) {
+            return NO_KEY; // let the node check it
+        }
+        int slot = NO_KEY;
+        if (name.equals("zunionstore") || name.equals("zinterstore")) {
+            slot = slot(request, 1, 1, 1, slot);
+        }
+        if (slot == CROSS_SLOT) {
+            return slot;
+        }
+        return slot(request, 3, Math.min(2 + numKeys, argc - 1), 1, slot);
+    }
+
+    private static int slot(RESPScanner request, int first, int last, int step, int slot) {
+        if (first <= 0) {
+            return slot;
+        }
+        byte[] buf = request.buffer();
+        for (int i = first; i <= last; i += step) {
+            int s = RESPHashSlot.of(buf, request.argOffset(i), request.argLength(i));
+            if (slot == NO_KEY) {
+                slot = s;
+            } else if (slot != s) {
+                return CROSS_SLOT;
+            }
+        }
+        return slot;
+    }
+
+    // -1 if the argument is not a non-negative number
+    private static int number(RESPScanner request, int i) {
+        int len = request.argLength(i);
+        if (len == 0 || len > 9) {
+            return -1;
+        }
+        byte[] buf = request.buffer();
+        int off = request.argOffset(i);
+        int n = 0;
+        for (int j = off; j < off + len; ++j) {
+            if (buf[j] < '0' || buf[j] > '9') {
+                return -1;
+            }
+            n = n * 10 + (buf[j] - '0');
+        }
+        return n;
+    }
+}
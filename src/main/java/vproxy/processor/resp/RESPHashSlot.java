@@ -0,0 +1,59 @@
+package vproxy.processor.resp;
+
+/**
+ * The hash slot of a key in redis cluster: CRC16(key) mod 16384.
+ * <p>
+ * If the key contains a hash tag, i.e. a non-empty substring between the first '{' and the first '}' after it,
+ * only the hash tag is hashed, so that keys with the same tag are in the same slot.
+ */
+public class RESPHashSlot {
+    public static final int SLOTS = 16384;
+
+    // CRC16-CCITT (XMODEM): polynomial 0x1021, initial value 0
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; ++j) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private RESPHashSlot() {
+    }
+
+    public static int crc16(byte[] buf, int off, int len) {
+        int crc = 0;
+        for (int i = off; i < off + len; ++i) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ buf[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    public static int of(byte[] key) {
+        return of(key, 0, key.length);
+    }
+
+    public static int of(byte[] buf, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; ++i) {
+            if (buf[i] != '{') {
+                continue;
+            }
+            for (int j = i + 1; j < end; ++j) {
+                if (buf[j] == '}') {
+                    if (j > i + 1) { // the hash tag is not empty
+                        off = i + 1;
+                        len = j - i - 1;
+                    }
+                    break;
+                }
+            }
+            break;
+        }
+        return crc16(buf, off, len) & (SLOTS - 1);
+    }
+}
@@ -5,6 +5,10 @@ import vproxy.util.ByteArrayChannel;
 import vproxy.util.Logger;
 import vproxy.util.RingBuffer;
 import vproxy.util.Utils;
+import vproxy.util.ringbuffer.ByteBufferRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 @SuppressWarnings("Duplicates")
 public class RESPParser {
@@ -15,6 +19,10 @@ public class RESPParser {
     private String errorMessage = null;
     private int state = 0; // 0 is the start state
 
+    // the result of the last scan, GOT_ERROR, DONE or WANT_MORE
+    private int scanResult = WANT_MORE;
+    private ByteBufferRingBuffer.WriteOutOp scanOp; // created on first feed
+
     /*
      * state machine:
      *
@@ -81,6 +89,121 @@ public class RESPParser {
     // return -1 means: got error, or want more data
     // call getErrorMessage() to check whether is error
     public int feed(RingBuffer buffer) {
+        if (!(buffer instanceof ByteBufferRingBuffer)) {
+            return feedByteByByte(buffer);
+        }
+        // scan the readable regions of the buffer directly,
+        // and only the bytes of current message are consumed
+        if (scanOp == null) {
+            scanOp = this::scan;
+        }
+        try {
+            ((ByteBufferRingBuffer) buffer).operateOnByteBufferWriteOut(Integer.MAX_VALUE, scanOp);
+        } catch (IOException e) {
+            // will not happen, the op does not throw
+            throw new RuntimeException(e);
+        }
+        return scanResult == DONE ? 0 : -1;
+    }
+
+    // called with each readable region of the buffer (at most twice when the data wraps)
+    private void scan(ByteBuffer buf) {
+        if (scanResult != WANT_MORE)
+            return; // already done or got error in the previous region
+        int pos = buf.position();
+        int lim = buf.limit();
+        if (pos == lim)
+            return;
+        if (parsedLen == maxLen) {
+            errorMessage = "too many input bytes";
+            scanResult = GOT_ERROR;
+            return;
+        }
+        int end = parse(buf, pos, Math.min(lim, pos + (maxLen - parsedLen)));
+        parsedLen += end - pos;
+        buf.position(end);
+        if (scanResult == WANT_MORE && parsedLen == maxLen && end < lim) {
+            errorMessage = "too many input bytes";
+            scanResult = GOT_ERROR;
+        }
+    }
+
+    // parse the bytes in [pos, lim) until the message is done or got error,
+    // long runs (bulk string body, simple string) are consumed in bulk,
+    // and other bytes go through the state machine
+    // the result is recorded in `scanResult`
+    // returns the position of the next byte to parse
+    private int parse(ByteBuffer buf, int pos, int lim) {
+        while (pos < lim) {
+            switch (state) {
+                case 1: // simple string
+                case 3: // simple error
+                case 13: { // inline
+                    int cr = Utils.indexOf(buf, pos, lim, (byte) '\r');
+                    StringBuilder sb = state == 1 ? ((RESPString) resp).string
+                        : state == 3 ? ((RESPError) resp).error
+                        : ((RESPInline) resp).string;
+                    appendLatin1(sb, buf, pos, cr);
+                    pos = cr;
+                    if (pos == lim) {
+                        scanResult = WANT_MORE;
+                        return pos;
+                    }
+                    break; // let the state machine handle \r
+                }
+                case 8: { // bulk string body
+                    RESPBulkString bs = (RESPBulkString) resp;
+                    if (bs.len > 0) {
+                        int n = Math.min(bs.len, lim - pos);
+                        appendLatin1(bs.string, buf, pos, pos + n);
+                        bs.len -= n;
+                        pos += n;
+                        continue;
+                    }
+                    break; // let the state machine handle \r
+                }
+                case 12: { // array body
+                    RESPArray array = (RESPArray) resp;
+                    if (array.parser == null) {
+                        array.parser = new RESPParser(this.maxLen - parsedLen);
+                    }
+                    pos = array.parser.parse(buf, pos, lim);
+                    int res = array.parser.scanResult;
+                    if (res == GOT_ERROR) {
+                        scanResult = error(array.parser.errorMessage);
+                        return pos;
+                    }
+                    if (res == DONE) {
+                        array.array.add(array.parser.getResult());
+                        array.parser = null;
+                        --array.len;
+                        if (array.len == 0) {
+                            scanResult = DONE;
+                            return pos;
+                        }
+                    }
+                    continue;
+                }
+            }
+            int res = doSwitch(buf.get(pos++) & 0xff);
+            if (res == GOT_ERROR || res == DONE) {
+                scanResult = res;
+                return pos;
+            }
+        }
+        scanResult = WANT_MORE;
+        return pos;
+    }
+
+    private static void appendLatin1(StringBuilder sb, ByteBuffer buf, int from, int to) {
+        sb.ensureCapacity(sb.length() + (to - from));
+        for (int i = from; i < to; ++i) {
+            sb.append((char) (buf.get(i) & 0xff));
+        }
+    }
+
+    // used when the buffer cannot be operated directly
+    private int feedByteByByte(RingBuffer buffer) {
         byte[] nextByte = new byte[1];
         ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(nextByte);
         while (true) {
@@ -279,24 +402,34 @@ public class RESPParser {
             return 14;
         }
         if (b >= '0' && b <= '9') {
-            int d = b - '0';
-            RESPBulkString bs = (RESPBulkString) resp;
-            bs.len = bs.len * 10 + d * bs.negative;
-            return 6;
+            return bulkStringLenDigital(b - '0');
         }
         return error("expecting digital or -");
     }
 
     private int switchBulkStringLenDigital14(int b) {
         if (b >= '0' && b <= '9') {
-            int d = b - '0';
-            RESPBulkString bs = (RESPBulkString) resp;
-            bs.len = bs.len * 10 + d * bs.negative;
-            return 6;
+            return bulkStringLenDigital(b - '0');
         }
         return error("expecting digital");
     }
 
+    // the length is sent by the remote side,
+    // check it when reading each digit, so it will not overflow
+    private int bulkStringLenDigital(int d) {
+        RESPBulkString bs = (RESPBulkString) resp;
+        bs.len = bs.len * 10 + d * bs.negative;
+        if (bs.len > maxLen) {
+            return error("too many input bytes");
+        }
+        if (bs.len < -1) {
+            // -2,-3 etc
+            // invalid
+            return error("bulk string length cannot be " + bs.len);
+        }
+        return 6;
+    }
+
     private int switchBulkStringLen6(int b) {
         if (b == '\r') {
             RESPBulkString bs = (RESPBulkString) resp;
@@ -306,16 +439,16 @@ public class RESPParser {
                 // -2,-3 etc
                 // invalid
                 return error("bulk string length cannot be " + bs.len);
+            } else if (bs.len > maxLen - parsedLen) {
+                // the body cannot fit in the bytes allowed, do not allocate memory for it
+                return error("too many input bytes");
             } else {
-                bs.string = new StringBuilder();
+                bs.string = new StringBuilder(bs.len);
                 return 7;
             }
         }
         if (b >= '0' && b <= '9') {
-            int d = b - '0';
-            RESPBulkString bs = (RESPBulkString) resp;
-            bs.len = bs.len * 10 + d * bs.negative;
-            return 6;
+            return bulkStringLenDigital(b - '0');
         }
         return error("expecting digital or \\r");
     }
@@ -0,0 +1,289 @@
+package vproxy.redis;
+
+import vproxy.util.ByteArray;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+
+/**
+ * Find the boundaries of RESP messages without building RESP objects, so that the raw bytes can be forwarded as is.
+ * <p>
+ * The bytes are copied from the input buffer into an array of this scanner, which grows when a message does not fit.
+ * Bulk string bodies are skipped by their lengths, so the scanning cost depends on the number of elements, not bytes.
+ * <p>
+ * In request mode, a message must be an array of bulk strings (the redis-cli format) or an inline command,
+ * and the offsets of the arguments are recorded, see {@link #argc()}.
+ * In reply mode, any RESP value is accepted, including the nested arrays and the null values.
+ * <p>
+ * Usage: call {@link #next()}, and when it returns false, call {@link #read(RingBuffer)} to get more data.
+ * The message and the arguments are valid until the next {@link #read(RingBuffer)}.
+ */
+public class RESPScanner {
+    private static final int MAX_DEPTH = 64; // of nested arrays in replies
+
+    private final boolean isRequest;
+    private final int maxLen;
+
+    private byte[] buf = new byte[1024];
+    private int off = 0; // the start of the bytes not scanned
+    private int end = 0; // the end of the bytes read from the input
+
+    private int msgOff;
+    private int msgLen;
+    private int[] argOff = new int[8];
+    private int[] argLen = new int[8];
+    private int argc;
+
+    /**
+     * @param maxLen max length of a message
+     */
+    public RESPScanner(boolean isRequest, int maxLen) {
+        this.isRequest = isRequest;
+        this.maxLen = maxLen;
+    }
+
+    /**
+     * copy bytes from the input buffer
+     *
+     * @return bytes read, 0 means no more data in the input buffer
+     * @throws Exception the message is too long
+     */
+    public int read(RingBuffer in) throws Exception {
+        if (off > 0) {
+            System.arraycopy(buf, off, buf, 0, end - off);
+            end -= off;
+            off = 0;
+        }
+        if (end == buf.length) {
+            if (buf.length >= maxLen) {
+                throw new Exception("the message is longer than " + maxLen);
+            }
+            byte[] newBuf = new byte[(int) Math.min((long) buf.length * 2, maxLen)];
+            System.arraycopy(buf, 0, newBuf, 0, end);
+            buf = newBuf;
+        }
+        int n = in.writeTo(ByteArrayChannel.from(buf, end, end, buf.length - end));
+        end += n;
+        return n;
+    }
+
+    /**
+     * scan the next message
+     *
+     * @return true if a whole message is found, false if more data is required
+     * @throws Exception the data is not valid RESP
+     */
+    public boolean next() throws Exception {
+        if (off == end) {
+            return false;
+        }
+        argc = 0;
+        int p;
+        if (!isRequest) {
+            p = value(off, 0);
+        } else if (buf[off] == '*') {
+            p = request(off);
+        } else {
+            p = inline(off);
+        }
+        if (p == -1) {
+            return false;
+        }
+        msgOff = off;
+        msgLen = p - off;
+        off = p;
+        return true;
+    }
+
+    /**
+     * @return a copy of the message
+     */
+    public ByteArray message() {
+        byte[] arr = new byte[msgLen];
+        System.arraycopy(buf, msgOff, arr, 0, msgLen);
+        return ByteArray.from(arr);
+    }
+
+    /**
+     * @return the arguments count of the request, the command name is counted
+     */
+    public int argc() {
+        return argc;
+    }
+
+    /**
+     * @return the offset of the argument in {@link #buffer()}
+     */
+    public int argOffset(int i) {
+        return argOff[i];
+    }
+
+    public int argLength(int i) {
+        return argLen[i];
+    }
+
+    /**
+     * @return the argument in lower case, only used for short arguments such as the command name
+     */
+    public String argLowerCase(int i) {
+        char[] chars = new char[argLen[i]];
+        for (int j = 0; j < chars.length; ++j) {
+            char c = (char) (buf[argOff[i] + j] & 0xff);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            chars[j] = c;
+        }
+        return new String(chars);
+    }
+
+    public byte[] buffer() {
+        return buf;
+    }
+
+    // *{n}\r\n followed by n bulk strings
+    private int request(int p) throws Exception {
+        int lineEnd = lineEnd(p + 1);
+        if (lineEnd == -1) {
+            return -1;
+        }
+        long n = number(p + 1, lineEnd);
+        p = lineEnd + 2;
+        for (long i = 0; i < n; ++i) {
+            if (p == end) {
+                return -1;
+            }
+            if (buf[p] != '$') {
+                throw new Exception("expecting '$' in the request but got " + (char) buf[p]);
+            }
+            lineEnd = lineEnd(p + 1);
+            if (lineEnd == -1) {
+                return -1;
+            }
+            long len = number(p + 1, lineEnd);
+            if (len < 0) {
+                throw new Exception("invalid bulk string length " + len + " in the request");
+            }
+            p = lineEnd + 2;
+            if (end - p < len + 2) {
+                return -1;
+            }
+            if (buf[p + (int) len] != '\r' || buf[p + (int) len + 1] != '\n') {
+                throw new Exception("the bulk string is not followed by CRLF");
+            }
+            addArg(p, (int) len);
+            p += (int) len + 2;
+        }
+        return p;
+    }
+
+    // arguments separated by spaces, end with LF
+    private int inline(int p) {
+        int lf = -1;
+        for (int i = p; i < end; ++i) {
+            if (buf[i] == '\n') {
+                lf = i;
+                break;
+            }
+        }
+        if (lf == -1) {
+            return -1;
+        }
+        int lineEnd = (lf > p && buf[lf - 1] == '\r') ? lf - 1 : lf;
+        int argStart = -1;
+        for (int i = p; i <= lineEnd; ++i) {
+            boolean space = i == lineEnd || buf[i] == ' ' || buf[i] == '\t';
+            if (space && argStart != -1) {
+                addArg(argStart, i - argStart);
+                argStart = -1;
+            } else if (!space && argStart == -1) {
+                argStart = i;
+            }
+        }
+        return lf + 1;
+    }
+
+    private int value(int p, int depth) throws Exception {
+        if (p == end) {
+            return -1;
+        }
+        byte type = buf[p];
+        int lineEnd = lineEnd(p + 1);
+        if (lineEnd == -1) {
+            return -1;
+        }
+        switch (type) {
+            case '+':
+            case '-':
+            case ':':
+                return lineEnd + 2;
+            case '$':
+                long len = number(p + 1, lineEnd);
+                if (len < 0) {
+                    return lineEnd + 2; // null
+                }
+                p = lineEnd + 2;
+                if (end - p < len + 2) {
+                    return -1;
+                }
+                return p + (int) len + 2;
+            case '*':
+                if (depth == MAX_DEPTH) {
+                    throw new Exception("the arrays are nested too deep");
+                }
+                long n = number(p + 1, lineEnd);
+                p = lineEnd + 2;
+                for (long i = 0; i < n; ++i) {
+                    p = value(p, depth + 1);
+                    if (p == -1) {
+                        return -1;
+                    }
+                }
+                return p;
+            default:
+                throw new Exception("unknown RESP type " + (char) type);
+        }
+    }
+
+    // the offset of CR of the CRLF, or -1 if not found
+    private int lineEnd(int p) {
+        for (int i = p; i < end - 1; ++i) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long number(int from, int to) throws Exception {
+        boolean negative = from < to && buf[from] == '-';
+        if (negative) {
+            ++from;
+        }
+        if (from == to || to - from > 18) {
+            throw new Exception("invalid number in RESP");
+        }
+        long n = 0;
+        for (int i = from; i < to; ++i) {
+            byte b = buf[i];
+            if (b < '0' || b > '9') {
+                throw new Exception("invalid number in RESP");
+            }
+            n = n * 10 + (b - '0');
+        }
+        return negative ? -n : n;
+    }
+
+    private void addArg(int off, int len) {
+        if (argc == argOff.length) {
+            int[] newOff = new int[argc * 2];
+            int[] newLen = new int[argc * 2];
+            System.arraycopy(argOff, 0, newOff, 0, argc);
+            System.arraycopy(argLen, 0, newLen, 0, argc);
+            argOff = newOff;
+            argLen = newLen;
+        }
+        argOff[argc] = off;
+        argLen[argc] = len;
+        ++argc;
+    }
+}
@@ -24,10 +24,13 @@ public class PeriodicEvent {
         if (running) {
             runnable.run();
             // at this time, it might be canceled
-            if (running) {
-                te = loop.delay(delay, this::run);
+            TimerEvent te = this.te;
+            if (running && te != null) {
+                // re-use the timer node
+                // if it's canceled concurrently, the resetDelay() does nothing
+                te.resetDelay(delay);
             } else {
-                te = null; // set to null in case concurrency
+                this.te = null; // set to null in case concurrency
             }
         } else {
             te = null; // set to null in case concurrency
@@ -0,0 +1,135 @@
+package vproxy.selector;
+
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An array-backed set used to replace the selected-key set inside the jdk selector.
+ * <p>
+ * The selector only adds keys into the set, and the event loop reads keys by index then resets the set,
+ * so there's no hashing or iterator allocation on the hot path.
+ * The selector checks `contains` before adding, and a key is reported at most once for one select call,
+ * so `contains` can always return false.
+ */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+    private static final Field SELECTED_KEYS_FIELD;
+    private static final Field PUBLIC_SELECTED_KEYS_FIELD;
+    private static volatile boolean fallbackLogged = false;
+
+    static {
+        Field selectedKeys = null;
+        Field publicSelectedKeys = null;
+        try {
+            Class<?> selectorImpl = Class.forName("sun.nio.ch.SelectorImpl");
+            selectedKeys = selectorImpl.getDeclaredField("selectedKeys");
+            publicSelectedKeys = selectorImpl.getDeclaredField("publicSelectedKeys");
+        } catch (Throwable t) {
+            assert Logger.lowLevelDebug("cannot find the selector fields " + t);
+            selectedKeys = null;
+            publicSelectedKeys = null;
+        }
+        SELECTED_KEYS_FIELD = selectedKeys;
+        PUBLIC_SELECTED_KEYS_FIELD = publicSelectedKeys;
+    }
+
+    SelectionKey[] keys = new SelectionKey[1024];
+    int size = 0;
+
+    /**
+     * replace the selected-key sets in the selector with this object
+     *
+     * @return false if the selector cannot be modified
+     */
+    boolean install(Selector selector) {
+        if (SELECTED_KEYS_FIELD == null || !SELECTED_KEYS_FIELD.getDeclaringClass().isInstance(selector)) {
+            logFallback("unsupported selector implementation " + selector.getClass().getName());
+            return false;
+        }
+        try {
+            // works when java.base/sun.nio.ch is opened to this module
+            SELECTED_KEYS_FIELD.setAccessible(true);
+            PUBLIC_SELECTED_KEYS_FIELD.setAccessible(true);
+            SELECTED_KEYS_FIELD.set(selector, this);
+            PUBLIC_SELECTED_KEYS_FIELD.set(selector, this);
+            return true;
+        } catch (Throwable ignore) {
+            // not opened, try unsafe
+        }
+        try {
+            Utils.unsafePutObject(selector, SELECTED_KEYS_FIELD, this);
+            Utils.unsafePutObject(selector, PUBLIC_SELECTED_KEYS_FIELD, this);
+            return true;
+        } catch (Throwable t) {
+            logFallback(t.toString());
+            return false;
+        }
+    }
+
+    private static void logFallback(String reason) {
+        if (fallbackLogged)
+            return;
+        fallbackLogged = true;
+        Logger.warn(LogType.IMPROPER_USE, "cannot use the array-backed selected-key set, fall back to the jdk selector: " + reason);
+    }
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null)
+            return false;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        // cancelled keys are not removed, and the event loop checks key.isValid() before handling
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return keys[idx++];
+            }
+        };
+    }
+}
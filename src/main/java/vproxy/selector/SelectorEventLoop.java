@@ -2,17 +2,23 @@ package vproxy.selector;
 
 import vproxy.app.Config;
 import vproxy.util.*;
+import vproxy.util.ringbuffer.DirectBufferPool;
 
 import java.io.IOException;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 public class SelectorEventLoop {
+    private static final int REMOTE_TASK_QUEUE_CAPACITY = 4096;
+
     static class RegisterData {
         Handler handler;
         Object att;
+        boolean removed = false; // set when the removed callback is triggered, guarded by the RegisterData object
     }
 
     private static final ThreadLocal<SelectorEventLoop> loopThreadLocal = new ThreadLocal<>();
@@ -22,24 +28,71 @@ public class SelectorEventLoop {
     }
 
     private final Selector selector;
+    private final SelectedKeySet selectedKeys; // null when using the jdk selected-key set
     private final TimeQueue<Runnable> timeQueue = new TimeQueue<>();
-    private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
+    // tasks from other threads
+    private final MPSCArrayQueue<Runnable> remoteTasks = new MPSCArrayQueue<>(REMOTE_TASK_QUEUE_CAPACITY);
+    // used only when the remoteTasks is full
+    private final ConcurrentLinkedQueue<Runnable> overflowRemoteTasks = new ConcurrentLinkedQueue<>();
+    // tasks added on the loop thread, no need to synchronize
+    private final ArrayDeque<Runnable> localTasks = new ArrayDeque<>();
+    // false when the loop is about to block or is blocking in select()
+    // the first producer who sees `false` should wake up the selector, the others don't have to
+    private final AtomicBoolean awake = new AtomicBoolean(true);
     private final HandlerContext ctx = new HandlerContext(this); // always reuse the ctx object
+    private final DirectBufferPool bufferPool = new DirectBufferPool(this);
     public volatile Thread runningThread;
 
-    // these locks are a little tricky
-    // see comments in loop() and close()
-    private final Object CLOSE_LOCK = new Object();
+    // operations on the selector from other threads do not require locks (see add/modify/remove).
+    // closing from other threads only sets the flag, the loop closes the selector itself
+    private volatile boolean closing = false;
     private List<Tuple<SelectableChannel, RegisterData>> THE_KEY_SET_BEFORE_SELECTOR_CLOSE;
-    // see comments in add()/modify()/remove() and loop()
-    private final Object OPERATE_SELECTOR_LOCK = new Object();
 
-    private SelectorEventLoop() throws IOException {
+    // busy poll
+    // 0 means disabled
+    private volatile long busyPollMaxNanos = 0;
+    // the following fields are only modified on the loop thread
+    private long busyPollBudgetNanos = 0; // adjusted according to the event inter-arrival time
+    private long avgEventGapNanos = 0;
+    private long lastEventArrival = 0;
+    // volatile for reading the statistics from other threads
+    private volatile long busyPollHits = 0; // event arrived when spinning
+    private volatile long busyPollMisses = 0; // nothing arrived when spinning, so the loop went to sleep
+
+    // statistics
+    private volatile long tasksRun = 0; // only increased by the loop thread
+    private final LongAdder wakeupsIssued = new LongAdder();
+    private final LongAdder wakeupsSuppressed = new LongAdder();
+
+    private SelectorEventLoop(SelectorType type) throws IOException {
         this.selector = Selector.open();
+        SelectedKeySet selectedKeys = null;
+        if (type == SelectorType.array) {
+            selectedKeys = new SelectedKeySet();
+            if (!selectedKeys.install(selector)) {
+                selectedKeys = null; // fall back to the jdk selected-key set
+            }
+        }
+        this.selectedKeys = selectedKeys;
     }
 
     public static SelectorEventLoop open() throws IOException {
-        return new SelectorEventLoop();
+        return open(SelectorType.jdk);
+    }
+
+    public static SelectorEventLoop open(SelectorType type) throws IOException {
+        return new SelectorEventLoop(type);
+    }
+
+    /**
+     * @return the actual selector type, which might be different from the required type if fell back
+     */
+    public SelectorType getSelectorType() {
+        return selectedKeys == null ? SelectorType.jdk : SelectorType.array;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
     }
 
     private void tryRunnable(Runnable r) {
@@ -58,75 +111,181 @@ public class SelectorEventLoop {
 
     private void handleRunOnLoopEvents() {
         Runnable r;
-        List<Runnable> toRun = new LinkedList<>();
-        while ((r = runOnLoopEvents.poll()) != null) {
-            toRun.add(r);
+        // tasks added when handling will be handled in the next round
+        // so only handle at most `capacity` tasks from remote
+        int n = remoteTasks.capacity();
+        while (n-- > 0 && (r = remoteTasks.poll()) != null) {
+            ++tasksRun;
+            tryRunnable(r);
+        }
+        // a producer only switches to the overflow queue after offering to remoteTasks,
+        // so its tasks in the overflow queue must run after its tasks in remoteTasks.
+        // the loop above might stop at a slot not published yet, in which case
+        // the overflow queue is handled in later rounds
+        if (remoteTasks.isEmpty()) {
+            n = overflowRemoteTasks.size();
+            while (n-- > 0 && (r = overflowRemoteTasks.poll()) != null) {
+                ++tasksRun;
+                tryRunnable(r);
+            }
         }
-        for (Runnable rr : toRun) {
-            tryRunnable(rr);
+        n = localTasks.size();
+        while (n-- > 0) {
+            r = localTasks.poll();
+            ++tasksRun;
+            tryRunnable(r);
         }
     }
 
     private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
+        // the timing wheel will not return elements added after the current tick
+        // so it's safe to run them one by one
         while (timeQueue.nextTime() == 0) {
             Runnable r = timeQueue.pop();
-            toRun.add(r);
-        }
-        for (Runnable r : toRun) {
+            ++tasksRun;
             tryRunnable(r);
         }
     }
 
-    @SuppressWarnings("unchecked")
+    private boolean hasPendingTasks() {
+        return !localTasks.isEmpty() || !remoteTasks.isEmpty() || !overflowRemoteTasks.isEmpty();
+    }
+
+    private int doSelect() throws IOException {
+        if (hasPendingTasks()) {
+            return selector.selectNow(); // immediately return
+        }
+        int time = timeQueue.nextTime();
+        if (time == 0) {
+            return selector.selectNow(); // immediately return
+        }
+        long busyPollMax = busyPollMaxNanos;
+        if (busyPollMax > 0 && busyPollBudgetNanos > 0) {
+            // spin for a while before going to sleep
+            // new events are likely to come soon, and the thread wake-up is saved
+            long start = System.nanoTime();
+            // the max may be lowered before the budget is reset on the loop
+            long spin = Math.min(Math.min(busyPollBudgetNanos, busyPollMax), time * 1_000_000L);
+            do {
+                int n = selector.selectNow();
+                if (n > 0 || hasPendingTasks()) {
+                    ++busyPollHits;
+                    return n;
+                }
+                Thread.onSpinWait();
+            } while (System.nanoTime() - start < spin);
+            ++busyPollMisses;
+
+            if (time != Integer.MAX_VALUE) {
+                time -= (int) ((System.nanoTime() - start) / 1_000_000);
+                if (time <= 0) {
+                    return selector.selectNow(); // the timer is about to fire
+                }
+            }
+        }
+        // the loop is going to sleep
+        // producers after this point should wake up the selector
+        awake.set(false);
+        if (hasPendingTasks()) {
+            awake.set(true);
+            return selector.selectNow(); // new tasks came just now
+        }
+        try {
+            if (time == Integer.MAX_VALUE) {
+                return selector.select(); // let it sleep
+            } else {
+                return selector.select(time); // wait until the nearest timer
+            }
+        } finally {
+            awake.set(true);
+        }
+    }
+
+    // adjust the busy poll budget according to the event inter-arrival time
+    // spin about twice the average gap, and do not spin if the gap is larger than the max budget
+    private void recordEventArrival() {
+        long now = System.nanoTime();
+        long last = lastEventArrival;
+        lastEventArrival = now;
+        if (last == 0) {
+            return;
+        }
+        long gap = now - last;
+        long avg = avgEventGapNanos;
+        avg = avg + ((gap - avg) >> 3); // ewma, alpha = 1/8
+        avgEventGapNanos = avg;
+
+        long max = busyPollMaxNanos;
+        if (avg > max) {
+            busyPollBudgetNanos = 0;
+        } else {
+            busyPollBudgetNanos = Math.min(avg * 2, max);
+        }
+    }
+
     private void doHandling(Iterator<SelectionKey> keys) {
         while (keys.hasNext()) {
             SelectionKey key = keys.next();
             keys.remove();
+            handleKey(key);
+        }
+    }
 
-            RegisterData registerData = (RegisterData) key.attachment();
+    private void doHandling(SelectedKeySet keys) {
+        SelectionKey[] arr = keys.keys;
+        int size = keys.size;
+        for (int i = 0; i < size; ++i) {
+            SelectionKey key = arr[i];
+            arr[i] = null; // let gc work
+            handleKey(key);
+        }
+        keys.size = 0;
+    }
 
-            SelectableChannel channel = key.channel();
-            Handler handler = registerData.handler;
+    @SuppressWarnings("unchecked")
+    private void handleKey(SelectionKey key) {
+        RegisterData registerData = (RegisterData) key.attachment();
 
-            ctx.channel = channel;
-            ctx.attachment = registerData.att;
+        SelectableChannel channel = key.channel();
+        Handler handler = registerData.handler;
 
-            if (!key.isValid()) {
-                //noinspection UnnecessaryContinue
-                continue;
-            } else if (!channel.isOpen()) {
-                Logger.stderr("channel is closed but still firing");
-            } else {
-                int readyOps = key.readyOps();
-                // handle read first because it's most likely to happen
-                if ((readyOps & SelectionKey.OP_READ) != 0) {
-                    try {
-                        handler.readable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
-                    try {
-                        handler.connected(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
-                    try {
-                        handler.accept(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
-                    }
-                }
-                // read and write may happen in the same loop round
-                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                    try {
-                        handler.writable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
-                    }
-                }
+        ctx.channel = channel;
+        ctx.attachment = registerData.att;
+
+        if (!key.isValid()) {
+            return;
+        }
+        if (!channel.isOpen()) {
+            Logger.stderr("channel is closed but still firing");
+            return;
+        }
+        int readyOps = key.readyOps();
+        // handle read first because it's most likely to happen
+        if ((readyOps & SelectionKey.OP_READ) != 0) {
+            try {
+                handler.readable(ctx);
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
+            }
+        } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+            try {
+                handler.connected(ctx);
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
+            }
+        } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+            try {
+                handler.accept(ctx);
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
+            }
+        }
+        // read and write may happen in the same loop round
+        if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+            try {
+                handler.writable(ctx);
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
             }
         }
     }
@@ -137,6 +296,34 @@ public class SelectorEventLoop {
             RegisterData att = tuple.right;
             triggerRemovedCallback(channel, att);
         }
+        // tasks not run yet are dropped because the loop is closed
+        //noinspection StatementWithEmptyBody
+        while (remoteTasks.poll() != null || overflowRemoteTasks.poll() != null || localTasks.poll() != null) {
+        }
+        // buffers released after this point will be freed directly
+        bufferPool.close();
+    }
+
+    // snapshot the registered channels, then close the selector
+    // it's called only once by the loop thread, or by the closing thread if the loop is not running
+    // synchronized in case the loop starts and closes at the same time
+    private synchronized void closeSelector() {
+        if (!selector.isOpen()) {
+            if (THE_KEY_SET_BEFORE_SELECTOR_CLOSE == null) {
+                THE_KEY_SET_BEFORE_SELECTOR_CLOSE = Collections.emptyList();
+            }
+            return;
+        }
+        Set<SelectionKey> keys = selector.keys();
+        THE_KEY_SET_BEFORE_SELECTOR_CLOSE = new ArrayList<>(keys.size());
+        for (SelectionKey key : keys) {
+            THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(key.channel(), (RegisterData) key.attachment()));
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Logger.shouldNotHappen("closing selector failed", e);
+        }
     }
 
     @Blocking // will block until the loop actually starts
@@ -157,80 +344,59 @@ public class SelectorEventLoop {
         runningThread = Thread.currentThread();
         loopThreadLocal.set(this);
         // run
-        while (selector.isOpen()) {
-            synchronized (CLOSE_LOCK) {
-                // yes, we lock the whole while body (except the select part)
-                // it's ok because we won't close the loop from inside the loop
-                // and it's also ok to let the operator wait for some time
-                // since closing the loop is considered as expansive and dangerous
-
-                if (!selector.isOpen())
-                    break; // break if it's closed
-
-                // handle some non select events
-                Config.currentTimestamp = System.currentTimeMillis();
-                handleNonSelectEvents();
-            }
-            // here we do not lock select()
-            // let close() have chance to run
+        // the selector is only closed by the loop thread
+        // so no lock is needed here
+        while (!closing) {
+            // handle some non select events
+            // including the register/modify/remove operations from other threads
+            Config.currentTimestamp = System.currentTimeMillis();
+            handleNonSelectEvents();
+
+            if (closing)
+                break;
 
             final int selectedSize;
             try {
-                if (timeQueue.isEmpty() && runOnLoopEvents.isEmpty()) {
-                    selectedSize = selector.select(); // let it sleep
-                } else if (!runOnLoopEvents.isEmpty()) {
-                    selectedSize = selector.selectNow(); // immediately return
-                } else {
-                    int time = timeQueue.nextTime();
-                    if (time == 0) {
-                        selectedSize = selector.selectNow(); // immediately return
-                    } else {
-                        selectedSize = selector.select(time); // wait until the nearest timer
-                    }
-                }
+                selectedSize = doSelect();
             } catch (IOException | ClosedSelectorException e) {
                 // let's ignore this exception and continue
                 // if it's closed, the next loop will not run
                 continue;
             }
-
-            // we lock the OPERATE_SELECTOR_LOCK
-            // to make sure the add() is finished
-            // and the selectionKeys will be working in the next loop
-            synchronized (OPERATE_SELECTOR_LOCK) { // do nothing, just wait for lock to release
+            if (selectedSize > 0 && busyPollMaxNanos > 0) {
+                recordEventArrival();
             }
 
-            // here we lock again
-            // because we need to handle something
-            // and at this time the selector might be closed
-            synchronized (CLOSE_LOCK) {
-
-                if (!selector.isOpen())
-                    break; // break if it's closed
-
-                if (selectedSize > 0) {
-                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-                    doHandling(keys);
+            if (selectedSize > 0) {
+                if (selectedKeys == null) {
+                    doHandling(selector.selectedKeys().iterator());
+                } else {
+                    doHandling(selectedKeys);
                 }
             }
             // while-loop ends here
         }
+        closeSelector();
         runningThread = null; // it's not running now, set to null
         loopThreadLocal.remove(); // remove from thread local
         // do the final release
         release();
     }
 
-    private boolean needLockAndWake() {
-        return runningThread != null && Thread.currentThread() != runningThread;
-    }
-
     @ThreadSafe
     public void nextTick(Runnable r) {
-        runOnLoopEvents.add(r);
-        if (runningThread == null || Thread.currentThread() == runningThread)
-            return; // we do not need to wakeup because it's not started or is already waken up
-        selector.wakeup(); // wake the selector because new event is added
+        Thread runningThread = this.runningThread;
+        if (runningThread != null && Thread.currentThread() == runningThread) {
+            localTasks.add(r);
+            return; // we do not need to wakeup because it's already waken up
+        }
+        // keep the order: use the overflow queue until it's drained
+        if (!overflowRemoteTasks.isEmpty() || !remoteTasks.offer(r)) {
+            overflowRemoteTasks.add(r);
+        }
+        if (runningThread == null)
+            return; // we do not need to wakeup because it's not started
+        wakeup();
     }
 
     @ThreadSafe
@@ -247,7 +413,12 @@ public class SelectorEventLoop {
         TimerEvent e = new TimerEvent(this);
         // timeQueue is not thread safe
         // modify it in the event loop's thread
-        nextTick(() -> e.setEvent(timeQueue.push(timeout, r)));
+        if (Thread.currentThread() == runningThread) {
+            // already on the loop, push directly to avoid a tick
+            e.setEvent(timeQueue.push(timeout, r));
+        } else {
+            nextTick(() -> e.setEvent(timeQueue.push(timeout, r)));
+        }
         return e;
     }
 
@@ -258,20 +429,43 @@ public class SelectorEventLoop {
         return pe;
     }
 
+    // whether the operation is called from another thread while the loop is running
+    private boolean onOtherThread() {
+        Thread runningThread = this.runningThread;
+        return runningThread != null && Thread.currentThread() != runningThread;
+    }
+
+    // wake up the selector if it's sleeping (or going to sleep)
+    private void wakeup() {
+        if (awake.compareAndSet(false, true)) {
+            wakeupsIssued.increment();
+            selector.wakeup(); // wake the selector because new event is added
+        } else {
+            wakeupsSuppressed.increment(); // the loop is running or someone already woke it up
+        }
+    }
+
+    /*
+     * add/modify/remove are applied directly on the calling thread, and take effect when the methods return.
+     *
+     * Since jdk 11, registering, changing interest ops and cancelling do not block on a selector
+     * which is selecting, the changes are queued inside the selector and applied when it selects.
+     * So no lock is required, and the selector is waken up to apply the changes,
+     * unless the loop is running, in which case the changes are applied in the next select.
+     */
+
     @ThreadSafe
     @SuppressWarnings("DuplicateThrows")
     public <CHANNEL extends SelectableChannel> void add(CHANNEL channel, int ops, Object attachment, Handler<CHANNEL> handler) throws ClosedChannelException, IOException {
+        if (closing)
+            throw new ClosedSelectorException();
         channel.configureBlocking(false);
         RegisterData registerData = new RegisterData();
         registerData.att = attachment;
         registerData.handler = handler;
-        if (needLockAndWake()) {
-            synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure register is done
-                selector.wakeup();
-                add0(channel, ops, registerData);
-            }
-        } else {
-            add0(channel, ops, registerData);
+        add0(channel, ops, registerData);
+        if (onOtherThread()) {
+            wakeup();
         }
     }
 
@@ -301,16 +495,9 @@ public class SelectorEventLoop {
     }
 
     private void doModify(SelectionKey key, int ops) {
-        // the document says whether interestOps() blocks or not
-        // is implementation dependent
-        // so we consider a lock and wake
-        if (needLockAndWake()) {
-            synchronized (OPERATE_SELECTOR_LOCK) {
-                selector.wakeup();
-                key.interestOps(ops);
-            }
-        } else {
-            key.interestOps(ops);
+        key.interestOps(ops);
+        if (onOtherThread()) {
+            wakeup();
         }
     }
 
@@ -332,25 +519,19 @@ public class SelectorEventLoop {
         doModify(key, key.interestOps() & ~ops);
     }
 
+    /**
+     * remove the channel from the selector, the removed callback is triggered before this method returns
+     */
     @ThreadSafe
     public void remove(SelectableChannel channel) {
-        SelectionKey key;
-        // synchronize the channel
-        // to prevent it being canceled from multiple threads
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (channel) {
-            key = channel.keyFor(selector);
-            if (key == null)
-                return;
-        }
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null)
+            return;
         RegisterData att = (RegisterData) key.attachment();
-        if (needLockAndWake()) {
-            synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure cancel is done
-                selector.wakeup();
-                key.cancel();
-            }
-        } else {
-            key.cancel();
+        key.cancel();
+        if (onOtherThread()) {
+            // let the selector flush the cancelled key, so that the channel can be actually closed
+            wakeup();
         }
         triggerRemovedCallback(channel, att);
     }
@@ -377,6 +558,15 @@ public class SelectorEventLoop {
     @SuppressWarnings("unchecked")
     private void triggerRemovedCallback(SelectableChannel channel, RegisterData registerData) {
         assert registerData != null;
+        // the channel might be removed by another thread when the loop is closing
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (registerData) {
+            if (registerData.removed)
+                return; // the callback is already triggered
+            registerData.removed = true;
+        }
+        // the ctx object is reused on the loop thread only
+        HandlerContext<SelectableChannel> ctx = onOtherThread() ? new HandlerContext<>(this) : this.ctx;
         ctx.channel = channel;
         ctx.attachment = registerData.att;
         try {
@@ -386,9 +576,63 @@ public class SelectorEventLoop {
         }
     }
 
+    /**
+     * enable or disable busy poll.
+     * when enabled, the loop spins on selectNow() for a while before blocking in select(),
+     * the actual spin time is adjusted according to the event inter-arrival time,
+     * and will never exceed the max budget
+     *
+     * @param maxMicros max spin time in microseconds, 0 to disable
+     */
+    @ThreadSafe
+    public void setBusyPoll(int maxMicros) {
+        if (maxMicros < 0)
+            throw new IllegalArgumentException("invalid busy poll budget " + maxMicros);
+        long nanos = maxMicros * 1000L;
+        // the loop checks the max budget before spinning, so disabling takes effect immediately
+        busyPollMaxNanos = nanos;
+        // the other fields are used by the loop thread, so reset them on the loop
+        runOnLoop(() -> {
+            // start with the max budget, it will be adjusted soon
+            busyPollBudgetNanos = nanos;
+            lastEventArrival = 0;
+            avgEventGapNanos = nanos / 2;
+        });
+    }
+
+    @ThreadSafe
+    public int getBusyPoll() {
+        return (int) (busyPollMaxNanos / 1000);
+    }
+
+    @ThreadSafe
+    public long getTasksRun() {
+        return tasksRun;
+    }
+
+    @ThreadSafe
+    public long getWakeupsIssued() {
+        return wakeupsIssued.sum();
+    }
+
+    @ThreadSafe
+    public long getWakeupsSuppressed() {
+        return wakeupsSuppressed.sum();
+    }
+
+    @ThreadSafe
+    public long getBusyPollHits() {
+        return busyPollHits;
+    }
+
+    @ThreadSafe
+    public long getBusyPollMisses() {
+        return busyPollMisses;
+    }
+
     @ThreadSafe
     public boolean isClosed() {
-        return !selector.isOpen();
+        return closing || !selector.isOpen();
     }
 
     @Blocking
@@ -396,41 +640,24 @@ public class SelectorEventLoop {
     @ThreadSafe
     public void close() throws IOException {
         Thread runningThread = this.runningThread; // get the thread, which will be joined later
-        // we don't check whether the thread exists (i.e. we don't check whether the loop is running)
-        // just shut down all keys and close the selector
-        // the nio lib will raise error if it's already closed
-
-        synchronized (CLOSE_LOCK) {
-            Set<SelectionKey> keys = selector.keys();
-            while (true) {
-                THE_KEY_SET_BEFORE_SELECTOR_CLOSE = new ArrayList<>(keys.size());
-                try {
-                    for (SelectionKey key : keys) {
-                        THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(key.channel(), (RegisterData) key.attachment()));
-                    }
-                } catch (ConcurrentModificationException ignore) {
-                    // there might be adding and removing occur when closing the selector
-                    // but we do not lock them for performance concern
-                    // we simply catch the exception and re-try
-                    continue;
-                }
-                // i believe there's no need to set a `closed` flag
-                // because the copy is very fast
-                // and usually we don't close a event loop
-                // re-try would be just fine
-                break;
-            }
-            selector.close();
-        }
-        // selector.wakeup();
-        // we don not need to wakeup manually, the selector.close does this for us
+        closing = true;
 
-        if (runningThread != null && runningThread != Thread.currentThread()) {
-            try {
-                runningThread.join();
-            } catch (InterruptedException ignore) {
-                // ignore, we don't care
-            }
+        if (runningThread == null) {
+            // the loop is not running, close it directly
+            closeSelector();
+            return;
+        }
+        if (runningThread == Thread.currentThread()) {
+            // closing on the loop thread
+            // the loop will exit after the current round
+            return;
+        }
+        // let the loop close the selector
+        selector.wakeup();
+        try {
+            runningThread.join();
+        } catch (InterruptedException ignore) {
+            // ignore, we don't care
         }
     }
 }
@@ -0,0 +1,14 @@
+package vproxy.selector;
+
+public enum SelectorType {
+    /**
+     * the selector provided by jdk
+     */
+    jdk,
+    /**
+     * the jdk selector with its selected-key set replaced by an array,
+     * avoids the HashSet operations and iterator allocation when handling events.
+     * falls back to {@link #jdk} if the selector implementation cannot be modified
+     */
+    array,
+}
@@ -20,6 +20,22 @@ public class TimerEvent {
         this.event = event;
     }
 
+    /**
+     * re-arm the timer with the same callback.
+     * the timer node is re-used, so no allocation happens.
+     * this method should be called on the event loop.
+     * nothing happens if the timer is already canceled
+     *
+     * @param timeout the new timeout, relative to now
+     */
+    public synchronized void resetDelay(int timeout) {
+        if (canceled)
+            return;
+        if (event == null)
+            return; // not added into the queue yet
+        event.reschedule(timeout);
+    }
+
     @ThreadSafe
     public synchronized void cancel() {
         if (canceled)
@@ -27,6 +43,10 @@ public class TimerEvent {
         canceled = true;
         if (event == null)
             return;
-        eventLoop.nextTick(event::removeSelf);
+        if (eventLoop.runningThread == Thread.currentThread()) {
+            event.removeSelf(); // directly remove it when on the event loop
+        } else {
+            eventLoop.nextTick(event::removeSelf);
+        }
     }
 }
@@ -19,6 +19,10 @@ public class ArrayOutputStream extends OutputStream {
         array.set(curosr++, (byte) b);
     }
 
+    public void reset() {
+        curosr = 0;
+    }
+
     public ByteArray get() {
         if (curosr == 0)
             return ByteArray.from(new byte[0]);
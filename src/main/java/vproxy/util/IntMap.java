@@ -0,0 +1,141 @@
+package vproxy.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive int keys, using open addressing and linear probing.
+ * <p>
+ * No allocation happens when putting or removing elements unless the table grows.
+ * The values cannot be null, and {@link #get(int)} returns null when the key is not found.
+ * <p>
+ * This class is not thread safe.
+ */
+public class IntMap<V> {
+    private int[] keys;
+    private Object[] values; // null means the slot is empty
+    private int mask;
+    private int size = 0;
+
+    public IntMap() {
+        this(16);
+    }
+
+    public IntMap(int initialCapacity) {
+        int cap = 4;
+        while (cap < initialCapacity * 2) {
+            cap <<= 1;
+        }
+        keys = new int[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int key) {
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = indexOf(key);
+        return i == -1 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * @return the old value, or null if the key did not exist
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("the value cannot be null");
+        int i = hash(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length) {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if the key did not exist
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = indexOf(key);
+        if (i == -1)
+            return null;
+        V old = (V) values[i];
+        values[i] = null;
+        --size;
+        // shift the following elements back, so that no tombstone is needed
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null)
+                break;
+            int home = hash(keys[j]) & mask;
+            // move the element if its home slot is not in (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = values.length - 1;
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] == null)
+                continue;
+            int j = hash(oldKeys[i]) & mask;
+            while (values[j] != null) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
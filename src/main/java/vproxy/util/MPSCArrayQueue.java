@@ -0,0 +1,82 @@
+package vproxy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded multi-producer single-consumer queue backed by an array.
+ * <p>
+ * Producers claim a slot by CAS on the tail index, then publish the element into the slot.
+ * The consumer reads the slot at the head index, clears it and moves the head forward.
+ * No allocation happens when offering or polling.
+ * <p>
+ * {@link #offer(Object)} can be called from any thread,
+ * {@link #poll()} must only be called from one thread (the consumer).
+ */
+public class MPSCArrayQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong tail = new AtomicLong(0); // the next index to be claimed by producers
+    private volatile long head = 0; // the next index to be consumed, only modified by the consumer
+
+    public MPSCArrayQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        int cap = 1;
+        while (cap < capacity) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.buffer = new AtomicReferenceArray<>(cap);
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    @ThreadSafe
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= capacity) {
+                return false; // full
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        // the slot is claimed, and the consumer cleared it before moving the head
+        buffer.set((int) (t & mask), e);
+        return true;
+    }
+
+    /**
+     * @return null if the queue is empty,
+     * or the next element is claimed but not published yet
+     */
+    public E poll() {
+        long h = head;
+        int idx = (int) (h & mask);
+        E e = buffer.get(idx);
+        if (e == null)
+            return null;
+        buffer.lazySet(idx, null);
+        head = h + 1;
+        return e;
+    }
+
+    @ThreadSafe
+    public boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    @ThreadSafe
+    public int size() {
+        return (int) (tail.get() - head);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
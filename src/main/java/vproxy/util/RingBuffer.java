@@ -1,5 +1,6 @@
 package vproxy.util;
 
+import vproxy.util.ringbuffer.DirectBufferPool;
 import vproxy.util.ringbuffer.SimpleRingBuffer;
 
 import java.io.IOException;
@@ -14,6 +15,23 @@ public interface RingBuffer {
         return SimpleRingBuffer.allocateDirect(cap);
     }
 
+    /**
+     * allocate from the buffer pool of current event loop,
+     * the memory goes back to the pool when the buffer is cleaned
+     */
+    static SimpleRingBuffer allocateDirectPooled(int cap) {
+        return DirectBufferPool.allocateRingBuffer(cap);
+    }
+
+    /**
+     * allocate a buffer without backing memory,
+     * direct memory is borrowed from the buffer pool of current event loop only when data is stored,
+     * and is returned when the buffer is drained
+     */
+    static SimpleRingBuffer allocateDirectLazy(int cap) {
+        return DirectBufferPool.allocateLazyRingBuffer(cap);
+    }
+
     static SimpleRingBuffer allocate(int cap) {
         return SimpleRingBuffer.allocate(cap);
     }
@@ -64,6 +82,29 @@ public interface RingBuffer {
         return n;
     }
 
+    /**
+     * get a view of the first `len` bytes in the buffer without copying them.<br>
+     * the view is only valid until the buffer is operated again,
+     * and the bytes are still in the buffer, call {@link #skip(int)} to consume them
+     *
+     * @param len length of the view, should not be greater than {@link #used()}
+     * @return the view, or null if the bytes are not stored contiguously or the buffer does not support views
+     */
+    default ByteArray view(int len) {
+        return null;
+    }
+
+    /**
+     * consume and drop the first `len` bytes in the buffer
+     *
+     * @return bytes skipped
+     */
+    default int skip(int len) {
+        // NOTE: the default implementation copies the bytes
+        // SimpleRingBuffer only moves the cursor
+        return writeTo(ByteArrayChannel.fromEmpty(new byte[Math.min(len, used())]));
+    }
+
     int free();
 
     int used();
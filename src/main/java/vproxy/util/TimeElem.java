@@ -1,18 +1,35 @@
 package vproxy.util;
 
 public class TimeElem<T> {
-    public final long triggerTime;
+    long triggerTime;
     public final T elem;
     private final TimeQueue<T> queue;
 
+    // the intrusive doubly linked list fields
+    // a node is linked into a wheel slot or into the ready list
+    // and `bucket` is null when the node is not linked anywhere
+    TimeElem<T> prev;
+    TimeElem<T> next;
+    TimeQueue.Bucket<T> bucket;
+
     TimeElem(long triggerTime, T elem, TimeQueue<T> queue) {
         this.triggerTime = triggerTime;
         this.elem = elem;
         this.queue = queue;
     }
 
+    public long getTriggerTime() {
+        return triggerTime;
+    }
+
     // this method should always be called on the event loop
     public void removeSelf() {
-        queue.queue.remove(this);
+        queue.remove(this);
+    }
+
+    // this method should always be called on the event loop
+    // the element will be (re-)scheduled no matter it's already triggered or not
+    public void reschedule(int timeout) {
+        queue.reschedule(this, timeout);
     }
 }
@@ -2,36 +2,261 @@ package vproxy.util;
 
 import vproxy.app.Config;
 
-import java.util.PriorityQueue;
+import java.util.ArrayList;
 
+/**
+ * A hierarchical timing wheel with 1ms ticks.
+ * <p>
+ * There are {@link #LEVELS} wheels, each wheel has 64 slots,
+ * the slots in level L cover 64^L ms each.
+ * An element is put into the lowest level that can hold its delay,
+ * and is moved (cascaded) to lower levels when the wheel turns to its slot.
+ * <p>
+ * push/remove/reschedule are O(1), and the elements are nodes of intrusive
+ * doubly linked lists, so an element can be re-used via {@link #reschedule(TimeElem, int)}
+ * without allocating anything.
+ * <p>
+ * This class is not thread safe, it should only be operated on the event loop.
+ */
 public class TimeQueue<T> {
-    PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS; // 64 slots, so one long is enough to record non-empty slots
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6; // 6 * 6 = 36 bits, large enough for any int timeout
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    static final class Bucket<T> {
+        final int level; // -1 for the ready list
+        final int slot;
+        TimeElem<T> first;
+        TimeElem<T> last;
+
+        Bucket(int level, int slot) {
+            this.level = level;
+            this.slot = slot;
+        }
+    }
+
+    // the slot of the wheels, bucket (level, slot) is at index (level * SLOTS + slot)
+    // it's a list instead of an array, because arrays of generic types cannot be created without warnings
+    private final ArrayList<Bucket<T>> wheels = new ArrayList<>(LEVELS * SLOTS);
+    private final long[] bitmaps = new long[LEVELS]; // bit n is set when slot n of the level is not empty
+    private final Bucket<T> ready = new Bucket<>(-1, -1); // elements already timed out but not popped yet
+    private long current; // the next tick to be processed
+    private int wheelCount = 0;
+    private int readyCount = 0;
+
+    public TimeQueue() {
+        for (int level = 0; level < LEVELS; ++level) {
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                wheels.add(new Bucket<>(level, slot));
+            }
+        }
+        current = Config.currentTimestamp;
+    }
+
+    private Bucket<T> bucket(int level, int slot) {
+        return wheels.get((level << SLOT_BITS) | slot);
+    }
 
     public TimeElem<T> push(int timeout, T elem) {
-        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
-        queue.add(event);
+        TimeElem<T> event = new TimeElem<>(0, elem, this);
+        schedule(event, timeout);
         return event;
     }
 
+    // remove the element from the queue if it's still in the queue
+    void remove(TimeElem<T> event) {
+        unlink(event);
+    }
+
+    // the element will be removed from where it is (if any) and scheduled again
+    public void reschedule(TimeElem<T> event, int timeout) {
+        unlink(event);
+        schedule(event, timeout);
+    }
+
     public T pop() {
-        TimeElem<T> elem = queue.poll();
+        advance(Config.currentTimestamp);
+        TimeElem<T> elem = ready.first;
         if (elem == null)
             return null;
+        unlink(elem);
         return elem.elem;
     }
 
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return wheelCount == 0 && readyCount == 0;
     }
 
     /**
-     * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event
+     * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event.
+     * the returned value might be a little smaller than the actual timeout
+     * because elements in higher levels are only known to be in some range
      */
     public int nextTime() {
-        TimeElem<T> elem = queue.peek();
-        if (elem == null)
+        long now = Config.currentTimestamp;
+        advance(now);
+        if (readyCount != 0)
+            return 0;
+        if (wheelCount == 0)
             return Integer.MAX_VALUE;
-        long triggerTime = elem.triggerTime;
-        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
+        long next = nextActivity();
+        return (int) Math.min(Math.max(next - now, 0), Integer.MAX_VALUE);
+    }
+
+    private void schedule(TimeElem<T> event, int timeout) {
+        long now = Config.currentTimestamp;
+        if (wheelCount == 0 && now > current) {
+            // nothing in the wheels, so we can simply move the wheels forward
+            current = now;
+        }
+        event.triggerTime = now + timeout;
+        add(event);
+    }
+
+    private void add(TimeElem<T> event) {
+        long delta = event.triggerTime - current;
+        Bucket<T> bucket;
+        if (delta < 0) {
+            // the tick is already processed (e.g. timeout is 0), so it's ready to be popped now
+            bucket = ready;
+        } else {
+            long t = event.triggerTime;
+            if (delta > MAX_DELTA) {
+                t = current + MAX_DELTA; // it will be cascaded and recalculated later
+                delta = MAX_DELTA;
+            }
+            int level = 0;
+            while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+                ++level;
+            }
+            bucket = bucket(level, (int) ((t >> (SLOT_BITS * level)) & SLOT_MASK));
+        }
+        link(bucket, event);
+    }
+
+    private void link(Bucket<T> bucket, TimeElem<T> event) {
+        event.bucket = bucket;
+        event.next = null;
+        event.prev = bucket.last;
+        if (bucket.last == null) {
+            bucket.first = event;
+        } else {
+            bucket.last.next = event;
+        }
+        bucket.last = event;
+
+        if (bucket == ready) {
+            ++readyCount;
+        } else {
+            ++wheelCount;
+            bitmaps[bucket.level] |= (1L << bucket.slot);
+        }
+    }
+
+    private void unlink(TimeElem<T> event) {
+        Bucket<T> bucket = event.bucket;
+        if (bucket == null)
+            return; // not in the queue
+        if (event.prev == null) {
+            bucket.first = event.next;
+        } else {
+            event.prev.next = event.next;
+        }
+        if (event.next == null) {
+            bucket.last = event.prev;
+        } else {
+            event.next.prev = event.prev;
+        }
+        event.prev = null;
+        event.next = null;
+        event.bucket = null;
+
+        if (bucket == ready) {
+            --readyCount;
+        } else {
+            --wheelCount;
+            if (bucket.first == null) {
+                bitmaps[bucket.level] &= ~(1L << bucket.slot);
+            }
+        }
+    }
+
+    // process all ticks until `now` (inclusive)
+    // ticks that will not touch any element are skipped
+    private void advance(long now) {
+        while (current <= now) {
+            if (wheelCount == 0) {
+                current = now + 1;
+                return;
+            }
+            long next = nextActivity();
+            if (next > now) {
+                current = now + 1;
+                return;
+            }
+            current = next;
+            processTick();
+            ++current;
+        }
+    }
+
+    private void processTick() {
+        int idx = (int) (current & SLOT_MASK);
+        if (idx == 0) {
+            // the lowest wheel turns a full round, cascade the higher levels
+            for (int level = 1; level < LEVELS; ++level) {
+                int levelIdx = (int) ((current >> (SLOT_BITS * level)) & SLOT_MASK);
+                cascade(bucket(level, levelIdx));
+                if (levelIdx != 0)
+                    break;
+            }
+        }
+        Bucket<T> bucket = bucket(0, idx);
+        TimeElem<T> e;
+        while ((e = bucket.first) != null) {
+            unlink(e);
+            link(ready, e);
+        }
+    }
+
+    private void cascade(Bucket<T> bucket) {
+        TimeElem<T> e;
+        while ((e = bucket.first) != null) {
+            unlink(e);
+            add(e);
+        }
+    }
+
+    // the nearest tick which will touch some element
+    // i.e. the tick to fire level 0 elements, or the tick to cascade higher level elements
+    private long nextActivity() {
+        long best = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; ++level) {
+            long bitmap = bitmaps[level];
+            if (bitmap == 0)
+                continue;
+            int shift = SLOT_BITS * level;
+            int cur = (int) ((current >> shift) & SLOT_MASK);
+            long rotated = Long.rotateRight(bitmap, cur);
+            long t;
+            if (level == 0) {
+                t = current + Long.numberOfTrailingZeros(rotated);
+            } else {
+                long lowMask = (1L << shift) - 1;
+                if ((current & lowMask) != 0) {
+                    // the slot of current round is already cascaded
+                    // elements in this slot belong to the next round
+                    rotated &= ~1L;
+                }
+                int distance = rotated == 0 ? SLOTS : Long.numberOfTrailingZeros(rotated);
+                t = (current & ~lowMask) + ((long) distance << shift);
+            }
+            if (t < best) {
+                best = t;
+            }
+        }
+        return best;
     }
 }
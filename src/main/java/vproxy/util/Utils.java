@@ -11,6 +11,7 @@ import java.io.PrintStream;
 import java.lang.reflect.Field;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.LinkedList;
@@ -586,6 +587,13 @@ public class Utils {
         }
     }
 
+    /**
+     * set the field with unsafe, for the fields of jdk classes which cannot be set with reflection
+     */
+    public static void unsafePutObject(Object o, Field field, Object value) {
+        U.putObject(o, U.objectFieldOffset(field), value);
+    }
+
     public static void clean(ByteBuffer buffer) {
         assert Logger.lowLevelDebug("run Utils.clean");
         if (!buffer.getClass().getName().equals("java.nio.DirectByteBuffer")) {
@@ -596,6 +604,32 @@ public class Utils {
         U.invokeCleaner(buffer);
     }
 
+    private static final long LOW_7_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    /**
+     * find the first byte `b` in [from, to) of the buffer, 8 bytes are checked at a time
+     *
+     * @return index of the byte, or `to` if not found
+     */
+    public static int indexOf(ByteBuffer buf, int from, int to, byte b) {
+        long pattern = (b & 0xffL) * 0x0101010101010101L;
+        // the first byte is the most significant byte when the buffer is big endian
+        boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        while (from + 8 <= to) {
+            long v = buf.getLong(from) ^ pattern; // the matched bytes become 0
+            // the highest bit of each zero byte is set, and no false positive
+            long t = ~(((v & LOW_7_BITS) + LOW_7_BITS) | v | LOW_7_BITS);
+            if (t != 0) {
+                return from + ((bigEndian ? Long.numberOfLeadingZeros(t) : Long.numberOfTrailingZeros(t)) >>> 3);
+            }
+            from += 8;
+        }
+        while (from < to && buf.get(from) != b) {
+            ++from;
+        }
+        return from;
+    }
+
     public static void directConnect(AddressType type, String address, int port, Consumer<Connector> providedCallback) {
         if (type == AddressType.domain) { // resolve if it's domain
             Resolver.getDefault().resolve(address, new Callback<>() {
@@ -0,0 +1,57 @@
+package vproxy.util.bytearray;
+
+import vproxy.util.ByteArray;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a region of a ByteBuffer, the bytes are not copied.
+ * The object can be reset to view another region, so it's only valid until it's reset.
+ * The position and limit of the ByteBuffer are not used.
+ */
+public class ByteBufferByteArray extends AbstractByteArray implements ByteArray {
+    private ByteBuffer buffer;
+    private int from;
+    private int len;
+
+    public ByteBufferByteArray reset(ByteBuffer buffer, int from, int len) {
+        this.buffer = buffer;
+        this.from = from;
+        this.len = len;
+        return this;
+    }
+
+    @Override
+    public byte get(int idx) {
+        if (idx >= len || idx < 0)
+            throw new ArrayIndexOutOfBoundsException("index=" + idx + ", length=" + len);
+        return buffer.get(from + idx);
+    }
+
+    @Override
+    public ByteArray set(int idx, byte value) {
+        if (idx >= len || idx < 0)
+            throw new ArrayIndexOutOfBoundsException("index=" + idx + ", length=" + len);
+        buffer.put(from + idx, value);
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return len;
+    }
+
+    @Override
+    public void byteBufferPut(ByteBuffer dst, int off, int len) {
+        for (int i = 0; i < len; ++i) {
+            dst.put(buffer.get(from + off + i));
+        }
+    }
+
+    @Override
+    public void byteBufferGet(ByteBuffer src, int off, int len) {
+        for (int i = 0; i < len; ++i) {
+            buffer.put(from + off + i, src.get());
+        }
+    }
+}
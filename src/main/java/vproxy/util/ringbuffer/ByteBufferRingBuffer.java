@@ -12,6 +12,21 @@ public interface ByteBufferRingBuffer extends RingBuffer {
 
     int operateOnByteBufferWriteOut(int maxBytesToWrite, WriteOutOp op) throws IOException;
 
+    interface GatheringWriteOutOp {
+        /**
+         * @param buffers views of the data to write, the op should only move positions of the views
+         * @param length  count of valid views in the array, starting from index 0
+         */
+        void accept(ByteBuffer[] buffers, int length) throws IOException;
+    }
+
+    /**
+     * same as {@link #operateOnByteBufferWriteOut(int, WriteOutOp)},
+     * but all readable regions (including the wrapped part) are provided in one call,
+     * so that they can be written with one gathering write
+     */
+    int operateOnByteBufferGatheringWriteOut(int maxBytesToWrite, GatheringWriteOutOp op) throws IOException;
+
     interface StoreInOp {
         boolean test(ByteBuffer buffer) throws IOException;
     }
@@ -0,0 +1,238 @@
+package vproxy.util.ringbuffer;
+
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+import vproxy.util.ThreadSafe;
+import vproxy.util.Utils;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-classed pool of direct buffers, each event loop owns one pool.
+ * <p>
+ * Buffers are allocated in power-of-two size classes, and a buffer with the required capacity
+ * is sliced from the pooled chunk. When the ring buffer is cleaned, the chunk goes back to the pool
+ * of the event loop which allocated it: directly if released on the owner loop,
+ * or through a concurrent queue drained by the owner loop if released on another thread.
+ * <p>
+ * A lazy ring buffer borrows a chunk from the pool of the current loop only when data is stored,
+ * and returns it as soon as the buffer is drained.
+ * <p>
+ * Chunks exceeding the max pooled memory are freed instead of pooled.
+ * Some of the allocated ring buffers are tracked, and if one of them is collected by gc
+ * without being cleaned, a leak is reported.
+ * <p>
+ * Chunks are only pooled when acquired on the owner loop.
+ */
+public class DirectBufferPool {
+    public static final long DEFAULT_MAX_POOLED_MEMORY = 32 * 1024 * 1024;
+
+    private static final int MIN_CLASS_SHIFT = 7; // 128 bytes
+    private static final int MAX_CLASS_SHIFT = 20; // 1M, larger buffers are not pooled
+    private static final int LEAK_DETECTION_INTERVAL = 128; // track one buffer in every 128 allocations
+    private static final Cleaner LEAK_DETECTOR = Cleaner.create();
+
+    private final SelectorEventLoop loop;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] freeLists = new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+    // chunks released by other threads
+    private final ConcurrentLinkedQueue<ByteBuffer> remoteReleased = new ConcurrentLinkedQueue<>();
+    private volatile long maxPooledBytes = DEFAULT_MAX_POOLED_MEMORY;
+    private volatile boolean closed = false;
+
+    // statistics, only modified by the owner loop
+    private volatile long pooledBytes = 0;
+    private volatile long inUseBytes = 0;
+    private int allocationCount = 0;
+    private final LongAdder leaks = new LongAdder();
+
+    public DirectBufferPool(SelectorEventLoop loop) {
+        this.loop = loop;
+        for (int i = 0; i < freeLists.length; ++i) {
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * allocate a direct ring buffer from the pool of current event loop,
+     * or allocate a non-pooled one if not called on an event loop
+     */
+    public static SimpleRingBuffer allocateRingBuffer(int cap) {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return SimpleRingBuffer.allocateDirect(cap);
+        }
+        return loop.getBufferPool().allocate(cap);
+    }
+
+    /**
+     * allocate a direct ring buffer without backing memory,
+     * the memory is borrowed from the pool of current event loop when data is stored,
+     * and returned when the buffer is drained
+     */
+    public static SimpleRingBuffer allocateLazyRingBuffer(int cap) {
+        return SimpleRingBuffer.allocateLazy(cap);
+    }
+
+    // the pool of current event loop, or null if not on an event loop
+    static DirectBufferPool current() {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return null;
+        }
+        return loop.getBufferPool();
+    }
+
+    private static int classIndex(int cap) {
+        int shift = 32 - Integer.numberOfLeadingZeros(cap - 1); // ceil(log2(cap))
+        if (shift < MIN_CLASS_SHIFT) {
+            shift = MIN_CLASS_SHIFT;
+        }
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    private boolean onOwnerLoop() {
+        return loop.runningThread == Thread.currentThread();
+    }
+
+    public SimpleRingBuffer allocate(int cap) {
+        ByteBuffer chunk = acquire(cap);
+        if (chunk == null) {
+            return SimpleRingBuffer.allocateDirect(cap);
+        }
+        return SimpleRingBuffer.allocatePooled(this, chunk, cap);
+    }
+
+    /**
+     * @return a chunk with capacity not less than cap,
+     * or null if the capacity cannot be pooled or not called on the owner loop
+     */
+    ByteBuffer acquire(int cap) {
+        if (cap <= 0 || cap > (1 << MAX_CLASS_SHIFT) || closed || !onOwnerLoop()) {
+            return null;
+        }
+        drainRemoteReleased();
+
+        int idx = classIndex(cap);
+        int chunkSize = 1 << (idx + MIN_CLASS_SHIFT);
+        ByteBuffer chunk = freeLists[idx].poll();
+        if (chunk == null) {
+            chunk = ByteBuffer.allocateDirect(chunkSize);
+        } else {
+            pooledBytes -= chunkSize;
+        }
+        inUseBytes += chunkSize;
+        return chunk;
+    }
+
+    // track the ring buffer holding the chunk if it's sampled, should be called right after `acquire`
+    void track(SimpleRingBuffer buf, int cap) {
+        if (++allocationCount != LEAK_DETECTION_INTERVAL)
+            return;
+        allocationCount = 0;
+        buf.leakTracker = new LeakTracker(cap);
+        buf.leakCleanable = LEAK_DETECTOR.register(buf, buf.leakTracker);
+    }
+
+    @ThreadSafe
+    void release(ByteBuffer chunk) {
+        if (onOwnerLoop()) {
+            release0(chunk);
+        } else {
+            remoteReleased.add(chunk);
+            if (closed) {
+                // the loop will not drain the queue anymore
+                ByteBuffer b;
+                while ((b = remoteReleased.poll()) != null) {
+                    Utils.clean(b);
+                }
+            }
+        }
+    }
+
+    private void release0(ByteBuffer chunk) {
+        int chunkSize = chunk.capacity();
+        inUseBytes -= chunkSize;
+        if (closed || pooledBytes + chunkSize > maxPooledBytes) {
+            Utils.clean(chunk);
+            return;
+        }
+        chunk.clear();
+        freeLists[classIndex(chunkSize)].push(chunk); // lifo, the recently used chunk is more likely to be in cache
+        pooledBytes += chunkSize;
+    }
+
+    private void drainRemoteReleased() {
+        ByteBuffer chunk;
+        while ((chunk = remoteReleased.poll()) != null) {
+            release0(chunk);
+        }
+    }
+
+    // free all pooled chunks, should be called by the loop when it's closed
+    public void close() {
+        closed = true;
+        drainRemoteReleased();
+        for (ArrayDeque<ByteBuffer> ls : freeLists) {
+            ByteBuffer chunk;
+            while ((chunk = ls.poll()) != null) {
+                Utils.clean(chunk);
+            }
+        }
+        pooledBytes = 0;
+    }
+
+    @ThreadSafe
+    public void setMaxPooledBytes(long maxPooledBytes) {
+        if (maxPooledBytes < 0)
+            throw new IllegalArgumentException("invalid max pooled bytes " + maxPooledBytes);
+        this.maxPooledBytes = maxPooledBytes;
+        // the exceeded chunks will be freed when they are allocated and released again
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    // bytes kept in the pool waiting to be allocated
+    public long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    // bytes allocated from the pool and not released yet (leaked buffers are included)
+    public long getInUseBytes() {
+        return inUseBytes;
+    }
+
+    // all direct memory held by the pool
+    public long getAllocatedBytes() {
+        return pooledBytes + inUseBytes;
+    }
+
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    // the action is run when the tracked ring buffer is cleaned, or is collected by gc
+    final class LeakTracker implements Runnable {
+        private final int cap;
+        volatile boolean released = false;
+
+        LeakTracker(int cap) {
+            this.cap = cap;
+        }
+
+        @Override
+        public void run() {
+            if (released)
+                return;
+            leaks.increment();
+            Logger.error(LogType.IMPROPER_USE, "a pooled direct buffer with capacity " + cap + " is collected by gc without being cleaned");
+        }
+    }
+}
@@ -5,6 +5,8 @@ import vproxy.util.RingBuffer;
 import vproxy.util.RingBufferETHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -50,6 +52,9 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
     private int proxyLen;
     private ProxyDoneCallback proxyDoneCallback;
 
+    // views of the defaultBuffer and the proxied buffer for one gathering write
+    private final ByteBuffer[] gatheringViews = new ByteBuffer[4];
+
     private ProxyOutputRingBuffer(SimpleRingBuffer defaultBuffer) {
         this.defaultBuffer = defaultBuffer;
         this.cap = defaultBuffer.capacity();
@@ -60,6 +65,14 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
         return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateDirect(cap));
     }
 
+    public static ProxyOutputRingBuffer allocateDirectPooled(int cap) {
+        return new ProxyOutputRingBuffer(DirectBufferPool.allocateRingBuffer(cap));
+    }
+
+    public static ProxyOutputRingBuffer allocateDirectLazy(int cap) {
+        return new ProxyOutputRingBuffer(DirectBufferPool.allocateLazyRingBuffer(cap));
+    }
+
     public void proxy(RingBuffer proxied, int proxyLen, ProxyDoneCallback cb) {
         if (this.proxied != null)
             throw new IllegalStateException("has a proxied buffer, with proxyLen = " + proxyLen);
@@ -99,16 +112,13 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
             int wrote = proxied.writeTo(channel, toWrite);
             proxyLen -= wrote;
             if (proxyLen == 0) {
-                isProxy = false;
-                proxied.removeHandler(proxiedETHandler);
-                proxied = null;
-                ProxyDoneCallback cb = proxyDoneCallback;
-                proxyDoneCallback = null;
-                assert Logger.lowLevelDebug("proxy end, calling proxy done callback");
-                cb.proxyDone();
+                proxyEnd();
             }
             return wrote;
         } else {
+            if (proxied != null && channel instanceof GatheringByteChannel && proxied instanceof SimpleRingBuffer) {
+                return gatheringWriteTo((GatheringByteChannel) channel, maxBytesToWrite);
+            }
             int wrote = defaultBuffer.writeTo(channel, maxBytesToWrite);
             if (wrote == maxBytesToWrite)
                 return wrote;
@@ -120,6 +130,58 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
         }
     }
 
+    // write the data in defaultBuffer and the proxied data with one gathering write,
+    // the views of the two buffers are taken without nesting the operations,
+    // so the handlers triggered by one buffer are free to operate on the other one
+    private int gatheringWriteTo(GatheringByteChannel channel, int maxBytesToWrite) throws IOException {
+        SimpleRingBuffer proxied = (SimpleRingBuffer) this.proxied;
+        int defaultLen = defaultBuffer.readableViews(maxBytesToWrite, gatheringViews, 0);
+        int defaultBytes = 0;
+        for (int i = 0; i < defaultLen; ++i) {
+            defaultBytes += gatheringViews[i].remaining();
+        }
+        int toProxy = Math.min(maxBytesToWrite - defaultBytes, proxyLen);
+        int proxiedLen = toProxy > 0 ? proxied.readableViews(toProxy, gatheringViews, defaultLen) : 0;
+        int proxiedBytes = 0;
+        for (int i = defaultLen; i < defaultLen + proxiedLen; ++i) {
+            proxiedBytes += gatheringViews[i].remaining();
+        }
+
+        channel.write(gatheringViews, 0, defaultLen + proxiedLen);
+
+        int proxiedLeft = 0;
+        for (int i = defaultLen; i < defaultLen + proxiedLen; ++i) {
+            proxiedLeft += gatheringViews[i].remaining();
+        }
+        int proxiedWrote = proxiedBytes - proxiedLeft;
+        int wrote = defaultBuffer.viewsWritten(gatheringViews, 0, defaultLen);
+        if (defaultBuffer.used() == 0) {
+            assert Logger.lowLevelDebug("wrote all data from defaultBuffer, switch to proxy mode");
+            isProxy = true;
+        }
+        // the state is updated before removing bytes from the proxied buffer,
+        // which may trigger handlers using this buffer
+        proxyLen -= proxiedWrote;
+        proxied.viewsWritten(gatheringViews, defaultLen, proxiedLen);
+        for (int i = 0; i < gatheringViews.length; ++i) {
+            gatheringViews[i] = null;
+        }
+        if (proxiedWrote > 0 && proxyLen == 0 && this.proxied == proxied) {
+            proxyEnd();
+        }
+        return wrote + proxiedWrote;
+    }
+
+    private void proxyEnd() {
+        isProxy = false;
+        proxied.removeHandler(proxiedETHandler);
+        proxied = null;
+        ProxyDoneCallback cb = proxyDoneCallback;
+        proxyDoneCallback = null;
+        assert Logger.lowLevelDebug("proxy end, calling proxy done callback");
+        cb.proxyDone();
+    }
+
     @Override
     public int free() {
         return cap - used();
@@ -129,11 +191,13 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
     public int used() {
         int proxyPart = 0;
         if (proxied != null) {
-            int ret = cap;
-            if (ret > proxyLen) ret = proxyLen;
+            int ret = proxyLen;
             int foo = proxied.used();
             if (ret > foo) ret = foo;
-            return ret; // the minimum of cap, proxyLen, and proxied.used()
+            // the data in defaultBuffer is written before the proxied data
+            ret += defaultBuffer.used();
+            if (ret > cap) ret = cap;
+            return ret; // the minimum of cap, and defaultBuffer.used() + min(proxyLen, proxied.used())
         }
         if (isProxy) {
             return proxyPart;
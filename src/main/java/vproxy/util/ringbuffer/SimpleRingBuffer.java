@@ -1,9 +1,12 @@
 package vproxy.util.ringbuffer;
 
 import vproxy.util.*;
+import vproxy.util.bytearray.ByteBufferByteArray;
 
 import java.io.IOException;
+import java.lang.ref.Cleaner;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
@@ -28,7 +31,13 @@ import java.util.Set;
  * [----------------------ePos,sPos--------]
  */
 public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
+    // used as the buffer for writing out when a lazy buffer has no backing memory
+    private static final ByteBuffer EMPTY_DIRECT_BUFFER = ByteBuffer.allocateDirect(0);
+
     private final boolean isDirect;
+    // the backing memory is borrowed only when data is stored, and returned when drained
+    // the `buffer` field is null when there's no data
+    private final boolean lazy;
     private /*may change after defragment*/ ByteBuffer buffer;
     private int ePos; // end pos
     private int sPos; // start pos
@@ -43,26 +52,85 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
     private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
 
+    // views of `buffer` used for gathering writes
+    private final ByteBuffer[] gatheringViews = new ByteBuffer[2];
+    private ByteBuffer gatheringViewsOf; // the buffer which the views are created from
+
+    // returned by view(), reset on every call
+    private final ByteBufferByteArray view = new ByteBufferByteArray();
+    // a duplicate of `buffer` with the full limit, the limit of `buffer` changes when operating
+    private ByteBuffer viewBuffer;
+    private ByteBuffer viewBufferOf; // the buffer which the viewBuffer is created from
+
+    // the pool and the pooled chunk which the buffer is sliced from
+    // null if it's not allocated from a pool (or a lazy buffer has no data)
+    private DirectBufferPool pool;
+    private ByteBuffer chunk;
+    DirectBufferPool.LeakTracker leakTracker;
+    Cleaner.Cleanable leakCleanable;
+
     public static SimpleRingBuffer allocateDirect(int cap) {
-        return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap), 0, 0);
+        return new SimpleRingBuffer(true, false, ByteBuffer.allocateDirect(cap), cap, 0, 0);
     }
 
     public static SimpleRingBuffer allocate(int cap) {
-        return new SimpleRingBuffer(false, ByteBuffer.allocate(cap), 0, 0);
+        return new SimpleRingBuffer(false, false, ByteBuffer.allocate(cap), cap, 0, 0);
+    }
+
+    static SimpleRingBuffer allocatePooled(DirectBufferPool pool, ByteBuffer chunk, int cap) {
+        SimpleRingBuffer buf = new SimpleRingBuffer(true, false, null, cap, 0, 0);
+        buf.attachChunk(pool, chunk);
+        return buf;
+    }
+
+    static SimpleRingBuffer allocateLazy(int cap) {
+        return new SimpleRingBuffer(true, true, null, cap, 0, 0);
     }
 
     public static SimpleRingBuffer wrap(ByteBuffer b) {
-        return new SimpleRingBuffer(false, b, b.position(), b.limit());
+        return new SimpleRingBuffer(false, false, b, b.capacity(), b.position(), b.limit());
     }
 
-    private SimpleRingBuffer(boolean isDirect, ByteBuffer buffer, int sPos, int ePos) {
+    private SimpleRingBuffer(boolean isDirect, boolean lazy, ByteBuffer buffer, int cap, int sPos, int ePos) {
         this.isDirect = isDirect;
+        this.lazy = lazy;
         this.buffer = buffer;
-        this.cap = buffer.capacity();
+        this.cap = cap;
         this.sPos = sPos;
         this.ePos = ePos;
     }
 
+    private void attachChunk(DirectBufferPool pool, ByteBuffer chunk) {
+        this.pool = pool;
+        this.chunk = chunk;
+        chunk.limit(cap).position(0);
+        this.buffer = chunk.slice();
+        pool.track(this, cap);
+    }
+
+    // borrow memory for a lazy buffer
+    private void ensureBuffer() {
+        if (buffer != null)
+            return;
+        DirectBufferPool pool = DirectBufferPool.current();
+        ByteBuffer chunk = pool == null ? null : pool.acquire(cap);
+        if (chunk == null) {
+            // not on an event loop or cannot be pooled
+            // the memory will be kept until the buffer is cleaned
+            buffer = ByteBuffer.allocateDirect(cap);
+        } else {
+            attachChunk(pool, chunk);
+        }
+    }
+
+    // return the memory of a lazy buffer if it's drained
+    private void releaseBufferIfEmpty() {
+        if (!lazy || pool == null || used() != 0)
+            return;
+        resetCursors();
+        releaseChunk();
+    }
+
     private int storeLimit() {
         if (ePosIsAfterSPos) {
             return cap - ePos; // we can store until capacity
@@ -100,9 +168,38 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (!ePosIsAfterSPos && channel instanceof GatheringByteChannel) {
+            // the data is wrapped, write the two parts with one syscall
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            return operateOnByteBufferGatheringWriteOut(maxBytesToWrite, (bufs, len) -> gathering.write(bufs, 0, len));
+        }
         return operateOnByteBufferWriteOut(maxBytesToWrite, channel::write);
     }
 
+    @Override
+    public ByteArray view(int len) {
+        if (closed || buffer == null || used() < len)
+            return null;
+        if (retrieveLimit() < len)
+            return null; // the bytes wrap to the head of the buffer
+        if (viewBufferOf != buffer) {
+            viewBuffer = buffer.duplicate();
+            viewBuffer.clear();
+            viewBufferOf = buffer;
+        }
+        return view.reset(viewBuffer, sPos, len);
+    }
+
+    @Override
+    public int skip(int len) {
+        try {
+            return operateOnByteBufferWriteOut(len, b -> b.position(b.limit()));
+        } catch (IOException e) {
+            // it's memory operation, should not happen
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public int free() {
         return cap - used();
@@ -189,9 +286,30 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (cleaned)
             return;
         cleaned = true;
-        if (isDirect) {
+        if (pool != null) {
+            releaseChunk();
+        } else if (isDirect && buffer != null) {
             Utils.clean(buffer);
         }
+        if (lazy) {
+            buffer = null;
+        }
+    }
+
+    // return the chunk to the pool, then the buffer is not pooled anymore
+    private void releaseChunk() {
+        if (leakTracker != null) {
+            leakTracker.released = true;
+            leakCleanable.clean();
+            leakTracker = null;
+            leakCleanable = null;
+        }
+        pool.release(chunk);
+        pool = null;
+        chunk = null;
+        if (lazy) {
+            buffer = null;
+        }
     }
 
     // clear the buffer
@@ -256,6 +374,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             // but data can still be sent
             // if (lim == 0)
             //     return 0; // buffer is empty
+            if (buffer == null) {
+                // a lazy buffer without data
+                op.accept(EMPTY_DIRECT_BUFFER);
+                return 0;
+            }
             int realWrite = Math.min(lim, maxBytesToWrite);
             int newLimit = sPos + realWrite;
             buffer.limit(newLimit).position(sPos);
@@ -313,6 +436,122 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             assert Logger.lowLevelNetDebug("after operate write out, sPos=" + sPos);
 
             operatingBuffer = false;
+            releaseBufferIfEmpty(); // all data written
+
+            if (triggerWritable) {
+                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
+    private ByteBuffer gatheringView(int idx) {
+        if (gatheringViewsOf != buffer) {
+            gatheringViews[0] = buffer.duplicate();
+            gatheringViews[1] = buffer.duplicate();
+            gatheringViewsOf = buffer;
+        }
+        return gatheringViews[idx];
+    }
+
+    @Override
+    public int operateOnByteBufferGatheringWriteOut(int maxBytesToWrite, ByteBufferRingBuffer.GatheringWriteOutOp op) throws IOException {
+        if (closed)
+            return 0; // handle nothing because it's closed
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        int len = readableViews(maxBytesToWrite, gatheringViews, 0);
+        operatingBuffer = true;
+        try {
+            op.accept(gatheringViews, len);
+        } finally {
+            operatingBuffer = false;
+        }
+        return viewsWritten(gatheringViews, 0, len);
+    }
+
+    // the limits of the views returned by the last readableViews() call, to check the views when written
+    private int viewLimit0;
+    private int viewLimit1;
+
+    /**
+     * Put views of the readable regions (including the wrapped part) into the array,
+     * the cursors are not moved, and the buffer is not marked as operating,
+     * so it's possible to write the views of more than one buffer with one gathering write
+     * without nesting the operations.
+     * The caller should only move positions of the views, then call {@link #viewsWritten(ByteBuffer[], int, int)}
+     * before doing anything else on this buffer.
+     *
+     * @return count of views put into the array, 0, 1 or 2
+     */
+    int readableViews(int maxBytesToWrite, ByteBuffer[] views, int off) {
+        if (closed || buffer == null || operatingBuffer)
+            return 0; // a lazy buffer without data, or no data can be retrieved now
+        int lim = Math.min(retrieveLimit(), maxBytesToWrite);
+        if (lim <= 0)
+            return 0;
+        ByteBuffer view = gatheringView(0);
+        view.limit(sPos + lim).position(sPos);
+        views[off] = view;
+        viewLimit0 = sPos + lim;
+        if (ePosIsAfterSPos || lim == maxBytesToWrite)
+            return 1;
+        // the first part reaches capacity, and the data wraps to the head
+        int lim2 = Math.min(ePos, maxBytesToWrite - lim);
+        if (lim2 <= 0)
+            return 1;
+        view = gatheringView(1);
+        view.limit(lim2).position(0);
+        views[off + 1] = view;
+        viewLimit1 = lim2;
+        return 2;
+    }
+
+    /**
+     * Remove the bytes written from the views returned by {@link #readableViews(int, ByteBuffer[], int)}.
+     *
+     * @return bytes written
+     */
+    int viewsWritten(ByteBuffer[] views, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        ByteBuffer view = views[off];
+        if (view.limit() != viewLimit0 || (len == 2 && views[off + 1].limit() != viewLimit1)) {
+            // limit of the buffer changed, which is illegal for writing
+            throw new IllegalStateException("should only write out");
+        }
+        boolean firstOperator = isFirstOperate();
+        boolean triggerWritable = false;
+        try {
+            // is for triggering writable event
+            boolean triggerWritablePre = free() == 0;
+
+            int write = view.position() - sPos;
+            sPos += write;
+            if (sPos == cap) {
+                sPos = 0;
+                ePosIsAfterSPos = true;
+            }
+            if (len == 2 && !view.hasRemaining()) {
+                int write2 = views[off + 1].position();
+                sPos += write2;
+                write += write2;
+            }
+            if (retrieveLimit() == 0) {
+                // buffer is empty now
+                resetCursors();
+            }
+            assert Logger.lowLevelNetDebug("after gathering write out, sPos=" + sPos);
+
+            triggerWritable = triggerWritablePre && write > 0;
+            return write;
+        } finally { // do trigger here
+            releaseBufferIfEmpty(); // all data written
+
             if (triggerWritable) {
                 assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
                 for (RingBufferETHandler aHandler : handler) {
@@ -330,6 +569,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (operatingBuffer) {
             throw new IllegalStateException("this buffer is operating");
         }
+        if (lazy) {
+            if (cleaned)
+                return -1; // the memory is already released
+            ensureBuffer();
+        }
 
         boolean firstOperator = isFirstOperate();
         operatingBuffer = true;
@@ -399,6 +643,8 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             assert Logger.lowLevelNetDebug("after operate store in, ePos=" + ePos);
 
             operatingBuffer = false;
+            releaseBufferIfEmpty(); // nothing stored
+
             if (triggerReadable) {
                 assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
                 for (RingBufferETHandler aHandler : handler) {
@@ -445,7 +691,9 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             newBuffer.put(buffer);
         }
 
-        if (isDirect) {
+        if (pool != null) {
+            releaseChunk(); // the new buffer is not pooled
+        } else if (isDirect) {
             Utils.clean(buffer); // clean the old buffer
         }
 
@@ -0,0 +1,187 @@
+package vproxy.bench;
+
+import vproxy.connection.*;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.RingBuffer;
+import vproxy.util.Tuple;
+import vproxy.util.ByteArrayChannel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure accept-to-first-byte latency:
+ * an acceptor loop accepts connections and hands them to worker loops (cross-thread registration),
+ * the worker sends one byte as soon as the connection is registered.
+ * The client opens new connections at a fixed rate and records the time
+ * from connect() to receiving the first byte.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.AcceptLatencyBenchmark [connectionsPerSecond] [seconds] [workers]
+ */
+public class AcceptLatencyBenchmark {
+    private static final int PORT = 19581;
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int workerCount = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        SelectorEventLoop acceptor = SelectorEventLoop.open();
+        NetEventLoop[] workers = new NetEventLoop[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            SelectorEventLoop loop = SelectorEventLoop.open();
+            loop.loop(r -> new Thread(r, "worker"));
+            workers[i] = new NetEventLoop(loop);
+        }
+        BindServer server = BindServer.create(new InetSocketAddress(PORT));
+        new NetEventLoop(acceptor).addServer(server, null, new AcceptorHandler(workers));
+        acceptor.loop(r -> new Thread(r, "acceptor"));
+
+        long[] latencies = runClient(rate, seconds);
+        Arrays.sort(latencies);
+        System.out.println("connections: " + latencies.length + " (target " + rate * seconds + ")");
+        if (latencies.length > 0) {
+            System.out.println("accept-to-first-byte: p50 " + latencies[latencies.length / 2] / 1000 + "us"
+                + " p99 " + latencies[(int) (latencies.length * 0.99)] / 1000 + "us"
+                + " p999 " + latencies[(int) (latencies.length * 0.999)] / 1000 + "us");
+        }
+        for (NetEventLoop w : workers) {
+            SelectorEventLoop loop = w.getSelectorEventLoop();
+            System.out.println("worker: wakeups " + loop.getWakeupsIssued() + " suppressed " + loop.getWakeupsSuppressed());
+        }
+
+        acceptor.close();
+        for (NetEventLoop w : workers) {
+            w.getSelectorEventLoop().close();
+        }
+        server.close();
+    }
+
+    private static long[] runClient(int rate, int seconds) throws IOException {
+        Selector selector = Selector.open();
+        InetSocketAddress remote = new InetSocketAddress("127.0.0.1", PORT);
+        long total = (long) rate * seconds;
+        long[] latencies = new long[(int) total];
+        int done = 0;
+        long started = 0;
+        long begin = System.nanoTime();
+        long deadline = begin + (seconds + 5) * 1_000_000_000L;
+        ByteBuffer buf = ByteBuffer.allocate(1);
+
+        while (done < started || started < total) {
+            long now = System.nanoTime();
+            if (now > deadline)
+                break;
+            // open connections to keep up with the rate
+            long expected = Math.min(total, (now - begin) * rate / 1_000_000_000L);
+            while (started < expected) {
+                SocketChannel sock = SocketChannel.open();
+                sock.configureBlocking(false);
+                sock.setOption(StandardSocketOptions.SO_LINGER, 0);
+                long start = System.nanoTime();
+                sock.connect(remote);
+                sock.register(selector, SelectionKey.OP_CONNECT | SelectionKey.OP_READ, new long[]{start});
+                ++started;
+            }
+            selector.select(1);
+            Iterator<SelectionKey> ite = selector.selectedKeys().iterator();
+            while (ite.hasNext()) {
+                SelectionKey key = ite.next();
+                ite.remove();
+                SocketChannel sock = (SocketChannel) key.channel();
+                if (key.isConnectable()) {
+                    try {
+                        sock.finishConnect();
+                    } catch (IOException e) {
+                        key.cancel();
+                        sock.close();
+                        continue;
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                } else if (key.isReadable()) {
+                    buf.clear();
+                    int n;
+                    try {
+                        n = sock.read(buf);
+                    } catch (IOException e) {
+                        n = -1;
+                    }
+                    if (n > 0) {
+                        latencies[done++] = System.nanoTime() - ((long[]) key.attachment())[0];
+                    }
+                    key.cancel();
+                    sock.close();
+                }
+            }
+        }
+        selector.close();
+        return Arrays.copyOf(latencies, done);
+    }
+
+    private static class AcceptorHandler implements ServerHandler {
+        private final NetEventLoop[] workers;
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        AcceptorHandler(NetEventLoop[] workers) {
+            this.workers = workers;
+        }
+
+        @Override
+        public void acceptFail(ServerHandlerContext ctx, IOException err) {
+            err.printStackTrace();
+        }
+
+        @Override
+        public void connection(ServerHandlerContext ctx, Connection connection) {
+            // the first byte is stored in the out buffer before registering
+            // so it will be written once the worker loop applies the registration
+            connection.getOutBuffer().storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{1}));
+            NetEventLoop worker = workers[Math.abs(cursor.getAndIncrement() % workers.length)];
+            try {
+                worker.addConnection(connection, null, new WorkerHandler());
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+
+        @Override
+        public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
+            return new Tuple<>(RingBuffer.allocate(16), RingBuffer.allocate(16));
+        }
+
+        @Override
+        public void removed(ServerHandlerContext ctx) {
+            ctx.server.close();
+        }
+    }
+
+    private static class WorkerHandler implements ConnectionHandler {
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            ctx.connection.close();
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            ctx.connection.close();
+        }
+    }
+}
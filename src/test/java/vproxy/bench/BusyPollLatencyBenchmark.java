@@ -0,0 +1,138 @@
+package vproxy.bench;
+
+import vproxy.connection.*;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.RingBuffer;
+import vproxy.util.Tuple;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measure request/response latency against an echo server running on a SelectorEventLoop,
+ * with busy poll disabled and enabled, at low and medium request rates.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.BusyPollLatencyBenchmark [busyPollMicros] [requests]
+ */
+public class BusyPollLatencyBenchmark {
+    private static final int PORT = 19580;
+
+    public static void main(String[] args) throws Exception {
+        int busyPoll = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        NetEventLoop netEventLoop = new NetEventLoop(loop);
+        BindServer server = BindServer.create(new InetSocketAddress(PORT));
+        netEventLoop.addServer(server, null, new EchoServerHandler());
+        loop.loop(r -> new Thread(r, "echo-server"));
+
+        // low: 1k req/s, medium: 10k req/s
+        int[] intervalMicros = {1000, 100};
+        String[] names = {"low", "medium"};
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("127.0.0.1", PORT))) {
+            client.socket().setTcpNoDelay(true);
+            run(client, 5_000, 100); // warm up
+
+            for (int i = 0; i < intervalMicros.length; ++i) {
+                loop.setBusyPoll(0);
+                long[] off = run(client, requests, intervalMicros[i]);
+                loop.setBusyPoll(busyPoll);
+                long[] on = run(client, requests, intervalMicros[i]);
+                System.out.println(names[i] + " load (" + (1_000_000 / intervalMicros[i]) + " req/s)");
+                print("  busy-poll off", off);
+                print("  busy-poll " + busyPoll + "us", on);
+                System.out.println("  busy poll hits/misses: " + loop.getBusyPollHits() + "/" + loop.getBusyPollMisses());
+            }
+        }
+        loop.close();
+        server.close();
+    }
+
+    private static long[] run(SocketChannel client, int requests, int intervalMicros) throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(64);
+        ByteBuffer in = ByteBuffer.allocate(64);
+        long[] costs = new long[requests];
+        for (int i = 0; i < requests; ++i) {
+            out.clear();
+            in.clear();
+            long start = System.nanoTime();
+            while (out.hasRemaining()) {
+                client.write(out);
+            }
+            while (in.hasRemaining()) {
+                if (client.read(in) < 0)
+                    throw new Exception("unexpected eof");
+            }
+            long end = System.nanoTime();
+            costs[i] = end - start;
+            LockSupport.parkNanos(intervalMicros * 1000L - (System.nanoTime() - start));
+        }
+        Arrays.sort(costs);
+        return costs;
+    }
+
+    private static void print(String name, long[] sorted) {
+        System.out.println(name + ": p50 " + sorted[sorted.length / 2] / 1000 + "us"
+            + " p99 " + sorted[(int) (sorted.length * 0.99)] / 1000 + "us"
+            + " p999 " + sorted[(int) (sorted.length * 0.999)] / 1000 + "us");
+    }
+
+    private static class EchoServerHandler implements ServerHandler {
+        @Override
+        public void acceptFail(ServerHandlerContext ctx, IOException err) {
+            err.printStackTrace();
+        }
+
+        @Override
+        public void connection(ServerHandlerContext ctx, Connection connection) {
+            try {
+                ctx.eventLoop.addConnection(connection, null, new EchoConnectionHandler());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
+            RingBuffer buffer = RingBuffer.allocateDirect(1024);
+            return new Tuple<>(buffer, buffer); // the same buffer for input and output, so it echoes
+        }
+
+        @Override
+        public void removed(ServerHandlerContext ctx) {
+            ctx.server.close();
+        }
+    }
+
+    private static class EchoConnectionHandler implements ConnectionHandler {
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            // the input and output buffer are the same
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            // the input and output buffer are the same
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            ctx.connection.close();
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            ctx.connection.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package vproxy.bench;
+
+import com.twitter.hpack.Encoder;
+import vproxy.processor.Processor;
+import vproxy.processor.http2.Http2Context;
+import vproxy.processor.http2.Http2Processor;
+import vproxy.processor.http2.Http2SubContext;
+import vproxy.util.ByteArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+
+/**
+ * Measure frames per second and allocated bytes per frame of the http/2 processor (the non-multiplexing path).
+ * The processor is driven the way the ProcessorConnectionHandler does:
+ * the frame parts are fed in handle mode and skipped in proxy mode,
+ * each fed part is sliced from the input like the handler does.
+ * <p>
+ * unary: each grpc call has request HEADERS and DATA, and response HEADERS, DATA and trailers HEADERS.
+ * streaming: one grpc call with many DATA frames in both directions.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.Http2FrameBenchmark [calls] [streamingMessages]
+ */
+public class Http2FrameBenchmark {
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 80);
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private static final byte[] MESSAGE = new byte[64]; // a small grpc message
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+
+        for (int i = 0; i < 3; ++i) {
+            unary(calls);
+            streaming(messages);
+        }
+    }
+
+    private static void unary(int calls) throws Exception {
+        Encoder clientEncoder = new Encoder(4096);
+        Encoder serverEncoder = new Encoder(0); // vproxy sets the table size of backend to 0
+        ByteArrayOutputStream front = new ByteArrayOutputStream();
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        int frames = 0;
+        for (int i = 0; i < calls; ++i) {
+            int streamId = i * 2 + 1;
+            frame(front, 1, 0x4, streamId, requestHeaders(clientEncoder, i));
+            frame(front, 0, 0x1, streamId, MESSAGE);
+            frame(back, 1, 0x4, streamId, block(serverEncoder, ":status", "200", "content-type", "application/grpc"));
+            frame(back, 0, 0, streamId, MESSAGE);
+            frame(back, 1, 0x5, streamId, block(serverEncoder, "grpc-status", "0"));
+            frames += 5;
+        }
+        run("unary", front.toByteArray(), back.toByteArray(), frames);
+    }
+
+    private static void streaming(int messages) throws Exception {
+        Encoder clientEncoder = new Encoder(4096);
+        Encoder serverEncoder = new Encoder(0);
+        ByteArrayOutputStream front = new ByteArrayOutputStream();
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        frame(front, 1, 0x4, 1, requestHeaders(clientEncoder, 0));
+        frame(back, 1, 0x4, 1, block(serverEncoder, ":status", "200", "content-type", "application/grpc"));
+        for (int i = 0; i < messages; ++i) {
+            frame(front, 0, 0, 1, MESSAGE);
+            frame(back, 0, 0, 1, MESSAGE);
+        }
+        run("streaming", front.toByteArray(), back.toByteArray(), messages * 2 + 2);
+    }
+
+    private static void run(String name, byte[] frontBytes, byte[] backBytes, int frames) throws Exception {
+        Http2Processor processor = new Http2Processor();
+        Http2Context ctx = processor.init(ADDRESS);
+        Http2SubContext frontend = processor.initSub(ctx, 0, ADDRESS);
+        Http2SubContext backend = processor.initSub(ctx, 1, ADDRESS);
+
+        // handshake
+        ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+        handshake.write(PREFACE);
+        frame(handshake, 4, 0, 0, new byte[0]);
+        drive(processor, ctx, frontend, backend, handshake.toByteArray());
+        handshake.reset();
+        frame(handshake, 4, 0, 0, new byte[0]);
+        frame(handshake, 4, 0x1, 0, new byte[0]);
+        drive(processor, ctx, backend, null, handshake.toByteArray());
+        handshake.reset();
+        frame(handshake, 4, 0x1, 0, new byte[0]);
+        drive(processor, ctx, frontend, backend, handshake.toByteArray());
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long allocBegin = mx.getThreadAllocatedBytes(tid);
+        long begin = System.nanoTime();
+        // the frontend and backend bytes are fed alternately in chunks, like two connections
+        int chunk = 16384;
+        int frontOff = 0;
+        int backOff = 0;
+        ByteArray frontArr = ByteArray.from(frontBytes);
+        ByteArray backArr = ByteArray.from(backBytes);
+        while (frontOff < frontBytes.length || backOff < backBytes.length) {
+            if (frontOff < frontBytes.length) {
+                int end = Math.min(frontBytes.length, frontOff + chunk);
+                frontOff = feed(processor, ctx, frontend, backend, frontArr, frontOff, end);
+            }
+            if (backOff < backBytes.length) {
+                int end = Math.min(backBytes.length, backOff + chunk);
+                backOff = feed(processor, ctx, backend, null, backArr, backOff, end);
+            }
+        }
+        long cost = System.nanoTime() - begin;
+        long alloc = mx.getThreadAllocatedBytes(tid) - allocBegin;
+        System.out.println(name + ": " + frames + " frames, " + (long) (frames / (cost / 1_000_000_000d)) + " frames/s, "
+            + alloc / frames + " bytes allocated per frame");
+    }
+
+    private static void drive(Processor<Http2Context, Http2SubContext> processor, Http2Context ctx,
+                              Http2SubContext sub, Http2SubContext backend, byte[] bytes) throws Exception {
+        int off = feed(processor, ctx, sub, backend, ByteArray.from(bytes), 0, bytes.length);
+        if (off != bytes.length)
+            throw new IllegalStateException("the handshake is not fully consumed");
+    }
+
+    // feed the bytes in [off, end), return the offset of the first byte not consumed
+    private static int feed(Processor<Http2Context, Http2SubContext> processor, Http2Context ctx,
+                            Http2SubContext sub, Http2SubContext backend, ByteArray input, int off, int end) throws Exception {
+        while (true) {
+            int len = processor.len(ctx, sub);
+            if (processor.mode(ctx, sub) == Processor.Mode.proxy) {
+                // proxy mode never splits a frame in this benchmark, the whole part must be available
+                if (off + len > end)
+                    return off;
+                off += len;
+                processor.proxyDone(ctx, sub);
+                continue;
+            }
+            if (off + len > end)
+                return off;
+            processor.feed(ctx, sub, input.sub(off, len));
+            processor.produce(ctx, sub);
+            off += len;
+            if (backend != null && processor.connection(ctx, sub) == -1) {
+                // the frontend stream is dispatched to the only backend
+                processor.chosen(ctx, sub, backend);
+            }
+        }
+    }
+
+    private static byte[] requestHeaders(Encoder encoder, int i) throws IOException {
+        return block(encoder,
+            ":method", "POST",
+            ":scheme", "http",
+            ":path", "/helloworld.Greeter/SayHello",
+            ":authority", "greeter.service.example.com:50051",
+            "content-type", "application/grpc",
+            "te", "trailers",
+            "user-agent", "grpc-java-netty/1.24.0",
+            "x-request-id", "7f1c2f5e-8a3b-4b8e-9e61-" + (100000000000L + i));
+    }
+
+    private static byte[] block(Encoder encoder, String... kv) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < kv.length; i += 2) {
+            encoder.encodeHeader(out, kv[i].getBytes(), kv[i + 1].getBytes(), false);
+        }
+        return out.toByteArray();
+    }
+
+    private static void frame(ByteArrayOutputStream out, int type, int flags, int streamId, byte[] payload) {
+        out.write(payload.length >> 16);
+        out.write(payload.length >> 8);
+        out.write(payload.length);
+        out.write(type);
+        out.write(flags);
+        out.write(streamId >> 24);
+        out.write(streamId >> 16);
+        out.write(streamId >> 8);
+        out.write(streamId);
+        out.write(payload, 0, payload.length);
+    }
+}
@@ -0,0 +1,77 @@
+package vproxy.bench;
+
+import vproxy.http.HttpReqParser;
+import vproxy.http.h1.HttpParser;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compare the offset based HttpParser with the StringBuilder based HttpReqParser
+ * on typical browser-like requests (request line and 10 headers).
+ * Each round stores one request into a ring buffer and parses it,
+ * the HttpParser also reads the Host header to make sure the result is usable.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.HttpParserBenchmark [rounds]
+ */
+public class HttpParserBenchmark {
+    private static final String REQUEST = "GET /api/v1/items?page=2&size=50 HTTP/1.1\r\n" +
+        "Host: www.example.com\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/76.0 Safari/537.36\r\n" +
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8\r\n" +
+        "Accept-Encoding: gzip, deflate, br\r\n" +
+        "Accept-Language: en-US,en;q=0.9\r\n" +
+        "Cache-Control: no-cache\r\n" +
+        "Connection: keep-alive\r\n" +
+        "Cookie: session=0123456789abcdef0123456789abcdef; theme=dark; lang=en\r\n" +
+        "Referer: https://www.example.com/items\r\n" +
+        "X-Request-Id: 7f1c2f5e-8a3b-4b8e-9e61-1d2c3b4a5f6e\r\n" +
+        "\r\n";
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        byte[] bytes = REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+        System.out.println("request: " + bytes.length + " bytes");
+
+        for (int i = 0; i < 3; ++i) {
+            runOld(bytes, rounds);
+            runNew(bytes, rounds);
+        }
+    }
+
+    private static void runOld(byte[] bytes, int rounds) {
+        RingBuffer buffer = RingBuffer.allocateDirect(16384);
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; ++r) {
+            buffer.storeBytesFrom(ByteArrayChannel.fromFull(bytes));
+            HttpReqParser parser = new HttpReqParser(false);
+            if (parser.feed(buffer) != 0)
+                throw new IllegalStateException(parser.getErrorMessage());
+        }
+        report("HttpReqParser", System.nanoTime() - begin, rounds, bytes.length);
+    }
+
+    private static void runNew(byte[] bytes, int rounds) {
+        RingBuffer buffer = RingBuffer.allocateDirect(16384);
+        HttpParser parser = new HttpParser(true);
+        int hostLen = 0;
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; ++r) {
+            buffer.storeBytesFrom(ByteArrayChannel.fromFull(bytes));
+            parser.reset();
+            if (parser.feed(buffer) != HttpParser.HEAD)
+                throw new IllegalStateException(parser.getErrorMessage());
+            hostLen += parser.headerValueLength(parser.indexOfHeader("host"));
+        }
+        report("HttpParser   ", System.nanoTime() - begin, rounds, bytes.length);
+        if (hostLen == 0)
+            throw new IllegalStateException();
+    }
+
+    private static void report(String name, long cost, int rounds, int len) {
+        System.out.println(name + ": " + rounds + " requests in " + cost / 1_000_000 + "ms, "
+            + (cost / rounds) + " ns/request, "
+            + String.format("%.1f", (double) len * rounds * 1000.0 / cost) + " MB/s");
+    }
+}
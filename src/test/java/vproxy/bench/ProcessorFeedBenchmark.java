@@ -0,0 +1,191 @@
+package vproxy.bench;
+
+import vproxy.processor.Processor;
+import vproxy.processor.dubbo.DubboProcessor;
+import vproxy.processor.http2.Http2Context;
+import vproxy.processor.http2.Http2Processor;
+import vproxy.processor.http2.Http2SubContext;
+import vproxy.util.ByteArray;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+
+/**
+ * Measure allocated bytes per frame when feeding the processors from the input ring buffer,
+ * with the data copied into a new array (the old way), and with a view of the ring buffer.
+ * The input and output buffers are handled the way the ProcessorConnectionHandler does:
+ * the heads are fed in handle mode, the payloads are skipped in proxy mode,
+ * and the data returned from the processor is stored into the output buffer.
+ * <p>
+ * dubbo: 16 bytes heads with 48 bytes payloads.
+ * h2: DATA frames (9 bytes heads with 64 bytes payloads) from the backend.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.ProcessorFeedBenchmark [frames]
+ */
+public class ProcessorFeedBenchmark {
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 80);
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        byte[] dubbo = dubboFrames(frames);
+        byte[] h2 = h2Frames(frames);
+        for (int i = 0; i < 3; ++i) {
+            for (boolean useView : new boolean[]{false, true}) {
+                dubbo(dubbo, frames, useView);
+                h2(h2, frames, useView);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void dubbo(byte[] input, int frames, boolean useView) throws Exception {
+        Processor processor = new DubboProcessor();
+        Processor.Context ctx = processor.init(ADDRESS);
+        Processor.SubContext sub = processor.initSub(ctx, 0, ADDRESS);
+        run("dubbo", processor, ctx, sub, input, frames, useView);
+    }
+
+    private static void h2(byte[] input, int frames, boolean useView) throws Exception {
+        Http2Processor processor = new Http2Processor();
+        Http2Context ctx = processor.init(ADDRESS);
+        Http2SubContext frontend = processor.initSub(ctx, 0, ADDRESS);
+        Http2SubContext backend = processor.initSub(ctx, 1, ADDRESS);
+
+        // handshake
+        ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+        handshake.write(PREFACE);
+        frame(handshake, 4, 0, 0, new byte[0]);
+        drive(processor, ctx, frontend, handshake.toByteArray());
+        handshake.reset();
+        frame(handshake, 4, 0, 0, new byte[0]);
+        frame(handshake, 4, 0x1, 0, new byte[0]);
+        drive(processor, ctx, backend, handshake.toByteArray());
+
+        run("h2", processor, ctx, backend, input, frames, useView);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void run(String name, Processor processor, Processor.Context ctx, Processor.SubContext sub,
+                            byte[] input, int frames, boolean useView) throws Exception {
+        RingBuffer in = RingBuffer.allocateDirect(16384);
+        RingBuffer out = RingBuffer.allocateDirect(16384);
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long allocBegin = mx.getThreadAllocatedBytes(tid);
+        long begin = System.nanoTime();
+
+        ByteArrayChannel chnl = ByteArrayChannel.fromFull(input);
+        int proxyLeft = 0;
+        long checksum = 0; // the output of both ways should be the same
+        while (chnl.used() != 0 || in.used() != 0) {
+            in.storeBytesFrom(chnl);
+            while (true) {
+                if (proxyLeft > 0) {
+                    proxyLeft -= in.skip(proxyLeft);
+                    if (proxyLeft > 0)
+                        break; // wait for more data
+                    processor.proxyDone(ctx, sub);
+                    continue;
+                }
+                if (processor.mode(ctx, sub) == Processor.Mode.proxy) {
+                    proxyLeft = processor.len(ctx, sub);
+                    if (proxyLeft == 0) {
+                        processor.proxyDone(ctx, sub);
+                    }
+                    continue;
+                }
+                int len = processor.len(ctx, sub, in);
+                if (in.used() < len)
+                    break; // wait for more data
+                ByteArray view = useView && processor.acceptsView(ctx, sub) ? in.view(len) : null;
+                ByteArray data;
+                if (view == null) {
+                    ByteArrayChannel c = ByteArrayChannel.fromEmpty(new byte[len]);
+                    in.writeTo(c);
+                    data = ByteArray.from(c.get());
+                } else {
+                    data = view;
+                }
+                ByteArray ret = processor.feed(ctx, sub, data);
+                if (view != null) {
+                    if (ret == view) {
+                        ret = view.copy();
+                    }
+                    in.skip(len);
+                }
+                if (ret != null) {
+                    for (int i = 0; i < ret.length(); ++i) {
+                        checksum = checksum * 31 + ret.get(i);
+                    }
+                    out.storeBytesFrom(ret.toChannel());
+                    out.skip(out.used());
+                }
+            }
+        }
+
+        long cost = System.nanoTime() - begin;
+        long alloc = mx.getThreadAllocatedBytes(tid) - allocBegin;
+        System.out.println(name + (useView ? " view" : " copy") + ": " + frames + " frames, "
+            + (long) (frames / (cost / 1_000_000_000d)) + " frames/s, "
+            + alloc / frames + " bytes allocated per frame, checksum " + checksum);
+    }
+
+    private static void drive(Processor<Http2Context, Http2SubContext> processor, Http2Context ctx,
+                              Http2SubContext sub, byte[] bytes) throws Exception {
+        ByteArray input = ByteArray.from(bytes);
+        int off = 0;
+        while (off < bytes.length) {
+            int len = processor.len(ctx, sub);
+            if (processor.mode(ctx, sub) == Processor.Mode.proxy) {
+                off += len;
+                processor.proxyDone(ctx, sub);
+                continue;
+            }
+            processor.feed(ctx, sub, input.sub(off, len));
+            processor.produce(ctx, sub);
+            off += len;
+        }
+    }
+
+    private static byte[] dubboFrames(int frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] head = new byte[16];
+        head[0] = (byte) 0xda;
+        head[1] = (byte) 0xbb;
+        head[15] = 48; // the payload length
+        byte[] payload = new byte[48];
+        for (int i = 0; i < frames; ++i) {
+            out.write(head, 0, head.length);
+            out.write(payload, 0, payload.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] h2Frames(int frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] payload = new byte[64];
+        for (int i = 0; i < frames; ++i) {
+            frame(out, 0, 0, 1, payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static void frame(ByteArrayOutputStream out, int type, int flags, int streamId, byte[] payload) {
+        out.write(payload.length >> 16);
+        out.write(payload.length >> 8);
+        out.write(payload.length);
+        out.write(type);
+        out.write(flags);
+        out.write(streamId >> 24);
+        out.write(streamId >> 16);
+        out.write(streamId >> 8);
+        out.write(streamId);
+        out.write(payload, 0, payload.length);
+    }
+}
@@ -0,0 +1,167 @@
+package vproxy.bench;
+
+import vproxy.redis.RESPParser;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+import vproxy.util.RingBufferETHandler;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Compare the bulk scanning RESPParser with the byte-at-a-time path
+ * on pipelined SET/MGET traffic:
+ * a batch of commands is stored into a ring buffer (which wraps after the first rounds),
+ * and commands are parsed one by one until the buffer is drained.
+ * <p>
+ * The byte-at-a-time path is used when the buffer cannot be operated directly,
+ * so the baseline wraps the ring buffer with a plain {@link RingBuffer}.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.RESPParserBenchmark [rounds] [valueSize]
+ */
+public class RESPParserBenchmark {
+    private static final int BUFFER_SIZE = 16384;
+    private static final int PIPELINE = 32;
+
+    // hide the ByteBufferRingBuffer interface to force the byte-at-a-time path
+    private static class PlainRingBuffer implements RingBuffer {
+        private final SimpleRingBuffer buf;
+
+        PlainRingBuffer(SimpleRingBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+            return buf.storeBytesFrom(channel);
+        }
+
+        @Override
+        public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+            return buf.writeTo(channel, maxBytesToWrite);
+        }
+
+        @Override
+        public int free() {
+            return buf.free();
+        }
+
+        @Override
+        public int used() {
+            return buf.used();
+        }
+
+        @Override
+        public int capacity() {
+            return buf.capacity();
+        }
+
+        @Override
+        public void addHandler(RingBufferETHandler h) {
+            buf.addHandler(h);
+        }
+
+        @Override
+        public void removeHandler(RingBufferETHandler h) {
+            buf.removeHandler(h);
+        }
+
+        @Override
+        public Set<RingBufferETHandler> getHandlers() {
+            return buf.getHandlers();
+        }
+
+        @Override
+        public void close() {
+            buf.close();
+        }
+
+        @Override
+        public void clean() {
+            buf.clean();
+        }
+
+        @Override
+        public void clear() {
+            buf.clear();
+        }
+    }
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        byte[] batch = buildBatch(valueSize);
+        System.out.println("batch: " + PIPELINE + " commands, " + batch.length + " bytes");
+
+        for (int i = 0; i < 3; ++i) {
+            run("byte-at-a-time", true, batch, rounds);
+            run("bulk-scan     ", false, batch, rounds);
+        }
+    }
+
+    private static byte[] buildBatch(int valueSize) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < valueSize; ++i) {
+            value.append((char) ('a' + i % 26));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PIPELINE; ++i) {
+            if (i % 2 == 0) {
+                String key = "key:" + i;
+                sb.append("*3\r\n$3\r\nSET\r\n")
+                    .append("$").append(key.length()).append("\r\n").append(key).append("\r\n")
+                    .append("$").append(value.length()).append("\r\n").append(value).append("\r\n");
+            } else {
+                sb.append("*11\r\n$4\r\nMGET\r\n");
+                for (int k = 0; k < 10; ++k) {
+                    String key = "key:" + (i * 10 + k);
+                    sb.append("$").append(key.length()).append("\r\n").append(key).append("\r\n");
+                }
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void run(String name, boolean byteAtATime, byte[] batch, int rounds) {
+        SimpleRingBuffer simple = RingBuffer.allocateDirect(BUFFER_SIZE);
+        RingBuffer buffer = byteAtATime ? new PlainRingBuffer(simple) : simple;
+        long bytes = 0;
+        int commands = 0;
+
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; ++r) {
+            ByteArrayChannel chnl = ByteArrayChannel.fromFull(batch);
+            while (chnl.used() != 0) {
+                bytes += buffer.storeBytesFrom(chnl);
+                while (true) {
+                    RESPParser parser = new RESPParser(BUFFER_SIZE);
+                    int res = parser.feed(buffer);
+                    if (res != 0) {
+                        if (parser.getErrorMessage() != null)
+                            throw new IllegalStateException(parser.getErrorMessage());
+                        // incomplete command, the bytes are consumed by the parser
+                        // so feed the same parser again after storing more data
+                        bytes += buffer.storeBytesFrom(chnl);
+                        while (parser.feed(buffer) != 0) {
+                            if (parser.getErrorMessage() != null)
+                                throw new IllegalStateException(parser.getErrorMessage());
+                            bytes += buffer.storeBytesFrom(chnl);
+                        }
+                    }
+                    ++commands;
+                    if (buffer.used() == 0)
+                        break;
+                }
+            }
+        }
+        long cost = System.nanoTime() - begin;
+        System.out.println(name + ": " + commands + " commands in " + cost / 1_000_000 + "ms, "
+            + (cost / commands) + " ns/command, "
+            + String.format("%.1f", bytes * 1000.0 / cost) + " MB/s");
+    }
+}
@@ -0,0 +1,207 @@
+package vproxy.bench;
+
+import vproxy.component.proxy.ConnectorGen;
+import vproxy.component.proxy.Proxy;
+import vproxy.component.proxy.RESPClusterConfig;
+import vproxy.component.proxy.ProxyNetConfig;
+import vproxy.connection.BindServer;
+import vproxy.connection.Connection;
+import vproxy.connection.Connector;
+import vproxy.connection.NetEventLoop;
+import vproxy.processor.resp.RESPHashSlot;
+import vproxy.selector.SelectorEventLoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the resp proxy with and without backend multiplexing:
+ * many clients send small commands one at a time (no client side pipelining) through the proxy
+ * to a fake redis node, which counts its connections and read syscalls.
+ * With multiplexing, the commands arriving in the same event loop iteration are pipelined
+ * on one backend connection and written together, so the node reads many commands per syscall.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.RESPPipelineBenchmark [clients] [commandsPerClient] [rounds]
+ */
+public class RESPPipelineBenchmark {
+    private static final int NODE_PORT = 19691;
+    private static final int PROXY_PORT = 19692;
+
+    private static final byte[] COMMAND = "*2\r\n$3\r\nGET\r\n$3\r\nkey\r\n".getBytes();
+    private static final byte[] REPLY = "$5\r\nvalue\r\n".getBytes();
+
+    private static final AtomicLong nodeConnections = new AtomicLong();
+    private static final AtomicLong nodeReads = new AtomicLong();
+    private static final AtomicLong nodeCommands = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        ServerSocket node = new ServerSocket(NODE_PORT);
+        Thread nodeThread = new Thread(() -> runNode(node), "node");
+        nodeThread.setDaemon(true);
+        nodeThread.start();
+
+        // warm up
+        run(false, clients, commands / 4);
+        run(true, clients, commands / 4);
+
+        for (int i = 0; i < rounds; ++i) {
+            for (boolean multiplexing : new boolean[]{false, true}) {
+                nodeConnections.set(0);
+                nodeReads.set(0);
+                nodeCommands.set(0);
+                long cost = run(multiplexing, clients, commands);
+                long total = (long) clients * commands;
+                System.out.println((multiplexing ? "multiplexing   " : "no-multiplexing") + ": "
+                    + total + " commands in " + cost / 1_000_000 + "ms, "
+                    + String.format("%.0f", total * 1_000_000_000.0 / cost) + " QPS, "
+                    + "node connections: " + nodeConnections.get() + ", node reads: " + nodeReads.get() + ", "
+                    + String.format("%.2f", nodeCommands.get() / (double) nodeReads.get()) + " commands per read");
+            }
+        }
+        node.close();
+    }
+
+    private static long run(boolean multiplexing, int clients, int commands) throws Exception {
+        InetSocketAddress nodeAddress = new InetSocketAddress("127.0.0.1", NODE_PORT);
+        InetSocketAddress[] slots = new InetSocketAddress[RESPHashSlot.SLOTS];
+        Arrays.fill(slots, nodeAddress);
+        RESPClusterConfig respClusterConfig = new RESPClusterConfig() {
+            @Override
+            public InetSocketAddress[] staticSlots() {
+                return slots;
+            }
+
+            @Override
+            public boolean backendMultiplexing() {
+                return multiplexing;
+            }
+        };
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        NetEventLoop netLoop = new NetEventLoop(loop);
+        BindServer server = BindServer.create(new InetSocketAddress(PROXY_PORT));
+        Proxy proxy = new Proxy(new ProxyNetConfig()
+            .setAcceptLoop(netLoop)
+            .setHandleLoopProvider(() -> netLoop)
+            .setServer(server)
+            .setConnGen(new ConnectorGen() {
+                @Override
+                public Type type() {
+                    return Type.respCluster;
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted) {
+                    return new Connector(nodeAddress);
+                }
+
+                @Override
+                public RESPClusterConfig respClusterConfig() {
+                    return respClusterConfig;
+                }
+            })
+            .setInBufferSize(16384)
+            .setOutBufferSize(16384),
+            s -> {
+            });
+        proxy.handle();
+        loop.loop(r -> new Thread(r, "proxy"));
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < clients; ++i) {
+            Socket socket = new Socket("127.0.0.1", PROXY_PORT);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (Socket socket : sockets) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    runClient(socket, commands);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long cost = System.nanoTime() - begin;
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        proxy.stop();
+        Thread.sleep(500); // let the loop handle the closed connections
+        server.close();
+        loop.close();
+        return cost;
+    }
+
+    private static void runClient(Socket socket, int commands) throws IOException {
+        OutputStream output = socket.getOutputStream();
+        InputStream input = socket.getInputStream();
+        byte[] buf = new byte[REPLY.length];
+        for (int i = 0; i < commands; ++i) {
+            output.write(COMMAND);
+            int n = 0;
+            while (n < buf.length) {
+                int r = input.read(buf, n, buf.length - n);
+                if (r < 0) {
+                    throw new IOException("closed by the proxy");
+                }
+                n += r;
+            }
+        }
+    }
+
+    // replies to every command, all commands have the same length
+    private static void runNode(ServerSocket node) {
+        while (true) {
+            Socket sock;
+            try {
+                sock = node.accept();
+            } catch (IOException e) {
+                return;
+            }
+            nodeConnections.incrementAndGet();
+            new Thread(() -> {
+                byte[] buf = new byte[65536];
+                byte[] replies = new byte[buf.length / COMMAND.length * REPLY.length + REPLY.length];
+                int pending = 0; // bytes of the incomplete command
+                try (Socket s = sock; InputStream in = s.getInputStream(); OutputStream out = s.getOutputStream()) {
+                    int n;
+                    while ((n = in.read(buf)) >= 0) {
+                        nodeReads.incrementAndGet();
+                        pending += n;
+                        int count = pending / COMMAND.length;
+                        pending %= COMMAND.length;
+                        nodeCommands.addAndGet(count);
+                        for (int i = 0; i < count; ++i) {
+                            System.arraycopy(REPLY, 0, replies, i * REPLY.length, REPLY.length);
+                        }
+                        out.write(replies, 0, count * REPLY.length);
+                    }
+                } catch (IOException ignore) {
+                }
+            }).start();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package vproxy.bench;
+
+import vproxy.component.proxy.Proxy;
+import vproxy.component.proxy.ProxyNetConfig;
+import vproxy.connection.BindServer;
+import vproxy.connection.Connector;
+import vproxy.connection.NetEventLoop;
+import vproxy.selector.SelectorEventLoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the throughput of a direct tcp proxy with and without repeated reading:
+ * the client sends a large payload over a long-lived connection through the proxy,
+ * and a sink server discards everything it receives.
+ * The time from the first byte sent to the last byte received by the sink is recorded.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.RepeatReadBenchmark [megabytesPerRound] [rounds] [bufferSize]
+ */
+public class RepeatReadBenchmark {
+    private static final int SINK_PORT = 19591;
+    private static final int PROXY_PORT = 19592;
+
+    public static void main(String[] args) throws Exception {
+        int mb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int bufferSize = args.length > 2 ? Integer.parseInt(args[2]) : 16384;
+
+        AtomicLong received = new AtomicLong();
+        ServerSocket sink = new ServerSocket(SINK_PORT);
+        Thread sinkThread = new Thread(() -> runSink(sink, received), "sink");
+        sinkThread.setDaemon(true);
+        sinkThread.start();
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        NetEventLoop netLoop = new NetEventLoop(loop);
+        BindServer server = BindServer.create(new InetSocketAddress(PROXY_PORT));
+        ProxyNetConfig config = new ProxyNetConfig()
+            .setAcceptLoop(netLoop)
+            .setHandleLoopProvider(() -> netLoop)
+            .setServer(server)
+            .setConnGen(accepted -> new Connector(new InetSocketAddress("127.0.0.1", SINK_PORT)))
+            .setInBufferSize(bufferSize)
+            .setOutBufferSize(bufferSize);
+        Proxy proxy = new Proxy(config, s -> {
+        });
+        proxy.handle();
+        loop.loop(r -> new Thread(r, "proxy"));
+
+        long total = (long) mb * 1024 * 1024;
+        // warm up
+        run(config, false, total / 4, received);
+        run(config, true, total / 4, received);
+
+        for (int i = 0; i < rounds; ++i) {
+            for (boolean repeatRead : new boolean[]{false, true}) {
+                long cost = run(config, repeatRead, total, received);
+                System.out.println((repeatRead ? "repeat-read   " : "no-repeat-read") + ": " + mb + "MB in " + cost / 1_000_000 + "ms, "
+                    + String.format("%.1f", total * 1000.0 / cost) + " MB/s");
+            }
+        }
+
+        loop.close();
+        server.close();
+        sink.close();
+    }
+
+    private static long run(ProxyNetConfig config, boolean repeatRead, long total, AtomicLong received) throws Exception {
+        config.setRepeatRead(repeatRead);
+        received.set(0);
+        ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+        long begin;
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("127.0.0.1", PROXY_PORT))) {
+            begin = System.nanoTime();
+            long sent = 0;
+            while (sent < total) {
+                buf.clear();
+                if (total - sent < buf.capacity()) {
+                    buf.limit((int) (total - sent));
+                }
+                sent += client.write(buf);
+            }
+            while (received.get() < total) {
+                Thread.onSpinWait();
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static void runSink(ServerSocket sink, AtomicLong received) {
+        byte[] buf = new byte[256 * 1024];
+        while (true) {
+            Socket sock;
+            try {
+                sock = sink.accept();
+            } catch (IOException e) {
+                return;
+            }
+            try (Socket s = sock; InputStream in = s.getInputStream()) {
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    received.addAndGet(n);
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package vproxy.bench;
+
+import vproxy.selector.Handler;
+import vproxy.selector.HandlerContext;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.selector.SelectorType;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure the cost of handling one ready key in the event loop
+ * with the jdk selected-key set and the array-backed one.
+ * <p>
+ * Many pipes are registered and each of them always has data to read,
+ * so every select() returns all keys and the loop handles all of them.
+ * The select cost is the same for both types, so the difference comes from doHandling.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.SelectorHandlingBenchmark [pipes] [seconds]
+ */
+public class SelectorHandlingBenchmark {
+    public static void main(String[] args) throws Exception {
+        int pipes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // warm up both
+        run(SelectorType.jdk, pipes, 1);
+        run(SelectorType.array, pipes, 1);
+
+        for (SelectorType type : SelectorType.values()) {
+            run(type, pipes, seconds);
+        }
+    }
+
+    private static void run(SelectorType type, int pipes, int seconds) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(type);
+        List<Pipe> pipeList = new ArrayList<>(pipes);
+        CountHandler handler = new CountHandler();
+        for (int i = 0; i < pipes; ++i) {
+            Pipe pipe = Pipe.open();
+            pipe.sink().write(ByteBuffer.wrap(new byte[]{1})); // keep the source readable
+            pipe.source().configureBlocking(false);
+            loop.add(pipe.source(), SelectionKey.OP_READ, null, handler);
+            pipeList.add(pipe);
+        }
+        loop.loop(r -> new Thread(r, "bench-loop"));
+
+        Thread.sleep(200);
+        long begin = handler.count;
+        long beginTime = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long end = handler.count;
+        long endTime = System.nanoTime();
+
+        loop.close();
+        for (Pipe p : pipeList) {
+            p.sink().close();
+            p.source().close();
+        }
+
+        long handled = end - begin;
+        if (seconds > 1) {
+            System.out.println(loop.getSelectorType() + ": " + handled + " keys handled, "
+                + String.format("%.1f", (endTime - beginTime) / (double) handled) + " ns/key (including select)");
+        }
+    }
+
+    private static class CountHandler implements Handler<Pipe.SourceChannel> {
+        volatile long count = 0; // only written by the loop thread
+
+        @Override
+        public void accept(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<Pipe.SourceChannel> ctx) {
+            //noinspection NonAtomicOperationOnVolatileField
+            ++count;
+        }
+
+        @Override
+        public void writable(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+    }
+}
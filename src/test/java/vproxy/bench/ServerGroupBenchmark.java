@@ -0,0 +1,91 @@
+package vproxy.bench;
+
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measure the bookkeeping of server groups when many threads (as worker event loops) handle sessions at the same time:
+ * each session chooses a server with next(), starts and ends a stream (counted like connections),
+ * and records some bytes of net flow in both directions.
+ * The throughput is printed for each number of threads, it should grow with the threads
+ * if the threads do not contend on shared state.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.ServerGroupBenchmark [maxThreads] [servers] [millisPerRound]
+ */
+public class ServerGroupBenchmark {
+    private static volatile boolean stop;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int servers = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int millis = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        // no event loop in the group, so the health check is not running, and the servers are set UP manually
+        EventLoopGroup elg = new EventLoopGroup("elg0");
+        ServerGroup group = new ServerGroup("sg0", elg, new HealthCheckConfig(1000, 10000, 1, 3), Method.wrr);
+        Map<InetSocketAddress, ServerGroup.ServerHandle> handles = new HashMap<>();
+        for (int i = 0; i < servers; ++i) {
+            ServerGroup.ServerHandle h = group.add("svr" + i, new InetSocketAddress("10.0.0." + (i + 1), 80), 10);
+            h.setHealthy(true);
+            handles.put(h.server, h);
+        }
+
+        for (Method method : new Method[]{Method.wrr, Method.wlc}) {
+            group.setMethod(method);
+            run(group, handles, 1, millis / 2); // warm up
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                long ops = run(group, handles, threads, millis);
+                System.out.println(method + " threads=" + threads + ": "
+                    + String.format("%.0f", ops * 1000.0 / millis) + " sessions/s");
+            }
+        }
+        group.clear();
+        elg.close();
+    }
+
+    private static long run(ServerGroup group, Map<InetSocketAddress, ServerGroup.ServerHandle> handles,
+                            int threads, int millis) throws Exception {
+        LongAdder total = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        stop = false;
+        for (int t = 0; t < threads; ++t) {
+            InetSocketAddress source = new InetSocketAddress("172.16.0." + (t + 1), 50000);
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long ops = 0;
+                while (!stop) {
+                    for (int i = 0; i < 1000; ++i) {
+                        SvrHandleConnector connector = group.next(source);
+                        ServerGroup.ServerHandle h = handles.get(connector.remote);
+                        connector.streamStarted();
+                        h.incToRemoteBytes(100);
+                        h.incFromRemoteBytes(1000);
+                        connector.streamEnded();
+                    }
+                    ops += 1000;
+                }
+                total.add(ops);
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        Thread.sleep(millis);
+        stop = true;
+        done.await();
+        return total.sum();
+    }
+}
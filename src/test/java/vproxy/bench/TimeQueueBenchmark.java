@@ -0,0 +1,135 @@
+package vproxy.bench;
+
+import vproxy.app.Config;
+import vproxy.util.TimeElem;
+import vproxy.util.TimeQueue;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Compare the timing wheel TimeQueue with the PriorityQueue based implementation
+ * under a connection churn workload:
+ * a fixed number of long lived connections each holding a close timer,
+ * and on each round some connections close (cancel) and new ones come in (push),
+ * some connections are active and push their timers forward,
+ * then the clock moves 1ms forward and timed out elements are popped.
+ * <p>
+ * Run with: java -cp ... vproxy.bench.TimeQueueBenchmark [connections] [rounds]
+ */
+public class TimeQueueBenchmark {
+    private static final int TIMEOUT = Config.tcpTimeout;
+    private static final int CHURN_PER_ROUND = 50;
+    private static final int ACTIVE_PER_ROUND = 200;
+
+    // the previous implementation, kept here as the baseline
+    private static class HeapElem {
+        final long triggerTime;
+        final Runnable elem;
+
+        HeapElem(long triggerTime, Runnable elem) {
+            this.triggerTime = triggerTime;
+            this.elem = elem;
+        }
+    }
+
+    private static class HeapQueue {
+        final PriorityQueue<HeapElem> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
+
+        HeapElem push(int timeout, Runnable r) {
+            HeapElem e = new HeapElem(Config.currentTimestamp + timeout, r);
+            queue.add(e);
+            return e;
+        }
+
+        void remove(HeapElem e) {
+            queue.remove(e);
+        }
+
+        Runnable pop() {
+            HeapElem e = queue.peek();
+            if (e == null || e.triggerTime > Config.currentTimestamp)
+                return null;
+            queue.poll();
+            return e.elem;
+        }
+    }
+
+    private static final Runnable NOOP = () -> {
+    };
+
+    public static void main(String[] args) {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        for (int i = 0; i < 3; ++i) { // the first runs are warm up
+            System.out.println("---- run " + i + " ----");
+            System.out.println("heap:  " + runHeap(connections, rounds) + " ns/op");
+            System.out.println("wheel: " + runWheel(connections, rounds) + " ns/op");
+        }
+    }
+
+    private static long runHeap(int connections, int rounds) {
+        Random rand = new Random(1);
+        Config.currentTimestamp = 1_000_000;
+        HeapQueue queue = new HeapQueue();
+        HeapElem[] conns = new HeapElem[connections];
+        for (int i = 0; i < connections; ++i) {
+            conns[i] = queue.push(TIMEOUT - rand.nextInt(TIMEOUT / 2), NOOP);
+        }
+        long ops = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; ++r) {
+            for (int i = 0; i < CHURN_PER_ROUND; ++i) {
+                int idx = rand.nextInt(connections);
+                queue.remove(conns[idx]);
+                conns[idx] = queue.push(TIMEOUT, NOOP);
+                ops += 2;
+            }
+            for (int i = 0; i < ACTIVE_PER_ROUND; ++i) {
+                // the heap cannot reschedule, so it's remove and push
+                int idx = rand.nextInt(connections);
+                queue.remove(conns[idx]);
+                conns[idx] = queue.push(TIMEOUT, NOOP);
+                ops += 1;
+            }
+            ++Config.currentTimestamp;
+            Runnable run;
+            while ((run = queue.pop()) != null) {
+                run.run();
+            }
+        }
+        return (System.nanoTime() - start) / ops;
+    }
+
+    private static long runWheel(int connections, int rounds) {
+        Random rand = new Random(1);
+        Config.currentTimestamp = 1_000_000;
+        TimeQueue<Runnable> queue = new TimeQueue<>();
+        @SuppressWarnings("unchecked")
+        TimeElem<Runnable>[] conns = new TimeElem[connections];
+        for (int i = 0; i < connections; ++i) {
+            conns[i] = queue.push(TIMEOUT - rand.nextInt(TIMEOUT / 2), NOOP);
+        }
+        long ops = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; ++r) {
+            for (int i = 0; i < CHURN_PER_ROUND; ++i) {
+                int idx = rand.nextInt(connections);
+                conns[idx].removeSelf();
+                conns[idx] = queue.push(TIMEOUT, NOOP);
+                ops += 2;
+            }
+            for (int i = 0; i < ACTIVE_PER_ROUND; ++i) {
+                int idx = rand.nextInt(connections);
+                conns[idx].reschedule(TIMEOUT);
+                ops += 1;
+            }
+            ++Config.currentTimestamp;
+            while (queue.nextTime() == 0) {
+                queue.pop().run();
+            }
+        }
+        return (System.nanoTime() - start) / ops;
+    }
+}
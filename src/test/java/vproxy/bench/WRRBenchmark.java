@@ -0,0 +1,86 @@
+package vproxy.bench;
+
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measure the wrr method of a large server group:
+ * the time of modifying weights, adding/removing servers and changing the health state,
+ * and the throughput of choosing servers with next().
+ * <p>
+ * Run with: java -cp ... vproxy.bench.WRRBenchmark [servers] [maxWeight] [millisPerRound]
+ */
+public class WRRBenchmark {
+    public static void main(String[] args) throws Exception {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int maxWeight = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int millis = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        // no event loop in the group, so the health check is not running, and the servers are set UP manually
+        EventLoopGroup elg = new EventLoopGroup("elg0");
+        ServerGroup group = new ServerGroup("sg0", elg, new HealthCheckConfig(1000, 10000, 1, 3), Method.wrr);
+        Random rand = new Random(1);
+        long begin = System.nanoTime();
+        for (int i = 0; i < servers; ++i) {
+            group.add("svr" + i, new InetSocketAddress("10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff), 80),
+                rand.nextInt(maxWeight) + 1).setHealthy(true);
+        }
+        System.out.println("add " + servers + " servers: " + (System.nanoTime() - begin) / 1_000_000 + "ms");
+        InetSocketAddress client = new InetSocketAddress("172.16.0.1", 50000);
+        List<ServerGroup.ServerHandle> handles = group.getServerHandles();
+
+        for (int round = 0; round < 3; ++round) {
+            // modify weights, and choose a server after each modification
+            int n = 0;
+            begin = System.nanoTime();
+            long end = begin + millis * 1_000_000L / 4;
+            while (System.nanoTime() < end) {
+                handles.get(rand.nextInt(servers)).setWeight(rand.nextInt(maxWeight) + 1);
+                group.next(client);
+                ++n;
+            }
+            System.out.println("setWeight: " + String.format("%.2f", (System.nanoTime() - begin) / 1000.0 / n) + "us/op");
+
+            // remove and add back a server
+            n = 0;
+            begin = System.nanoTime();
+            end = begin + millis * 1_000_000L / 4;
+            while (System.nanoTime() < end) {
+                ServerGroup.ServerHandle h = handles.get(rand.nextInt(servers));
+                group.remove(h.alias);
+                ServerGroup.ServerHandle added = group.add(h.alias, h.server, h.getWeight());
+                added.setHealthy(true);
+                handles.set(handles.indexOf(h), added);
+                group.next(client);
+                ++n;
+            }
+            System.out.println("remove+add: " + String.format("%.2f", (System.nanoTime() - begin) / 1000.0 / n) + "us/op");
+
+            // choose servers while 10% of the servers are DOWN
+            for (int i = 0; i < servers / 10; ++i) {
+                handles.get(i * 10).setHealthy(false);
+            }
+            long ops = 0;
+            begin = System.nanoTime();
+            end = begin + millis * 1_000_000L / 2;
+            while (System.nanoTime() < end) {
+                for (int i = 0; i < 1000; ++i) {
+                    group.next(client);
+                }
+                ops += 1000;
+            }
+            System.out.println("next: " + String.format("%.0f", ops * 1_000_000_000.0 / (System.nanoTime() - begin)) + " ops/s");
+            for (int i = 0; i < servers / 10; ++i) {
+                handles.get(i * 10).setHealthy(true);
+            }
+        }
+        group.clear();
+        elg.close();
+    }
+}
@@ -0,0 +1,282 @@
+package vproxy.poc;
+
+import vproxy.component.proxy.ConnectorGen;
+import vproxy.component.proxy.Proxy;
+import vproxy.component.proxy.ProxyNetConfig;
+import vproxy.connection.BindServer;
+import vproxy.connection.Connection;
+import vproxy.connection.Connector;
+import vproxy.connection.NetEventLoop;
+import vproxy.processor.Processor;
+import vproxy.processor.ProcessorProvider;
+import vproxy.processor.resp.RESPHashSlot;
+import vproxy.protocol.ProtocolServerConfig;
+import vproxy.protocol.ProtocolServerHandler;
+import vproxy.redis.RESPConfig;
+import vproxy.redis.RESPParser;
+import vproxy.redis.RESPProtocolHandler;
+import vproxy.redis.application.RESPApplication;
+import vproxy.redis.application.RESPApplicationConfig;
+import vproxy.redis.application.RESPApplicationContext;
+import vproxy.redis.application.RESPApplicationHandler;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.Callback;
+import vproxy.util.RingBuffer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Three redis-like nodes split the slots, the proxy only knows the first node,
+ * and the client sends pipelined commands to the proxy as if it's a single redis.
+ * Then a slot is moved to another node, and another slot is being migrated (ASK).
+ */
+public class RedisClusterProxy {
+    private static final int[] PORTS = {17001, 17002, 17003};
+    private static final int[] OWNERS = new int[RESPHashSlot.SLOTS]; // slot => node index
+    private static final int[] MIGRATING = {-1, -1}; // slot, target node index
+
+    public static void main(String[] args) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        NetEventLoop el = new NetEventLoop(loop);
+        for (int i = 0; i < RESPHashSlot.SLOTS; ++i) {
+            OWNERS[i] = i * PORTS.length / RESPHashSlot.SLOTS;
+        }
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (int i = 0; i < PORTS.length; ++i) {
+            ClusterNode node = new ClusterNode(i);
+            nodes.add(node);
+            ProtocolServerHandler.apply(el,
+                BindServer.create(new InetSocketAddress("127.0.0.1", PORTS[i])),
+                new ProtocolServerConfig().setInBufferSize(16).setOutBufferSize(16),
+                new RESPProtocolHandler(new RESPConfig().setMaxParseLen(16384),
+                    new RESPApplicationHandler(new RESPApplicationConfig(), node)));
+        }
+
+        BindServer svr = BindServer.create(new InetSocketAddress("127.0.0.1", 7379));
+        Proxy proxy = new Proxy(new ProxyNetConfig()
+            .setInBufferSize(8)
+            .setOutBufferSize(4) // make them small to see whether the lib will work when commands are large
+            .setAcceptLoop(el)
+            .setConnGen(new ConnectorGen() {
+                @Override
+                public Type type() {
+                    return Type.processor;
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted) {
+                    // only the first node is known
+                    return new Connector(new InetSocketAddress("127.0.0.1", PORTS[0]));
+                }
+
+                @Override
+                public Processor processor() {
+                    return ProcessorProvider.getInstance().get("resp");
+                }
+            })
+            .setHandleLoopProvider(() -> el)
+            .setServer(svr),
+            server -> {
+            });
+        proxy.handle();
+        loop.loop(Thread::new);
+
+        try (Socket socket = new Socket("127.0.0.1", 7379)) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = socket.getInputStream();
+
+            // pipelined, the keys are in different slots and nodes
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 30; ++i) {
+                sb.append(command("SET", "key" + i, "value" + i));
+            }
+            for (int i = 0; i < 30; ++i) {
+                sb.append(command("GET", "key" + i));
+            }
+            sb.append("PING\r\n"); // inline
+            sb.append(command("MGET", "{user1}.name", "{user1}.age"));
+            sb.append(command("MGET", "key0", "key1"));
+            output.write(sb.toString().getBytes());
+            for (int i = 0; i < 30; ++i) {
+                expect(input, "OK");
+            }
+            for (int i = 0; i < 30; ++i) {
+                expect(input, "value" + i);
+            }
+            expect(input, "PONG");
+            expect(input, Arrays.asList(null, null));
+            expect(input, "CROSSSLOT Keys in request don't hash to the same slot");
+
+            // move a slot to another node, the proxy follows the MOVED redirection
+            int slot = RESPHashSlot.of("key0".getBytes());
+            int from = OWNERS[slot];
+            int to = (from + 1) % PORTS.length;
+            nodes.get(to).store.put("key0", nodes.get(from).store.remove("key0"));
+            OWNERS[slot] = to;
+            output.write((command("GET", "key0") + command("GET", "key0")).getBytes());
+            expect(input, "value0");
+            expect(input, "value0");
+
+            // migrating a slot, the proxy follows the ASK redirection
+            slot = RESPHashSlot.of("key1".getBytes());
+            from = OWNERS[slot];
+            to = (from + 1) % PORTS.length;
+            nodes.get(to).store.put("key1", nodes.get(from).store.remove("key1"));
+            MIGRATING[0] = slot;
+            MIGRATING[1] = to;
+            output.write((command("GET", "key1") + command("INCR", "key1") + command("QUIT")).getBytes());
+            expect(input, "value1");
+            expect(input, "ERR value is not an integer");
+            expect(input, "OK");
+            if (input.read() != -1) {
+                throw new Exception("the connection should be closed after QUIT");
+            }
+        }
+        System.out.println("MOVED: " + nodes.stream().mapToInt(n -> n.moved).sum()
+            + ", ASK: " + nodes.stream().mapToInt(n -> n.ask).sum());
+
+        proxy.stop();
+        svr.close();
+        loop.close();
+    }
+
+    private static String command(String... args) {
+        StringBuilder sb = new StringBuilder("*" + args.length + "\r\n");
+        for (String arg : args) {
+            sb.append("$").append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static final RingBuffer rb = RingBuffer.allocate(16384);
+
+    private static void expect(InputStream input, Object expected) throws Exception {
+        RESPParser parser = new RESPParser(16384);
+        byte[] buffer = new byte[1];
+        while (true) {
+            if (rb.used() == 0) {
+                int l = input.read(buffer);
+                if (l < 0) {
+                    throw new Exception("remote write closed");
+                }
+                rb.storeBytesFrom(ByteArrayChannel.fromFull(buffer));
+            }
+            int r = parser.feed(rb);
+            if (r == 0) {
+                break;
+            }
+            if (parser.getErrorMessage() != null) {
+                throw new Exception("parse failed " + parser.getErrorMessage());
+            }
+        }
+        Object o = parser.getResult().getJavaObject();
+        if (o instanceof Throwable) {
+            o = ((Throwable) o).getMessage(); // the error
+        }
+        System.out.println("client receive: \033[1;36m" + o + "\033[0m");
+        if (expected == null ? o != null : !expected.equals(o)) {
+            throw new Exception("expecting " + expected + " but got " + o);
+        }
+    }
+
+    static class NodeContext extends RESPApplicationContext {
+        boolean asking = false;
+    }
+
+    static class ClusterNode implements RESPApplication<NodeContext> {
+        private final int index;
+        final Map<String, String> store = new ConcurrentHashMap<>();
+        int moved = 0;
+        int ask = 0;
+
+        ClusterNode(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public NodeContext context() {
+            return new NodeContext();
+        }
+
+        @Override
+        public void handle(Object o, NodeContext ctx, Callback<Object, Throwable> cb) {
+            if (!(o instanceof List) || ((List) o).isEmpty()) {
+                cb.failed(new Exception("ERR unknown command"));
+                return;
+            }
+            List<?> args = (List<?>) o;
+            String cmd = ((String) args.get(0)).toUpperCase();
+            boolean asking = ctx.asking;
+            ctx.asking = false;
+            if (cmd.equals("ASKING")) {
+                ctx.asking = true;
+                cb.succeeded("OK");
+                return;
+            }
+            if (cmd.equals("CLUSTER")) {
+                List<Object> ranges = new ArrayList<>();
+                int start = 0;
+                for (int i = 1; i <= RESPHashSlot.SLOTS; ++i) {
+                    if (i == RESPHashSlot.SLOTS || OWNERS[i] != OWNERS[start]) {
+                        ranges.add(Arrays.asList(start, i - 1, Arrays.asList("127.0.0.1", PORTS[OWNERS[start]], "node" + OWNERS[start])));
+                        start = i;
+                    }
+                }
+                cb.succeeded(ranges);
+                return;
+            }
+            if (args.size() < 2) {
+                cb.failed(new Exception("ERR wrong number of arguments"));
+                return;
+            }
+            String key = (String) args.get(1);
+            int slot = RESPHashSlot.of(key.getBytes());
+            if (MIGRATING[0] == slot && OWNERS[slot] == index && !store.containsKey(key)) {
+                ++ask;
+                cb.failed(new Exception("ASK " + slot + " 127.0.0.1:" + PORTS[MIGRATING[1]]));
+                return;
+            }
+            if (OWNERS[slot] != index && !(asking && MIGRATING[0] == slot && MIGRATING[1] == index)) {
+                ++moved;
+                cb.failed(new Exception("MOVED " + slot + " 127.0.0.1:" + PORTS[OWNERS[slot]]));
+                return;
+            }
+            switch (cmd) {
+                case "SET":
+                    store.put(key, (String) args.get(2));
+                    cb.succeeded("OK");
+                    break;
+                case "GET":
+                    cb.succeeded(store.get(key));
+                    break;
+                case "MGET":
+                    List<Object> values = new ArrayList<>();
+                    for (int i = 1; i < args.size(); ++i) {
+                        values.add(store.get((String) args.get(i)));
+                    }
+                    cb.succeeded(values);
+                    break;
+                case "INCR":
+                    try {
+                        long n = Long.parseLong(store.getOrDefault(key, "0")) + 1;
+                        store.put(key, "" + n);
+                        cb.succeeded(n);
+                    } catch (NumberFormatException e) {
+                        cb.failed(new Exception("ERR value is not an integer"));
+                    }
+                    break;
+                default:
+                    cb.failed(new Exception("ERR unknown command '" + cmd + "'"));
+            }
+        }
+    }
+}
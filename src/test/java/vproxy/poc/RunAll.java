@@ -49,6 +49,11 @@ public class RunAll {
         System.out.println("==============================================");
         TestRESPParser.main(new String[0]);
 
+        System.out.println("==============================================");
+        System.out.println("                 parse http");
+        System.out.println("==============================================");
+        TestHttpParser.main(new String[0]);
+
         System.out.println("==============================================");
         System.out.println("            echo protocol server");
         System.out.println("==============================================");
@@ -79,6 +84,11 @@ public class RunAll {
         System.out.println("==============================================");
         GrpcOverH2Proxy.main(new String[0]);
 
+        System.out.println("==============================================");
+        System.out.println("             redis cluster proxy");
+        System.out.println("==============================================");
+        RedisClusterProxy.main(new String[0]);
+
         Resolver.stopDefault();
     }
 }
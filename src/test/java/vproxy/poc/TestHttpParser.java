@@ -0,0 +1,183 @@
+package vproxy.poc;
+
+import vproxy.http.h1.HttpParser;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class TestHttpParser {
+    public static void main(String[] args) throws Exception {
+        {
+            String req = "GET /index.html HTTP/1.1\r\n" +
+                "Host: example.com\r\n" +
+                "X-Test:   with spaces  \r\n" +
+                "\r\n";
+            HttpParser parser = new HttpParser(true);
+            Result r = parse(parser, req, 1000);
+            System.out.println(parser.method() + " " + parser.uri() + " " + parser.version());
+            if (r.event != HttpParser.DONE)
+                throw new Exception("the request should have ended");
+            if (!parser.methodIs("GET") || !parser.uri().equals("/index.html") || parser.minorVersion() != 1)
+                throw new Exception("wrong request line");
+            if (parser.headerCount() != 2)
+                throw new Exception("wrong header count");
+            if (!"example.com".equals(parser.header("host")))
+                throw new Exception("wrong host");
+            if (!"with spaces".equals(parser.header("X-TEST")))
+                throw new Exception("wrong value trimming");
+            if (!parser.isKeepAlive())
+                throw new Exception("http/1.1 should be keep-alive");
+            if (parser.headLength() != req.length())
+                throw new Exception("wrong head length");
+        }
+        {
+            String req = "POST /a HTTP/1.0\r\nContent-Length: 11\r\n\r\nhello worldGET /b HTTP/1.1\r\n\r\n";
+            // split at every possible position
+            for (int split = 1; split < req.length(); ++split) {
+                HttpParser parser = new HttpParser(true);
+                Result r = parse(parser, req, split);
+                if (r.event != HttpParser.DONE)
+                    throw new Exception("the request should have ended, split = " + split);
+                if (!r.body.equals("hello world"))
+                    throw new Exception("wrong body " + r.body + ", split = " + split);
+                if (parser.isKeepAlive())
+                    throw new Exception("http/1.0 without keep-alive should not be keep-alive");
+                if (r.left != "GET /b HTTP/1.1\r\n\r\n".length())
+                    throw new Exception("the pipelined request should not be consumed, split = " + split);
+            }
+            System.out.println("content-length body ok");
+        }
+        {
+            String resp = "HTTP/1.1 200 OK\r\n" +
+                "Transfer-Encoding: gzip, chunked\r\n" +
+                "Connection: close\r\n" +
+                "\r\n" +
+                "5;ext=1\r\nhello\r\n" +
+                "7\r\n, world\r\n" +
+                "0\r\n" +
+                "Trailer: x\r\n" +
+                "\r\n";
+            for (int split = 1; split < resp.length(); ++split) {
+                HttpParser parser = new HttpParser(false);
+                Result r = parse(parser, resp, split);
+                if (r.event != HttpParser.DONE)
+                    throw new Exception("the response should have ended, split = " + split);
+                if (!r.body.equals("hello, world"))
+                    throw new Exception("wrong chunked body " + r.body + ", split = " + split);
+                if (parser.statusCode() != 200 || !parser.reason().equals("OK") || !parser.isChunked() || parser.isKeepAlive())
+                    throw new Exception("wrong response head");
+
+                parser = new HttpParser(false).setRawBody(true);
+                r = parse(parser, resp, split);
+                if (!r.body.equals(resp.substring(parser.headLength())))
+                    throw new Exception("wrong raw chunked body " + r.body + ", split = " + split);
+            }
+            System.out.println("chunked body ok");
+        }
+        {
+            HttpParser parser = new HttpParser(false);
+            Result r = parse(parser, "HTTP/1.1 200 OK\r\n\r\nuntil close", 5);
+            if (r.event != HttpParser.WANT_MORE || !r.body.equals("until close"))
+                throw new Exception("the response should be delimited by close");
+            if (parser.end() != HttpParser.DONE)
+                throw new Exception("the response should end on close");
+
+            parser = new HttpParser(false);
+            r = parse(parser, "HTTP/1.1 304 Not Modified\r\nContent-Length: 10\r\n\r\n", 100);
+            if (r.event != HttpParser.DONE || !r.body.isEmpty())
+                throw new Exception("304 should not have a body");
+            System.out.println("response without body ok");
+        }
+        {
+            String resp = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n7\r\n, world\r\n0\r\n\r\n";
+            byte[] bytes = resp.getBytes(StandardCharsets.ISO_8859_1);
+            for (int split = 1; split < bytes.length; ++split) {
+                HttpParser parser = new HttpParser(false).setSkipData(true);
+                StringBuilder skipped = new StringBuilder();
+                int off = 0;
+                int event = HttpParser.WANT_MORE;
+                while (off < bytes.length && event != HttpParser.DONE) {
+                    ByteBuffer buf = ByteBuffer.wrap(bytes, off, Math.min(split, bytes.length - off));
+                    event = parser.parse(buf);
+                    off = buf.position();
+                    if (event == HttpParser.ERROR)
+                        throw new Exception(parser.getErrorMessage() + ", split = " + split);
+                    if (event == HttpParser.DATA) {
+                        // the framing might end exactly at the end of the input
+                        int n = (int) parser.dataRemaining();
+                        skipped.append(resp, off, off + n).append('|');
+                        parser.skipData(n);
+                        off += n;
+                    }
+                }
+                if (event != HttpParser.DONE || !skipped.toString().equals("hello|, world|"))
+                    throw new Exception("wrong skipped data " + skipped + ", split = " + split);
+            }
+            System.out.println("skip data ok");
+        }
+        {
+            String[] invalid = {
+                "GET / HTTP/1.1\r\nContent-Length: 1\r\nTransfer-Encoding: chunked\r\n\r\n",
+                "GET / HTTP/1.1\r\nContent-Length: 1\r\nContent-Length: 2\r\n\r\n",
+                "GET / HTTP/1.1\r\nHost : a\r\n\r\n",
+                "GET / HTTP/1.1\r\nA: b\r\n c\r\n\r\n",
+                "GET / HTTP/2.0\r\n\r\n",
+                "GET /\r\n\r\n",
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n",
+            };
+            for (String s : invalid) {
+                HttpParser parser = new HttpParser(true);
+                Result r = parse(parser, s, 1000);
+                if (r.event != HttpParser.ERROR)
+                    throw new Exception("should fail: " + s);
+                System.out.println("invalid: " + parser.getErrorMessage());
+            }
+            HttpParser parser = new HttpParser(true, 64);
+            StringBuilder sb = new StringBuilder("GET / HTTP/1.1\r\n");
+            for (int i = 0; i < 10; ++i) {
+                sb.append("X-Header-").append(i).append(": value\r\n");
+            }
+            if (parse(parser, sb.toString(), 1000).event != HttpParser.ERROR)
+                throw new Exception("the head should be too large");
+        }
+    }
+
+    private static class Result {
+        int event;
+        String body;
+        int left;
+    }
+
+    // store at most `split` bytes into the buffer each time and feed the parser
+    private static Result parse(HttpParser parser, String str, int split) {
+        byte[] bytes = str.getBytes(StandardCharsets.ISO_8859_1);
+        RingBuffer rb = RingBuffer.allocate(Math.max(split, 16));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        parser.setBodyConsumer((buf, off, len) -> {
+            for (int i = off; i < off + len; ++i) {
+                body.write(buf.get(i));
+            }
+        });
+        int event = HttpParser.WANT_MORE;
+        int off = 0;
+        while (true) {
+            if (off < bytes.length) {
+                int len = Math.min(split, bytes.length - off);
+                off += rb.storeBytesFrom(ByteArrayChannel.from(bytes, off, off + len, 0));
+            }
+            event = parser.feed(rb);
+            if (event == HttpParser.HEAD)
+                continue;
+            if (event != HttpParser.WANT_MORE || off == bytes.length)
+                break;
+        }
+        Result r = new Result();
+        r.event = event;
+        r.body = new String(body.toByteArray(), StandardCharsets.ISO_8859_1);
+        r.left = rb.used() + (bytes.length - off);
+        return r;
+    }
+}
@@ -106,6 +106,26 @@ public class TestRESPParser {
             if (!((RESPBulkString) mixArr.array.get(4)).string.toString().equals("foobar"))
                 throw new Exception("wrong mixArr[4]");
         }
+        {
+            // the length of the bulk string is too large, it should be rejected before allocating memory
+            for (String str : new String[]{"$2000000000\r\n", "$16385\r\n", "*1\r\n$2000000000\r\n", "$99999999999\r\n"}) {
+                String err = parseError(str);
+                System.out.println(err);
+                if (!err.equals("too many input bytes"))
+                    throw new Exception("wrong error for large bulk string");
+            }
+        }
+    }
+
+    private static String parseError(String str) throws Exception {
+        RESPParser parser = new RESPParser(16384);
+        byte[] bytes = str.getBytes();
+        RingBuffer rb = RingBuffer.allocate(bytes.length);
+        ByteArrayChannel ch = ByteArrayChannel.fromFull(bytes);
+        rb.storeBytesFrom(ch);
+        if (parser.feed(rb) == 0 || parser.getErrorMessage() == null)
+            throw new Exception("the parsing should fail: " + str);
+        return parser.getErrorMessage();
     }
 
     private static RESP parse(String str) throws Exception {
@@ -11,6 +11,14 @@ import org.junit.runners.Suite;
     TestTcpLB.class,
     TestNetMask.class,
     TestTimer.class,
+    TestBufferPool.class,
+    TestRingBuffers.class,
+    TestServerGroupHash.class,
+    TestServerGroupLos.class,
+    TestServerGroupP2CEwma.class,
+    TestServerGroupWRR.class,
+    TestServerGroupSlowStart.class,
+    TestServerGroupZone.class,
     TestResolver.class,
     TestSocks5.class,
     TestDiscovery.class,
@@ -0,0 +1,132 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBuffer;
+import vproxy.util.ringbuffer.DirectBufferPool;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TestBufferPool {
+    private SelectorEventLoop loop;
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "EventLoop"));
+        pool = loop.getBufferPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+    }
+
+    private <T> T onLoop(Supplier<T> f) throws Exception {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        loop.nextTick(() -> future.complete(f.get()));
+        return future.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        RingBuffer buf = onLoop(() -> RingBuffer.allocateDirectPooled(1000));
+        assertEquals("capacity is the required size", 1000, buf.capacity());
+        assertEquals("size class is 1024", 1024, pool.getInUseBytes());
+        assertEquals(0, pool.getPooledBytes());
+
+        onLoop(() -> {
+            buf.storeBytesFrom(ByteArrayChannel.fromFull("hello".getBytes()));
+            buf.clean();
+            return null;
+        });
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(1024, pool.getPooledBytes());
+
+        RingBuffer buf2 = onLoop(() -> RingBuffer.allocateDirectPooled(600));
+        assertEquals(600, buf2.capacity());
+        assertEquals("the chunk is reused", 1024, pool.getAllocatedBytes());
+        assertEquals("the reused buffer is empty", 0, buf2.used());
+    }
+
+    @Test
+    public void releaseOnAnotherThread() throws Exception {
+        RingBuffer buf = onLoop(() -> RingBuffer.allocateDirectPooled(4096));
+        buf.clean(); // not on the loop
+        assertEquals("not drained yet", 4096, pool.getInUseBytes());
+
+        onLoop(() -> RingBuffer.allocateDirectPooled(4096));
+        assertEquals("the released chunk is reused", 4096, pool.getAllocatedBytes());
+        assertEquals(4096, pool.getInUseBytes());
+    }
+
+    @Test
+    public void maxPooledMemory() throws Exception {
+        pool.setMaxPooledBytes(2048);
+        RingBuffer[] bufs = onLoop(() -> new RingBuffer[]{
+            RingBuffer.allocateDirectPooled(1024),
+            RingBuffer.allocateDirectPooled(1024),
+            RingBuffer.allocateDirectPooled(1024),
+        });
+        assertEquals(3072, pool.getInUseBytes());
+        onLoop(() -> {
+            for (RingBuffer b : bufs) {
+                b.clean();
+            }
+            return null;
+        });
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals("exceeding chunks are freed", 2048, pool.getPooledBytes());
+    }
+
+    @Test
+    public void notOnLoop() {
+        RingBuffer buf = RingBuffer.allocateDirectPooled(1024);
+        assertEquals(1024, buf.capacity());
+        assertEquals("not allocated from any pool", 0, pool.getAllocatedBytes());
+        buf.clean();
+    }
+
+    @Test
+    public void lazy() throws Exception {
+        RingBuffer buf = onLoop(() -> RingBuffer.allocateDirectLazy(2048));
+        assertEquals(2048, buf.capacity());
+        assertEquals(2048, buf.free());
+        assertEquals("no memory before data arrives", 0, pool.getAllocatedBytes());
+
+        onLoop(() -> buf.storeBytesFrom(ByteArrayChannel.fromFull("hello".getBytes())));
+        assertEquals(5, buf.used());
+        assertEquals("memory borrowed when data stored", 2048, pool.getInUseBytes());
+
+        byte[] b = new byte[3];
+        onLoop(() -> buf.writeTo(ByteArrayChannel.fromEmpty(b)));
+        assertEquals("hel", new String(b));
+        assertEquals("still holds data", 2048, pool.getInUseBytes());
+
+        byte[] b2 = new byte[10];
+        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(b2);
+        onLoop(() -> buf.writeTo(chnl));
+        assertEquals("lo", new String(b2, 0, chnl.used()));
+        assertEquals(0, buf.used());
+        assertEquals("memory returned when drained", 0, pool.getInUseBytes());
+        assertEquals(2048, pool.getPooledBytes());
+
+        onLoop(() -> buf.storeBytesFrom(ByteArrayChannel.fromFull("world".getBytes())));
+        assertEquals("world", buf.toString());
+        assertEquals("the pooled chunk is reused", 2048, pool.getAllocatedBytes());
+
+        onLoop(() -> {
+            buf.clean();
+            return null;
+        });
+        assertEquals(0, pool.getInUseBytes());
+    }
+}
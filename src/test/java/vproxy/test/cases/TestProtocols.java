@@ -1,6 +1,7 @@
 package vproxy.test.cases;
 
 import com.alibaba.dubbo.config.*;
+import com.sun.net.httpserver.HttpServer;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
@@ -22,6 +23,7 @@ import vproxy.poc.grpc.GreeterGrpc;
 import vproxy.poc.grpc.HelloRequest;
 import vproxy.poc.grpc.HelloResponse;
 import vproxy.poc.thrift.HelloWorldService;
+import vproxy.processor.resp.RESPHashSlot;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
@@ -35,12 +37,30 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestProtocols {
     private static final int lbPort = 7890;
@@ -98,6 +118,116 @@ public class TestProtocols {
         Thread.sleep(1200);
     }
 
+    private static String readHttpResponse(InputStream in) throws Exception {
+        // only the responses of the test backends are handled: no chunked response, the body has Content-Length
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1)
+                throw new Exception("unexpected eof, head = " + head);
+            head.append((char) b);
+        }
+        assertTrue(head.toString(), head.toString().startsWith("HTTP/1.1 200 "));
+        int len = -1;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                len = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        assertTrue(head.toString(), len >= 0);
+        byte[] body = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int n = in.read(body, off, len - off);
+            if (n == -1)
+                throw new Exception("unexpected eof, read " + off + "/" + len);
+            off += n;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void http1x() throws Exception {
+        // the backends respond with $port $xff $path $body,
+        // and record the remote ports to see how many connections the lb opens
+        Set<Integer> conn1 = ConcurrentHashMap.newKeySet();
+        Set<Integer> conn2 = ConcurrentHashMap.newKeySet();
+        HttpServer[] servers = new HttpServer[2];
+        for (int i = 0; i < 2; ++i) {
+            int port = i == 0 ? port1 : port2;
+            Set<Integer> conn = i == 0 ? conn1 : conn2;
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            server.createContext("/", exchange -> {
+                conn.add(exchange.getRemoteAddress().getPort());
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                byte[] resp = (port + " " + exchange.getRequestHeaders().getFirst("X-Forwarded-For")
+                    + " " + exchange.getRequestURI().getPath() + " " + body).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, resp.length);
+                exchange.getResponseBody().write(resp);
+                exchange.close();
+            });
+            server.start();
+            servers[i] = server;
+        }
+
+        initLb("http/1.x");
+        waitForHealthCheck();
+
+        try (Socket sock = new Socket("127.0.0.1", lbPort)) {
+            sock.setSoTimeout(2000);
+            OutputStream out = sock.getOutputStream();
+            InputStream in = sock.getInputStream();
+
+            // keep-alive requests on one connection are balanced one by one
+            int resp1 = 0;
+            int resp2 = 0;
+            for (int i = 0; i < 10; ++i) {
+                out.write(("GET /req" + i + " HTTP/1.1\r\nHost: example.com\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String[] arr = readHttpResponse(in).split(" ", -1);
+                assertEquals("127.0.0.1", arr[1]);
+                assertEquals("/req" + i, arr[2]);
+                if (arr[0].equals("" + port1)) {
+                    ++resp1;
+                } else {
+                    assertEquals("" + port2, arr[0]);
+                    ++resp2;
+                }
+            }
+            assertEquals(5, resp1);
+            assertEquals(5, resp2);
+            // the backend connections are reused
+            assertEquals(1, conn1.size());
+            assertEquals(1, conn2.size());
+
+            // pipelined requests, including a chunked body and a request with X-Forwarded-For,
+            // the responses are returned in order
+            out.write(("" +
+                "GET /p0 HTTP/1.1\r\nHost: example.com\r\n\r\n" +
+                "POST /p1 HTTP/1.1\r\nHost: example.com\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "5\r\nhello\r\n7\r\n, world\r\n0\r\n\r\n" +
+                "GET /p2 HTTP/1.1\r\nHost: example.com\r\nX-Forwarded-For: 10.0.0.1\r\n\r\n" +
+                "POST /p3 HTTP/1.1\r\nHost: example.com\r\nContent-Length: 3\r\n\r\nabc"
+            ).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String[] expected = {
+                "127.0.0.1 /p0 ",
+                "127.0.0.1 /p1 hello, world",
+                "10.0.0.1, 127.0.0.1 /p2 ",
+                "127.0.0.1 /p3 abc",
+            };
+            for (String exp : expected) {
+                String resp = readHttpResponse(in);
+                assertEquals(exp, resp.substring(resp.indexOf(' ') + 1));
+            }
+            assertEquals(2, conn1.size() + conn2.size());
+        } finally {
+            for (HttpServer server : servers) {
+                server.stop(0);
+            }
+        }
+    }
+
     @SuppressWarnings("deprecation")
     @Test
     public void h2() throws Throwable {
@@ -192,6 +322,410 @@ public class TestProtocols {
         }
     }
 
+    // ------ raw http/2 connections for the tests of the shared backend connections ------
+    // the header blocks are not decoded, the requests and responses are identified by the DATA payloads
+
+    private static final int H2_DATA = 0x0;
+    private static final int H2_HEADERS = 0x1;
+    private static final int H2_RST_STREAM = 0x3;
+    private static final int H2_SETTINGS = 0x4;
+    private static final int H2_PING = 0x6;
+    private static final int H2_GOAWAY = 0x7;
+    private static final int H2_WINDOW_UPDATE = 0x8;
+    private static final int H2_END_STREAM = 0x1;
+    private static final int H2_ACK = 0x1;
+    private static final int H2_END_HEADERS = 0x4;
+    private static final byte[] H2_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private static byte[] h2Frame(int type, int flags, int streamId, byte[] payload) {
+        byte[] frame = new byte[9 + payload.length];
+        frame[0] = (byte) (payload.length >> 16);
+        frame[1] = (byte) (payload.length >> 8);
+        frame[2] = (byte) payload.length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        frame[5] = (byte) (streamId >> 24);
+        frame[6] = (byte) (streamId >> 16);
+        frame[7] = (byte) (streamId >> 8);
+        frame[8] = (byte) streamId;
+        System.arraycopy(payload, 0, frame, 9, payload.length);
+        return frame;
+    }
+
+    private static byte[] h2Int32(int n) {
+        return new byte[]{(byte) (n >> 24), (byte) (n >> 16), (byte) (n >> 8), (byte) n};
+    }
+
+    private static int h2Int32(byte[] bytes, int off) {
+        return (bytes[off] & 0xff) << 24 | (bytes[off + 1] & 0xff) << 16 | (bytes[off + 2] & 0xff) << 8 | (bytes[off + 3] & 0xff);
+    }
+
+    // one end of a raw http/2 connection, the frames are handled on a reading thread
+    // and the test waits for the results with `await`
+    private static abstract class H2Peer implements AutoCloseable {
+        final Socket sock;
+        private final Object writeLock = new Object();
+        boolean eof = false;
+
+        H2Peer(Socket sock) {
+            this.sock = sock;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            synchronized (writeLock) {
+                sock.getOutputStream().write(bytes);
+                sock.getOutputStream().flush();
+            }
+        }
+
+        void send(int type, int flags, int streamId, byte[] payload) throws IOException {
+            write(h2Frame(type, flags, streamId, payload));
+        }
+
+        void startReading() {
+            new Thread(() -> {
+                try {
+                    DataInputStream in = new DataInputStream(sock.getInputStream());
+                    readPreface(in);
+                    //noinspection InfiniteLoopStatement
+                    while (true) {
+                        byte[] head = new byte[9];
+                        in.readFully(head);
+                        byte[] payload = new byte[(head[0] & 0xff) << 16 | (head[1] & 0xff) << 8 | (head[2] & 0xff)];
+                        in.readFully(payload);
+                        synchronized (this) {
+                            handle(head[3], head[4], h2Int32(head, 5) & 0x7fffffff, payload);
+                            notifyAll();
+                        }
+                    }
+                } catch (IOException e) {
+                    synchronized (this) {
+                        eof = true;
+                        notifyAll();
+                    }
+                }
+            }).start();
+        }
+
+        void readPreface(DataInputStream in) throws IOException {
+        }
+
+        abstract void handle(int type, int flags, int streamId, byte[] payload) throws IOException;
+
+        synchronized void await(String desc, BooleanSupplier cond) throws Exception {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!cond.getAsBoolean()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    fail("timeout waiting for " + desc);
+                wait(left);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            sock.close();
+        }
+    }
+
+    // a client connected to the lb
+    private static class H2Client extends H2Peer {
+        private static final byte[] REQUEST_HEADERS = {(byte) 0x82, (byte) 0x86, (byte) 0x84}; // GET http /
+
+        final Map<Integer, StringBuilder> data = new HashMap<>(); // stream id => the DATA received
+        final Map<Integer, Integer> resets = new HashMap<>(); // stream id => error code
+
+        H2Client(int receiveBufferSize) throws IOException {
+            super(new Socket());
+            if (receiveBufferSize > 0) {
+                sock.setReceiveBufferSize(receiveBufferSize);
+            }
+            sock.connect(new InetSocketAddress("127.0.0.1", lbPort));
+            write(H2_PREFACE);
+            send(H2_SETTINGS, 0, 0, new byte[0]);
+        }
+
+        void request(int streamId, String body, boolean endStream) throws IOException {
+            send(H2_HEADERS, H2_END_HEADERS, streamId, REQUEST_HEADERS);
+            send(streamId, body, endStream);
+        }
+
+        void send(int streamId, String body, boolean endStream) throws IOException {
+            send(H2_DATA, endStream ? H2_END_STREAM : 0, streamId, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        synchronized String data(int streamId) {
+            StringBuilder sb = data.get(streamId);
+            return sb == null ? "" : sb.toString();
+        }
+
+        void awaitData(int streamId, String expected) throws Exception {
+            await("stream " + streamId + " to receive " + expected, () -> data(streamId).equals(expected));
+        }
+
+        @Override
+        void handle(int type, int flags, int streamId, byte[] payload) throws IOException {
+            if (type == H2_DATA) {
+                data.computeIfAbsent(streamId, k -> new StringBuilder()).append(new String(payload, StandardCharsets.UTF_8));
+            } else if (type == H2_RST_STREAM) {
+                resets.put(streamId, h2Int32(payload, 0));
+            } else if (type == H2_SETTINGS && (flags & H2_ACK) == 0) {
+                send(H2_SETTINGS, H2_ACK, 0, new byte[0]);
+            }
+        }
+    }
+
+    // a backend connection made by the lb
+    private static class H2BackendConn extends H2Peer {
+        private final H2Backend backend;
+        final Map<Integer, String> streams = new LinkedHashMap<>(); // stream id => the first DATA of the request
+        private final Map<Integer, Integer> windows = new HashMap<>(); // stream id => the flow control window
+        private int initialWindow = 65535;
+        private int pingAcks = 0;
+
+        H2BackendConn(H2Backend backend, Socket sock) {
+            super(sock);
+            this.backend = backend;
+        }
+
+        @Override
+        void readPreface(DataInputStream in) throws IOException {
+            byte[] preface = new byte[H2_PREFACE.length];
+            in.readFully(preface); // the health check connections are closed here
+            backend.conns.add(this);
+            if (backend.maxConcurrentStreams == 0) {
+                send(H2_SETTINGS, 0, 0, new byte[0]);
+            } else {
+                send(H2_SETTINGS, 0, 0, new byte[]{0, 0x3, 0, 0, 0, (byte) backend.maxConcurrentStreams});
+            }
+        }
+
+        // respond "resp-" + payload for each DATA frame, the END_STREAM flag is the same as the request
+        @Override
+        void handle(int type, int flags, int streamId, byte[] payload) throws IOException {
+            if (type == H2_SETTINGS && (flags & H2_ACK) == 0) {
+                for (int i = 0; i < payload.length; i += 6) {
+                    if (payload[i + 1] == 0x4) {
+                        initialWindow = h2Int32(payload, i + 2);
+                    }
+                }
+                send(H2_SETTINGS, H2_ACK, 0, new byte[0]);
+            } else if (type == H2_HEADERS) {
+                windows.put(streamId, initialWindow);
+            } else if (type == H2_DATA) {
+                String body = new String(payload, StandardCharsets.UTF_8);
+                if (!streams.containsKey(streamId)) {
+                    streams.put(streamId, body);
+                    send(H2_HEADERS, H2_END_HEADERS, streamId, new byte[]{(byte) 0x88}); // :status 200
+                }
+                byte[] resp = ("resp-" + body).getBytes(StandardCharsets.UTF_8);
+                windows.merge(streamId, -resp.length, Integer::sum);
+                send(H2_DATA, flags & H2_END_STREAM, streamId, resp);
+            } else if (type == H2_WINDOW_UPDATE && streamId != 0) {
+                windows.merge(streamId, h2Int32(payload, 0), Integer::sum);
+            } else if (type == H2_PING && (flags & H2_ACK) != 0) {
+                ++pingAcks;
+            }
+        }
+
+        synchronized int streamOf(String body) {
+            for (Map.Entry<Integer, String> e : streams.entrySet()) {
+                if (e.getValue().equals(body)) {
+                    return e.getKey();
+                }
+            }
+            return -1;
+        }
+
+        // the PING is answered after the frames before it are handled
+        void sync() throws Exception {
+            int acks;
+            synchronized (this) {
+                acks = pingAcks;
+            }
+            send(H2_PING, 0, 0, new byte[8]);
+            await("ping ack", () -> pingAcks > acks);
+        }
+
+        /**
+         * send DATA frames within the flow control window of the stream
+         *
+         * @return false if the window is not updated in the timeout
+         */
+        boolean sendData(int streamId, int len, long timeout) throws Exception {
+            byte[] chunk = new byte[16384];
+            Arrays.fill(chunk, (byte) 'x');
+            while (len > 0) {
+                int n;
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + timeout;
+                    while (windows.get(streamId) <= 0) {
+                        long left = deadline - System.currentTimeMillis();
+                        if (left <= 0)
+                            return false;
+                        wait(left);
+                    }
+                    n = Math.min(Math.min(len, chunk.length), windows.get(streamId));
+                    windows.merge(streamId, -n, Integer::sum);
+                }
+                send(H2_DATA, 0, streamId, n == chunk.length ? chunk : Arrays.copyOf(chunk, n));
+                len -= n;
+            }
+            return true;
+        }
+    }
+
+    private static class H2Backend implements AutoCloseable {
+        private final ServerSocket server;
+        final int maxConcurrentStreams; // the SETTINGS_MAX_CONCURRENT_STREAMS, 0 for not set
+        final List<H2BackendConn> conns = new CopyOnWriteArrayList<>(); // the health check connections are not recorded
+
+        H2Backend(int port, int maxConcurrentStreams) throws IOException {
+            this.server = new ServerSocket(port);
+            this.maxConcurrentStreams = maxConcurrentStreams;
+            new Thread(() -> {
+                while (true) {
+                    try {
+                        new H2BackendConn(this, server.accept()).startReading();
+                    } catch (IOException e) {
+                        return; // closed
+                    }
+                }
+            }).start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            for (H2BackendConn c : conns) {
+                c.close();
+            }
+        }
+    }
+
+    // only svr1 is used, so all streams are sent to the same remote
+    private H2Backend initH2Backend(int maxConcurrentStreams) throws Exception {
+        sg.remove("svr2");
+        H2Backend backend = new H2Backend(port1, maxConcurrentStreams);
+        initLb("h2");
+        waitForHealthCheck();
+        return backend;
+    }
+
+    @Test
+    public void h2SharedBackendConnection() throws Exception {
+        try (H2Backend backend = initH2Backend(0);
+             H2Client a = new H2Client(0);
+             H2Client b = new H2Client(0)) {
+            a.startReading();
+            b.startReading();
+            // the same stream ids on different frontend connections
+            for (int id : new int[]{1, 3}) {
+                a.request(id, "a" + id, true);
+                b.request(id, "b" + id, true);
+            }
+            for (int id : new int[]{1, 3}) {
+                a.awaitData(id, "resp-a" + id);
+                b.awaitData(id, "resp-b" + id);
+            }
+
+            assertEquals(1, backend.conns.size());
+            H2BackendConn c = backend.conns.get(0);
+            synchronized (c) {
+                assertEquals(Set.of(1, 3, 5, 7), c.streams.keySet());
+                assertEquals(Set.of("a1", "a3", "b1", "b3"), Set.copyOf(c.streams.values()));
+            }
+        }
+    }
+
+    @Test
+    public void h2SharedBackendMaxConcurrentStreams() throws Exception {
+        // the backend sets a smaller value than HTTP2_BACKEND_MAX_CONCURRENT_STREAMS
+        try (H2Backend backend = initH2Backend(2);
+             H2Client a = new H2Client(0)) {
+            a.startReading();
+            // the SETTINGS frame of the backend arrives before the first response
+            a.request(1, "a1", false);
+            a.awaitData(1, "resp-a1");
+            a.request(3, "a3", false);
+            a.awaitData(3, "resp-a3");
+            assertEquals(1, backend.conns.size());
+
+            a.request(5, "a5", false);
+            a.awaitData(5, "resp-a5");
+            assertEquals(2, backend.conns.size());
+            H2BackendConn c2 = backend.conns.get(1);
+            assertEquals(1, c2.streamOf("a5"));
+
+            // ending a stream makes room on the first connection
+            a.send(1, "end", true);
+            a.awaitData(1, "resp-a1resp-end");
+            a.request(7, "a7", true);
+            a.awaitData(7, "resp-a7");
+            assertEquals(2, backend.conns.size());
+            assertEquals(5, backend.conns.get(0).streamOf("a7"));
+        }
+    }
+
+    @Test
+    public void h2SharedBackendGoaway() throws Exception {
+        try (H2Backend backend = initH2Backend(0);
+             H2Client a = new H2Client(0)) {
+            a.startReading();
+            a.request(1, "a1", false);
+            a.awaitData(1, "resp-a1");
+            H2BackendConn c1 = backend.conns.get(0);
+            byte[] goaway = new byte[8];
+            System.arraycopy(h2Int32(1), 0, goaway, 0, 4); // last stream id = 1, NO_ERROR
+            c1.send(H2_GOAWAY, 0, 0, goaway);
+            c1.sync();
+
+            // new streams go to a new connection
+            a.request(3, "a3", true);
+            a.awaitData(3, "resp-a3");
+            assertEquals(2, backend.conns.size());
+            assertEquals(-1, c1.streamOf("a3"));
+            assertEquals(1, backend.conns.get(1).streamOf("a3"));
+
+            // the stream before the GOAWAY goes on, and the connection is closed when it's done
+            a.send(1, "end", true);
+            a.awaitData(1, "resp-a1resp-end");
+            c1.await("the connection to be closed", () -> c1.eof);
+            assertTrue(a.resets.isEmpty());
+        }
+    }
+
+    @Test
+    public void h2SharedBackendSlowFrontend() throws Exception {
+        try (H2Backend backend = initH2Backend(0);
+             H2Client slow = new H2Client(4096);
+             H2Client b = new H2Client(0)) {
+            b.startReading();
+            // the slow frontend does not read
+            slow.request(1, "slow", false);
+            b.request(1, "b", false);
+            b.awaitData(1, "resp-b");
+            assertEquals(1, backend.conns.size());
+            H2BackendConn c = backend.conns.get(0);
+            c.await("both streams", () -> c.streams.size() == 2);
+            int slowStream = c.streamOf("slow");
+            int bStream = c.streamOf("b");
+
+            // the buffers are filled, and the window of the stream is not updated anymore
+            assertFalse(c.sendData(slowStream, 64 * 1024 * 1024, 2000));
+            // the other stream on the same connection goes on
+            int len = 4 * 1024 * 1024;
+            assertTrue(c.sendData(bStream, len, 5000));
+            b.await("the data of the stream", () -> b.data(1).length() == "resp-b".length() + len);
+
+            // the stream goes on when the frontend drains
+            slow.startReading();
+            assertTrue(c.sendData(slowStream, len, 5000));
+            assertTrue(slow.resets.isEmpty());
+            assertTrue(b.resets.isEmpty());
+        }
+    }
+
     @Test
     public void grpcOverH2() throws Exception {
         class GreeterImpl extends GreeterGrpc.GreeterImplBase {
@@ -423,4 +957,119 @@ public class TestProtocols {
         assertEquals(5, resp1);
         assertEquals(5, resp2);
     }
+
+    // a redis cluster node serving CLUSTER SLOTS and GET, the keys in slots [0, 8192) are on port1, others on port2
+    private static void serveRedisNode(Socket sock, int port) {
+        try (Socket s = sock) {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                String head = readRESPLine(in);
+                if (head == null) {
+                    return; // e.g. the health check
+                }
+                String[] args = new String[Integer.parseInt(head.substring(1))];
+                for (int i = 0; i < args.length; ++i) {
+                    int len = Integer.parseInt(readRESPLine(in).substring(1));
+                    args[i] = new String(in.readNBytes(len), StandardCharsets.UTF_8);
+                    readRESPLine(in);
+                }
+                String reply;
+                if (args[0].equalsIgnoreCase("cluster") && args[1].equalsIgnoreCase("slots")) {
+                    reply = "*2\r\n" +
+                        "*3\r\n:0\r\n:8191\r\n*2\r\n$9\r\n127.0.0.1\r\n:" + port1 + "\r\n" +
+                        "*3\r\n:8192\r\n:16383\r\n*2\r\n$9\r\n127.0.0.1\r\n:" + port2 + "\r\n";
+                } else if (args[0].equalsIgnoreCase("get")) {
+                    int slot = RESPHashSlot.of(args[1].getBytes(StandardCharsets.UTF_8));
+                    int owner = slot < 8192 ? port1 : port2;
+                    if (owner == port) {
+                        String value = port + "/" + args[1];
+                        reply = "$" + value.length() + "\r\n" + value + "\r\n";
+                    } else {
+                        reply = "-MOVED " + slot + " 127.0.0.1:" + owner + "\r\n";
+                    }
+                } else {
+                    reply = "-ERR unknown command\r\n";
+                }
+                out.write(reply.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    // read a line without the CRLF, or null on eof
+    private static String readRESPLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1)
+                return null;
+            if (b != '\r')
+                sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void resp() throws Exception {
+        ServerSocket[] servers = {new ServerSocket(port1), new ServerSocket(port2)};
+        for (ServerSocket server : servers) {
+            new Thread(() -> {
+                while (true) {
+                    Socket sock;
+                    try {
+                        sock = server.accept();
+                    } catch (IOException e) {
+                        return; // closed
+                    }
+                    new Thread(() -> serveRedisNode(sock, server.getLocalPort())).start();
+                }
+            }).start();
+        }
+
+        initLb("resp");
+        waitForHealthCheck();
+
+        try (Socket sock = new Socket("127.0.0.1", lbPort)) {
+            sock.setSoTimeout(2000);
+            OutputStream out = sock.getOutputStream();
+            InputStream in = sock.getInputStream();
+
+            // the first round is routed before the slot table is loaded, so some commands are redirected,
+            // and the second round is routed with the table
+            for (int round = 0; round < 2; ++round) {
+                // pipelined, the replies from different nodes are returned in order
+                StringBuilder cmds = new StringBuilder();
+                for (int i = 0; i < 10; ++i) {
+                    String key = "key" + i;
+                    cmds.append("*2\r\n$3\r\nGET\r\n$").append(key.length()).append("\r\n").append(key).append("\r\n");
+                }
+                out.write(cmds.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                int resp1 = 0;
+                int resp2 = 0;
+                for (int i = 0; i < 10; ++i) {
+                    String key = "key" + i;
+                    int owner = RESPHashSlot.of(key.getBytes(StandardCharsets.UTF_8)) < 8192 ? port1 : port2;
+                    String head = readRESPLine(in);
+                    assertTrue(head, head != null && head.startsWith("$"));
+                    assertEquals(owner + "/" + key, new String(in.readNBytes(Integer.parseInt(head.substring(1))), StandardCharsets.UTF_8));
+                    readRESPLine(in);
+                    if (owner == port1) {
+                        ++resp1;
+                    } else {
+                        ++resp2;
+                    }
+                }
+                assertTrue(resp1 > 0);
+                assertTrue(resp2 > 0);
+            }
+        } finally {
+            for (ServerSocket server : servers) {
+                server.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package vproxy.test.cases;
+
+import vproxy.util.ByteArrayChannel;
+import vproxy.util.RingBufferETHandler;
+import vproxy.util.ringbuffer.ProxyOutputRingBuffer;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TestRingBuffers {
+    // accepts at most `budget` bytes, to simulate partial writes of a socket
+    private static class GatheringChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int budget = Integer.MAX_VALUE;
+        int writeCalls = 0;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            ++writeCalls;
+            long n = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                ByteBuffer src = srcs[i];
+                while (src.hasRemaining() && budget > 0) {
+                    written.write(src.get());
+                    --budget;
+                    ++n;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src}, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        String take() {
+            String s = new String(written.toByteArray(), StandardCharsets.UTF_8);
+            written.reset();
+            return s;
+        }
+    }
+
+    private static void store(SimpleRingBuffer buf, String s) throws Exception {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        assertEquals(bytes.length, buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes)));
+    }
+
+    private static void store(ProxyOutputRingBuffer buf, String s) throws Exception {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        assertEquals(bytes.length, buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes)));
+    }
+
+    // 12 bytes with 4 of them wrapped to the head of a 16 bytes buffer
+    private static SimpleRingBuffer wrapped() throws Exception {
+        SimpleRingBuffer buf = SimpleRingBuffer.allocateDirect(16);
+        store(buf, "xxxxxxxxabcd");
+        assertEquals(8, buf.writeTo(new GatheringChannel(), 8));
+        store(buf, "efghijkl");
+        assertEquals(12, buf.used());
+        return buf;
+    }
+
+    @Test
+    public void wrappedData() throws Exception {
+        SimpleRingBuffer buf = wrapped();
+        GatheringChannel chnl = new GatheringChannel();
+        assertEquals(12, buf.writeTo(chnl, 100));
+        assertEquals("abcdefghijkl", chnl.take());
+        assertEquals("one write for both parts", 1, chnl.writeCalls);
+        assertEquals(0, buf.used());
+
+        // the cursors are reset, so the buffer can be filled again
+        store(buf, "0123456789abcdef");
+        assertEquals(16, buf.writeTo(chnl, 100));
+        assertEquals("0123456789abcdef", chnl.take());
+    }
+
+    @Test
+    public void wrappedPartial() throws Exception {
+        SimpleRingBuffer buf = wrapped();
+        GatheringChannel chnl = new GatheringChannel();
+        // stop inside the first part
+        chnl.budget = 5;
+        assertEquals(5, buf.writeTo(chnl, 100));
+        assertEquals("abcde", chnl.take());
+        assertEquals(7, buf.used());
+        // the first part is finished in the gathering write, and stop inside the wrapped part
+        store(buf, "mn");
+        chnl.budget = 5;
+        assertEquals(5, buf.writeTo(chnl, 100));
+        assertEquals("fghij", chnl.take());
+        assertEquals(4, buf.used());
+        chnl.budget = Integer.MAX_VALUE;
+        assertEquals(4, buf.writeTo(chnl, 100));
+        assertEquals("klmn", chnl.take());
+        assertEquals(0, buf.used());
+    }
+
+    @Test
+    public void wrappedMaxBytes() throws Exception {
+        SimpleRingBuffer buf = wrapped();
+        GatheringChannel chnl = new GatheringChannel();
+        assertEquals(10, buf.writeTo(chnl, 10));
+        assertEquals("abcdefghij", chnl.take());
+        assertEquals(2, buf.used());
+    }
+
+    @Test
+    public void defaultThenProxied() throws Exception {
+        ProxyOutputRingBuffer out = ProxyOutputRingBuffer.allocateDirect(16);
+        store(out, "head:");
+        SimpleRingBuffer proxied = SimpleRingBuffer.allocateDirect(16);
+        store(proxied, "0123456789");
+        boolean[] done = {false};
+        out.proxy(proxied, 8, () -> done[0] = true);
+        assertEquals(13, out.used());
+
+        GatheringChannel chnl = new GatheringChannel();
+        assertEquals(13, out.writeTo(chnl, 100));
+        assertEquals("head:01234567", chnl.take());
+        assertEquals("one write for both buffers", 1, chnl.writeCalls);
+        assertTrue(done[0]);
+        assertEquals(0, out.used());
+        assertEquals("the bytes after proxyLen are kept", 2, proxied.used());
+
+        // the default buffer is used again after the proxy is done
+        store(out, "tail");
+        assertEquals(4, out.writeTo(chnl, 100));
+        assertEquals("tail", chnl.take());
+    }
+
+    @Test
+    public void proxiedPartial() throws Exception {
+        ProxyOutputRingBuffer out = ProxyOutputRingBuffer.allocateDirect(16);
+        store(out, "head:");
+        SimpleRingBuffer proxied = SimpleRingBuffer.allocateDirect(16);
+        store(proxied, "0123456789");
+        boolean[] done = {false};
+        out.proxy(proxied, 8, () -> done[0] = true);
+        GatheringChannel chnl = new GatheringChannel();
+
+        // stop inside the default part
+        chnl.budget = 3;
+        assertEquals(3, out.writeTo(chnl, 100));
+        assertEquals("hea", chnl.take());
+        assertEquals("2 bytes in default and proxyLen = 8", 10, out.used());
+        assertEquals(10, proxied.used());
+
+        // stop inside the proxied part
+        chnl.budget = 4;
+        assertEquals(4, out.writeTo(chnl, 100));
+        assertEquals("d:01", chnl.take());
+        assertEquals("proxyLen = 6", 6, out.used());
+        assertEquals(8, proxied.used());
+        assertFalse(done[0]);
+
+        chnl.budget = Integer.MAX_VALUE;
+        assertEquals(6, out.writeTo(chnl, 100));
+        assertEquals("234567", chnl.take());
+        assertTrue(done[0]);
+        assertEquals(0, out.used());
+        assertEquals(2, proxied.used());
+    }
+
+    @Test
+    public void proxiedWrapped() throws Exception {
+        ProxyOutputRingBuffer out = ProxyOutputRingBuffer.allocateDirect(16);
+        store(out, "h:");
+        SimpleRingBuffer proxied = wrapped();
+        boolean[] done = {false};
+        out.proxy(proxied, 12, () -> done[0] = true);
+        GatheringChannel chnl = new GatheringChannel();
+        assertEquals(14, out.writeTo(chnl, 100));
+        assertEquals("h:abcdefghijkl", chnl.take());
+        assertEquals(1, chnl.writeCalls);
+        assertTrue(done[0]);
+        assertEquals(0, proxied.used());
+    }
+
+    @Test
+    public void reenterFromProxiedHandler() throws Exception {
+        ProxyOutputRingBuffer out = ProxyOutputRingBuffer.allocateDirect(16);
+        store(out, "head:");
+        // the proxied buffer is full, so writable is triggered when bytes are removed from it
+        SimpleRingBuffer proxied = SimpleRingBuffer.allocateDirect(8);
+        store(proxied, "01234567");
+        boolean[] done = {false};
+        out.proxy(proxied, 12, () -> done[0] = true);
+        GatheringChannel chnl = new GatheringChannel();
+        int[] reentered = {0};
+        proxied.addHandler(new RingBufferETHandler() {
+            @Override
+            public void readableET() {
+            }
+
+            @Override
+            public void writableET() {
+                // like a connection which reads more data when the buffer is writable, then flushes
+                try {
+                    store(proxied, "89ab");
+                    reentered[0] += out.writeTo(chnl, 100);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertEquals(13, out.writeTo(chnl, 100));
+        assertEquals(4, reentered[0]);
+        assertEquals("head:0123456789ab", chnl.take());
+        assertTrue(done[0]);
+        assertEquals(0, out.used());
+    }
+}
@@ -0,0 +1,172 @@
+package vproxy.test.cases;
+
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import vproxy.test.tool.ServerGroupHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestServerGroupHash {
+    private static final int KEYS = 20000;
+    private static final int SERVERS = 10;
+
+    private ServerGroupHolder holder;
+    private ServerGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        holder = new ServerGroupHolder();
+        group = holder.create("sg0", Method.source);
+        for (int i = 0; i < SERVERS; ++i) {
+            ServerGroupHolder.add(group, i, 10);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        holder.release();
+    }
+
+    private static InetSocketAddress client(int i) throws Exception {
+        return new InetSocketAddress(InetAddress.getByAddress(new byte[]{
+            (byte) 172, (byte) (i >> 16), (byte) (i >> 8), (byte) i}), 50000);
+    }
+
+    private Map<Integer, InetSocketAddress> mapClients() throws Exception {
+        Map<Integer, InetSocketAddress> map = new HashMap<>();
+        for (int i = 0; i < KEYS; ++i) {
+            SvrHandleConnector connector = group.next(client(i));
+            assertNotNull(connector);
+            map.put(i, connector.remote);
+        }
+        return map;
+    }
+
+    private static int moved(Map<Integer, InetSocketAddress> before, Map<Integer, InetSocketAddress> after) {
+        int moved = 0;
+        for (int i = 0; i < KEYS; ++i) {
+            if (!before.get(i).equals(after.get(i))) {
+                ++moved;
+            }
+        }
+        return moved;
+    }
+
+    @Test
+    public void sameSource() throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(group.next(client(i)).remote, group.next(client(i)).remote);
+        }
+    }
+
+    @Test
+    public void distribution() throws Exception {
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        for (InetSocketAddress svr : mapClients().values()) {
+            counts.merge(svr, 1, Integer::sum);
+        }
+        assertEquals(SERVERS, counts.size());
+        for (int c : counts.values()) {
+            // 160 points for each server, the load is within +-25% of the average
+            assertTrue("count " + c, c > KEYS / SERVERS * 0.75 && c < KEYS / SERVERS * 1.25);
+        }
+    }
+
+    @Test
+    public void addServerRemapsFewKeys() throws Exception {
+        Map<Integer, InetSocketAddress> before = mapClients();
+        ServerGroupHolder.add(group, SERVERS, 10);
+        Map<Integer, InetSocketAddress> after = mapClients();
+        int moved = moved(before, after);
+        // ideally 1/(N+1) of the keys move, all to the new server, while modulo hashing moves N/(N+1) of them
+        assertTrue("moved " + moved, moved < KEYS * 2 / (SERVERS + 1));
+        InetSocketAddress added = new InetSocketAddress("10.0.0." + (SERVERS + 1), 80);
+        for (int i = 0; i < KEYS; ++i) {
+            if (!before.get(i).equals(after.get(i))) {
+                assertEquals(added, after.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void removeServerRemapsItsKeysOnly() throws Exception {
+        Map<Integer, InetSocketAddress> before = mapClients();
+        group.remove("svr3");
+        Map<Integer, InetSocketAddress> after = mapClients();
+        InetSocketAddress removed = new InetSocketAddress("10.0.0.4", 80);
+        int moved = moved(before, after);
+        assertTrue("moved " + moved, moved < KEYS * 2 / SERVERS);
+        for (int i = 0; i < KEYS; ++i) {
+            assertEquals(before.get(i).equals(removed), !before.get(i).equals(after.get(i)));
+        }
+    }
+
+    @Test
+    public void unhealthyServerIsSkipped() throws Exception {
+        Map<Integer, InetSocketAddress> before = mapClients();
+        ServerGroup.ServerHandle down = group.getServerHandles().get(5);
+        down.setHealthy(false);
+        Map<Integer, InetSocketAddress> after = mapClients();
+        for (int i = 0; i < KEYS; ++i) {
+            assertNotEquals(down.server, after.get(i));
+            if (!before.get(i).equals(down.server)) {
+                assertEquals(before.get(i), after.get(i));
+            }
+        }
+        // the keys come back when it's UP again
+        down.setHealthy(true);
+        assertEquals(before, mapClients());
+    }
+
+    @Test
+    public void allUnhealthy() throws Exception {
+        for (ServerGroup.ServerHandle h : group.getServerHandles()) {
+            h.setHealthy(false);
+        }
+        assertNull(group.next(client(0)));
+    }
+
+    @Test
+    public void weight() throws Exception {
+        group.getServerHandles().get(0).setWeight(30);
+        group.getServerHandles().get(1).setWeight(0);
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        for (InetSocketAddress svr : mapClients().values()) {
+            counts.merge(svr, 1, Integer::sum);
+        }
+        assertFalse("weight 0", counts.containsKey(group.getServerHandles().get(1).server));
+        int heavy = counts.get(group.getServerHandles().get(0).server);
+        int light = counts.get(group.getServerHandles().get(2).server);
+        assertTrue("heavy " + heavy + " light " + light, heavy > light * 2);
+    }
+
+    @Test
+    public void hashKey() throws Exception {
+        group.setMethod(Method.hash);
+        Map<String, InetSocketAddress> servers = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            byte[] key = ("session-" + (i % 100)).getBytes(StandardCharsets.UTF_8);
+            // clients from different addresses with the same key go to the same server
+            InetSocketAddress svr = group.next(client(i), key).remote;
+            InetSocketAddress prev = servers.putIfAbsent(new String(key, StandardCharsets.UTF_8), svr);
+            if (prev != null) {
+                assertEquals(prev, svr);
+            }
+        }
+        assertTrue(servers.values().stream().distinct().count() > 1);
+        // no key, fall back to the source address
+        Map<Integer, InetSocketAddress> byKey = mapClients();
+        group.setMethod(Method.source);
+        assertEquals(byKey, mapClients());
+    }
+}
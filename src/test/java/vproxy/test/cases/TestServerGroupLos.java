@@ -0,0 +1,104 @@
+package vproxy.test.cases;
+
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import vproxy.test.tool.ServerGroupHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestServerGroupLos {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("172.16.0.1", 50000);
+
+    private ServerGroupHolder holder;
+    private ServerGroup group;
+    private List<ServerGroup.ServerHandle> handles;
+
+    @Before
+    public void setUp() throws Exception {
+        holder = new ServerGroupHolder();
+        group = holder.create("sg0", Method.los);
+        for (int i = 0; i < 3; ++i) {
+            ServerGroupHolder.add(group, i, 10);
+        }
+        handles = group.getServerHandles();
+    }
+
+    @After
+    public void tearDown() {
+        holder.release();
+    }
+
+    // choose a server and start a stream on it, like a processor handling a new stream
+    private int[] startStreams(int rounds) {
+        int[] counts = new int[handles.size()];
+        for (int i = 0; i < rounds; ++i) {
+            SvrHandleConnector connector = group.next(CLIENT);
+            connector.streamStarted();
+            counts[ServerGroupHolder.server(connector)]++;
+        }
+        return counts;
+    }
+
+    private static void streams(ServerGroup.ServerHandle h, int n) {
+        SvrHandleConnector connector = h.makeConnector();
+        for (int i = 0; i < n; ++i) {
+            connector.streamStarted();
+        }
+    }
+
+    private static void endStreams(ServerGroup.ServerHandle h, int n) {
+        SvrHandleConnector connector = h.makeConnector();
+        for (int i = 0; i < n; ++i) {
+            connector.streamEnded();
+        }
+    }
+
+    @Test
+    public void avoidServerWithMoreStreams() {
+        // e.g. one shared connection carrying 10 long lived streams
+        streams(handles.get(0), 10);
+        int[] counts = startStreams(20);
+        assertEquals(0, counts[0]);
+        assertEquals(10, counts[1]);
+        assertEquals(10, counts[2]);
+
+        // all servers have 10 streams now, and svr0 is chosen again when its streams end
+        endStreams(handles.get(0), 5);
+        counts = startStreams(5);
+        assertEquals(5, counts[0]);
+    }
+
+    @Test
+    public void wlcIgnoresStreams() {
+        group.setMethod(Method.wlc);
+        streams(handles.get(0), 10);
+        // no connection is made, so wlc considers all servers idle and chooses the first one
+        int[] counts = startStreams(20);
+        assertEquals(20, counts[0]);
+    }
+
+    @Test
+    public void weighted() {
+        handles.get(0).setWeight(20);
+        int[] counts = startStreams(400);
+        assertEquals(200, counts[0], 1);
+        assertEquals(100, counts[1], 1);
+        assertEquals(100, counts[2], 1);
+    }
+
+    @Test
+    public void unhealthy() {
+        streams(handles.get(1), 10);
+        handles.get(0).setHealthy(false);
+        int[] counts = startStreams(10);
+        assertEquals(0, counts[0]);
+        assertEquals("the server with fewer streams is chosen", 10, counts[2]);
+    }
+}
@@ -0,0 +1,150 @@
+package vproxy.test.cases;
+
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import vproxy.test.tool.ServerGroupHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Simulate requests to a server group with one slow server,
+ * the outstanding requests are recorded as streams, and the latency is reported when a request completes.
+ * The time is simulated, the requests are dispatched as fast as possible.
+ */
+public class TestServerGroupP2CEwma {
+    private static final int SERVERS = 10;
+    private static final int REQUESTS = 50_000;
+    private static final long INTERVAL = 100_000; // a request every 0.1ms
+    private static final long FAST = 1_000_000; // 1ms
+    private static final long SLOW = 100_000_000; // 100ms
+
+    private ServerGroupHolder holder;
+    private ServerGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        holder = new ServerGroupHolder();
+        group = holder.create("sg0", Method.wrr);
+        for (int i = 0; i < SERVERS; ++i) {
+            ServerGroupHolder.add(group, i, 10);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        holder.release();
+    }
+
+    private static class Request implements Comparable<Request> {
+        final SvrHandleConnector connector;
+        final long latency;
+        final long end;
+
+        Request(SvrHandleConnector connector, long latency, long end) {
+            this.connector = connector;
+            this.latency = latency;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(Request o) {
+            return Long.compare(end, o.end);
+        }
+    }
+
+    // the slow server is 10.0.0.1
+    private long[] simulate() {
+        Random rand = new Random(1);
+        InetSocketAddress slow = new InetSocketAddress("10.0.0.1", 80);
+        InetSocketAddress client = new InetSocketAddress("172.16.0.1", 50000);
+        PriorityQueue<Request> outstanding = new PriorityQueue<>();
+        long[] latencies = new long[REQUESTS];
+        for (int i = 0; i < REQUESTS; ++i) {
+            long now = i * INTERVAL;
+            while (!outstanding.isEmpty() && outstanding.peek().end <= now) {
+                Request r = outstanding.poll();
+                r.connector.streamEnded();
+                r.connector.latency(r.latency);
+            }
+            SvrHandleConnector connector = group.next(client);
+            assertNotNull(connector);
+            long base = connector.remote.equals(slow) ? SLOW : FAST;
+            long latency = base / 2 + (long) (rand.nextDouble() * base); // [0.5, 1.5) * base
+            connector.streamStarted();
+            outstanding.add(new Request(connector, latency, now + latency));
+            latencies[i] = latency;
+        }
+        for (Request r : outstanding) {
+            r.connector.streamEnded();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long p99(long[] sorted) {
+        return sorted[sorted.length * 99 / 100];
+    }
+
+    @Test
+    public void slowServer() {
+        long wrrP99 = p99(simulate());
+
+        group.setMethod(Method.p2c_ewma);
+        long p2cP99 = p99(simulate());
+
+        // 10% of the requests go to the slow server with wrr
+        assertTrue("wrr p99 " + wrrP99, wrrP99 >= SLOW / 2);
+        // the slow server gets a high latency with its first sample, and is rarely picked after that
+        assertTrue("p2c-ewma p99 " + p2cP99, p2cP99 < FAST * 2);
+    }
+
+    @Test
+    public void allServersUsed() {
+        group.setMethod(Method.p2c_ewma);
+        InetSocketAddress client = new InetSocketAddress("172.16.0.1", 50000);
+        int[] counts = new int[SERVERS];
+        for (int i = 0; i < 10_000; ++i) {
+            SvrHandleConnector connector = group.next(client);
+            connector.latency(FAST);
+            counts[connector.remote.getAddress().getAddress()[3] - 1]++;
+        }
+        for (int c : counts) {
+            assertTrue("count " + c, c > 0);
+        }
+    }
+
+    @Test
+    public void unhealthyAndWeightZero() {
+        group.setMethod(Method.p2c_ewma);
+        InetSocketAddress client = new InetSocketAddress("172.16.0.1", 50000);
+        for (int i = 1; i < SERVERS; ++i) {
+            ServerGroup.ServerHandle h = group.getServerHandles().get(i);
+            if (i % 2 == 0) {
+                h.setHealthy(false);
+            } else {
+                h.setWeight(0);
+            }
+        }
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(group.getServerHandles().get(0).server, group.next(client).remote);
+        }
+        group.getServerHandles().get(0).setHealthy(false);
+        assertNull(group.next(client));
+    }
+
+    @Test
+    public void methodName() {
+        assertEquals("p2c-ewma", Method.p2c_ewma.toString());
+        assertEquals(Method.p2c_ewma, Method.of("p2c-ewma"));
+        assertEquals(Method.wrr, Method.of("wrr"));
+    }
+}
@@ -0,0 +1,126 @@
+package vproxy.test.cases;
+
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The servers are listening on localhost, and turn UP by the health check.
+ */
+public class TestServerGroupSlowStart {
+    private static final int SLOW_START = 2000;
+
+    private ServerSocket server0;
+    private ServerSocket server1;
+    private EventLoopGroup elg;
+    private ServerGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        server0 = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        server1 = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        group = new ServerGroup("sg0", elg, new HealthCheckConfig(200, 50, 1, 3), Method.wrr);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        group.clear();
+        elg.close();
+        server0.close();
+        server1.close();
+    }
+
+    private ServerGroup.ServerHandle add(String alias, ServerSocket server) throws Exception {
+        ServerGroup.ServerHandle h = group.add(alias, new InetSocketAddress("127.0.0.1", server.getLocalPort()), 10);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!h.isHealthy()) {
+            assertTrue("the server should turn UP", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return h;
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        ServerGroup.ServerHandle h = add("svr0", server0);
+        assertEquals(10, h.effectiveWeight());
+    }
+
+    @Test
+    public void ramp() throws Exception {
+        group.setSlowStart(SLOW_START);
+        long begin = System.currentTimeMillis();
+        ServerGroup.ServerHandle h = add("svr0", server0);
+        int w = h.effectiveWeight();
+        long elapsed = System.currentTimeMillis() - begin;
+        assertTrue("weight " + w + " elapsed " + elapsed, w >= 1 && w <= 1 + 10 * elapsed / SLOW_START);
+
+        Thread.sleep(SLOW_START / 2);
+        w = h.effectiveWeight();
+        assertTrue("weight " + w, w >= 4 && w < 10);
+
+        Thread.sleep(SLOW_START / 2 + 100);
+        assertEquals(10, h.effectiveWeight());
+        assertEquals(10, h.getWeight());
+    }
+
+    @Test
+    public void newServerReceivesLessConnections() throws Exception {
+        InetSocketAddress client = new InetSocketAddress("172.16.0.1", 50000);
+        ServerGroup.ServerHandle h0 = add("svr0", server0); // UP before slow start is enabled
+        group.setSlowStart(SLOW_START);
+        ServerGroup.ServerHandle h1 = add("svr1", server1);
+        // the streams are kept, so that los compares the load
+        for (Method method : new Method[]{Method.wrr, Method.los}) {
+            group.setMethod(method);
+            List<SvrHandleConnector> connectors = new ArrayList<>();
+            int count1 = 0;
+            for (int i = 0; i < 1000; ++i) {
+                SvrHandleConnector connector = group.next(client);
+                connector.streamStarted();
+                connectors.add(connector);
+                if (connector.remote.equals(h1.server)) {
+                    ++count1;
+                }
+            }
+            connectors.forEach(SvrHandleConnector::streamEnded);
+            // about 1/10 of the weight when the test begins, the same weight would get half
+            assertTrue(method + " count " + count1, count1 > 0 && count1 < 300);
+        }
+        assertEquals(10, h0.effectiveWeight());
+    }
+
+    @Test
+    public void disableInSlowStart() throws Exception {
+        group.setSlowStart(SLOW_START);
+        ServerGroup.ServerHandle h = add("svr0", server0);
+        assertTrue(h.effectiveWeight() < 10);
+        group.setSlowStart(0);
+        assertEquals(10, h.effectiveWeight());
+    }
+
+    @Test
+    public void negative() {
+        try {
+            group.setSlowStart(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("slowStart < 0", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package vproxy.test.cases;
+
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.ServerGroups;
+import vproxy.test.tool.ServerGroupHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestServerGroupWRR {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("172.16.0.1", 50000);
+
+    private ServerGroupHolder holder;
+    private ServerGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        holder = new ServerGroupHolder();
+        group = holder.create("sg0", Method.wrr);
+        ServerGroupHolder.add(group, 0, 4);
+        ServerGroupHolder.add(group, 1, 2);
+        ServerGroupHolder.add(group, 2, 1);
+    }
+
+    @After
+    public void tearDown() {
+        holder.release();
+    }
+
+    private int[] count(int rounds) {
+        int[] counts = new int[group.getServerHandles().size()];
+        for (int i = 0; i < rounds; ++i) {
+            counts[ServerGroupHolder.server(group.next(CLIENT))]++;
+        }
+        return counts;
+    }
+
+    @Test
+    public void ratio() {
+        // the passes start at random positions, so a server may be chosen once more or less than its weight
+        // in the first sum-of-weights choices, but the error does not accumulate
+        for (int i = 0; i < 100; ++i) {
+            int[] counts = count(7);
+            assertEquals(4, counts[0], 1);
+            assertEquals(2, counts[1], 1);
+            assertEquals(1, counts[2], 1);
+        }
+        int[] counts = count(7000);
+        assertEquals(4000, counts[0], 1);
+        assertEquals(2000, counts[1], 1);
+        assertEquals(1000, counts[2], 1);
+    }
+
+    @Test
+    public void smooth() {
+        // the heaviest server is never chosen more than twice in a row with 4:2:1
+        int run = 0;
+        for (int i = 0; i < 700; ++i) {
+            if (ServerGroupHolder.server(group.next(CLIENT)) == 0) {
+                assertTrue("run " + run, ++run <= 2);
+            } else {
+                run = 0;
+            }
+        }
+    }
+
+    @Test
+    public void setWeight() {
+        count(3); // leave the cursor in the middle of a round
+        group.getServerHandles().get(2).setWeight(4);
+        int[] counts = count(1000);
+        // the new weight takes effect when the server is chosen next time, so allow a small error
+        assertEquals(400, counts[0], 2);
+        assertEquals(200, counts[1], 2);
+        assertEquals(400, counts[2], 2);
+
+        group.getServerHandles().get(1).setWeight(0);
+        counts = count(1000);
+        assertEquals(0, counts[1]);
+        assertEquals(500, counts[0], 1);
+        group.getServerHandles().get(1).setWeight(2);
+        counts = count(1000);
+        assertEquals(400, counts[0], 1);
+        assertEquals(200, counts[1], 1);
+    }
+
+    @Test
+    public void unhealthy() {
+        group.getServerHandles().get(0).setHealthy(false);
+        int[] counts = count(3000);
+        assertEquals(0, counts[0]);
+        assertEquals(2000, counts[1], 1);
+        group.getServerHandles().get(1).setHealthy(false);
+        group.getServerHandles().get(2).setHealthy(false);
+        assertNull(group.next(CLIENT));
+        group.getServerHandles().get(0).setHealthy(true);
+        assertEquals(7, count(7)[0]);
+    }
+
+    @Test
+    public void manyServers() throws Exception {
+        group.clear();
+        int total = 0;
+        for (int i = 0; i < 1000; ++i) {
+            int weight = i % 100 + 1;
+            total += weight;
+            group.add("svr" + i, new InetSocketAddress("10.0." + (i / 250) + "." + (i % 250 + 1), 80), weight).setHealthy(true);
+        }
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        for (int i = 0; i < total; ++i) {
+            counts.merge(group.next(CLIENT).remote, 1, Integer::sum);
+        }
+        for (ServerGroup.ServerHandle h : group.getServerHandles()) {
+            assertEquals(h.alias, h.getWeight(), counts.get(h.server), 1);
+        }
+    }
+
+    @Test
+    public void serverGroups() throws Exception {
+        ServerGroup group2 = holder.create("sg1", Method.wrr);
+        ServerGroupHolder.add(group2, 9, 10);
+        ServerGroups groups = new ServerGroups("sgs0");
+        groups.add(group, 10);
+        groups.add(group2, 5);
+
+        int[] counts = new int[10];
+        for (int i = 0; i < 300; ++i) {
+            counts[ServerGroupHolder.server(groups.next(CLIENT))]++;
+        }
+        assertEquals(100, counts[9], 1);
+
+        groups.getServerGroups().get(1).setWeight(10);
+        counts = new int[10];
+        for (int i = 0; i < 300; ++i) {
+            counts[ServerGroupHolder.server(groups.next(CLIENT))]++;
+        }
+        assertEquals(150, counts[9], 1);
+
+        // no healthy server in the group, choose the other group
+        group2.getServerHandles().get(0).setHealthy(false);
+        for (int i = 0; i < 100; ++i) {
+            assertNotEquals(9, ServerGroupHolder.server(groups.next(CLIENT)));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package vproxy.test.cases;
+
+import vproxy.app.Config;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import vproxy.test.tool.ServerGroupHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestServerGroupZone {
+    private static final Method[] METHODS = {Method.wrr, Method.wlc, Method.source, Method.hash, Method.los, Method.p2c_ewma};
+
+    private ServerGroupHolder holder;
+    private ServerGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        Config.zone = "z0";
+        holder = new ServerGroupHolder();
+        group = holder.create("sg0", Method.wrr);
+        // svr0 and svr1 are in the local zone z0
+        for (int i = 0; i < 4; ++i) {
+            ServerGroupHolder.add(group, i, 10).setZone(i < 2 ? "z0" : "z1");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        holder.release();
+        Config.zone = null;
+    }
+
+    private int[] count(int rounds) {
+        int[] counts = new int[group.getServerHandles().size()];
+        // the streams are kept, so that los compares the load
+        // (wlc only counts connections, so it chooses the first healthy server in this test)
+        List<SvrHandleConnector> connectors = new ArrayList<>();
+        for (int i = 0; i < rounds; ++i) {
+            SvrHandleConnector connector = group.next(new InetSocketAddress("172.16." + (i >> 8 & 0xff) + "." + (i & 0xff), 50000));
+            connector.streamStarted();
+            connectors.add(connector);
+            counts[ServerGroupHolder.server(connector)]++;
+        }
+        connectors.forEach(SvrHandleConnector::streamEnded);
+        return counts;
+    }
+
+    @Test
+    public void disabled() {
+        assertFalse(group.isZoneAware());
+        int[] counts = count(400);
+        for (int c : counts) {
+            assertEquals(100, c, 1);
+        }
+    }
+
+    @Test
+    public void local() {
+        group.setZoneAware(true);
+        for (Method method : METHODS) {
+            group.setMethod(method);
+            int[] counts = count(400);
+            assertEquals(method.toString(), 400, counts[0] + counts[1]);
+            if (method != Method.wlc) {
+                assertTrue(method + " svr1 " + counts[1], counts[1] > 0);
+            }
+        }
+    }
+
+    @Test
+    public void spillAndRecover() {
+        group.setZoneAware(true);
+        List<ServerGroup.ServerHandle> handles = group.getServerHandles();
+        for (Method method : METHODS) {
+            group.setMethod(method);
+            // 1/2 of the local weight is healthy, which is below the default 0.7
+            handles.get(0).setHealthy(false);
+            int[] counts = count(400);
+            assertEquals(method.toString(), 0, counts[0]);
+            if (method != Method.wlc) {
+                assertTrue(method + " svr2 " + counts[2], counts[2] > 0);
+                assertTrue(method + " svr3 " + counts[3], counts[3] > 0);
+            }
+            // no healthy server in the local zone
+            handles.get(1).setHealthy(false);
+            counts = count(400);
+            assertEquals(method.toString(), 400, counts[2] + counts[3]);
+
+            handles.get(0).setHealthy(true);
+            handles.get(1).setHealthy(true);
+            counts = count(400);
+            assertEquals(method.toString(), 400, counts[0] + counts[1]);
+        }
+    }
+
+    @Test
+    public void modifyWeight() {
+        group.setZoneAware(true);
+        List<ServerGroup.ServerHandle> handles = group.getServerHandles();
+        handles.get(0).setHealthy(false);
+        int[] counts = count(400);
+        assertTrue("svr2 " + counts[2], counts[2] > 0);
+        // 30 / 40 of the local weight is healthy
+        handles.get(1).setWeight(30);
+        counts = count(400);
+        assertEquals(400, counts[1]);
+        // 30 / 60
+        handles.get(0).setWeight(30);
+        counts = count(400);
+        assertTrue("svr2 " + counts[2], counts[2] > 0);
+    }
+
+    @Test
+    public void noLocalServer() {
+        Config.zone = "z2";
+        group.setZoneAware(true);
+        int[] counts = count(400);
+        for (int c : counts) {
+            assertEquals(100, c, 1);
+        }
+        Config.zone = null;
+        counts = count(400);
+        for (int c : counts) {
+            assertEquals(100, c, 1);
+        }
+    }
+
+    @Test
+    public void modifyZone() {
+        group.setZoneAware(true);
+        group.getServerHandles().get(3).setZone("z0");
+        int[] counts = count(300);
+        assertEquals(0, counts[2]);
+        assertEquals(100, counts[3], 1);
+        group.getServerHandles().get(3).setZone(null);
+        counts = count(300);
+        assertEquals(0, counts[3]);
+
+        group.setZoneAware(false);
+        counts = count(300);
+        assertTrue(counts[2] > 0);
+    }
+}
@@ -91,14 +91,14 @@ public class TestTcpLB {
         sg0.add("svr1", new InetSocketAddress("127.0.0.1", 19081), 10);
         // manually set to healthy
         for (ServerGroup.ServerHandle h : sg0.getServerHandles()) {
-            h.healthy = true;
+            h.setHealthy(true);
         }
 
         sg1 = new ServerGroup("sg1", elg0, new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
         sg1.add("svr2", new InetSocketAddress("127.0.0.1", 19082), 10);
         // manually set to healthy
         for (ServerGroup.ServerHandle h : sg1.getServerHandles()) {
-            h.healthy = true;
+            h.setHealthy(true);
         }
 
         sgEcho = new ServerGroup("sgEcho", elg0, new HealthCheckConfig(400, 1000, 1, 3), Method.wrr);
@@ -206,7 +206,7 @@ public class TestTcpLB {
         }
 
         sg0.add("svr1", new InetSocketAddress("127.0.0.1", 19081), 5);
-        sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr1")).findFirst().get().healthy = true;
+        sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr1")).findFirst().get().setHealthy(true);
 
         int zero = 0;
         int one = 0;
@@ -309,7 +309,7 @@ public class TestTcpLB {
         // add sg0 to sgs0
         // and we make svr0 dead
         sgs0.add(sg0, 10);
-        sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr0")).findFirst().get().healthy = false;
+        sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr0")).findFirst().get().setHealthy(false);
 
         for (int i = 0; i < 100; ++i) {
             Client client = new Client(lbPort);
@@ -332,7 +332,7 @@ public class TestTcpLB {
         sg0.setMethod(Method.wlc);
         ServerGroup.ServerHandle h = sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr0")).findFirst().get();
         h.setWeight(5);
-        h.healthy = false;
+        h.setHealthy(false);
 
         // make connections
         for (int i = 0; i < 10; ++i) {
@@ -345,7 +345,7 @@ public class TestTcpLB {
         }
 
         // then set it the svr0 to healthy
-        h.healthy = true;
+        h.setHealthy(true);
         // and make 5 connections
         for (int i = 0; i < 5; ++i) {
             Client client = new Client(lbPort);
@@ -406,7 +406,7 @@ public class TestTcpLB {
     @Test
     public void changeHealthCheckOnRunning() throws Exception {
         ServerGroup.ServerHandle h = sg0.getServerHandles().stream().findFirst().get();
-        h.healthy = false;
+        h.setHealthy(false);
         // because the health check period is set to 24 hours
         // so there's no chance that this field will be set back to true
         // and we update the health check config
@@ -414,7 +414,7 @@ public class TestTcpLB {
         sg0.setHealthCheckConfig(new HealthCheckConfig(200, 500, 2, 3));
         // we sleep for a few seconds for it to turn up (at least 1 second)
         Thread.sleep(2000);
-        assertTrue("the server should turn up", h.healthy);
+        assertTrue("the server should turn up", h.isHealthy());
     }
 
     @Test
@@ -1,12 +1,18 @@
 package vproxy.test.cases;
 
+import vproxy.app.Config;
 import vproxy.selector.PeriodicEvent;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.selector.TimerEvent;
+import vproxy.util.TimeQueue;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
 public class TestTimer {
@@ -75,4 +81,71 @@ public class TestTimer {
         Thread.sleep(500);
         assertEquals("still 3 alerts", 3, i[0]);
     }
+
+    @Test
+    public void resetDelay() throws Exception {
+        int[] i = {0};
+        TimerEvent te = loop.delay(300, () -> ++i[0]);
+        Thread.sleep(100);
+        loop.runOnLoop(() -> te.resetDelay(400)); // now fires at 500ms
+        Thread.sleep(300);
+        assertEquals("not fired at 400ms", 0, i[0]);
+        Thread.sleep(200);
+        assertEquals("fired at 500ms", 1, i[0]);
+        loop.runOnLoop(() -> te.resetDelay(100)); // the fired timer can be re-armed
+        Thread.sleep(200);
+        assertEquals("fired again", 2, i[0]);
+        te.cancel();
+        loop.runOnLoop(() -> te.resetDelay(100)); // canceled timer cannot be re-armed
+        Thread.sleep(200);
+        assertEquals("canceled", 2, i[0]);
+    }
+
+    @Test
+    public void manyTimersInOrder() throws Exception {
+        int count = 2000;
+        int[] delays = new int[count];
+        long[] fired = new long[count];
+        int[] order = new int[count];
+        int[] firedCount = {0};
+        Random rand = new Random();
+        for (int n = 0; n < count; ++n) {
+            // cover both the lowest wheel (< 64ms) and the higher ones
+            delays[n] = rand.nextInt(1500);
+        }
+        long[] start = {0};
+        // counted down on the loop thread, so the results are visible to the test thread after await()
+        CountDownLatch latch = new CountDownLatch(count);
+        // push all timers in one task, so they are based on the same timestamp
+        loop.runOnLoop(() -> {
+            start[0] = Config.currentTimestamp;
+            for (int n = 0; n < count; ++n) {
+                int idx = n;
+                loop.delay(delays[idx], () -> {
+                    fired[idx] = System.currentTimeMillis();
+                    order[firedCount[0]++] = idx;
+                    latch.countDown();
+                });
+            }
+        });
+        assertTrue("all timers should fire", latch.await(10, TimeUnit.SECONDS));
+        assertEquals(count, firedCount[0]);
+        for (int n = 0; n < count; ++n) {
+            assertTrue("timer " + n + " should not fire too early", fired[n] - start[0] >= delays[n] - 5);
+        }
+        for (int n = 1; n < count; ++n) {
+            assertTrue("timers should fire in the order of delay",
+                delays[order[n - 1]] <= delays[order[n]]);
+        }
+    }
+
+    @Test
+    public void zeroDelay() {
+        TimeQueue<String> queue = new TimeQueue<>();
+        assertNull(queue.pop()); // the current tick is processed
+        queue.push(0, "a");
+        assertEquals("fires on the current tick", 0, queue.nextTime());
+        assertEquals("a", queue.pop());
+        assertTrue(queue.isEmpty());
+    }
 }
@@ -0,0 +1,49 @@
+package vproxy.test.tool;
+
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.connection.Connector;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server groups for testing the methods.
+ * There is no event loop in the group, so the health check is not running, and the servers are set UP manually.
+ */
+public class ServerGroupHolder {
+    private final EventLoopGroup elg = new EventLoopGroup("elg0");
+    private final List<ServerGroup> groups = new ArrayList<>();
+
+    public ServerGroup create(String alias, Method method) throws Exception {
+        ServerGroup group = new ServerGroup(alias, elg, new HealthCheckConfig(1000, 10000, 1, 3), method);
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * add an UP server svr${i} with address 10.0.0.${i + 1}:80
+     */
+    public static ServerGroup.ServerHandle add(ServerGroup group, int i, int weight) throws Exception {
+        ServerGroup.ServerHandle h = group.add("svr" + i, new InetSocketAddress("10.0.0." + (i + 1), 80), weight);
+        h.setHealthy(true);
+        return h;
+    }
+
+    /**
+     * @return i of the server added by {@link #add(ServerGroup, int, int)}
+     */
+    public static int server(Connector connector) {
+        return connector.remote.getAddress().getAddress()[3] - 1;
+    }
+
+    public void release() {
+        for (ServerGroup group : groups) {
+            group.clear();
+        }
+        elg.close();
+    }
+}